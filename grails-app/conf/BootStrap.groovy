@@ -194,6 +194,18 @@ class BootStrap {
                 properties.setProperty(IceOptions.LOCAL_DIR, prop.getProperty("ice.reader.localDir", "/mnt/ice"));
                 if (prop.getProperty(IceOptions.MONTHLY_CACHE_SIZE) != null)
                     properties.setProperty(IceOptions.MONTHLY_CACHE_SIZE, prop.getProperty(IceOptions.MONTHLY_CACHE_SIZE));
+                if (prop.getProperty(IceOptions.DATA_CACHE_SIZE_MB) != null)
+                    properties.setProperty(IceOptions.DATA_CACHE_SIZE_MB, prop.getProperty(IceOptions.DATA_CACHE_SIZE_MB));
+                if (prop.getProperty(IceOptions.QUERY_CACHE_SIZE_MB) != null)
+                    properties.setProperty(IceOptions.QUERY_CACHE_SIZE_MB, prop.getProperty(IceOptions.QUERY_CACHE_SIZE_MB));
+                if (prop.getProperty(IceOptions.WARM_UP_MAX_FILES) != null)
+                    properties.setProperty(IceOptions.WARM_UP_MAX_FILES, prop.getProperty(IceOptions.WARM_UP_MAX_FILES));
+                if (prop.getProperty(IceOptions.WARM_UP_THREADS) != null)
+                    properties.setProperty(IceOptions.WARM_UP_THREADS, prop.getProperty(IceOptions.WARM_UP_THREADS));
+                if (prop.getProperty(IceOptions.WARM_UP_READY_FILES) != null)
+                    properties.setProperty(IceOptions.WARM_UP_READY_FILES, prop.getProperty(IceOptions.WARM_UP_READY_FILES));
+                if (prop.getProperty(IceOptions.QUERY_TIMEOUT_SEC) != null)
+                    properties.setProperty(IceOptions.QUERY_TIMEOUT_SEC, prop.getProperty(IceOptions.QUERY_TIMEOUT_SEC));
                 if (prop.getProperty(IceOptions.CURRENCY_RATE) != null)
                     properties.setProperty(IceOptions.CURRENCY_RATE, prop.getProperty(IceOptions.CURRENCY_RATE));
                 if (prop.getProperty(IceOptions.CURRENCY_SIGN) != null)
@@ -49,6 +49,8 @@ import com.google.common.collect.Maps
 
 import org.json.JSONObject
 
+import java.util.concurrent.ConcurrentHashMap
+
 import com.netflix.ice.basic.TagCoverageDataManager
 import com.netflix.ice.common.ConsolidateType
 import com.netflix.ice.common.Instance
@@ -69,6 +71,9 @@ class DashboardController {
     private static DateTimeFormatter dateFormatter = DateTimeFormat.forPattern("yyyy-MM-dd hha").withZone(DateTimeZone.UTC);
     private static DateTimeFormatter dayFormatter = DateTimeFormat.forPattern("yyyy-MM-dd").withZone(DateTimeZone.UTC);
 
+    // Data requests the client can cancel, keyed by session and the query id sent by the client
+    private static Map<String, QueryContext> runningQueries = new ConcurrentHashMap<String, QueryContext>();
+
     static allowedMethods = [
         index: "GET",
         getReservationOps: "GET",
@@ -84,7 +89,9 @@ class DashboardController {
         getUsageTypes: "POST",
         tags: "GET",
         getData: "POST",
+        cancelQuery: "POST",
         readerStats: "GET",
+        ready: "GET",
         getTimeSpan: "GET",
         instance: "GET",
         summary: "GET",
@@ -419,7 +426,7 @@ class DashboardController {
             query.put(entry.getKey(), entry.getValue());
         }
 
-        def result = doGetData(query);
+        def result = withQueryContext(query) { doGetData(query) };
 
         File file = File.createTempFile("aws", "csv");
 
@@ -468,15 +475,100 @@ class DashboardController {
         def text = request.reader.text;
         JSONObject query = (JSONObject)JSON.parse(text);
 
-        def result = doGetData(query);
+        int digits = query.has("digits") ? query.getInt("digits") : -1;
+        if (digits > ColumnarDataWriter.maxDigits) {
+            def error = [status: 400, message: "digits must not be more than " + ColumnarDataWriter.maxDigits];
+            response.status = error.status;
+            render error as JSON
+            return;
+        }
+
+        def result;
+        try {
+            result = withQueryContext(query) { doGetData(query) };
+        }
+        catch (QueryContext.CancelledException e) {
+            logger.info("getData: " + e.getMessage());
+            result = [status: 503, message: e.getMessage()];
+            response.status = result.status;
+            render result as JSON
+            return;
+        }
+
+        try {
+            // JSON unless the client asks for the columnar form
+            String accept = request.getHeader("Accept");
+            if (accept != null && accept.contains(ColumnarDataWriter.contentType)) {
+                renderColumnar(result, digits);
+                return;
+            }
+            render result as JSON
+        }
+        catch (IOException e) {
+            logger.info("getData: client went away before the response was written, " + e);
+        }
+    }
+
+    /**
+     * Run a data request with a deadline. Work is shared fairly between users, and the client can stop
+     * the request by passing a queryId and later posting it to cancelQuery.
+     */
+    private def withQueryContext(JSONObject query, Closure work) {
+        String user = request.remoteUser ?: session.id;
+        QueryContext context = new QueryContext(user, getConfig().queryTimeoutSec * 1000L).begin();
+        String queryKey = query.has("queryId") ? session.id + ":" + query.getString("queryId") : null;
+        if (queryKey != null)
+            runningQueries.put(queryKey, context);
+        try {
+            return work();
+        }
+        finally {
+            if (queryKey != null)
+                runningQueries.remove(queryKey, context);
+            QueryContext.end();
+        }
+    }
+
+    def cancelQuery = {
+        def text = request.reader.text;
+        JSONObject query = (JSONObject)JSON.parse(text);
+        QueryContext context = query.has("queryId") ? runningQueries.get(session.id + ":" + query.getString("queryId")) : null;
+        if (context != null)
+            context.cancel("client went away");
+
+        def result = [status: 200, data: [cancelled: context != null]]
         render result as JSON
     }
 
+    private void renderColumnar(Map result, int digits) {
+        // Monthly results list their times in the columnar time axis, other fields go in the JSON header.
+        // Only breakdowns carry a time list, so fill in the month starts for the others.
+        List<Long> times = null;
+        if (result.interval == null)
+            times = result.time != null ? result.time : ColumnarDataWriter.monthlyTimes(result.start, ColumnarDataWriter.getNumPoints(result.data));
+        long interval = result.interval == null ? 0 : result.interval;
+        def header = [:];
+        for (Map.Entry entry: result.entrySet()) {
+            if (!(entry.getKey() in ["data", "sps", "start", "interval"]) && !(entry.getKey() == "time" && times != null))
+                header.put(entry.getKey(), entry.getValue());
+        }
+
+        response.setContentType(ColumnarDataWriter.contentType);
+        new ColumnarDataWriter(digits).write(response.outputStream, (header as JSON).toString(), result.start, interval, times, result.data, (double[]) result.sps);
+    }
+
     def readerStats = {
         boolean csv = params.getBoolean("csv");
         render getManagers().getStatistics(csv);
     }
 
+    def ready = {
+        boolean ready = getManagers().isReady();
+        def result = [status: ready ? 200 : 503, data: [ready: ready]];
+        response.status = result.status;
+        render result as JSON
+    }
+
     def getTimeSpan = {
         int spans = Integer.parseInt(params.spans);
         DateTime end = dateFormatter.parseDateTime(params.end);
@@ -906,6 +998,21 @@ class DashboardController {
 
         if (consolidateType != ConsolidateType.monthly) {
             result.interval = consolidateType.millis;
+
+            // Reduce long series for charting. Stats were computed above from the full series so totals are exact.
+            // Not applied to breakdowns which report a time and hours for each period.
+            int maxPoints = query.has("maxPoints") ? query.getInt("maxPoints") : 0;
+            int length = result.data.size() > 0 ? result.data.values().iterator().next().length : 0;
+            int bucketSize = (tagCoverage || !breakdown) ? Downsampler.getBucketSize(consolidateType, length, maxPoints) : 1;
+            if (bucketSize > 1) {
+                result.data = Downsampler.downsample(result.data, bucketSize);
+                if (result.sps != null)
+                    result.sps = Downsampler.downsample((double[]) result.sps, bucketSize);
+                result.interval = consolidateType.millis * bucketSize;
+                result.lastBucketSize = Downsampler.getLastBucketSize(length, bucketSize);
+                logger.debug("doGetData: downsampled " + length + " " + consolidateType + " periods by " + bucketSize);
+            }
+            result.bucketSize = bucketSize;
         }
         else {
             if (data.size() > 0) {
@@ -21,7 +21,10 @@ import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import com.netflix.ice.common.*;
 import com.netflix.ice.reader.*;
@@ -29,6 +32,7 @@ import org.apache.commons.lang.time.StopWatch;
 import org.joda.time.DateTime;
 import org.joda.time.Interval;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.netflix.ice.tag.Operation;
 import com.netflix.ice.tag.Tag;
@@ -42,10 +46,16 @@ import com.netflix.ice.tag.Zone.BadZone;
  * This class reads data from s3 bucket and feeds the data to UI
  */
 public class BasicDataManager extends CommonDataManager<ReadOnlyData, TimeSeriesData> implements DataManager {
+    // Tag group lists shorter than this are aggregated on the calling thread
+    public static final int MIN_PARALLEL_TAG_GROUPS = 2000;
+    // Number of tag groups aggregated between checks for cancellation, must be a power of two
+    private static final int CANCEL_CHECK_TAG_GROUPS = 1024;
 
     protected InstanceMetricsService instanceMetricsService;
     protected int numUserTags;
     protected boolean forReservations;
+    private ExecutorService aggregationPool = null;
+    private int aggregationThreads = 1;
     
     public BasicDataManager(DateTime startDate, String dbName, ConsolidateType consolidateType, TagGroupManager tagGroupManager, boolean compress, int numUserTags,
     		int monthlyCacheSize, WorkBucketConfig workBucketConfig, AccountService accountService, ProductService productService, InstanceMetricsService instanceMetricsService) {
@@ -63,6 +73,15 @@ public class BasicDataManager extends CommonDataManager<ReadOnlyData, TimeSeries
         this.forReservations = forReservations;
     }
     	
+    /**
+     * Aggregate large tag group lists in chunks on the supplied pool. The pool must not be
+     * the one used to run getData() calls since those block waiting for the chunks to finish.
+     */
+    public void setAggregationPool(ExecutorService pool, int numThreads) {
+    	this.aggregationPool = pool;
+    	this.aggregationThreads = Math.max(1, numThreads);
+    }
+
 	public int size(DateTime start) throws ExecutionException {
 		ReadOnlyData data = getReadOnlyData(start);
 		return data.numTagGroups();
@@ -101,25 +120,80 @@ public class BasicDataManager extends CommonDataManager<ReadOnlyData, TimeSeries
     	return value * multiplier;    		
     }
 
-    private int aggregate(boolean isCost, ReadOnlyData data, int from, int to, double[] result, List<TagGroup> tagGroups, UsageUnit usageUnit) {
+    private int aggregate(boolean isCost, ReadOnlyData data, int from, int to, double[] result, List<TagGroup> tagGroups, UsageUnit usageUnit) throws ExecutionException {
         int fromIndex = from;
 
 		int numToCopy = Math.min(result.length - to, data.getNum() - from);
 		if (numToCopy <= 0)
 			return 0;
 
-		double[] values = new double[numToCopy];
+		int numChunks = aggregationPool == null ? 1 : Math.min(aggregationThreads, tagGroups.size() / (MIN_PARALLEL_TAG_GROUPS / 2));
+		if (tagGroups.size() < MIN_PARALLEL_TAG_GROUPS || numChunks < 2) {
+			aggregate(isCost, data, fromIndex, numToCopy, tagGroups, usageUnit, result, to);
+			return numToCopy;
+		}
+
+		// Sum each chunk into its own partial result and merge them in chunk order
+		int chunkSize = (tagGroups.size() + numChunks - 1) / numChunks;
+		List<Future<double[]>> futures = Lists.newArrayList();
+		for (int start = chunkSize; start < tagGroups.size(); start += chunkSize)
+			futures.add(submitAggregate(isCost, data, fromIndex, numToCopy, tagGroups.subList(start, Math.min(start + chunkSize, tagGroups.size())), usageUnit));
+
+		// Do the first chunk on this thread while the others run
+		double[] partial = new double[numToCopy];
+		aggregate(isCost, data, fromIndex, numToCopy, tagGroups.subList(0, chunkSize), usageUnit, partial, 0);
+		try {
+			for (Future<double[]> f: futures) {
+				double[] chunk = f.get();
+				for (int i = 0; i < numToCopy; i++)
+					partial[i] += chunk[i];
+			}
+		}
+		catch (InterruptedException e) {
+			for (Future<double[]> f: futures)
+				f.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new ExecutionException(e);
+		}
+		catch (ExecutionException e) {
+			for (Future<double[]> f: futures)
+				f.cancel(true);
+			if (e.getCause() instanceof QueryContext.CancelledException)
+				throw (QueryContext.CancelledException) e.getCause();
+			throw e;
+		}
+		for (int i = 0; i < numToCopy; i++)
+			result[to+i] += partial[i];
+		return numToCopy;
+	}
+
+	private Future<double[]> submitAggregate(final boolean isCost, final ReadOnlyData data, final int from, final int count, final List<TagGroup> tagGroups, final UsageUnit usageUnit) {
+		return aggregationPool.submit(QueryContext.wrapCurrent(new Callable<double[]>() {
+			@Override
+			public double[] call() throws Exception {
+				double[] partial = new double[count];
+				aggregate(isCost, data, from, count, tagGroups, usageUnit, partial, 0);
+				return partial;
+			}
+		}));
+	}
+
+	private void aggregate(boolean isCost, ReadOnlyData data, int from, int count, List<TagGroup> tagGroups, UsageUnit usageUnit, double[] result, int to) {
+		double[] values = new double[count];
+		int n = 0;
 		for (TagGroup tg: tagGroups) {
+			// Stop soon after the request is cancelled without checking the clock for every tag group
+			if ((++n & (CANCEL_CHECK_TAG_GROUPS - 1)) == 0)
+				QueryContext.checkCurrent();
 			TimeSeriesData tsd = data.getData(tg);
-			tsd.get(isCost ? TimeSeriesData.Type.COST : TimeSeriesData.Type.USAGE, fromIndex, numToCopy, values);
-			for (int i = 0; i < numToCopy; i++) {
+			tsd.get(isCost ? TimeSeriesData.Type.COST : TimeSeriesData.Type.USAGE, from, count, values);
+			for (int i = 0; i < count; i++) {
 				if (isCost)
 					result[to+i] += values[i];
 				else
 					result[to+i] += adjustForUsageUnit(usageUnit, tg.usageType, values[i]);
 			}
 		}
-		return numToCopy;
 	}
 	
 	private Map<Tag, double[]> processResult(boolean isCost, Map<Tag, double[]> data, TagType groupBy, AggregateType aggregate, List<UserTagKey> tagKeys) {
@@ -161,6 +235,7 @@ public class BasicDataManager extends CommonDataManager<ReadOnlyData, TimeSeries
         double[] result = new double[getSize(interval)];
 
         do {
+        	QueryContext.checkCurrent();
             int resultIndex = getResultIndex(start, interval);
             int fromIndex = getFromIndex(start, interval);            
             int count = aggregateData(isCost, start, tagLists, fromIndex, resultIndex, result, usageUnit, groupBy, tag, userTagGroupByIndex);
@@ -202,6 +277,7 @@ public class BasicDataManager extends CommonDataManager<ReadOnlyData, TimeSeries
         
         // For each of the groupBy values
         for (Tag tag: tagListsMap.keySet()) {
+        	QueryContext.checkCurrent();
             try {
                 //logger.info("Tag: " + tag + ", TagLists: " + tagListsMap.get(tag));
                 double[] data = getData(isCost, interval, tagListsMap.get(tag), usageUnit, groupBy, tag, userTagGroupByIndex);
@@ -24,6 +24,7 @@ import com.amazonaws.services.ec2.model.DescribeInstancesResult;
 import com.amazonaws.services.ec2.model.StartInstancesRequest;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -65,6 +66,8 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVRecord;
@@ -74,11 +77,21 @@ import org.apache.commons.lang.time.StopWatch;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Interval;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * This class manages all BasicTagGroupManager and BasicDataManager instances.
  */
-public class BasicManagers extends Poller implements Managers {
+public class BasicManagers implements Managers {
+    protected Logger logger = LoggerFactory.getLogger(getClass());
+    
+    // How often to check for new data and how long to wait for a published change once the processor status shows new data
+    private static final int pollSec = 60;
+    private static final int manifestDelaySec = 30;
+    private static final int manifestJitterSec = 15;
+    private static final long missedChangeMillis = 5 * 60 * 1000L;
+    
     private ReaderConfig config;
     private boolean compress;
 
@@ -90,14 +103,26 @@ public class BasicManagers extends Poller implements Managers {
     private InstanceMetricsService instanceMetricsService = null;
     private InstancesService instancesService = null;
     private Long lastPollMillis = 0L;
+    private long pendingSinceMillis = 0;
+    private ScheduledExecutorService scheduler;
+    private ChangeManifestWatcher manifestWatcher;
 	private ExecutorService pool;
+	// admits query tasks into the pool taking turns between users
+	private FairTaskQueue queryQueue;
 	private ExecutorService refreshPool;
+	private ExecutorService aggregationPool;
+	private int aggregationThreads;
+	private QueryResultCache queryCache = null;
+	private final SingleFlight<QueryResultCache.Query, Map<Tag, double[]>> queriesInFlight = new SingleFlight<QueryResultCache.Query, Map<Tag, double[]>>();
+	private WarmUpPlanner warmUpPlanner = null;
+	private DataCacheBudget dataCacheBudget = null;
     
     BasicManagers(boolean compress) {
     	this.compress = compress;
     }
     
     public void shutdown() {
+    	scheduler.shutdownNow();
     	lastProcessedPoller.shutdown();
     }
 
@@ -105,10 +130,54 @@ public class BasicManagers extends Poller implements Managers {
         config = ReaderConfig.getInstance();
         lastProcessedPoller = new LastProcessedPoller(config.startDate, config.workBucketConfig);
         pool = Executors.newFixedThreadPool(config.numthreads);
+        queryQueue = new FairTaskQueue(pool, config.numthreads);
         refreshPool = Executors.newFixedThreadPool(config.numthreads);
+        // Separate pool for chunks of large products so they never wait behind the per-product tasks that submit them
+        aggregationThreads = Runtime.getRuntime().availableProcessors();
+        aggregationPool = Executors.newFixedThreadPool(aggregationThreads);
+        if (config.queryCacheSizeMB > 0)
+        	queryCache = new QueryResultCache(config.queryCacheSizeMB * 1024L * 1024L);
+        if (config.dataCacheSizeMB > 0)
+        	dataCacheBudget = new DataCacheBudget(config.dataCacheSizeMB * 1024L * 1024L);
+        if (config.warmUpMaxFiles > 0)
+        	warmUpPlanner = new WarmUpPlanner(new File(config.workBucketConfig.localDir, WarmUpPlanner.popularityFilename),
+        			config.warmUpMaxFiles, config.monthlyCacheSize, config.warmUpThreads, config.warmUpReadyFiles);
+        
+        // Polling and applying published changes share one thread so they never run at the same time
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        manifestWatcher = new ChangeManifestWatcher(config.workBucketConfig, scheduler, new ChangeManifestWatcher.Listener() {
+			@Override
+			public void changed(List<ChangeManifest.Change> changes) {
+				try {
+					applyChanges(changes);
+				}
+				catch (Exception e) {
+					logger.error("Error applying changes", e);
+				}
+			}
+        });
+        try {
+        	// Read the starting version before loading any data so no later change is missed
+        	manifestWatcher.check();
+        }
+        catch (Exception e) {
+        	logger.error("Error reading change manifest", e);
+        }
                 		
         doWork();
-        start(1*60, 1*60, false);
+        
+        manifestWatcher.start(manifestDelaySec, manifestJitterSec);
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					poll();
+				}
+				catch (Exception e) {
+					logger.error("Error polling", e);
+				}
+			}
+        }, pollSec, pollSec, TimeUnit.SECONDS);
     }
 
     public Collection<Product> getProducts() {
@@ -131,9 +200,123 @@ public class BasicManagers extends Poller implements Managers {
     	return instancesService.getInstances(id);
     }
 
-    @Override
-    protected void poll() throws Exception {
-        doWork();
+    private void poll() throws Exception {
+    	if (manifestWatcher.isActive()) {
+    		// Data is reloaded as the processor publishes changes, so only pick up configuration changes
+    		config.update();
+    		
+    		// Reload everything if the processor finished a run without publishing what it changed
+    		if (lastPollMillis < lastProcessedPoller.getLastProcessedMillis()) {
+    			if (pendingSinceMillis == 0)
+    				pendingSinceMillis = System.currentTimeMillis();
+    			else if (System.currentTimeMillis() - pendingSinceMillis > missedChangeMillis) {
+    				logger.warn("no change published for data processed at " + new DateTime(lastProcessedPoller.getLastProcessedMillis(), DateTimeZone.UTC) + ", reloading all data");
+    				doWork();
+    			}
+    		}
+    	}
+    	else {
+    		doWork();
+    	}
+        if (warmUpPlanner != null)
+        	warmUpPlanner.save();
+    }
+    
+    /**
+     * Reload only the files named in the changes published by the processor.
+     */
+    private void applyChanges(List<ChangeManifest.Change> changes) throws ExecutionException, InterruptedException {
+    	if (changes == null) {
+    		// Missed some changes
+    		lastPollMillis = 0L;
+    		doWork();
+    		return;
+    	}
+    	
+    	config.update();
+    	
+    	boolean newProducts = false;
+    	Set<DataCache> tagGroupsToRefresh = Sets.newHashSet();
+    	Map<DataFileCache<?>, Set<DateTime>> filesToRefresh = Maps.newHashMap();
+    	for (ChangeManifest.Change change: changes) {
+    		DateTime month = change.getMonth();
+    		for (String name: change.products) {
+    			Product product = name.equals("all") ? null : config.productService.getProductByServiceCode(name);
+    			if (!products.contains(product)) {
+    				newProducts = true;
+    				continue;
+    			}
+    			if (change.fileTypes.contains(ChangeManifest.FileType.tagdb))
+    				tagGroupsToRefresh.add(tagGroupManagers.get(product));
+    			for (ConsolidateType consolidateType: ConsolidateType.values()) {
+    				Key key = new Key(product, consolidateType);
+    				if (change.fileTypes.contains(ChangeManifest.FileType.valueOf(consolidateType.name())))
+    					addFileToRefresh(filesToRefresh, dataManagers.get(key), month);
+    				if (change.fileTypes.contains(ChangeManifest.FileType.coverage))
+    					addFileToRefresh(filesToRefresh, tagCoverageManagers.get(key), month);
+    			}
+    		}
+    		lastPollMillis = Math.max(lastPollMillis, DateTime.parse(change.published).getMillis());
+    	}
+    	pendingSinceMillis = 0;
+    	
+    	logger.info("refreshing " + tagGroupsToRefresh.size() + " tag group managers and " + filesToRefresh.size() + " data managers");
+    	for (DataCache d: tagGroupsToRefresh)
+    		refresh(d);
+    	for (Map.Entry<DataFileCache<?>, Set<DateTime>> entry: filesToRefresh.entrySet())
+    		refresh(entry.getKey(), entry.getValue());
+    	refresh(instancesService);
+    	refresh(instanceMetricsService);
+    	
+    	if (newProducts)
+    		findNewManagers(config.workBucketConfig);
+    }
+    
+    private void addFileToRefresh(Map<DataFileCache<?>, Set<DateTime>> filesToRefresh, DataFileCache<?> dataManager, DateTime month) {
+    	if (dataManager == null)
+    		return;
+    	Set<DateTime> months = filesToRefresh.get(dataManager);
+    	if (months == null) {
+    		months = Sets.newHashSet();
+    		filesToRefresh.put(dataManager, months);
+    	}
+    	months.add(month);
+    }
+    
+    public void startWarmUp() {
+    	if (warmUpPlanner == null)
+    		return;
+    	
+    	// The data managers by name with the all-products managers first, then the daily manager of each product
+    	final Map<String, DataFileCache<?>> managers = Maps.newHashMap();
+    	Map<String, ConsolidateType> consolidateTypes = Maps.newHashMap();
+    	List<String> defaults = Lists.newArrayList();
+    	List<String> productDefaults = Lists.newArrayList();
+    	for (DataFileCache<?> d: Iterables.<DataFileCache<?>>concat(dataManagers.values(), tagCoverageManagers.values())) {
+    		managers.put(d.dbName, d);
+    		consolidateTypes.put(d.dbName, d.consolidateType);
+    	}
+    	for (Key key: dataManagers.keySet()) {
+    		String name = dataManagers.get(key).dbName;
+    		if (key.product == null)
+    			defaults.add(name);
+    		else if (key.consolidateType == ConsolidateType.daily)
+    			productDefaults.add(name);
+    	}
+    	defaults.addAll(productDefaults);
+    	
+    	ExecutorService warmUpPool = Executors.newFixedThreadPool(config.warmUpThreads);
+    	warmUpPlanner.start(consolidateTypes, defaults, warmUpPool, new WarmUpPlanner.Loader() {
+			@Override
+			public void load(String name, DateTime time) throws Exception {
+				managers.get(name).preload(time);
+			}
+    	});
+    	warmUpPool.shutdown();
+    }
+    
+    public boolean isReady() {
+    	return warmUpPlanner == null || warmUpPlanner.isReady();
     }
 
     private void doWork() throws ExecutionException, InterruptedException {
@@ -150,11 +333,15 @@ public class BasicManagers extends Poller implements Managers {
     		return;	// nothing to do
     	
        	lastPollMillis = lastProcessedPoller.getLastProcessedMillis();
+       	pendingSinceMillis = 0;
        	    	
     	// Refresh all the data manager caches
     	refreshDataManagers(wbc);
-    	    	
     	
+    	findNewManagers(wbc);
+    }
+    
+    private void findNewManagers(WorkBucketConfig wbc) throws ExecutionException, InterruptedException {
         logger.info("trying to find new tag group and data managers...");
         Set<Product> products = Sets.newHashSet(this.products);
         Map<Product, BasicTagGroupManager> tagGroupManagers = Maps.newHashMap(this.tagGroupManagers);
@@ -189,6 +376,7 @@ public class BasicManagers extends Poller implements Managers {
 			// Wait for completion
 			for (Future<BasicTagGroupManager> f: futures) {
 				BasicTagGroupManager tagGroupManager = f.get();
+				tagGroupManager.setChangeListener(queryCache);
 				if (tagGroupManagers.containsKey(tagGroupManager.getProduct()))
 					logger.error("Overwriting existing tag group manager with product code: " + tagGroupManager.getProduct().getServiceCode());
 				tagGroupManagers.put(tagGroupManager.getProduct(), tagGroupManager);
@@ -212,11 +400,21 @@ public class BasicManagers extends Poller implements Managers {
 					if (dataManagers.containsKey(key)) {
 						logger.error("Overwriting existing data manager with key: " + key + ", " + key.hashCode());
 					}
-					dataManagers.put(key, new BasicDataManager(config.startDate, partialDbName, consolidateType, tagGroupManager, compress, numUserTags,
-							config.monthlyCacheSize, config.workBucketConfig, config.accountService, config.productService, instanceMetricsService, forReservations));
+					BasicDataManager dataManager = new BasicDataManager(config.startDate, partialDbName, consolidateType, tagGroupManager, compress, numUserTags,
+							config.monthlyCacheSize, config.workBucketConfig, config.accountService, config.productService, instanceMetricsService, forReservations);
+					dataManager.setChangeListener(queryCache);
+					dataManager.setWarmUpPlanner(warmUpPlanner);
+					if (dataCacheBudget != null)
+						dataManager.setCacheBudget(dataCacheBudget);
+					dataManager.setAggregationPool(aggregationPool, aggregationThreads);
+					dataManagers.put(key, dataManager);
 					if (loadTagCoverage && consolidateType != ConsolidateType.hourly) {
-						tagCoverageManagers.put(key, new TagCoverageDataManager(config.startDate, "coverage_" + partialDbName, consolidateType, tagGroupManager, compress, config.userTagKeys,
-								config.monthlyCacheSize, config.workBucketConfig, config.accountService, config.productService));
+						TagCoverageDataManager tagCoverageManager = new TagCoverageDataManager(config.startDate, "coverage_" + partialDbName, consolidateType, tagGroupManager, compress, config.userTagKeys,
+								config.monthlyCacheSize, config.workBucketConfig, config.accountService, config.productService);
+						tagCoverageManager.setWarmUpPlanner(warmUpPlanner);
+						if (dataCacheBudget != null)
+							tagCoverageManager.setCacheBudget(dataCacheBudget);
+						tagCoverageManagers.put(key, tagCoverageManager);
 					}
 				}
 			}
@@ -224,6 +422,10 @@ public class BasicManagers extends Poller implements Managers {
             this.dataManagers = dataManagers;
             this.tagGroupManagers = tagGroupManagers;
             this.products = products;
+            
+            // Queries across all products need to pick up the new ones
+            if (queryCache != null)
+            	queryCache.clear();
         }
     }
 
@@ -252,6 +454,17 @@ public class BasicManagers extends Poller implements Managers {
     	refresh(instanceMetricsService);
     }
 
+    private Future<Void> refresh(final DataFileCache<?> dataManager, final Collection<DateTime> months) {
+    	return refreshPool.submit(new Callable<Void>() {
+    		@Override
+    		public Void call() throws Exception {
+    			for (DateTime month: months)
+    				dataManager.refresh(month);
+    			return null;
+    		}
+    	});    	
+    }
+
     private Future<Void> refresh(final DataCache dataCache) {
     	return refreshPool.submit(new Callable<Void>() {
     		@Override
@@ -330,7 +543,7 @@ public class BasicManagers extends Poller implements Managers {
         }
 		// Wait for completion
 		for (Future<Collection<ResourceGroup>> f: futures) {
-			Collection<ResourceGroup> resourceGroups = f.get();
+			Collection<ResourceGroup> resourceGroups = waitFor(f, futures);
 			for (ResourceGroup rg: resourceGroups) {
 				UserTag[] tags = rg.getUserTags();
 				if (tags.length > index && !StringUtils.isEmpty(tags[index].name))
@@ -342,7 +555,7 @@ public class BasicManagers extends Poller implements Managers {
     }
 
     private Future<Collection<ResourceGroup>> getUserTagValuesForProduct(final TagLists tagLists, final TagGroupManager tagGroupManager) {
-    	return pool.submit(new Callable<Collection<ResourceGroup>>() {
+    	return submitQueryTask(new Callable<Collection<ResourceGroup>>() {
     		@Override
     		public Collection<ResourceGroup> call() throws Exception {
     			Collection<ResourceGroup> rgs = tagGroupManager.getResourceGroups(tagLists);
@@ -353,6 +566,56 @@ public class BasicManagers extends Poller implements Managers {
 
     @Override
     public Map<Tag, double[]> getData(
+    		final Interval interval,
+    		final List<CostType> costTypes,
+    		final List<Account> accounts,
+    		final List<Region> regions,
+    		final List<Zone> zones,
+    		final List<Product> products,
+    		final List<Operation> operations,
+    		final List<UsageType> usageTypes,
+    		final boolean isCost,
+    		final ConsolidateType consolidateType,
+    		final TagType groupBy,
+    		final AggregateType aggregate,
+    		final List<Operation.Identity.Value> exclude,
+    		final UsageUnit usageUnit,
+    		final List<List<UserTag>> userTagLists,
+    		final int userTagGroupByIndex) throws Exception {    	
+    	
+		final QueryResultCache.Query query = new QueryResultCache.Query(interval, costTypes, accounts, regions, zones, products, operations, usageTypes,
+				isCost, consolidateType, groupBy, aggregate, exclude, usageUnit, userTagLists, userTagGroupByIndex);
+		if (queryCache != null) {
+			Map<Tag, double[]> cached = queryCache.get(query);
+			if (cached != null)
+				return cached;
+		}
+		
+		// Identical requests made while this one is running share its result.
+		// Callers modify the result, so each gets its own copy.
+		Map<Tag, double[]> data;
+		try {
+			data = queriesInFlight.execute(query, new Callable<Map<Tag, double[]>>() {
+				@Override
+				public Map<Tag, double[]> call() throws Exception {
+					// Get the generation before computing so results computed across a data reload aren't cached
+					long generation = queryCache == null ? 0 : queryCache.getGeneration();
+					Map<Tag, double[]> data = computeData(interval, costTypes, accounts, regions, zones, products, operations, usageTypes,
+							isCost, consolidateType, groupBy, aggregate, exclude, usageUnit, userTagLists, userTagGroupByIndex);
+					if (queryCache != null)
+						queryCache.put(query, data, generation);
+					return data;
+				}
+			}, SingleFlight.defaultTimeoutMillis);
+		}
+		catch (ExecutionException e) {
+			// Report the failure the same way as if this request had computed the result itself
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		}
+		return QueryResultCache.copy(data);
+    }
+    
+    private Map<Tag, double[]> computeData(
     		Interval interval,
     		List<CostType> costTypes,
     		List<Account> accounts,
@@ -385,7 +648,7 @@ public class BasicManagers extends Poller implements Managers {
     		// Wait for completion
             Set<Product> productSet = Sets.newTreeSet();
     		for (Future<Collection<Product>> f: futures) {
-                productSet.addAll(f.get());
+                productSet.addAll(waitFor(f, futures));
     		}
             products = Lists.newArrayList(productSet);
 		}
@@ -417,7 +680,7 @@ public class BasicManagers extends Poller implements Managers {
         Map<Tag, double[]> data = Maps.newTreeMap();
         
 		for (Future<Map<Tag, double[]>> f: futures) {
-			Map<Tag, double[]> dataOfProduct = f.get();
+			Map<Tag, double[]> dataOfProduct = waitFor(f, futures);
 			//logger.info("    size " + dataOfProduct.size() + ", " + dataOfProduct.keySet());
             if (groupBy == TagType.Product && dataOfProduct.size() > 0) {
                 double[] currentProductValues = dataOfProduct.get(dataOfProduct.keySet().iterator().next());
@@ -433,13 +696,39 @@ public class BasicManagers extends Poller implements Managers {
     }
     
     private Future<Collection<Product>> getFilteredProduct(final TagLists tagLists, final TagGroupManager tagGroupManager) {
-    	return pool.submit(new Callable<Collection<Product>>() {
+    	return submitQueryTask(new Callable<Collection<Product>>() {
     		@Override
     		public Collection<Product> call() throws Exception {
                 return tagGroupManager.getProducts(tagLists);
     		}
     	});    	
     }
+    
+    /**
+     * Queue a task for the request on the calling thread. Tasks run with the request's context and take
+     * turns with the tasks of other users.
+     */
+    private <T> Future<T> submitQueryTask(Callable<T> task) {
+    	QueryContext context = QueryContext.current();
+    	return queryQueue.submit(context == null ? "" : context.getUser(), QueryContext.wrapCurrent(task));
+    }
+    
+    /**
+     * Wait for one of the tasks of a request. If the request is cancelled, reaches its deadline or any
+     * of its tasks fail, the remaining tasks are cancelled so they don't hold up other requests.
+     */
+    private <T> T waitFor(Future<T> future, List<? extends Future<?>> all) throws Exception {
+    	try {
+    		return QueryContext.await(future, 0);
+    	}
+    	catch (Exception e) {
+    		for (Future<?> f: all)
+    			f.cancel(true);
+    		if (e instanceof ExecutionException && e.getCause() instanceof QueryContext.CancelledException)
+    			throw (QueryContext.CancelledException) e.getCause();
+    		throw e;
+    	}
+    }
 
     private Future<Map<Tag, double[]>> getDataForProduct(
     		final boolean isCost,
@@ -452,7 +741,7 @@ public class BasicManagers extends Poller implements Managers {
     		final int userTagGroupByIndex,
     		final DataManager dataManager) {
     	
-    	return pool.submit(new Callable<Map<Tag, double[]>>() {
+    	return submitQueryTask(new Callable<Map<Tag, double[]>>() {
     		@Override
     		public Map<Tag, double[]> call() throws Exception {
     			Map<Tag, double[]> data = dataManager.getData(
@@ -536,6 +825,21 @@ public class BasicManagers extends Poller implements Managers {
     		sb.append("</table>");
     	
     	String intro = "TagGroupManagers: month=" + AwsUtils.monthDateFormat.print(month) + ", size=" + tagGroupManagers.size() + ", total resource TagGroups=" + totalResourceTagGroups;
+    	if (queryCache != null)
+    		intro += (csv ? "\n" : "<br>") + queryCache.getStatistics();
+    	intro += (csv ? "\n" : "<br>") + queriesInFlight.getStatistics("QueriesInFlight");
+    	intro += (csv ? "\n" : "<br>") + queryQueue.getStatistics();
+    	long computations = 0;
+    	long coalesced = 0;
+    	for (CommonDataManager<?, ?> dataManager: Iterables.<CommonDataManager<?, ?>>concat(dataManagers.values(), tagCoverageManagers.values())) {
+    		computations += dataManager.getQueriesInFlight().getComputations();
+    		coalesced += dataManager.getQueriesInFlight().getCoalesced();
+    	}
+    	intro += (csv ? "\n" : "<br>") + "DataManagerQueries: computations=" + computations + ", coalesced=" + coalesced;
+    	if (dataCacheBudget != null)
+    		intro += (csv ? "\n" : "<br>") + dataCacheBudget.getStatistics();
+    	if (warmUpPlanner != null)
+    		intro += (csv ? "\n" : "<br>") + warmUpPlanner.getStatistics();
 
 		if (csv)
 			intro += csv ? "\n" : "<br><br>";
@@ -48,6 +48,9 @@ public class BasicReservationService implements ReservationService {
     private Set<Product> hasReservations;
     // Following map used only for DBR processing
     protected Map<PurchaseOption, Map<TagGroup, List<Reservation>>> reservations;
+    // Price list product ids of the tag groups priced from the price list, valid for productIdPrices only
+    private InstancePrices productIdPrices = null;
+    private Map<TagGroup, Integer> productIds = Maps.newHashMap();
 
     public BasicReservationService(ReservationPeriod term, PurchaseOption defaultPurchaseOption) {
         this.term = term;
@@ -227,7 +230,8 @@ public class BasicReservationService implements ReservationService {
 	    	// for this usage. Pull the prices from the price list.
 	        if (tagGroup.product.isEc2Instance()) {
 				try {
-					Rate rate = instancePrices.getReservationRate(tagGroup.region, tagGroup.usageType, LeaseContractLength.getByYears(term.years), purchaseOption, OfferingClass.standard);
+					int productId = getProductId(instancePrices, tagGroup);
+					Rate rate = instancePrices.getReservationRate(productId, InstancePrices.getRateKeyId(LeaseContractLength.getByYears(term.years), purchaseOption, OfferingClass.standard));
 					upfrontAmortized = rate.getHourlyUpfrontAmortized(LeaseContractLength.getByYears(term.years));
 					hourlyCost = rate.hourly;
 				} catch (Exception e) {
@@ -242,5 +246,21 @@ public class BasicReservationService implements ReservationService {
 	    
 	    return new ReservationInfo(TagGroupRI.get(tagGroup), count, 0, 0, upfrontAmortized, hourlyCost);
 	}
+    
+    /*
+     * Resolve the price list product for a tag group once rather than every hour
+     */
+    private synchronized int getProductId(InstancePrices instancePrices, TagGroup tagGroup) {
+    	if (instancePrices != productIdPrices) {
+    		productIds.clear();
+    		productIdPrices = instancePrices;
+    	}
+    	Integer id = productIds.get(tagGroup);
+    	if (id == null) {
+    		id = instancePrices.getProductId(tagGroup.region, tagGroup.usageType);
+    		productIds.put(tagGroup, id);
+    	}
+    	return id;
+    }
 
 }
@@ -323,19 +323,58 @@ public class BasicResourceService extends ResourceService {
     	// Grab the first non-empty value
     	for (int index: properties.tagLineItemIndeces.get(tag)) {
     		if (lineItem.getResourceTagsSize() > index) {
-    	    	// cut all white space from tag value
-    			String val = stripSpaces(lineItem.getResourceTag(index));
-    			
-    			if (!StringUtils.isEmpty(val)) {
-    				if (invertedIndex != null && invertedIndex.containsKey(val.toLowerCase())) {
-						val = invertedIndex.get(val.toLowerCase());
-					}
-	    			return filter(val, index, tag, properties);
-    			}
+    			String val = getFilteredTagValue(lineItem, index, tag, properties, invertedIndex);
+    			if (val != null)
+    				return val;
     		}
     	}
     	return null;
     }
+    
+    /**
+     * Filtered tag value along with the tag and properties used to compute it.
+     */
+    private static class FilteredTagValue {
+    	final PayerAccountTagProperties properties;
+    	final String tag;
+    	final String value;
+    	
+    	FilteredTagValue(PayerAccountTagProperties properties, String tag, String value) {
+    		this.properties = properties;
+    		this.tag = tag;
+    		this.value = value;
+    	}
+    }
+    
+    /**
+     * Returns the cleaned up value of the resource tag column or null if it's empty.
+     * Tag values repeat across many line items, so the result is saved with the line item's value dictionary
+     * and reused for later rows that have the same text in the column.
+     */
+    private String getFilteredTagValue(LineItem lineItem, int index, String tag, PayerAccountTagProperties properties, Map<String, String> invertedIndex) {
+    	int column = lineItem.getResourceTagIndex(index);
+    	Object derived = lineItem.getDerived(column);
+    	if (derived instanceof FilteredTagValue) {
+    		FilteredTagValue ftv = (FilteredTagValue) derived;
+    		if (ftv.properties == properties && (ftv.tag == tag || ftv.tag.equals(tag)))
+    			return ftv.value;
+    	}
+    	
+    	// cut all white space from tag value
+		String val = stripSpaces(lineItem.getResourceTag(index));
+		
+		if (StringUtils.isEmpty(val)) {
+			val = null;
+		}
+		else {
+			if (invertedIndex != null && invertedIndex.containsKey(val.toLowerCase())) {
+				val = invertedIndex.get(val.toLowerCase());
+			}
+			val = filter(val, index, tag, properties);
+		}
+		lineItem.putDerived(column, new FilteredTagValue(properties, tag, val));
+		return val;
+    }
 
     /**
 	 * Consolidate tag value if configs specify an alias
@@ -27,6 +27,7 @@ import com.netflix.ice.common.ProductService;
 import com.netflix.ice.common.TagGroup;
 import com.netflix.ice.processor.TagGroupWriter;
 import com.netflix.ice.reader.DataCache;
+import com.netflix.ice.reader.DataChangeListener;
 import com.netflix.ice.reader.TagGroupManager;
 import com.netflix.ice.reader.TagLists;
 import com.netflix.ice.tag.*;
@@ -60,8 +61,11 @@ public class BasicTagGroupManager implements TagGroupManager, DataCache {
     private final File file;
     private TreeMap<Long, Collection<TagGroup>> tagGroups;
     private TreeMap<Long, Collection<TagGroup>> tagGroupsWithResourceGroups;
+    private TagGroupIndex index;
+    private TagGroupIndex indexWithResourceGroups;
     private Interval totalInterval;
     private boolean compress;
+    private volatile DataChangeListener changeListener = null;
 
     BasicTagGroupManager(Product product, boolean compress, WorkBucketConfig workBucketConfig, AccountService accountService, ProductService productService, int numUserTags) {
     	this.compress = compress;
@@ -80,6 +84,8 @@ public class BasicTagGroupManager implements TagGroupManager, DataCache {
     BasicTagGroupManager(TreeMap<Long, Collection<TagGroup>> tagGroupsWithResourceGroups, Interval totalInterval, int numUserTags) {
     	this.tagGroupsWithResourceGroups = tagGroupsWithResourceGroups;
     	this.tagGroups = removeResourceGroups(tagGroupsWithResourceGroups);
+    	this.index = new TagGroupIndex(tagGroups);
+    	this.indexWithResourceGroups = new TagGroupIndex(tagGroupsWithResourceGroups);
     	this.workBucketConfig = null;
     	this.accountService = null;
     	this.productService = null;
@@ -90,6 +96,10 @@ public class BasicTagGroupManager implements TagGroupManager, DataCache {
     	this.totalInterval = totalInterval;
     }
 
+    public void setChangeListener(DataChangeListener changeListener) {
+    	this.changeListener = changeListener;
+    }
+    
     public String getDbName() {
         return dbName;
     }
@@ -198,10 +208,16 @@ public class BasicTagGroupManager implements TagGroupManager, DataCache {
                 if (tagGroups.size() > 0) {
                     totalInterval = new Interval(tagGroups.firstKey(), new DateTime(tagGroups.lastKey()).plusMonths(1).getMillis(), DateTimeZone.UTC);
                 }
+                TagGroupIndex index = new TagGroupIndex(tagGroups);
+                TagGroupIndex indexWithResourceGroups = new TagGroupIndex(tagGroupsWithResourceGroups);
+                TreeMap<Long, Collection<TagGroup>> previous = this.tagGroupsWithResourceGroups;
                 this.totalInterval = totalInterval;
+                this.index = index;
+                this.indexWithResourceGroups = indexWithResourceGroups;
                 this.tagGroups = tagGroups;
                 this.tagGroupsWithResourceGroups = tagGroupsWithResourceGroups;
                 logger.info("done reading " + file);
+                notifyChanged(previous, tagGroupsWithResourceGroups);
             }
             catch (IOException e) {
                 logger.error("failed to download " + file, e);
@@ -221,6 +237,26 @@ public class BasicTagGroupManager implements TagGroupManager, DataCache {
         return false;
     }
 
+    /**
+     * Tell the listener about each month whose tag groups changed
+     */
+    private void notifyChanged(TreeMap<Long, Collection<TagGroup>> previous, TreeMap<Long, Collection<TagGroup>> current) {
+    	DataChangeListener listener = changeListener;
+    	if (listener == null || previous == null)
+    		return;
+    	
+    	Set<Long> months = Sets.newTreeSet(previous.keySet());
+    	months.addAll(current.keySet());
+    	for (Long month: months) {
+    		Collection<TagGroup> before = previous.get(month);
+    		Collection<TagGroup> after = current.get(month);
+    		if (before == null || after == null || before.size() != after.size() || !before.containsAll(after)) {
+    			DateTime start = new DateTime(month, DateTimeZone.UTC);
+    			listener.dataChanged(null, new Interval(start, start.plusMonths(1)));
+    		}
+    	}
+    }
+
     private TreeMap<Long, Collection<TagGroup>> removeResourceGroups(TreeMap<Long, Collection<TagGroup>> tagGroups) {
         TreeMap<Long, Collection<TagGroup>> result = Maps.newTreeMap();
         for (Long key: tagGroups.keySet()) {
@@ -238,25 +274,6 @@ public class BasicTagGroupManager implements TagGroupManager, DataCache {
         return result;
     }
 
-    private Set<TagGroup> getTagGroupsInRange(Collection<Long> monthMillis) {
-        Set<TagGroup> tagGroupsInRange = Sets.newHashSet();
-        for (Long monthMilli: monthMillis) {
-            tagGroupsInRange.addAll(this.tagGroups.get(monthMilli));
-        }
-        return tagGroupsInRange;
-    }
-
-    private Set<TagGroup> getTagGroupsWithResourceGroupsInRange(Collection<Long> monthMillis) {
-        Set<TagGroup> tagGroupsInRange = Sets.newHashSet();
-    	if (tagGroupsWithResourceGroups == null)
-    		return tagGroupsInRange;
-    	
-    	for (Long monthMilli: monthMillis) {
-            tagGroupsInRange.addAll(this.tagGroupsWithResourceGroups.get(monthMilli));
-        }
-        return tagGroupsInRange;
-    }
-
     private Collection<Long> getMonthMillis(Interval interval) {
         Set<Long> result = Sets.newTreeSet();
         for (Long milli: tagGroups.keySet()) {
@@ -268,157 +285,104 @@ public class BasicTagGroupManager implements TagGroupManager, DataCache {
         return result;
     }
     
-    public Collection<CostType> getCostTypes(Set<TagGroup> tagGroupsInRange, TagLists tagLists) {
-    	Set<CostType> costTypes = Sets.newHashSet();
-    	
-    	for (TagGroup tagGroup: tagGroupsInRange) {
-    		if (tagLists.contains(tagGroup))
-    			costTypes.add(tagGroup.costType);
-    	}
-    	
-    	return costTypes;
+    private Collection<CostType> getCostTypes(TagGroupIndex.Range range, TagLists tagLists) {
+    	return index.getValues(TagGroupIndex.COST_TYPE, range, index.filter(range, tagLists));
     }
 
-    public Collection<Account> getAccounts(Set<TagGroup> tagGroupsInRange, TagLists tagLists) {
-        Set<Account> accounts = Sets.newHashSet();
-
-        for (TagGroup tagGroup: tagGroupsInRange) {
-            if (tagLists.contains(tagGroup))
-            	accounts.add(tagGroup.account);
-        }
-
-        return accounts;
+    private Collection<Account> getAccounts(TagGroupIndex.Range range, TagLists tagLists) {
+    	return index.getValues(TagGroupIndex.ACCOUNT, range, index.filter(range, tagLists));
     }
 
-    public Collection<Region> getRegions(Set<TagGroup> tagGroupsInRange, TagLists tagLists) {
-        Set<Region> regions = Sets.newHashSet();
-
-        for (TagGroup tagGroup: tagGroupsInRange) {
-            if (tagLists.contains(tagGroup))
-            	regions.add(tagGroup.region);
-        }
-
-        return regions;
+    private Collection<Region> getRegions(TagGroupIndex.Range range, TagLists tagLists) {
+    	return index.getValues(TagGroupIndex.REGION, range, index.filter(range, tagLists));
     }
 
-    public Collection<Zone> getZones(Set<TagGroup> tagGroupsInRange, TagLists tagLists) {
-        Set<Zone> zones = Sets.newHashSet();
-
-        for (TagGroup tagGroup: tagGroupsInRange) {
-            if (tagLists.contains(tagGroup) && tagGroup.zone != null)
-                zones.add(tagGroup.zone);
-        }
-
-        return zones;
+    private Collection<Zone> getZones(TagGroupIndex.Range range, TagLists tagLists) {
+    	return index.getValues(TagGroupIndex.ZONE, range, index.filter(range, tagLists));
     }
 
     public Product getProduct() {
         return product;
     }
 
-    public Collection<Product> getProducts(Set<TagGroup> tagGroupsInRange, TagLists tagLists) {
-        Set<Product> products = Sets.newHashSet();
-
-        for (TagGroup tagGroup: tagGroupsInRange) {
-            if (tagLists.contains(tagGroup))
-                products.add(tagGroup.product);
-        }
-
-        return products;
+    private Collection<Product> getProducts(TagGroupIndex.Range range, TagLists tagLists) {
+    	return index.getValues(TagGroupIndex.PRODUCT, range, index.filter(range, tagLists));
     }
     
-    public Set<Operation> getOperations(Set<TagGroup> tagGroupsInRange, TagLists tagLists, Collection<Operation.Identity.Value> exclude) {
-        Set<Operation> operations = Sets.newHashSet();
+    private Set<Operation> getOperations(TagGroupIndex.Range range, TagLists tagLists, Collection<Operation.Identity.Value> exclude) {
+        Set<Operation> operations = index.getValues(TagGroupIndex.OPERATION, range, index.filter(range, tagLists));
         int excludeBitSet = exclude == null ? 0 : Operation.Identity.getIdentitySet(exclude);
+        if (excludeBitSet == 0)
+        	return operations;
         
-        for (TagGroup tagGroup: tagGroupsInRange) {
-            if (tagLists.contains(tagGroup)) {
-            	if (excludeBitSet == 0 || !tagGroup.operation.isOneOf(excludeBitSet))
-            		operations.add(tagGroup.operation);
-            }
+        for (Iterator<Operation> it = operations.iterator(); it.hasNext(); ) {
+        	if (it.next().isOneOf(excludeBitSet))
+        		it.remove();
         }
-
         return operations;
     }
 
-    public Collection<UsageType> getUsageTypes(Set<TagGroup> tagGroupsInRange, TagLists tagLists) {
-        Set<UsageType> usageTypes = Sets.newHashSet();
-
-        for (TagGroup tagGroup: tagGroupsInRange) {
-            if (tagLists.contains(tagGroup))
-                usageTypes.add(tagGroup.usageType);
-        }
-
-        return usageTypes;
+    private Collection<UsageType> getUsageTypes(TagGroupIndex.Range range, TagLists tagLists) {
+    	return index.getValues(TagGroupIndex.USAGE_TYPE, range, index.filter(range, tagLists));
     }
 
     public Collection<ResourceGroup> getResourceGroups(Interval interval, TagLists tagLists) {
-        Set<ResourceGroup> groups = Sets.newHashSet();
-        Set<TagGroup> tagGroupsInRange = getTagGroupsWithResourceGroupsInRange(getMonthMillis(interval));
+    	TagGroupIndex.Range range = indexWithResourceGroups.getRange(getMonthMillis(interval));
 
         // Add ResourceGroup tags that are non-nulls.
-        for (TagGroup tagGroup: tagGroupsInRange) {
-            if (tagLists.contains(tagGroup) && tagGroup.resourceGroup != null) {
-                groups.add(tagGroup.resourceGroup);
-            }
-        }
-
-        return groups;
+    	return indexWithResourceGroups.getValues(TagGroupIndex.RESOURCE_GROUP, range, indexWithResourceGroups.filter(range, tagLists));
     }
 
     public Collection<UserTag> getResourceGroupTags(Interval interval, TagLists tagLists, int userTagGroupByIndex) {
         Set<UserTag> userTags = Sets.newHashSet();
-        Set<TagGroup> tagGroupsInRange = getTagGroupsWithResourceGroupsInRange(getMonthMillis(interval));
+    	TagGroupIndex.Range range = indexWithResourceGroups.getRange(getMonthMillis(interval));
         
         // Add ResourceGroup tags that are null.
-        for (TagGroup tagGroup: tagGroupsInRange) {
-        	//logger.info("tag group <" + tagLists.contains(tagGroup) + ">: " + tagGroup);
-            if (tagLists.contains(tagGroup)) {
-            	try {
-            		UserTag t = tagGroup.resourceGroup == null ? UserTag.empty : tagGroup.resourceGroup.getUserTags()[userTagGroupByIndex];
-            		userTags.add(t);
-            	}
-            	catch (Exception e) {
-            		logger.error("Bad resourceGroup: " + tagGroup.resourceGroup + ", " + e);
-            	}
-            }
+        for (TagGroup tagGroup: indexWithResourceGroups.getTagGroups(indexWithResourceGroups.filter(range, tagLists))) {
+        	try {
+        		UserTag t = tagGroup.resourceGroup == null ? UserTag.empty : tagGroup.resourceGroup.getUserTags()[userTagGroupByIndex];
+        		userTags.add(t);
+        	}
+        	catch (Exception e) {
+        		logger.error("Bad resourceGroup: " + tagGroup.resourceGroup + ", " + e);
+        	}
         }
 
         return userTags;
     }
 
     public Collection<CostType> getCostTypes(TagLists tagLists) {
-    	List<CostType> costTypes = Lists.newArrayList(getCostTypes(getTagGroupsInRange(getMonthMillis(totalInterval)), tagLists));
+    	List<CostType> costTypes = Lists.newArrayList(getCostTypes(index.getRange(getMonthMillis(totalInterval)), tagLists));
     	costTypes.sort(null);
         return costTypes;
     }
 
     public Collection<Account> getAccounts(TagLists tagLists) {
-    	List<Account> accounts = Lists.newArrayList(getAccounts(getTagGroupsInRange(getMonthMillis(totalInterval)), tagLists));
+    	List<Account> accounts = Lists.newArrayList(getAccounts(index.getRange(getMonthMillis(totalInterval)), tagLists));
     	accounts.sort(null);
         return accounts;
     }
 
     public Collection<Region> getRegions(TagLists tagLists) {
-    	List<Region> regions = Lists.newArrayList(getRegions(getTagGroupsInRange(getMonthMillis(totalInterval)), tagLists));
+    	List<Region> regions = Lists.newArrayList(getRegions(index.getRange(getMonthMillis(totalInterval)), tagLists));
     	regions.sort(null);
         return regions;
     }
 
     public Collection<Zone> getZones(TagLists tagLists) {
-    	List<Zone> zones = Lists.newArrayList(getZones(getTagGroupsInRange(getMonthMillis(totalInterval)), tagLists));
+    	List<Zone> zones = Lists.newArrayList(getZones(index.getRange(getMonthMillis(totalInterval)), tagLists));
     	zones.sort(null);
         return zones;
     }
 
     public Collection<Product> getProducts(TagLists tagLists) {
-    	List<Product> products = Lists.newArrayList(getProducts(getTagGroupsInRange(getMonthMillis(totalInterval)), tagLists));
+    	List<Product> products = Lists.newArrayList(getProducts(index.getRange(getMonthMillis(totalInterval)), tagLists));
     	products.sort(null);
     	return products;
     }
 
     public Collection<Operation> getOperationsUnsorted(TagLists tagLists, Collection<Operation.Identity.Value> exclude) {
-    	return getOperations(getTagGroupsInRange(getMonthMillis(totalInterval)), tagLists, exclude);
+    	return getOperations(index.getRange(getMonthMillis(totalInterval)), tagLists, exclude);
     }
 
     public Collection<Operation> getOperations(TagLists tagLists, Collection<Operation.Identity.Value> exclude) {
@@ -428,7 +392,7 @@ public class BasicTagGroupManager implements TagGroupManager, DataCache {
     }
 
     public Collection<UsageType> getUsageTypes(TagLists tagLists) {
-    	List<UsageType> usageTypes = Lists.newArrayList(getUsageTypes(getTagGroupsInRange(getMonthMillis(totalInterval)), tagLists));
+    	List<UsageType> usageTypes = Lists.newArrayList(getUsageTypes(index.getRange(getMonthMillis(totalInterval)), tagLists));
     	usageTypes.sort(null);
     	return usageTypes;
     }
@@ -450,7 +414,7 @@ public class BasicTagGroupManager implements TagGroupManager, DataCache {
     public Map<Tag, TagLists> getTagListsMap(Interval interval, TagLists tagLists, TagType groupBy, List<Operation.Identity.Value> exclude, int userTagGroupByIndex) {
         Map<Tag, TagLists> result = Maps.newHashMap();
         
-        Set<TagGroup> tagGroupsInRange = getTagGroupsInRange(getMonthMillis(interval));
+        TagGroupIndex.Range range = index.getRange(getMonthMillis(interval));
         
         // Get all the GroupBy tags. If we're not grouping by ResourceGroup or User Tag, then work with a TagLists that doesn't contain resourceGroups.
         // Filtering of results against resourceGroup values is handled later.
@@ -465,7 +429,7 @@ public class BasicTagGroupManager implements TagGroupManager, DataCache {
         // Borrowed and Lent Operations in order not to double count the cost/usage    	
     	List<Operation> ops = tagListsForTag.operations;
         if (ops == null || ops.size() == 0) {
-        	ops = Lists.newArrayList(getOperations(tagGroupsInRange, tagListsForTag, exclude));
+        	ops = Lists.newArrayList(getOperations(range, tagListsForTag, exclude));
         }
         else {
         	ops = Operation.exclude(ops, exclude);
@@ -484,25 +448,25 @@ public class BasicTagGroupManager implements TagGroupManager, DataCache {
         List<Tag> groupByTags = Lists.newArrayList();
         switch (groupBy) {
             case CostType:
-        	    groupByTags.addAll(getCostTypes(tagGroupsInRange, tagListsForTag));
+        	    groupByTags.addAll(getCostTypes(range, tagListsForTag));
         	    break;
             case Account:
-                groupByTags.addAll(getAccounts(tagGroupsInRange, tagListsForTag));
+                groupByTags.addAll(getAccounts(range, tagListsForTag));
                 break;
             case Region:
-                groupByTags.addAll(getRegions(tagGroupsInRange, tagListsForTag));
+                groupByTags.addAll(getRegions(range, tagListsForTag));
                 break;
             case Zone:
-                groupByTags.addAll(getZones(tagGroupsInRange, tagListsForTag));
+                groupByTags.addAll(getZones(range, tagListsForTag));
                 break;
             case Product:
-                groupByTags.addAll(getProducts(tagGroupsInRange, tagListsForTag));
+                groupByTags.addAll(getProducts(range, tagListsForTag));
                 break;
             case Operation:
-                groupByTags.addAll(getOperations(tagGroupsInRange, tagListsForTag, null));
+                groupByTags.addAll(getOperations(range, tagListsForTag, null));
                 break;
             case UsageType:
-                groupByTags.addAll(getUsageTypes(tagGroupsInRange, tagListsForTag));
+                groupByTags.addAll(getUsageTypes(range, tagListsForTag));
                 break;
             case Tag:
                 groupByTags.addAll(getResourceGroupTags(interval, tagListsForTag, userTagGroupByIndex));
@@ -20,7 +20,9 @@ package com.netflix.ice.basic;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 
 import com.google.common.collect.Lists;
 import org.joda.time.DateTime;
@@ -50,11 +52,19 @@ public abstract class CommonDataManager<T extends ReadOnlyGenericData<D>, D>  ex
 
     protected TagGroupManager tagGroupManager;
     
+    // queries being computed, shared with identical queries that arrive before they finish
+    private final SingleFlight<List<Object>, Map<Tag, double[]>> queriesInFlight = new SingleFlight<List<Object>, Map<Tag, double[]>>();
+    
 	public CommonDataManager(DateTime startDate, String dbName, ConsolidateType consolidateType, TagGroupManager tagGroupManager, boolean compress,
     		int monthlyCacheSize, WorkBucketConfig workBucketConfig, AccountService accountService, ProductService productService) {
     	super(startDate, dbName, consolidateType, compress, monthlyCacheSize, workBucketConfig, accountService, productService);
         this.tagGroupManager = tagGroupManager;
 	}
+	
+	@Override
+	protected long estimateBytes(T data) {
+		return data.getEstimatedBytes();
+	}
 
     protected List<TagGroup> getTagGroups(TagType groupBy, Tag tag, int userTagGroupByIndex, T data, TagLists tagLists) {
         Collection<TagGroup> tagGroups = data.getTagGroups(groupBy, tag, userTagGroupByIndex);
@@ -126,7 +136,42 @@ public abstract class CommonDataManager<T extends ReadOnlyGenericData<D>, D>  ex
 
 	@Override
     public Map<Tag, double[]> getData(boolean isCost, Interval interval, TagLists tagLists, TagType groupBy, AggregateType aggregate, List<Operation.Identity.Value> exclude, UsageUnit usageUnit, int userTagGroupByIndex) {
-    	return getData(isCost, interval, tagLists, groupBy, aggregate, exclude, usageUnit, userTagGroupByIndex, null);
+    	return getDataOnce(isCost, interval, tagLists, groupBy, aggregate, exclude, usageUnit, userTagGroupByIndex, null);
+    }
+    
+    /**
+     * Compute the query or wait for an identical one that is already running. Callers modify
+     * the result so each gets its own copy.
+     */
+    private Map<Tag, double[]> getDataOnce(final boolean isCost, final Interval interval, final TagLists tagLists, final TagType groupBy, final AggregateType aggregate,
+    		final List<Operation.Identity.Value> exclude, final UsageUnit usageUnit, final int userTagGroupByIndex, final List<UserTagKey> tagKeys) {
+    	List<Object> key = Lists.<Object>newArrayList(
+    			new QueryResultCache.Query(interval, tagLists, isCost, consolidateType, groupBy, aggregate, exclude, usageUnit, userTagGroupByIndex),
+    			tagKeys);
+    	try {
+			return QueryResultCache.copy(queriesInFlight.execute(key, new Callable<Map<Tag, double[]>>() {
+				@Override
+				public Map<Tag, double[]> call() throws Exception {
+					return getData(isCost, interval, tagLists, groupBy, aggregate, exclude, usageUnit, userTagGroupByIndex, tagKeys);
+				}
+			}, SingleFlight.defaultTimeoutMillis));
+		}
+    	catch (ExecutionException e) {
+    		if (e.getCause() instanceof RuntimeException)
+    			throw (RuntimeException) e.getCause();
+    		throw new RuntimeException(e.getCause());
+		}
+    	catch (TimeoutException e) {
+    		throw new RuntimeException(dbName + " timed out waiting for an identical query", e);
+		}
+    	catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		throw new RuntimeException(dbName + " interrupted waiting for an identical query", e);
+		}
+    }
+    
+    SingleFlight<?, ?> getQueriesInFlight() {
+    	return queriesInFlight;
     }
 
 	@Override
@@ -139,6 +184,6 @@ public abstract class CommonDataManager<T extends ReadOnlyGenericData<D>, D>  ex
 	@Override
 	public Map<Tag, double[]> getData(boolean isCost, Interval interval, TagLists tagLists,
 			TagType groupBy, AggregateType aggregate, int userTagGroupByIndex, List<UserTagKey> tagKeys) {
-		return getData(isCost, interval, tagLists, groupBy, aggregate, null, null, userTagGroupByIndex, tagKeys);
+		return getDataOnce(isCost, interval, tagLists, groupBy, aggregate, null, null, userTagGroupByIndex, tagKeys);
 	}
 }
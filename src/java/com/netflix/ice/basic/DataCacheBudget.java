@@ -0,0 +1,206 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.basic;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Heap budget shared by the data file caches of all the data managers.
+ *
+ * Each loaded data file is weighed by an estimate of its retained size. When the total goes over the budget,
+ * files are evicted using Greedy-Dual-Size-Frequency: each file has a priority of L + frequency / megabytes,
+ * and the file with the lowest priority is dropped first. L is raised to the priority of each evicted file so
+ * that files which were popular long ago eventually age out. Large, rarely read files go first while small or
+ * frequently read files stay.
+ */
+public class DataCacheBudget {
+    protected Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final long maxBytes;
+    private final Map<Key, Entry> entries = Maps.newHashMap();
+    private long usedBytes = 0;
+    private double inflation = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong evictedBytes = new AtomicLong();
+
+    private static class Key {
+    	final DataFileCache<?> owner;
+    	final DateTime time;
+
+    	Key(DataFileCache<?> owner, DateTime time) {
+    		this.owner = owner;
+    		this.time = time;
+    	}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key other = (Key) o;
+			return owner == other.owner && time.equals(other.time);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(owner) + time.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return owner.dbName + " " + time;
+		}
+    }
+
+    private static class Entry {
+    	final long bytes;
+    	long frequency = 1;
+    	double priority;
+
+    	Entry(long bytes) {
+    		this.bytes = bytes;
+    	}
+    }
+
+    public DataCacheBudget(long maxBytes) {
+    	this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Record a read of a data file from a cache. Files not seen before are added to the budget, which may
+     * evict other files.
+     *
+     * @param owner cache holding the file
+     * @param time cache key of the file
+     * @param bytes estimated size of the file data, only used if the file is not yet in the budget
+     */
+    public void access(DataFileCache<?> owner, DateTime time, long bytes) {
+    	Key key = new Key(owner, time);
+    	List<Key> victims;
+    	synchronized (this) {
+	    	Entry entry = entries.get(key);
+	    	if (entry != null) {
+	    		hits.incrementAndGet();
+	    		entry.frequency++;
+	    		entry.priority = priority(entry);
+	    		return;
+	    	}
+	    	misses.incrementAndGet();
+	    	victims = add(key, bytes);
+    	}
+    	evict(victims);
+    }
+
+    /**
+     * Replace the size of a data file that was reloaded.
+     */
+    public void replace(DataFileCache<?> owner, DateTime time, long bytes) {
+    	Key key = new Key(owner, time);
+    	List<Key> victims;
+    	synchronized (this) {
+    		Entry old = entries.remove(key);
+    		if (old != null)
+    			usedBytes -= old.bytes;
+	    	victims = add(key, bytes);
+	    	if (old != null)
+	    		entries.get(key).frequency = old.frequency;
+    	}
+    	evict(victims);
+    }
+
+    /**
+     * Release the space of a data file that is no longer in its cache.
+     */
+    public synchronized void remove(DataFileCache<?> owner, DateTime time) {
+    	Entry entry = entries.remove(new Key(owner, time));
+    	if (entry != null)
+    		usedBytes -= entry.bytes;
+    }
+
+    private List<Key> add(Key key, long bytes) {
+		Entry entry = new Entry(bytes);
+		entry.priority = priority(entry);
+		entries.put(key, entry);
+		usedBytes += bytes;
+
+		// Always keep the file just added even if it alone is over the budget
+		List<Key> victims = Lists.newArrayList();
+		while (usedBytes > maxBytes && entries.size() > 1) {
+			Key victim = null;
+			Entry victimEntry = null;
+			for (Map.Entry<Key, Entry> e: entries.entrySet()) {
+				if (e.getValue() == entry)
+					continue;
+				if (victimEntry == null || e.getValue().priority < victimEntry.priority) {
+					victim = e.getKey();
+					victimEntry = e.getValue();
+				}
+			}
+			entries.remove(victim);
+			usedBytes -= victimEntry.bytes;
+			inflation = Math.max(inflation, victimEntry.priority);
+			victims.add(victim);
+			evictions.incrementAndGet();
+			evictedBytes.addAndGet(victimEntry.bytes);
+		}
+		return victims;
+    }
+
+    private double priority(Entry entry) {
+    	return inflation + entry.frequency / Math.max(entry.bytes / (1024.0 * 1024.0), 0.001);
+    }
+
+    private void evict(List<Key> victims) {
+    	// Drop the files from their caches outside the lock since the removal calls back into remove()
+    	for (Key victim: victims) {
+    		logger.info("evicting " + victim + " to stay within data cache budget");
+    		victim.owner.evict(victim.time);
+    	}
+    }
+
+    public synchronized long getUsedBytes() {
+    	return usedBytes;
+    }
+
+    public synchronized int size() {
+    	return entries.size();
+    }
+
+    public long getEvictions() {
+    	return evictions.get();
+    }
+
+    public String getStatistics() {
+    	long h = hits.get();
+    	long m = misses.get();
+    	double hitRate = h + m == 0 ? 0.0 : (double) h / (h + m);
+    	return String.format("DataCache: files=%d, size=%.1fMB, budget=%.1fMB, hits=%d, misses=%d, hitRate=%.1f%%, evictions=%d, evictedSize=%.1fMB",
+    			size(), getUsedBytes() / 1048576.0, maxBytes / 1048576.0, h, m, hitRate * 100.0, evictions.get(), evictedBytes.get() / 1048576.0);
+    }
+}
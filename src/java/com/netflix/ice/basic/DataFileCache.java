@@ -23,11 +23,20 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeoutException;
 import java.util.zip.GZIPInputStream;
 
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.joda.time.Interval;
 import org.joda.time.PeriodType;
 import org.slf4j.Logger;
@@ -37,16 +46,20 @@ import com.amazonaws.AmazonServiceException;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
 import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.netflix.ice.common.AccountService;
 import com.netflix.ice.common.AwsUtils;
 import com.netflix.ice.common.WorkBucketConfig;
 import com.netflix.ice.common.ConsolidateType;
 import com.netflix.ice.common.ProductService;
 import com.netflix.ice.reader.DataCache;
+import com.netflix.ice.reader.DataChangeListener;
+import com.netflix.ice.reader.QueryContext;
 import com.netflix.ice.tag.Zone.BadZone;
 
 /**
@@ -56,6 +69,12 @@ abstract public class DataFileCache<T> implements DataCache {
     protected Logger logger = LoggerFactory.getLogger(getClass());
     
     protected static final String compressExtension = ".gz";
+    private static final int maxLoadAttempts = 3;
+    
+    // loads files for queries that may stop waiting for them, shared by all the caches.
+    // Each file has at most one load on the pool at a time, see loadsInFlight.
+    private static final ExecutorService loadPool = Executors.newCachedThreadPool(
+    		new ThreadFactoryBuilder().setDaemon(true).setNameFormat("data-file-load-%d").build());
 
     protected final DateTime startDate;
     protected final String dbName;
@@ -71,6 +90,25 @@ abstract public class DataFileCache<T> implements DataCache {
     // data cache
     protected LoadingCache<DateTime, T> data;
     
+    // notified when a new version of a data file is loaded
+    private volatile DataChangeListener changeListener = null;
+    
+    // records the data files read by queries so they can be preloaded after a restart
+    private volatile WarmUpPlanner warmUpPlanner = null;
+    
+    // heap budget shared with the other data managers, replaces the per-cache limit on the number of files
+    private volatile DataCacheBudget budget = null;
+    private final int monthlyCacheSize;
+    
+    // files being reloaded after a change, so that only one reload of each runs at a time
+    private final SingleFlight<DateTime, Void> refreshesInFlight = new SingleFlight<DateTime, Void>();
+    
+    // files being loaded on the load pool for queries, shared by every query waiting for the same file
+    private final ConcurrentMap<DateTime, FutureTask<T>> loadsInFlight = Maps.newConcurrentMap();
+    
+    // keys dropped from the data cache that may come back with a new version of the file
+    private Set<DateTime> evicted = Collections.newSetFromMap(Maps.<DateTime, Boolean>newConcurrentMap());
+    
     public DataFileCache(DateTime startDate, final String dbName, ConsolidateType consolidateType, boolean compress,
     		int monthlyCacheSize, WorkBucketConfig workBucketConfig, AccountService accountService, ProductService productService) {
     	this.startDate = startDate;
@@ -80,17 +118,27 @@ abstract public class DataFileCache<T> implements DataCache {
         this.workBucketConfig = workBucketConfig;
         this.accountService = accountService;
         this.productService = productService;
+        this.monthlyCacheSize = monthlyCacheSize;
         
         buildCache(monthlyCacheSize);
     }
     
     protected void buildCache(int monthlyCacheSize) {
-        data = CacheBuilder.newBuilder()
-     	       .maximumSize(monthlyCacheSize)
+    	CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+    	if (budget == null)
+    		builder.maximumSize(monthlyCacheSize);
+        data = builder
      	       .removalListener(new RemovalListener<DateTime, T>() {
      	           public void onRemoval(RemovalNotification<DateTime, T> objectRemovalNotification) {
+     	        	   if (objectRemovalNotification.getCause() == RemovalCause.REPLACED)
+     	        		   return;
      	               logger.info(dbName + " removing from file cache " + objectRemovalNotification.getKey() + ", " + objectRemovalNotification.getCause().name());
      	               fileCache.remove(objectRemovalNotification.getKey());
+     	               if (objectRemovalNotification.wasEvicted())
+     	            	   evicted.add(objectRemovalNotification.getKey());
+     	               DataCacheBudget b = budget;
+     	               if (b != null)
+     	            	   b.remove(DataFileCache.this, objectRemovalNotification.getKey());
      	           }
      	       })
      	       .build(
@@ -101,6 +149,58 @@ abstract public class DataFileCache<T> implements DataCache {
      	               });
     }
     
+    public void setChangeListener(DataChangeListener changeListener) {
+    	this.changeListener = changeListener;
+    }
+    
+    public void setWarmUpPlanner(WarmUpPlanner warmUpPlanner) {
+    	this.warmUpPlanner = warmUpPlanner;
+    }
+    
+    /**
+     * Share a heap budget with other caches instead of holding up to monthlyCacheSize files.
+     * Must be called before any data is loaded.
+     */
+    public void setCacheBudget(DataCacheBudget budget) {
+    	this.budget = budget;
+    	buildCache(monthlyCacheSize);
+    }
+    
+    /**
+     * Drop a file from the cache to make room for others.
+     */
+    void evict(DateTime key) {
+    	// A new version of the file may be downloaded before it is read again
+    	evicted.add(key);
+    	data.invalidate(key);
+    }
+    
+    /**
+     * Approximate number of bytes held on the heap by the data of a file
+     */
+    abstract protected long estimateBytes(T data);
+    
+    /**
+     * Time range covered by the file for the supplied cache key
+     */
+    protected Interval getFileInterval(DateTime key) {
+    	switch (consolidateType) {
+    	case hourly:
+    		return new Interval(key, key.plusMonths(1));
+    	case daily:
+    		return new Interval(key, key.plusYears(1));
+    	default:
+    		// Weekly and monthly data are held in a single file
+    		return new Interval(startDate, startDate.plusYears(100));
+    	}
+    }
+    
+    private void notifyChanged(DateTime key) {
+    	DataChangeListener listener = changeListener;
+    	if (listener != null)
+    		listener.dataChanged(consolidateType, getFileInterval(key));
+    }
+    
     /**
      * We check if new data is available periodically
      */
@@ -110,13 +210,7 @@ abstract public class DataFileCache<T> implements DataCache {
         for (DateTime key: Sets.newHashSet(fileCache.keySet())) {
             File file = fileCache.get(key);
             try {
-                logger.info("trying to download " + file);
-                boolean downloaded = downloadFile(file);
-                if (downloaded || (data.get(key) == null && file.exists())) {
-                    T newData = loadDataFromFile(file);
-                    data.put(key, newData);
-                    fileCache.put(key, file);
-                }
+            	refresh(key, file);
             }
             catch (Exception e) {
                 logger.error("failed to download " + file, e);
@@ -125,15 +219,70 @@ abstract public class DataFileCache<T> implements DataCache {
         }
         return false;
     }
+    
+    /**
+     * Reload the file holding the data for time if it's in the cache. Files not in the cache
+     * are checked for a new version when they are next loaded.
+     */
+    public void refresh(DateTime time) {
+    	DateTime key = getKey(time);
+    	File file = fileCache.get(key);
+    	if (file == null)
+    		return;
+    	try {
+    		refresh(key, file);
+    	}
+    	catch (Exception e) {
+    		logger.error("failed to download " + file, e);
+    	}
+    }
+    
+    private void refresh(final DateTime key, final File file) throws Exception {
+    	// Changes from the manifest and the periodic refresh may ask for the same file at once
+    	try {
+	    	refreshesInFlight.execute(key, new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					reload(key, file);
+					return null;
+				}
+	    	}, SingleFlight.defaultTimeoutMillis);
+    	}
+    	catch (ExecutionException e) {
+    		throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    	}
+    }
+    
+    private void reload(DateTime key, File file) throws Exception {
+        logger.info("trying to download " + file);
+        boolean downloaded = downloadFile(file);
+        if (downloaded || (data.get(key) == null && file.exists())) {
+            T newData = loadDataFromFile(file);
+            data.put(key, newData);
+            fileCache.put(key, file);
+            DataCacheBudget b = budget;
+            if (b != null)
+            	b.replace(this, key, estimateBytes(newData));
+            notifyChanged(key);
+        }
+    }
 
     abstract protected T newEmptyData();
 
-    private T loadData(DateTime monthDate) throws InterruptedException {
-        while (true) {
-            File file = getDownloadFile(monthDate);
+    /**
+     * Called by the data cache, which runs one load at a time for each key and has any other readers of the key
+     * wait for it. If the load fails they all get the exception and the next read tries again.
+     */
+    private T loadData(DateTime monthDate) throws Exception {
+        for (int attempt = 1; ; attempt++) {
+            File file = getFile(monthDate);
+            boolean downloaded = downloadFile(file);
             try {
                 T result = loadDataFromFile(file);
                 fileCache.put(monthDate, file);
+                // The file may have been updated while it was out of the cache
+                if (evicted.remove(monthDate) && downloaded)
+                	notifyChanged(monthDate);
                 return result;
             }
             catch (FileNotFoundException e) {
@@ -147,17 +296,13 @@ abstract public class DataFileCache<T> implements DataCache {
                     logger.info("deleted corrupted file " + file);
                 else
                     logger.error("not able to delete corrupted file " + file);
+                if (attempt >= maxLoadAttempts)
+                	throw e;
                 Thread.sleep(2000L);
             }
         }
     }
 
-    private synchronized File getDownloadFile(DateTime monthDate) {
-        File file = getFile(monthDate);
-        downloadFile(file);
-        return file;
-    }
-
     protected File getFile(DateTime monthDate) {
     	String filename = dbName;
         if (consolidateType == ConsolidateType.hourly)
@@ -225,7 +370,19 @@ abstract public class DataFileCache<T> implements DataCache {
     		break;
     	}
 
-        T result = this.data.get(key);
+    	WarmUpPlanner planner = warmUpPlanner;
+    	if (planner != null)
+    		planner.record(dbName, consolidateType, key, DateTime.now(DateTimeZone.UTC));
+    	return getCachedData(key);
+    }
+    
+    private T getCachedData(DateTime key) throws ExecutionException {
+        T result = this.data.getIfPresent(key);
+        if (result == null)
+        	result = load(key);
+        DataCacheBudget b = budget;
+        if (b != null)
+        	b.access(this, key, estimateBytes(result));
 
         if (fileCache.get(key) == null) {
             logger.warn(dbName + " cannot find file in fileCache " + key);
@@ -234,6 +391,83 @@ abstract public class DataFileCache<T> implements DataCache {
         return result;
     }
     
+    /**
+     * Load a file into the cache. A query that is cancelled while the file loads stops waiting for it,
+     * but the load carries on so the file is ready for the next query. Queries for a file that is already
+     * loading wait on the same load rather than starting another pool thread.
+     */
+    private T load(final DateTime key) throws ExecutionException {
+    	if (QueryContext.current() == null)
+    		return data.get(key);
+    	
+    	FutureTask<T> future = loadsInFlight.get(key);
+    	if (future == null) {
+    		final FutureTask<T> task = new FutureTask<T>(new Callable<T>() {
+    			@Override
+    			public T call() throws Exception {
+    				return data.get(key);
+    			}
+    		});
+    		future = loadsInFlight.putIfAbsent(key, task);
+    		if (future == null) {
+    			future = task;
+    			loadPool.execute(new Runnable() {
+    				@Override
+    				public void run() {
+    					try {
+    						task.run();
+    					}
+    					finally {
+    						loadsInFlight.remove(key, task);
+    					}
+    				}
+    			});
+    		}
+    	}
+    	try {
+    		return QueryContext.await(future, 0);
+    	}
+    	catch (ExecutionException e) {
+    		if (e.getCause() instanceof ExecutionException)
+    			throw (ExecutionException) e.getCause();
+    		if (e.getCause() instanceof RuntimeException)
+    			throw (RuntimeException) e.getCause();
+    		throw e;
+    	}
+    	catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		throw new QueryContext.CancelledException("interrupted waiting for " + dbName + " " + key);
+    	}
+    	catch (TimeoutException e) {
+    		// Can't happen without a timeout
+    		throw new ExecutionException(e);
+    	}
+    }
+    
+    /**
+     * Load the file holding the data for time into the cache if it isn't already there.
+     */
+    public void preload(DateTime time) throws ExecutionException {
+    	DateTime key = getKey(time);
+    	if (!getFileInterval(key).getEnd().isAfter(startDate))
+    		return;
+    	getCachedData(key);
+    }
+    
+    /**
+     * Cache key of the file holding the data for time
+     */
+    protected DateTime getKey(DateTime time) {
+    	switch (consolidateType) {
+    	case hourly:
+    		return time.withDayOfMonth(1).withMillisOfDay(0);
+    	case daily:
+    		return time.withDayOfYear(1).withMillisOfDay(0);
+    	default:
+    		return startDate;
+    	}
+    }
+    
     protected Interval getAdjustedInterval(Interval interval) {
     	// For hourly and daily consolidation, we need to start at first of month or year
         DateTime start = startDate;
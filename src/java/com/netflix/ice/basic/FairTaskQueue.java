@@ -0,0 +1,149 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.basic;
+
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Admits tasks into a thread pool taking turns between users.
+ *
+ * Each user has a queue and at most maxRunning tasks run at once, one per pool thread. When a thread frees up
+ * the next task is taken from the user after the one last served, so a user who submits many tasks only delays
+ * other users by one task each rather than by everything queued ahead of them. Cancelled tasks are dropped
+ * from the queues without running.
+ */
+public class FairTaskQueue {
+	private final Executor pool;
+	private final int maxRunning;
+
+	// users with queued tasks in the order they will be served next
+	private final Map<String, Queue<FutureTask<?>>> queues = Maps.newLinkedHashMap();
+	private int running = 0;
+	private int queued = 0;
+
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+
+	/**
+	 * @param pool executes the admitted tasks, should have at least maxRunning threads
+	 */
+	public FairTaskQueue(Executor pool, int maxRunning) {
+		this.pool = pool;
+		this.maxRunning = maxRunning;
+	}
+
+	public <T> Future<T> submit(String user, Callable<T> task) {
+		FutureTask<T> future = new FutureTask<T>(task);
+		submitted.incrementAndGet();
+		synchronized (this) {
+			Queue<FutureTask<?>> queue = queues.get(user);
+			if (queue == null) {
+				queue = new LinkedList<FutureTask<?>>();
+				queues.put(user, queue);
+			}
+			queue.add(future);
+			queued++;
+		}
+		dispatch();
+		return future;
+	}
+
+	private void dispatch() {
+		while (true) {
+			FutureTask<?> next = null;
+			synchronized (this) {
+				if (running >= maxRunning)
+					return;
+				next = poll();
+				if (next == null)
+					return;
+				running++;
+			}
+			final FutureTask<?> task = next;
+			try {
+				pool.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							task.run();
+						}
+						finally {
+							finished();
+						}
+					}
+				});
+			}
+			catch (RuntimeException e) {
+				// Pool was shut down
+				task.cancel(false);
+				synchronized (this) {
+					running--;
+				}
+				throw e;
+			}
+		}
+	}
+
+	private void finished() {
+		synchronized (this) {
+			running--;
+		}
+		dispatch();
+	}
+
+	/**
+	 * Take the next task from the first user and move that user to the back of the line.
+	 * Users are removed once their queue is empty so every queue in the map has a task.
+	 */
+	private FutureTask<?> poll() {
+		while (!queues.isEmpty()) {
+			String user = queues.keySet().iterator().next();
+			Queue<FutureTask<?>> queue = queues.remove(user);
+			FutureTask<?> task = queue.poll();
+			queued--;
+			if (!queue.isEmpty())
+				queues.put(user, queue);
+			if (!task.isCancelled())
+				return task;
+			skipped.incrementAndGet();
+		}
+		return null;
+	}
+
+	public synchronized int getRunning() {
+		return running;
+	}
+
+	public synchronized int getQueued() {
+		return queued;
+	}
+
+	public synchronized String getStatistics() {
+		return String.format("FairTaskQueue: running=%d, queued=%d, users=%d, submitted=%d, skippedCancelled=%d",
+				running, queued, queues.size(), submitted.get(), skipped.get());
+	}
+}
@@ -0,0 +1,305 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.basic;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.Interval;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.netflix.ice.common.ConsolidateType;
+import com.netflix.ice.reader.AggregateType;
+import com.netflix.ice.reader.DataChangeListener;
+import com.netflix.ice.reader.TagLists;
+import com.netflix.ice.reader.TagListsWithUserTags;
+import com.netflix.ice.reader.UsageUnit;
+import com.netflix.ice.tag.Account;
+import com.netflix.ice.tag.CostType;
+import com.netflix.ice.tag.Operation;
+import com.netflix.ice.tag.Product;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.ResourceGroup;
+import com.netflix.ice.tag.Tag;
+import com.netflix.ice.tag.TagType;
+import com.netflix.ice.tag.UsageType;
+import com.netflix.ice.tag.UserTag;
+import com.netflix.ice.tag.Zone;
+
+/**
+ * Cache of getData() results shared by all dashboard users.
+ *
+ * Entries are weighed by the size of the result and dropped whenever a data file or tag group
+ * file that overlaps the query interval is reloaded. A result computed while data was being reloaded
+ * is not cached since it may contain a mix of old and new data.
+ */
+public class QueryResultCache implements DataChangeListener {
+    protected Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final int entryOverhead = 256;
+    private static final int tagOverhead = 64;
+
+    private final Cache<Query, Map<Tag, double[]>> cache;
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong hitNanos = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Normalized form of the getData() parameters. Filter lists are sorted so that equivalent
+     * requests share an entry. A null list and an empty list are kept distinct.
+     */
+    public static class Query {
+    	final long start;
+    	final long end;
+    	final boolean isCost;
+    	final ConsolidateType consolidateType;
+    	final TagType groupBy;
+    	final AggregateType aggregate;
+    	final UsageUnit usageUnit;
+    	final int userTagGroupByIndex;
+    	final List<List<? extends Comparable<?>>> filters;
+    	private final int hashCode;
+
+    	public Query(
+	    		Interval interval,
+	    		List<CostType> costTypes,
+	    		List<Account> accounts,
+	    		List<Region> regions,
+	    		List<Zone> zones,
+	    		List<Product> products,
+	    		List<Operation> operations,
+	    		List<UsageType> usageTypes,
+	    		boolean isCost,
+	    		ConsolidateType consolidateType,
+	    		TagType groupBy,
+	    		AggregateType aggregate,
+	    		List<Operation.Identity.Value> exclude,
+	    		UsageUnit usageUnit,
+	    		List<List<UserTag>> userTagLists,
+	    		int userTagGroupByIndex) {
+    		this(interval, costTypes, accounts, regions, zones, products, operations, usageTypes, null,
+    				isCost, consolidateType, groupBy, aggregate, exclude, usageUnit, userTagLists, userTagGroupByIndex);
+    	}
+
+    	private Query(
+	    		Interval interval,
+	    		List<CostType> costTypes,
+	    		List<Account> accounts,
+	    		List<Region> regions,
+	    		List<Zone> zones,
+	    		List<Product> products,
+	    		List<Operation> operations,
+	    		List<UsageType> usageTypes,
+	    		List<ResourceGroup> resourceGroups,
+	    		boolean isCost,
+	    		ConsolidateType consolidateType,
+	    		TagType groupBy,
+	    		AggregateType aggregate,
+	    		List<Operation.Identity.Value> exclude,
+	    		UsageUnit usageUnit,
+	    		List<List<UserTag>> userTagLists,
+	    		int userTagGroupByIndex) {
+    		this.start = interval.getStartMillis();
+    		this.end = interval.getEndMillis();
+    		this.isCost = isCost;
+    		this.consolidateType = consolidateType;
+    		this.groupBy = groupBy;
+    		this.aggregate = aggregate;
+    		this.usageUnit = usageUnit;
+    		this.userTagGroupByIndex = userTagGroupByIndex;
+
+    		filters = Lists.newArrayList();
+    		filters.add(sorted(costTypes));
+    		filters.add(sorted(accounts));
+    		filters.add(sorted(regions));
+    		filters.add(sorted(zones));
+    		filters.add(sorted(products));
+    		filters.add(sorted(operations));
+    		filters.add(sorted(usageTypes));
+    		filters.add(sorted(resourceGroups));
+    		filters.add(sorted(exclude));
+    		if (userTagLists != null) {
+    			// Position in the outer list identifies the tag key, so only sort the values
+    			for (List<UserTag> userTags: userTagLists)
+    				filters.add(sorted(userTags));
+    		}
+
+    		hashCode = Arrays.hashCode(new Object[]{ start, end, isCost, consolidateType, groupBy, aggregate, usageUnit, userTagGroupByIndex, filters });
+    	}
+
+    	public Query(
+	    		Interval interval,
+	    		TagLists tagLists,
+	    		boolean isCost,
+	    		ConsolidateType consolidateType,
+	    		TagType groupBy,
+	    		AggregateType aggregate,
+	    		List<Operation.Identity.Value> exclude,
+	    		UsageUnit usageUnit,
+	    		int userTagGroupByIndex) {
+    		this(interval, tagLists.costTypes, tagLists.accounts, tagLists.regions, tagLists.zones, tagLists.products, tagLists.operations, tagLists.usageTypes,
+    				tagLists.resourceGroups, isCost, consolidateType, groupBy, aggregate, exclude, usageUnit,
+    				tagLists instanceof TagListsWithUserTags ? ((TagListsWithUserTags) tagLists).resourceUserTagLists : null,
+    				userTagGroupByIndex);
+    	}
+
+    	private static <T extends Comparable<? super T>> List<T> sorted(List<T> list) {
+    		if (list == null)
+    			return null;
+    		List<T> copy = Lists.newArrayList(list);
+    		copy.removeAll(Collections.singleton(null));
+    		Collections.sort(copy);
+    		if (copy.size() < list.size())
+    			copy.add(null); // keep nulls significant without breaking the sort
+    		return copy;
+    	}
+
+    	boolean overlaps(ConsolidateType changedConsolidateType, Interval changed) {
+    		if (changedConsolidateType != null && changedConsolidateType != consolidateType)
+    			return false;
+    		return changed.getStartMillis() < end && start < changed.getEndMillis();
+    	}
+
+    	@Override
+    	public boolean equals(Object o) {
+    		if (this == o)
+    			return true;
+    		if (!(o instanceof Query))
+    			return false;
+    		Query other = (Query) o;
+    		return hashCode == other.hashCode &&
+    				start == other.start &&
+    				end == other.end &&
+    				isCost == other.isCost &&
+    				consolidateType == other.consolidateType &&
+    				groupBy == other.groupBy &&
+    				aggregate == other.aggregate &&
+    				usageUnit == other.usageUnit &&
+    				userTagGroupByIndex == other.userTagGroupByIndex &&
+    				filters.equals(other.filters);
+    	}
+
+    	@Override
+    	public int hashCode() {
+    		return hashCode;
+    	}
+    }
+
+    public QueryResultCache(long maxBytes) {
+    	cache = CacheBuilder.newBuilder()
+    			.maximumWeight(maxBytes)
+    			.weigher(new Weigher<Query, Map<Tag, double[]>>() {
+    				@Override
+    				public int weigh(Query query, Map<Tag, double[]> data) {
+    					long weight = entryOverhead;
+    					for (double[] values: data.values())
+    						weight += tagOverhead + (values == null ? 0 : values.length * 8L);
+    					return (int) Math.min(weight, Integer.MAX_VALUE);
+    				}
+    			})
+    			.recordStats()
+    			.build();
+    }
+
+    /**
+     * Current data generation. Pass it to put() so results computed across a data reload aren't cached.
+     */
+    public long getGeneration() {
+    	return generation.get();
+    }
+
+    /**
+     * Returns a copy of the cached result or null if not present.
+     */
+    public Map<Tag, double[]> get(Query query) {
+    	long startNanos = System.nanoTime();
+    	Map<Tag, double[]> data = cache.getIfPresent(query);
+    	if (data == null) {
+    		misses.incrementAndGet();
+    		return null;
+    	}
+    	Map<Tag, double[]> result = copy(data);
+    	hits.incrementAndGet();
+    	hitNanos.addAndGet(System.nanoTime() - startNanos);
+    	return result;
+    }
+
+    /**
+     * Save a copy of the result if no data was reloaded since the supplied generation was read.
+     */
+    public void put(Query query, Map<Tag, double[]> data, long generation) {
+    	if (generation != this.generation.get())
+    		return;
+    	cache.put(query, copy(data));
+    	// Check again in case data changed while we were adding the entry
+    	if (generation != this.generation.get())
+    		cache.invalidate(query);
+    }
+
+    @Override
+    public void dataChanged(ConsolidateType consolidateType, Interval interval) {
+    	generation.incrementAndGet();
+    	int removed = 0;
+    	for (Iterator<Query> it = cache.asMap().keySet().iterator(); it.hasNext(); ) {
+    		if (it.next().overlaps(consolidateType, interval)) {
+    			it.remove();
+    			removed++;
+    		}
+    	}
+    	invalidations.addAndGet(removed);
+    	if (removed > 0)
+    		logger.info("invalidated " + removed + " cached queries for " + (consolidateType == null ? "all" : consolidateType) + " " + interval);
+    }
+
+    public void clear() {
+    	generation.incrementAndGet();
+    	cache.invalidateAll();
+    }
+
+    public long size() {
+    	return cache.size();
+    }
+
+    public String getStatistics() {
+    	long h = hits.get();
+    	long m = misses.get();
+    	double hitRate = h + m == 0 ? 0.0 : (double) h / (h + m);
+    	double hitMillis = h == 0 ? 0.0 : hitNanos.get() / 1000000.0 / h;
+    	return String.format("QueryCache: entries=%d, hits=%d, misses=%d, hitRate=%.1f%%, avgHitLatency=%.3fms, invalidations=%d, evictions=%d",
+    			cache.size(), h, m, hitRate * 100.0, hitMillis, invalidations.get(), cache.stats().evictionCount());
+    }
+
+    static Map<Tag, double[]> copy(Map<Tag, double[]> data) {
+    	Map<Tag, double[]> copy = Maps.newTreeMap();
+    	for (Map.Entry<Tag, double[]> entry: data.entrySet())
+    		copy.put(entry.getKey(), entry.getValue() == null ? null : Arrays.copyOf(entry.getValue(), entry.getValue().length));
+    	return copy;
+    }
+}
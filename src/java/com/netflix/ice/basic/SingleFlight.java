@@ -0,0 +1,110 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.basic;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.Maps;
+import com.netflix.ice.reader.QueryContext;
+
+/**
+ * Runs at most one computation at a time for each key and shares its result with all the callers that
+ * asked for the same key while it was running.
+ *
+ * The first caller for a key runs the computation on its own thread. Later callers wait for it to finish
+ * and get the same result, or the same exception if it failed. A waiter that gives up after its timeout
+ * doesn't affect the computation or the other waiters. Once a computation finishes its key is cleared, so
+ * results are never reused after the fact. Use a cache for that.
+ *
+ * Waiters give up early if their own request is cancelled. If the request that started a computation is
+ * cancelled, the computation fails for it and the callers still waiting start a new one.
+ */
+public class SingleFlight<K, V> {
+	// Longest a request waits for an identical one that is already running
+	public static final long defaultTimeoutMillis = 5 * 60 * 1000L;
+
+	private final ConcurrentMap<K, FutureTask<V>> inFlight = Maps.newConcurrentMap();
+	private final AtomicLong computations = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+
+	/**
+	 * Get the result of the callable for the key, sharing the computation with any other caller for the same key.
+	 *
+	 * @param timeoutMillis maximum time to wait for a computation started by another caller, 0 or less to wait until it's done
+	 * @throws ExecutionException if the computation failed, with the cause thrown by the callable
+	 * @throws TimeoutException if the wait for another caller's computation timed out
+	 */
+	public V execute(K key, Callable<V> callable, long timeoutMillis) throws ExecutionException, TimeoutException, InterruptedException {
+		while (true) {
+			FutureTask<V> task = new FutureTask<V>(callable);
+			FutureTask<V> running = inFlight.putIfAbsent(key, task);
+			if (running == null) {
+				computations.incrementAndGet();
+				try {
+					task.run();
+				}
+				finally {
+					inFlight.remove(key, task);
+				}
+				return task.get();
+			}
+
+			coalesced.incrementAndGet();
+			try {
+				return QueryContext.await(running, timeoutMillis);
+			}
+			catch (TimeoutException e) {
+				timeouts.incrementAndGet();
+				throw e;
+			}
+			catch (ExecutionException e) {
+				// The request that started the computation went away. If this one is still wanted, start over.
+				if (!(e.getCause() instanceof QueryContext.CancelledException))
+					throw e;
+				QueryContext.checkCurrent();
+				inFlight.remove(key, running);
+			}
+		}
+	}
+
+	/**
+	 * Number of keys being computed right now
+	 */
+	public int size() {
+		return inFlight.size();
+	}
+
+	public long getComputations() {
+		return computations.get();
+	}
+
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+
+	public String getStatistics(String name) {
+		return String.format("%s: inFlight=%d, computations=%d, coalesced=%d, waitTimeouts=%d",
+				name, inFlight.size(), computations.get(), coalesced.get(), timeouts.get());
+	}
+}
@@ -59,17 +59,6 @@ public class TagCoverageDataManager extends CommonDataManager<ReadOnlyTagCoverag
 		return userTagKeys.size();
 	}
     
-	private void addData(TagCoverageMetrics[] from, TagCoverageMetrics[] to) {
-        for (int i = 0; i < from.length; i++) {
-        	if (from[i] == null)
-        		continue;
-        	else if (to[i] == null)
-        		to[i] = from[i];
-        	else
-            	to[i].add(from[i]);
-        }
-	}
-
 	@Override
 	protected ReadOnlyTagCoverageData newEmptyData() {
     	return new ReadOnlyTagCoverageData(getUserTagKeysSize());
@@ -83,31 +72,16 @@ public class TagCoverageDataManager extends CommonDataManager<ReadOnlyTagCoverag
 	    return result;
 	}
 
-    private int aggregate(ReadOnlyTagCoverageData data, int from, int to, TagCoverageMetrics[] result, List<TagGroup> tagGroups, UsageUnit usageUnit) {
-        int fromIndex = from;
-
-		int numToCopy = Math.min(result.length - to, data.getNum() - from);
-		TagCoverageMetrics[] values = new TagCoverageMetrics[numToCopy];
+    private int aggregate(ReadOnlyTagCoverageData data, int from, int to, TagCoverageColumns result, List<TagGroup> tagGroups, UsageUnit usageUnit) {
+		int numToCopy = Math.min(result.size() - to, data.getNum() - from);
+		if (numToCopy <= 0)
+			return 0;
 
-		for (TagGroup tg: tagGroups) {
-			TimeSeriesTagCoverageMetrics tsd = data.getData(tg);
-			tsd.get(fromIndex, numToCopy, values);
-			for (int i = 0; i < numToCopy; i++) {
-				result[to+i].add(values[i]);
-			}
-		}
+		for (TagGroup tg: tagGroups)
+			data.getData(tg).aggregate(from, numToCopy, result, to);
 		return numToCopy;
 	}
 	
-	private boolean hasData(TagCoverageMetrics[] data) {
-    	// Check for values in the data array and ignore if all zeros
-    	for (TagCoverageMetrics d: data) {
-    		if (d != null && d.getTotal() > 0)
-    			return true;
-    	}
-    	return false;
-	}
-	
 	protected List<UserTagKey> getUserTagKeys() {
 		return userTagKeys;
 	}
@@ -116,6 +90,10 @@ public class TagCoverageDataManager extends CommonDataManager<ReadOnlyTagCoverag
     	return TagCoverageDataManager.processResult(data, groupBy, aggregate, tagKeys, getUserTagKeys());
     }
     
+    protected Map<Tag, double[]> processColumns(Map<Tag, TagCoverageColumns> data, TagType groupBy, AggregateType aggregate, List<UserTagKey> tagKeys) {
+    	return TagCoverageDataManager.processColumns(data, groupBy, aggregate, tagKeys, getUserTagKeys());
+    }
+    
     /*
      * Class to hold a single tag coverage ratio
      */
@@ -135,6 +113,15 @@ public class TagCoverageDataManager extends CommonDataManager<ReadOnlyTagCoverag
     }
     
     static public Map<Tag, double[]> processResult(Map<Tag, TagCoverageMetrics[]> data, TagType groupBy, AggregateType aggregate, List<UserTagKey> tagKeys, List<UserTagKey> userTagKeys) {
+    	Map<Tag, TagCoverageColumns> columns = Maps.newTreeMap();
+    	for (Map.Entry<Tag, TagCoverageMetrics[]> entry: data.entrySet()) {
+    		if (entry.getValue() != null)
+    			columns.put(entry.getKey(), TagCoverageColumns.fromMetrics(entry.getValue(), userTagKeys.size()));
+    	}
+    	return processColumns(columns, groupBy, aggregate, tagKeys, userTagKeys);
+    }
+    
+    static public Map<Tag, double[]> processColumns(Map<Tag, TagCoverageColumns> data, TagType groupBy, AggregateType aggregate, List<UserTagKey> tagKeys, List<UserTagKey> userTagKeys) {
     	// list of tagKeys we want to export
     	List<Integer> tagKeyIndecies = Lists.newArrayList();
     	for (UserTagKey tagKey: tagKeys) {
@@ -149,25 +136,27 @@ public class TagCoverageDataManager extends CommonDataManager<ReadOnlyTagCoverag
 		
 		if (groupBy == null || groupBy == TagType.TagKey) {
 			// All data is under the aggregated tag
-			TagCoverageMetrics[] metricsArray = data.get(Tag.aggregated);
-			if (metricsArray == null)
+			TagCoverageColumns columns = data.get(Tag.aggregated);
+			if (columns == null)
 				return result;
 
 			if (aggregateCoverage == null) {
-				aggregateCoverage = new Ratio[metricsArray.length];
+				aggregateCoverage = new Ratio[columns.size()];
 			}
 
-			double[][] d = new double[tagKeys.size()][metricsArray.length];
+			double[][] d = new double[tagKeys.size()][columns.size()];
 			
-			for (int i = 0; i < metricsArray.length; i++) {
+			for (int j = 0; j < tagKeyIndecies.size(); j++) {
+				int userTagIndex = tagKeyIndecies.get(j);
+				for (int i = 0; i < columns.size(); i++)
+					d[j][i] = columns.getPercentage(userTagIndex, i);
+			}
+			for (int i = 0; i < columns.size(); i++) {
 				for (int j = 0; j < tagKeyIndecies.size(); j++) {
-					if (metricsArray[i] != null) {
-						d[j][i] = metricsArray[i].getPercentage(tagKeyIndecies.get(j));
-						if (aggregateCoverage[i] == null)
-							aggregateCoverage[i] = new Ratio(metricsArray[i].getTotal(), metricsArray[i].getCount(j));
-						else
-							aggregateCoverage[i].add(metricsArray[i].getTotal(), metricsArray[i].getCount(j));						
-					}
+					if (aggregateCoverage[i] == null)
+						aggregateCoverage[i] = new Ratio(columns.getTotal(i), columns.getCount(j, i));
+					else
+						aggregateCoverage[i].add(columns.getTotal(i), columns.getCount(j, i));						
 				}
 			}
 			
@@ -185,24 +174,22 @@ public class TagCoverageDataManager extends CommonDataManager<ReadOnlyTagCoverag
 			int userTagIndex = tagKeyIndecies.get(0);
 			
 			for (Tag tag: data.keySet()) {
-				TagCoverageMetrics[] metricsArray = data.get(tag);
-				if (metricsArray == null)
+				TagCoverageColumns columns = data.get(tag);
+				if (columns == null)
 					continue;
 				
 				if (aggregateCoverage == null) {
-					aggregateCoverage = new Ratio[metricsArray.length];
+					aggregateCoverage = new Ratio[columns.size()];
 				}
 				
-				double[] d = new double[metricsArray.length];
+				double[] d = new double[columns.size()];
 				
-				for (int i = 0; i < metricsArray.length; i++) {
-					if (metricsArray[i] != null) {
-						d[i] = metricsArray[i].getPercentage(userTagIndex);
-						if (aggregateCoverage[i] == null)
-							aggregateCoverage[i] = new Ratio(metricsArray[i].getTotal(), metricsArray[i].getCount(userTagIndex));
-						else
-							aggregateCoverage[i].add(metricsArray[i].getTotal(), metricsArray[i].getCount(userTagIndex));
-					}
+				for (int i = 0; i < columns.size(); i++) {
+					d[i] = columns.getPercentage(userTagIndex, i);
+					if (aggregateCoverage[i] == null)
+						aggregateCoverage[i] = new Ratio(columns.getTotal(i), columns.getCount(userTagIndex, i));
+					else
+						aggregateCoverage[i].add(columns.getTotal(i), columns.getCount(userTagIndex, i));
 				}
 				
 				// Put the data into the map
@@ -229,7 +216,7 @@ public class TagCoverageDataManager extends CommonDataManager<ReadOnlyTagCoverag
     /*
      * Aggregate all the data matching the tags in tagLists at requested time for the specified to and from indices.
      */
-    private int aggregateData(DateTime time, TagLists tagLists, int from, int to, TagCoverageMetrics[] result, UsageUnit usageUnit, TagType groupBy, Tag tag, int userTagGroupByIndex) throws ExecutionException {
+    private int aggregateData(DateTime time, TagLists tagLists, int from, int to, TagCoverageColumns result, UsageUnit usageUnit, TagType groupBy, Tag tag, int userTagGroupByIndex) throws ExecutionException {
         ReadOnlyTagCoverageData data = getReadOnlyData(time);
 
 		// Figure out which tagGroups we're going to aggregate
@@ -239,14 +226,15 @@ public class TagCoverageDataManager extends CommonDataManager<ReadOnlyTagCoverag
 		return aggregate(data, from, to, result, tagGroups, usageUnit);
     }
         
-    public TagCoverageMetrics[] getData(Interval interval, TagLists tagLists, UsageUnit usageUnit, TagType groupBy, Tag tag, int userTagGroupByIndex) throws ExecutionException {
+    public TagCoverageColumns getData(Interval interval, TagLists tagLists, UsageUnit usageUnit, TagType groupBy, Tag tag, int userTagGroupByIndex) throws ExecutionException {
     	Interval adjusted = getAdjustedInterval(interval);
         DateTime start = adjusted.getStart();
         DateTime end = adjusted.getEnd();
 
-        TagCoverageMetrics[] result = new TagCoverageMetrics[getSize(interval)];
+        TagCoverageColumns result = new TagCoverageColumns(getUserTagKeysSize(), getSize(interval));
 
         do {
+        	QueryContext.checkCurrent();
             int resultIndex = getResultIndex(start, interval);
             int fromIndex = getFromIndex(start, interval);            
             int count = aggregateData(start, tagLists, fromIndex, resultIndex, result, usageUnit, groupBy, tag, userTagGroupByIndex);
@@ -265,25 +253,26 @@ public class TagCoverageDataManager extends CommonDataManager<ReadOnlyTagCoverag
         return result;
     }
     
-    private Map<Tag, TagCoverageMetrics[]> getGroupedData(Interval interval, Map<Tag, TagLists> tagListsMap, UsageUnit usageUnit, TagType groupBy, int userTagGroupByIndex) {
-        Map<Tag, TagCoverageMetrics[]> rawResult = Maps.newTreeMap();
+    private Map<Tag, TagCoverageColumns> getGroupedData(Interval interval, Map<Tag, TagLists> tagListsMap, UsageUnit usageUnit, TagType groupBy, int userTagGroupByIndex) {
+        Map<Tag, TagCoverageColumns> rawResult = Maps.newTreeMap();
 //        StopWatch sw = new StopWatch();
 //        sw.start();
         
         // For each of the groupBy values
         for (Tag tag: tagListsMap.keySet()) {
+        	QueryContext.checkCurrent();
             try {
                 //logger.info("Tag: " + tag + ", TagLists: " + tagListsMap.get(tag));
-            	TagCoverageMetrics[] data = getData(interval, tagListsMap.get(tag), usageUnit, groupBy, tag, userTagGroupByIndex);
+            	TagCoverageColumns data = getData(interval, tagListsMap.get(tag), usageUnit, groupBy, tag, userTagGroupByIndex);
                 
             	// Check for values in the data array and ignore if all zeros
-                if (hasData(data)) {
+                if (data.hasData()) {
 	                if (groupBy == TagType.Tag) {
 	                	Tag userTag = tag.name.isEmpty() ? UserTag.get(UserTag.none) : tag;
 	                	
 	        			if (rawResult.containsKey(userTag)) {
 	        				// aggregate current data with the one already in the map
-	        				addData(data, rawResult.get(userTag));
+	        				rawResult.get(userTag).add(data);
 	        			}
 	        			else {
 	        				// Put in map using the user tag
@@ -304,11 +293,11 @@ public class TagCoverageDataManager extends CommonDataManager<ReadOnlyTagCoverag
         return rawResult;
     }
 
-    public Map<Tag, TagCoverageMetrics[]> getRawData(Interval interval, TagLists tagLists, TagType groupBy, AggregateType aggregate, int userTagGroupByIndex) {
+    public Map<Tag, TagCoverageColumns> getRawData(Interval interval, TagLists tagLists, TagType groupBy, AggregateType aggregate, int userTagGroupByIndex) {
     	return getRawData(interval, tagLists, groupBy, aggregate, null, null, userTagGroupByIndex);
     }
     
-    private Map<Tag, TagCoverageMetrics[]> getRawData(Interval interval, TagLists tagLists, TagType groupBy, AggregateType aggregate, List<Operation.Identity.Value> exclude, UsageUnit usageUnit, int userTagGroupByIndex) {
+    private Map<Tag, TagCoverageColumns> getRawData(Interval interval, TagLists tagLists, TagType groupBy, AggregateType aggregate, List<Operation.Identity.Value> exclude, UsageUnit usageUnit, int userTagGroupByIndex) {
     	//logger.info("Entered with groupBy: " + groupBy + ", userTagGroupByIndex: " + userTagGroupByIndex + ", tagLists: " + tagLists);
     	Map<Tag, TagLists> tagListsMap = tagGroupManager.getTagListsMap(interval, tagLists, groupBy, exclude, userTagGroupByIndex);
     	return getGroupedData(interval, tagListsMap, usageUnit, groupBy, userTagGroupByIndex);
@@ -319,8 +308,8 @@ public class TagCoverageDataManager extends CommonDataManager<ReadOnlyTagCoverag
     protected Map<Tag, double[]> getData(boolean isCost, Interval interval, TagLists tagLists, TagType groupBy, AggregateType aggregate, List<Operation.Identity.Value> exclude, UsageUnit usageUnit, int userTagGroupByIndex, List<UserTagKey> tagKeys) {
     	StopWatch sw = new StopWatch();
     	sw.start();
-    	Map<Tag, TagCoverageMetrics[]> rawResult = getRawData(interval, tagLists, groupBy, aggregate, exclude, usageUnit, userTagGroupByIndex);
-        Map<Tag, double[]> result = processResult(rawResult, groupBy, aggregate, tagKeys);
+    	Map<Tag, TagCoverageColumns> rawResult = getRawData(interval, tagLists, groupBy, aggregate, exclude, usageUnit, userTagGroupByIndex);
+        Map<Tag, double[]> result = processColumns(rawResult, groupBy, aggregate, tagKeys);
         logger.debug("getData elapsed time: " + sw);
         return result;
     }
@@ -0,0 +1,279 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.basic;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.reader.TagLists;
+
+/**
+ * Immutable index over the monthly tag group collections held by a BasicTagGroupManager.
+ *
+ * Every distinct TagGroup gets an id in a global dictionary and each month's membership is held
+ * as a BitSet of those ids. Each dimension (cost type, account, region, ...) is stored as a column of
+ * value codes indexed by TagGroup id along with the set of value codes present in each month.
+ * Unions over a range of months are computed once and cached, so listing the values of a dimension
+ * for an interval is a bitset OR rather than a HashSet union over every TagGroup in the history.
+ */
+public class TagGroupIndex {
+	public static final int COST_TYPE = 0;
+	public static final int ACCOUNT = 1;
+	public static final int REGION = 2;
+	public static final int ZONE = 3;
+	public static final int PRODUCT = 4;
+	public static final int OPERATION = 5;
+	public static final int USAGE_TYPE = 6;
+	public static final int RESOURCE_GROUP = 7;
+	private static final int numDimensions = 8;
+
+	private static final int maxCachedRanges = 64;
+
+	private final TagGroup[] tagGroups;
+	private final int[][] codes; // [dimension][tagGroup id]
+	private final List<List<Object>> values; // [dimension] value code -> value
+	private final List<Map<Object, Integer>> valueCodes; // [dimension] value -> value code
+	private final Map<Long, Range> months;
+	private final Cache<List<Long>, Range> ranges;
+
+	/**
+	 * TagGroups and dimension values present over a range of months.
+	 * The BitSets are shared and must not be modified.
+	 */
+	public static class Range {
+		final BitSet members;
+		final BitSet[] values;
+
+		private Range(BitSet members, BitSet[] values) {
+			this.members = members;
+			this.values = values;
+		}
+
+		public int size() {
+			return members.cardinality();
+		}
+	}
+
+	public TagGroupIndex(TreeMap<Long, Collection<TagGroup>> tagGroupsByMonth) {
+		Map<TagGroup, Integer> ids = Maps.newHashMap();
+		List<TagGroup> tagGroupList = Lists.newArrayList();
+		for (Collection<TagGroup> tgs: tagGroupsByMonth.values()) {
+			for (TagGroup tg: tgs) {
+				if (!ids.containsKey(tg)) {
+					ids.put(tg, tagGroupList.size());
+					tagGroupList.add(tg);
+				}
+			}
+		}
+		tagGroups = tagGroupList.toArray(new TagGroup[tagGroupList.size()]);
+
+		codes = new int[numDimensions][tagGroups.length];
+		values = Lists.newArrayList();
+		valueCodes = Lists.newArrayList();
+		for (int d = 0; d < numDimensions; d++) {
+			List<Object> dimensionValues = Lists.newArrayList();
+			Map<Object, Integer> dimensionCodes = Maps.newHashMap();
+			for (int id = 0; id < tagGroups.length; id++) {
+				Object value = getValue(tagGroups[id], d);
+				Integer code = dimensionCodes.get(value);
+				if (code == null) {
+					code = dimensionValues.size();
+					dimensionValues.add(value);
+					dimensionCodes.put(value, code);
+				}
+				codes[d][id] = code;
+			}
+			values.add(dimensionValues);
+			valueCodes.add(dimensionCodes);
+		}
+
+		months = Maps.newHashMap();
+		for (Map.Entry<Long, Collection<TagGroup>> entry: tagGroupsByMonth.entrySet()) {
+			BitSet members = new BitSet(tagGroups.length);
+			for (TagGroup tg: entry.getValue())
+				members.set(ids.get(tg));
+			months.put(entry.getKey(), new Range(members, getValueCodes(members)));
+		}
+
+		ranges = CacheBuilder.newBuilder().maximumSize(maxCachedRanges).build();
+	}
+
+	private static Object getValue(TagGroup tg, int dimension) {
+		switch (dimension) {
+		case COST_TYPE:			return tg.costType;
+		case ACCOUNT:			return tg.account;
+		case REGION:			return tg.region;
+		case ZONE:				return tg.zone;
+		case PRODUCT:			return tg.product;
+		case OPERATION:			return tg.operation;
+		case USAGE_TYPE:		return tg.usageType;
+		case RESOURCE_GROUP:	return tg.resourceGroup;
+		default:				return null;
+		}
+	}
+
+	private static List<?> getFilter(TagLists tagLists, int dimension) {
+		switch (dimension) {
+		case COST_TYPE:			return tagLists.costTypes;
+		case ACCOUNT:			return tagLists.accounts;
+		case REGION:			return tagLists.regions;
+		case ZONE:				return tagLists.zones;
+		case PRODUCT:			return tagLists.products;
+		case OPERATION:			return tagLists.operations;
+		case USAGE_TYPE:		return tagLists.usageTypes;
+		case RESOURCE_GROUP:	return tagLists.resourceGroups;
+		default:				return null;
+		}
+	}
+
+	private BitSet[] getValueCodes(BitSet members) {
+		BitSet[] result = new BitSet[numDimensions];
+		for (int d = 0; d < numDimensions; d++) {
+			result[d] = new BitSet(values.get(d).size());
+			for (int id = members.nextSetBit(0); id >= 0; id = members.nextSetBit(id + 1))
+				result[d].set(codes[d][id]);
+		}
+		return result;
+	}
+
+	public int size() {
+		return tagGroups.length;
+	}
+
+	/**
+	 * Get the union of the supplied months. Unknown months are ignored.
+	 */
+	public Range getRange(Collection<Long> monthMillis) {
+		final List<Long> key = ImmutableList.copyOf(Sets.newTreeSet(monthMillis));
+		if (key.size() == 1 && months.containsKey(key.get(0)))
+			return months.get(key.get(0));
+
+		try {
+			return ranges.get(key, new Callable<Range>() {
+				@Override
+				public Range call() {
+					BitSet members = new BitSet(tagGroups.length);
+					BitSet[] rangeValues = new BitSet[numDimensions];
+					for (int d = 0; d < numDimensions; d++)
+						rangeValues[d] = new BitSet(values.get(d).size());
+					for (Long month: key) {
+						Range r = months.get(month);
+						if (r == null)
+							continue;
+						members.or(r.members);
+						for (int d = 0; d < numDimensions; d++)
+							rangeValues[d].or(r.values[d]);
+					}
+					return new Range(members, rangeValues);
+				}
+			});
+		}
+		catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Get the members of the range that match the TagLists. Returns the range's own members
+	 * if the TagLists doesn't filter anything.
+	 */
+	public BitSet filter(Range range, TagLists tagLists) {
+		boolean[][] allowed = new boolean[numDimensions][];
+		boolean filtered = false;
+		for (int d = 0; d < numDimensions; d++) {
+			List<?> filter = getFilter(tagLists, d);
+			if (filter == null || filter.size() == 0)
+				continue;
+			allowed[d] = new boolean[values.get(d).size()];
+			Map<Object, Integer> dimensionCodes = valueCodes.get(d);
+			for (Object t: filter) {
+				Integer code = dimensionCodes.get(t);
+				if (code != null)
+					allowed[d][code] = true;
+			}
+			filtered = true;
+		}
+		// Subclasses such as TagListsWithUserTags add their own matching rules
+		boolean checkTagLists = tagLists.getClass() != TagLists.class;
+		if (!filtered && !checkTagLists)
+			return range.members;
+
+		BitSet result = new BitSet(tagGroups.length);
+		BitSet members = range.members;
+		next:
+		for (int id = members.nextSetBit(0); id >= 0; id = members.nextSetBit(id + 1)) {
+			for (int d = 0; d < numDimensions; d++) {
+				if (allowed[d] != null && !allowed[d][codes[d][id]])
+					continue next;
+			}
+			if (checkTagLists && !tagLists.contains(tagGroups[id]))
+				continue;
+			result.set(id);
+		}
+		return result;
+	}
+
+	/**
+	 * Get the distinct non-null values of a dimension among the members.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> Set<T> getValues(int dimension, Range range, BitSet members) {
+		BitSet valueCodes;
+		if (members == range.members) {
+			valueCodes = range.values[dimension];
+		}
+		else {
+			valueCodes = new BitSet(values.get(dimension).size());
+			int[] dimensionCodes = codes[dimension];
+			for (int id = members.nextSetBit(0); id >= 0; id = members.nextSetBit(id + 1))
+				valueCodes.set(dimensionCodes[id]);
+		}
+
+		List<Object> dimensionValues = values.get(dimension);
+		Set<T> result = Sets.newHashSet();
+		for (int code = valueCodes.nextSetBit(0); code >= 0; code = valueCodes.nextSetBit(code + 1)) {
+			Object value = dimensionValues.get(code);
+			if (value != null)
+				result.add((T) value);
+		}
+		return result;
+	}
+
+	/**
+	 * Get the TagGroups for the members.
+	 */
+	public List<TagGroup> getTagGroups(BitSet members) {
+		List<TagGroup> result = Lists.newArrayListWithCapacity(members.cardinality());
+		for (int id = members.nextSetBit(0); id >= 0; id = members.nextSetBit(id + 1))
+			result.add(tagGroups[id]);
+		return result;
+	}
+}
@@ -0,0 +1,396 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.basic;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Months;
+import org.joda.time.Years;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.AtomicDouble;
+import com.netflix.ice.common.ConsolidateType;
+
+/**
+ * Preloads the data files most likely to be queried after the reader starts.
+ *
+ * Popularity is recorded for each data file read by a query, keyed by the name of the data manager and the age
+ * of the file: the number of months (hourly) or years (daily) between the file and now, so "the last three months"
+ * stays popular as time moves on. Counts are saved to the local directory so they survive restarts and decay by
+ * half each day.
+ *
+ * The warm-up runs the plan in priority order using a bounded number of tasks on the supplied pool. At most
+ * maxFiles files are loaded, no more per data manager than its cache holds, and loading stops if the heap
+ * fills past maxHeapFraction. The reader is reported ready once the top readyFiles files are loaded.
+ */
+public class WarmUpPlanner {
+    protected Logger logger = LoggerFactory.getLogger(getClass());
+
+    public static final String popularityFilename = "readerPopularity.csv";
+    static final long decayMillis = 24L * 60 * 60 * 1000;
+    static final int maxAge = 120;
+    static final double maxHeapFraction = 0.8;
+
+    public interface Loader {
+    	/**
+    	 * Load the file holding the data for time into the cache of the named data manager.
+    	 */
+    	void load(String name, DateTime time) throws Exception;
+    }
+
+    static class Item implements Comparable<Item> {
+    	final String name;
+    	final ConsolidateType consolidateType;
+    	final int age;
+    	final double score;
+
+    	Item(String name, ConsolidateType consolidateType, int age, double score) {
+    		this.name = name;
+    		this.consolidateType = consolidateType;
+    		this.age = age;
+    		this.score = score;
+    	}
+
+    	String key() {
+    		return key(name, age);
+    	}
+
+    	static String key(String name, int age) {
+    		return name + "|" + age;
+    	}
+
+    	DateTime getTime(DateTime now) {
+    		switch (consolidateType) {
+    		case hourly:
+    			return now.withDayOfMonth(1).withMillisOfDay(0).minusMonths(age);
+    		case daily:
+    			return now.withDayOfYear(1).withMillisOfDay(0).minusYears(age);
+    		default:
+    			return now;
+    		}
+    	}
+
+		@Override
+		public int compareTo(Item o) {
+			int result = Double.compare(o.score, score);
+			if (result != 0)
+				return result;
+			result = Integer.compare(age, o.age);
+			return result != 0 ? result : key().compareTo(o.key());
+		}
+
+		@Override
+		public String toString() {
+			return key();
+		}
+    }
+
+    private final File popularityFile;
+    private final int maxFiles;
+    private final int maxFilesPerManager;
+    private final int numThreads;
+    private final int readyFiles;
+    private final long startMillis;
+
+    // Counters are updated in place so that recording a read from a query doesn't take a lock
+    private final ConcurrentMap<String, AtomicDouble> popularity = Maps.newConcurrentMap();
+    private volatile long lastDecayMillis;
+    private volatile boolean dirty = false;
+
+    private volatile List<Item> plan = null;
+    private final AtomicInteger loaded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger readyRemaining = new AtomicInteger();
+    private final AtomicInteger remaining = new AtomicInteger();
+    private volatile long readyMillis = -1;
+    private volatile long completeMillis = -1;
+    private volatile boolean stopped = false;
+
+    public WarmUpPlanner(File popularityFile, int maxFiles, int maxFilesPerManager, int numThreads, int readyFiles) {
+    	this.popularityFile = popularityFile;
+    	this.maxFiles = maxFiles;
+    	this.maxFilesPerManager = maxFilesPerManager;
+    	this.numThreads = numThreads;
+    	this.readyFiles = readyFiles;
+    	this.startMillis = System.currentTimeMillis();
+    	this.lastDecayMillis = startMillis;
+    	load();
+    }
+
+    private void load() {
+    	if (popularityFile == null || !popularityFile.exists())
+    		return;
+    	try {
+    		List<String> lines = FileUtils.readLines(popularityFile, StandardCharsets.UTF_8);
+    		if (lines.isEmpty())
+    			return;
+    		lastDecayMillis = Long.parseLong(lines.get(0));
+    		for (String line: lines.subList(1, lines.size())) {
+    			int i = line.lastIndexOf(",");
+    			if (i > 0)
+    				popularity.put(line.substring(0, i), new AtomicDouble(Double.parseDouble(line.substring(i + 1))));
+    		}
+    		logger.info("loaded popularity of " + popularity.size() + " data files");
+    	}
+    	catch (Exception e) {
+    		logger.error("error reading " + popularityFile, e);
+    	}
+    	decay(System.currentTimeMillis());
+    }
+
+    /**
+     * Write the popularity counts if they changed since the last save.
+     */
+    public void save() {
+    	decay(System.currentTimeMillis());
+    	if (!dirty || popularityFile == null)
+    		return;
+    	dirty = false;
+    	StringBuilder sb = new StringBuilder();
+    	sb.append(lastDecayMillis).append("\n");
+    	for (Map.Entry<String, AtomicDouble> entry: popularity.entrySet())
+    		sb.append(entry.getKey()).append(",").append(entry.getValue().get()).append("\n");
+    	try {
+    		FileUtils.writeStringToFile(popularityFile, sb.toString(), StandardCharsets.UTF_8);
+    	}
+    	catch (IOException e) {
+    		logger.error("error writing " + popularityFile, e);
+    	}
+    }
+
+    synchronized void decay(long now) {
+    	int days = (int) ((now - lastDecayMillis) / decayMillis);
+    	if (days <= 0)
+    		return;
+    	double factor = Math.pow(0.5, days);
+    	for (Map.Entry<String, AtomicDouble> entry: popularity.entrySet()) {
+    		AtomicDouble count = entry.getValue();
+    		double value;
+    		do {
+    			value = count.get();
+    		} while (!count.compareAndSet(value, value * factor));
+    		// A read recorded while a faded file is dropped may be lost, which doesn't matter for a warm-up plan
+    		if (value * factor < 0.01)
+    			popularity.remove(entry.getKey(), count);
+    	}
+    	lastDecayMillis += days * decayMillis;
+    	dirty = true;
+    }
+
+    /**
+     * Record a read of a data file by a query.
+     *
+     * @param name name of the data manager
+     * @param time start of the data file
+     */
+    public void record(String name, ConsolidateType consolidateType, DateTime time, DateTime now) {
+    	int age = 0;
+    	if (consolidateType == ConsolidateType.hourly || consolidateType == ConsolidateType.daily)
+    		age = getAge(consolidateType, time, now);
+    	if (age < 0 || age > maxAge)
+    		return;
+		String key = Item.key(name, age);
+		AtomicDouble count = popularity.get(key);
+		if (count == null) {
+			AtomicDouble created = new AtomicDouble();
+			count = popularity.putIfAbsent(key, created);
+			if (count == null)
+				count = created;
+		}
+		count.addAndGet(1.0);
+		if (!dirty)
+			dirty = true;
+    }
+
+    private int getAge(ConsolidateType consolidateType, DateTime time, DateTime now) {
+    	if (consolidateType == ConsolidateType.hourly)
+    		return Months.monthsBetween(time.withDayOfMonth(1).withMillisOfDay(0), now.withDayOfMonth(1).withMillisOfDay(0)).getMonths();
+    	return Years.yearsBetween(time.withDayOfYear(1).withMillisOfDay(0), now.withDayOfYear(1).withMillisOfDay(0)).getYears();
+    }
+
+    /**
+     * Build the warm-up plan for the data managers. Files with recorded queries come first, most popular first,
+     * followed by the current file of each of the default data managers in the order given.
+     *
+     * @param managers map of data manager name to its consolidation type
+     * @param defaults names of the data managers to load when there are no recorded queries for them
+     */
+    List<Item> plan(Map<String, ConsolidateType> managers, List<String> defaults) {
+    	List<Item> candidates = Lists.newArrayList();
+    	Map<String, Boolean> seen = Maps.newHashMap();
+    	for (Map.Entry<String, AtomicDouble> entry: popularity.entrySet()) {
+    		int i = entry.getKey().lastIndexOf("|");
+    		if (i < 0)
+    			continue;
+    		String name = entry.getKey().substring(0, i);
+    		ConsolidateType consolidateType = managers.get(name);
+    		if (consolidateType == null)
+    			continue;
+    		Item item = new Item(name, consolidateType, Integer.parseInt(entry.getKey().substring(i + 1)), entry.getValue().get());
+    		candidates.add(item);
+    		seen.put(item.key(), true);
+    	}
+    	for (int i = 0; i < defaults.size(); i++) {
+    		String name = defaults.get(i);
+    		ConsolidateType consolidateType = managers.get(name);
+    		if (consolidateType == null)
+    			continue;
+    		// Negative scores keep the defaults after the popular files and in the order given
+    		Item item = new Item(name, consolidateType, 0, -1.0 - i);
+    		if (!seen.containsKey(item.key()))
+    			candidates.add(item);
+    	}
+    	Collections.sort(candidates);
+
+    	List<Item> result = Lists.newArrayList();
+    	Map<String, Integer> perManager = Maps.newHashMap();
+    	for (Item item: candidates) {
+    		if (result.size() >= maxFiles)
+    			break;
+    		Integer count = perManager.get(item.name);
+    		count = count == null ? 1 : count + 1;
+    		if (count > maxFilesPerManager)
+    			continue;
+    		perManager.put(item.name, count);
+    		result.add(item);
+    	}
+    	return result;
+    }
+
+    /**
+     * Start loading the files in the background.
+     */
+    public void start(Map<String, ConsolidateType> managers, List<String> defaults, ExecutorService pool, final Loader loader) {
+    	final List<Item> plan = plan(managers, defaults);
+    	this.plan = plan;
+    	logger.info("warm-up plan of " + plan.size() + " files: " + plan);
+
+    	readyRemaining.set(Math.min(readyFiles, plan.size()));
+    	remaining.set(plan.size());
+    	if (readyRemaining.get() <= 0) {
+    		// Nothing has to be loaded before the reader is ready
+    		readyMillis = System.currentTimeMillis() - startMillis;
+    	}
+    	if (plan.isEmpty()) {
+    		completeMillis = readyMillis;
+    		return;
+    	}
+
+    	final DateTime now = DateTime.now(DateTimeZone.UTC);
+    	final Queue<Integer> queue = new ConcurrentLinkedQueue<Integer>();
+    	for (int i = 0; i < plan.size(); i++)
+    		queue.add(i);
+
+    	for (int t = 0; t < Math.min(numThreads, plan.size()); t++) {
+    		pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					Integer i;
+					while ((i = queue.poll()) != null) {
+						Item item = plan.get(i);
+						if (stopped || heapFull()) {
+							if (!stopped)
+								logger.warn("stopping warm-up, heap is " + (int) (heapUsed() * 100) + "% full");
+							stopped = true;
+						}
+						else {
+							try {
+								loader.load(item.name, item.getTime(now));
+								loaded.incrementAndGet();
+							}
+							catch (Exception e) {
+								failed.incrementAndGet();
+								logger.error("error warming up " + item, e);
+							}
+						}
+						done(i < readyFiles);
+					}
+				}
+    		});
+    	}
+    }
+
+    private void done(boolean readyItem) {
+    	long elapsed = System.currentTimeMillis() - startMillis;
+    	if (readyItem && readyRemaining.decrementAndGet() == 0) {
+    		readyMillis = elapsed;
+    		logger.info("top " + readyFiles + " data files loaded " + elapsed + "ms after startup");
+    	}
+    	if (remaining.decrementAndGet() == 0) {
+    		completeMillis = elapsed;
+    		logger.info("warm-up finished " + elapsed + "ms after startup, loaded " + loaded.get() + " files, " + failed.get() + " failed");
+    	}
+    }
+
+    private double heapUsed() {
+    	Runtime rt = Runtime.getRuntime();
+    	return (double) (rt.totalMemory() - rt.freeMemory()) / rt.maxMemory();
+    }
+
+    protected boolean heapFull() {
+    	return heapUsed() > maxHeapFraction;
+    }
+
+    /**
+     * True once the most popular files have been loaded or the warm-up has given up on them.
+     */
+    public boolean isReady() {
+    	return readyMillis >= 0;
+    }
+
+    public boolean isComplete() {
+    	return completeMillis >= 0;
+    }
+
+    /**
+     * Milliseconds from startup until the most popular files were loaded, or -1 if not yet ready.
+     */
+    public long getReadyMillis() {
+    	return readyMillis;
+    }
+
+    public String getStatistics() {
+    	List<Item> plan = this.plan;
+    	StringBuilder sb = new StringBuilder();
+    	sb.append("WarmUp: planned=").append(plan == null ? 0 : plan.size());
+    	sb.append(", loaded=").append(loaded.get());
+    	sb.append(", failed=").append(failed.get());
+    	sb.append(", readyMillis=").append(readyMillis);
+    	sb.append(", completeMillis=").append(completeMillis);
+    	if (stopped)
+    		sb.append(", stopped on heap limit");
+    	sb.append(", tracked files=").append(popularity.size());
+    	return sb.toString();
+    }
+}
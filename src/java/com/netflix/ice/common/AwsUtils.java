@@ -586,6 +586,28 @@ public class AwsUtils {
         }
     }
 
+    /**
+     * Get a stream that uploads directly to the S3 object using a multipart upload rather than
+     * writing a local file first. The object is created when the stream is closed.
+     */
+    public static MultipartUploadOutputStream getUploadStream(String bucketName, String fileKey) {
+        return new MultipartUploadOutputStream(s3Client, bucketName, fileKey);
+    }
+
+    public static MultipartUploadOutputStream getUploadStream(String bucketName, String bucketRegion, String fileKey, String accountId, String assumeRole, String externalId) {
+        AmazonS3Client s3Client = AwsUtils.s3Client;
+
+        if (!StringUtils.isEmpty(accountId) && !StringUtils.isEmpty(assumeRole)) {
+            s3Client = (AmazonS3Client) AmazonS3ClientBuilder.standard().withRegion(bucketRegion).withCredentials(getAssumedCredentialsProvider(accountId, assumeRole, externalId)).withClientConfiguration(clientConfig).build();
+        }
+        else if (!s3Client.getRegionName().equals(bucketRegion)) {
+        	s3Client = (AmazonS3Client) AmazonS3ClientBuilder.standard().withRegion(bucketRegion).withCredentials(awsCredentialsProvider).withClientConfiguration(clientConfig).build();
+        }
+
+        // Stream owns any client created just for this upload
+        return new MultipartUploadOutputStream(s3Client, bucketName, fileKey, s3Client != AwsUtils.s3Client);
+    }
+
     public static long getLastModified(String bucketName, String fileKey) {
         try {
             long result = s3Client.listObjects(bucketName, fileKey).getObjectSummaries().get(0).getLastModified().getTime();
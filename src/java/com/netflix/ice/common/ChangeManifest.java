@@ -0,0 +1,137 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+
+import com.google.common.collect.Lists;
+import com.google.gson.Gson;
+
+/**
+ * Versioned list of the work bucket files written by recent processor runs.
+ *
+ * The processor adds a change each time it archives a month and the reader watches the manifest
+ * so it only reloads the files that changed. The last maxChanges changes are kept. A reader that
+ * falls further behind than that must reload everything.
+ */
+public class ChangeManifest {
+	public static final String filename = "changeManifest.json";
+	static final int maxChanges = 100;
+
+	public enum FileType {
+		tagdb,
+		hourly,
+		daily,
+		weekly,
+		monthly,
+		coverage;
+	}
+
+	public static class Change {
+		public long version;
+		public String month;
+		public String published;
+		// Product names as used in the work bucket file names: "all" or the service code
+		public List<String> products;
+		public List<FileType> fileTypes;
+
+		public Change(long version, String month, String published, Collection<String> products, Collection<FileType> fileTypes) {
+			this.version = version;
+			this.month = month;
+			this.published = published;
+			this.products = Lists.newArrayList(products);
+			this.fileTypes = Lists.newArrayList(fileTypes);
+		}
+
+		public DateTime getMonth() {
+			return AwsUtils.monthDateFormat.parseDateTime(month);
+		}
+
+		public boolean contains(String product, FileType fileType) {
+			return products.contains(product) && fileTypes.contains(fileType);
+		}
+
+		@Override
+		public String toString() {
+			return "{version: " + version + ", month: " + month + ", products: " + products + ", fileTypes: " + fileTypes + "}";
+		}
+	}
+
+	public long version;
+	public List<Change> changes;
+
+	public ChangeManifest() {
+		this.version = 0;
+		this.changes = Lists.newArrayList();
+	}
+
+	public static ChangeManifest fromJSON(String json) {
+		ChangeManifest manifest = new Gson().fromJson(json, ChangeManifest.class);
+		if (manifest.changes == null)
+			manifest.changes = Lists.newArrayList();
+		return manifest;
+	}
+
+	public String toJSON() {
+		return new Gson().toJson(this);
+	}
+
+	public static ChangeManifest load(File file) throws IOException {
+		return fromJSON(FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+	}
+
+	public void save(File file) throws IOException {
+		FileUtils.writeStringToFile(file, toJSON(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Add a change and drop the oldest ones beyond maxChanges.
+	 */
+	public Change add(DateTime month, Collection<String> products, Collection<FileType> fileTypes, DateTime published) {
+		version++;
+		Change change = new Change(version, AwsUtils.monthDateFormat.print(month), published.toString(), products, fileTypes);
+		changes.add(change);
+		while (changes.size() > maxChanges)
+			changes.remove(0);
+		return change;
+	}
+
+	/**
+	 * Get the changes made after the supplied version in the order they were made.
+	 *
+	 * @return the changes or null if some of them are no longer in the manifest
+	 */
+	public List<Change> getChangesSince(long since) {
+		if (since > version)
+			return null; // manifest was reset
+		List<Change> result = Lists.newArrayList();
+		for (Change change: changes) {
+			if (change.version > since)
+				result.add(change);
+		}
+		long first = result.isEmpty() ? version + 1 : result.get(0).version;
+		return first == since + 1 ? result : null;
+	}
+}
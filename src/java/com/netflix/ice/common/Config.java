@@ -22,9 +22,11 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,11 +62,17 @@ public abstract class Config {
         if (properties == null) throw new IllegalArgumentException("properties must be specified");
         if (productService == null) throw new IllegalArgumentException("productService must be specified");
 
+        Set<WorkBucketConfig.ArchiveType> streamingUploads = Sets.newHashSet();
+        for (String t: properties.getProperty(IceOptions.STREAMING_UPLOADS, "").split(",")) {
+        	if (!t.trim().isEmpty())
+        		streamingUploads.add(WorkBucketConfig.ArchiveType.valueOf(t.trim()));
+        }
         workBucketConfig = new WorkBucketConfig(
                 properties.getProperty(IceOptions.WORK_S3_BUCKET_NAME),
                 properties.getProperty(IceOptions.WORK_S3_BUCKET_REGION),
                 properties.getProperty(IceOptions.WORK_S3_BUCKET_PREFIX),
-                properties.getProperty(IceOptions.LOCAL_DIR));
+                properties.getProperty(IceOptions.LOCAL_DIR),
+                streamingUploads);
         
         if (workBucketConfig.workS3BucketName == null) throw new IllegalArgumentException("IceOptions.WORK_S3_BUCKET_NAME must be specified");
         if (workBucketConfig.workS3BucketRegion == null) throw new IllegalArgumentException("IceOptions.WORK_S3_BUCKET_REGION must be specified");
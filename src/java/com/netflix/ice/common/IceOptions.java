@@ -151,6 +151,38 @@ public class IceOptions {
      */
     public static final String MONTHLY_CACHE_SIZE = "ice.monthlycachesize";
 
+    /**
+     * Size in megabytes of the heap budget shared by the data caches of all the reader's data managers.
+     * Default is half the maximum heap size. Set to 0 to instead hold up to monthlycachesize files per data manager.
+     */
+    public static final String DATA_CACHE_SIZE_MB = "ice.datacachesizemb";
+
+    /**
+     * Size in megabytes of the reader's query result cache. Default is 256. Set to 0 to disable.
+     */
+    public static final String QUERY_CACHE_SIZE_MB = "ice.querycachesizemb";
+
+    /**
+     * Maximum number of data files the reader preloads at startup, most popular first. Default is 100. Set to 0 to
+     * instead load the last monthlycachesize months of every data file before serving requests.
+     */
+    public static final String WARM_UP_MAX_FILES = "ice.warmupmaxfiles";
+
+    /**
+     * Number of data files the reader preloads at a time at startup. Default is 4.
+     */
+    public static final String WARM_UP_THREADS = "ice.warmupthreads";
+
+    /**
+     * Number of the most popular data files that must be loaded before the reader reports it is ready. Default is 20.
+     */
+    public static final String WARM_UP_READY_FILES = "ice.warmupreadyfiles";
+
+    /**
+     * Seconds a dashboard data request may run before it is cancelled. Default is 120. Set to 0 for no limit.
+     */
+    public static final String QUERY_TIMEOUT_SEC = "ice.querytimeoutsec";
+
     /**
      * url prefix, e.g. http://ice.netflix.com/
      */
@@ -211,6 +243,12 @@ public class IceOptions {
      */
     public static final String WRITE_PARQUET_FILES = "ice.writeParquetFiles";
 
+    /**
+     * comma separated list of archivers that stream directly to the work bucket rather than staging files in the local directory.
+     * Possible values are data, tagdb, json, parquet, reservations, and reports.
+     */
+    public static final String STREAMING_UPLOADS = "ice.streamingUploads";
+
     /**
      * enable tag coverage metrics: none, basic, withUserTags
      */
@@ -45,7 +45,7 @@ public class Instance {
 	public final Product product;
 	public final Map<String, String> tags;
 	
-	public final long startMillis; // start time of billing lineitem record. Not serialized.
+	private volatile long startMillis; // start time of billing lineitem record. Not serialized.
 	
 	public Instance(String id, String type, Account account, Region region, Zone zone, Product product, Map<String, String> tags, long startMillis) {
 		this.id = id;
@@ -95,6 +95,18 @@ public class Instance {
         this.startMillis = 0;
 	}
 	
+	public long getStartMillis() {
+		return startMillis;
+	}
+	
+	/**
+	 * Advance the start time when the same resource is seen in a later line item.
+	 */
+	public synchronized void updateStartMillis(long startMillis) {
+		if (startMillis > this.startMillis)
+			this.startMillis = startMillis;
+	}
+	
 	public static String[] header() {
 		return new String[] {"InstanceID", "InstanceType", "AccountId", "AccountName", "Region", "Zone", "Product", "Tags"};
 	}
@@ -0,0 +1,338 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * OutputStream that writes directly to an S3 object using a multipart upload so that
+ * archived files don't need to be staged in the local work directory.
+ *
+ * Data is collected into part-sized buffers which are uploaded in parallel. The number of
+ * buffers waiting to be uploaded is bounded so memory use is limited to roughly
+ * (maxBufferedParts + 1) * partSize. Each part is retried independently.
+ * Objects smaller than one part are written with a single putObject() call.
+ * The object doesn't exist in S3 until the stream is closed. Call abort() instead of close()
+ * if writing fails so that a partial object doesn't replace the existing one.
+ */
+public class MultipartUploadOutputStream extends OutputStream {
+    private final static Logger logger = LoggerFactory.getLogger(MultipartUploadOutputStream.class);
+
+    public static final int defaultPartSize = 16 * 1024 * 1024;
+    public static final int defaultMaxBufferedParts = 4;
+    public static final int defaultMaxRetries = 3;
+    private static final long retryDelayMillis = 1000L;
+
+    // Shared by all streams. Memory is bounded per stream by the buffer semaphore, not the pool size.
+    private static ExecutorService sharedPool = Executors.newCachedThreadPool(
+    		new ThreadFactoryBuilder().setDaemon(true).setNameFormat("s3-upload-part-%d").build());
+
+    private final AmazonS3 s3Client;
+    private final String bucketName;
+    private final String key;
+    private final int partSize;
+    private final int maxRetries;
+    private final boolean shutdownClient;
+    private final ExecutorService pool;
+    private final Semaphore buffers;
+    private final List<Future<PartETag>> parts;
+
+    private byte[] buffer;
+    private int count;
+    private String uploadId;
+    private volatile Exception failure;
+    private boolean aborted;
+    private boolean closed;
+    private long size;
+
+    public MultipartUploadOutputStream(AmazonS3 s3Client, String bucketName, String key) {
+    	this(s3Client, bucketName, key, defaultPartSize, defaultMaxBufferedParts, defaultMaxRetries, false, sharedPool);
+    }
+
+    /**
+     * @param shutdownClient shut down the S3 client when the stream is closed. Used when the client was created for a single upload.
+     */
+    public MultipartUploadOutputStream(AmazonS3 s3Client, String bucketName, String key, boolean shutdownClient) {
+    	this(s3Client, bucketName, key, defaultPartSize, defaultMaxBufferedParts, defaultMaxRetries, shutdownClient, sharedPool);
+    }
+
+    public MultipartUploadOutputStream(AmazonS3 s3Client, String bucketName, String key, int partSize, int maxBufferedParts, int maxRetries, boolean shutdownClient, ExecutorService pool) {
+    	if (maxBufferedParts < 1)
+    		throw new IllegalArgumentException("maxBufferedParts must be at least 1");
+
+    	this.s3Client = s3Client;
+    	this.bucketName = bucketName;
+    	this.key = key;
+    	this.partSize = partSize;
+    	this.maxRetries = maxRetries;
+    	this.shutdownClient = shutdownClient;
+    	this.pool = pool;
+    	this.buffers = new Semaphore(maxBufferedParts);
+    	this.parts = Lists.newArrayList();
+    	this.buffer = new byte[partSize];
+    	this.count = 0;
+    	this.uploadId = null;
+    	this.failure = null;
+    	this.aborted = false;
+    	this.closed = false;
+    	this.size = 0;
+    }
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		if (count == partSize)
+			uploadPart();
+		buffer[count++] = (byte) b;
+		size++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		while (len > 0) {
+			if (count == partSize)
+				uploadPart();
+			int n = Math.min(len, partSize - count);
+			System.arraycopy(b, off, buffer, count, n);
+			count += n;
+			off += n;
+			len -= n;
+			size += n;
+		}
+	}
+
+	/**
+	 * Parts can't be smaller than the minimum part size, so flush is a no-op. Data is sent when a part fills or the stream is closed.
+	 */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+
+		try {
+			if (aborted) {
+				// Write failure already reported and the upload cleaned up
+				return;
+			}
+			if (uploadId == null) {
+				// Everything fit in one buffer, don't bother with a multipart upload
+				putObject();
+			}
+			else {
+				if (count > 0)
+					uploadPart();
+				completeUpload();
+			}
+			logger.info("uploaded " + size + " bytes to " + bucketName + "/" + key);
+		}
+		finally {
+			buffer = null;
+			if (shutdownClient)
+				s3Client.shutdown();
+		}
+	}
+
+	/**
+	 * Discard the data written so far and abort the multipart upload, leaving any existing object
+	 * in S3 untouched. Does nothing if the stream was already closed.
+	 */
+	public void abort() {
+		if (closed)
+			return;
+		abortUpload();
+		try {
+			close();
+		}
+		catch (IOException e) {
+			// Can't happen, close() doesn't upload anything after an abort
+		}
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed || aborted)
+			throw new IOException("Stream closed: " + key);
+		if (failure != null) {
+			abortUpload();
+			throw new IOException("Failed to upload part of " + key, failure);
+		}
+	}
+
+	private void putObject() throws IOException {
+		ObjectMetadata metadata = new ObjectMetadata();
+		metadata.setContentLength(count);
+		for (int attempt = 0; ; attempt++) {
+			try {
+				s3Client.putObject(new PutObjectRequest(bucketName, key, new ByteArrayInputStream(buffer, 0, count), metadata));
+				return;
+			}
+			catch (AmazonClientException e) {
+				if (attempt >= maxRetries)
+					throw new IOException("Failed to upload " + key, e);
+				logger.warn("retrying upload of " + key + ", " + e.getMessage());
+				backoff(attempt);
+			}
+		}
+	}
+
+	private void uploadPart() throws IOException {
+		if (uploadId == null) {
+			uploadId = s3Client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, key)).getUploadId();
+			logger.debug("started multipart upload of " + key);
+		}
+
+		// Wait for a buffer slot so that we hold at most maxBufferedParts parts in memory
+		try {
+			buffers.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			abortUpload();
+			throw new IOException("Interrupted while uploading " + key, e);
+		}
+
+		final byte[] data = buffer;
+		final int length = count;
+		final int partNumber = parts.size() + 1;
+		try {
+			parts.add(pool.submit(new Callable<PartETag>() {
+				@Override
+				public PartETag call() throws Exception {
+					try {
+						return uploadPart(data, length, partNumber);
+					}
+					catch (Exception e) {
+						failure = e;
+						throw e;
+					}
+					finally {
+						buffers.release();
+					}
+				}
+			}));
+		}
+		catch (RuntimeException e) {
+			buffers.release();
+			abortUpload();
+			throw new IOException("Failed to queue part " + partNumber + " of " + key, e);
+		}
+
+		buffer = new byte[partSize];
+		count = 0;
+	}
+
+	private PartETag uploadPart(byte[] data, int length, int partNumber) throws InterruptedException {
+		for (int attempt = 0; ; attempt++) {
+			UploadPartRequest request = new UploadPartRequest()
+					.withBucketName(bucketName)
+					.withKey(key)
+					.withUploadId(uploadId)
+					.withPartNumber(partNumber)
+					.withPartSize(length)
+					.withInputStream(new ByteArrayInputStream(data, 0, length));
+			try {
+				return s3Client.uploadPart(request).getPartETag();
+			}
+			catch (AmazonClientException e) {
+				if (attempt >= maxRetries)
+					throw e;
+				logger.warn("retrying part " + partNumber + " of " + key + ", " + e.getMessage());
+				Thread.sleep(retryDelayMillis << attempt);
+			}
+		}
+	}
+
+	private void completeUpload() throws IOException {
+		List<PartETag> etags = Lists.newArrayListWithCapacity(parts.size());
+		try {
+			for (Future<PartETag> f: parts)
+				etags.add(f.get());
+			s3Client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, key, uploadId, etags));
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			abortUpload();
+			throw new IOException("Interrupted while uploading " + key, e);
+		}
+		catch (ExecutionException e) {
+			abortUpload();
+			throw new IOException("Failed to upload part of " + key, e.getCause());
+		}
+		catch (AmazonClientException e) {
+			abortUpload();
+			throw new IOException("Failed to complete upload of " + key, e);
+		}
+	}
+
+	private void abortUpload() {
+		aborted = true;
+		for (Future<PartETag> f: parts)
+			f.cancel(true);
+		if (uploadId == null)
+			return;
+		try {
+			s3Client.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+		}
+		catch (AmazonClientException e) {
+			logger.error("failed to abort multipart upload of " + key + ", " + e.getMessage());
+		}
+		uploadId = null;
+	}
+
+	private void backoff(int attempt) throws IOException {
+		try {
+			Thread.sleep(retryDelayMillis << attempt);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while uploading " + key, e);
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.common;
+
+import com.netflix.ice.processor.TagCoverageMetrics;
+
+/**
+ * Tag coverage aggregated over a series of time intervals.
+ * Holds a totals column and one counts column per user tag so that sums
+ * run as tight loops over int arrays rather than through one object per interval.
+ */
+public class TagCoverageColumns {
+	final int[] totals;
+	final int[][] counts; // [user tag][interval]
+
+	public TagCoverageColumns(int numUserTags, int size) {
+		totals = new int[size];
+		counts = new int[numUserTags][size];
+	}
+
+	public static TagCoverageColumns fromMetrics(TagCoverageMetrics[] metrics, int numUserTags) {
+		TagCoverageColumns result = new TagCoverageColumns(numUserTags, metrics.length);
+		for (int i = 0; i < metrics.length; i++) {
+			if (metrics[i] == null)
+				continue;
+			result.totals[i] = metrics[i].getTotal();
+			for (int j = 0; j < numUserTags; j++)
+				result.counts[j][i] = metrics[i].getCount(j);
+		}
+		return result;
+	}
+
+	public int size() {
+		return totals.length;
+	}
+
+	public int numUserTags() {
+		return counts.length;
+	}
+
+	public int getTotal(int i) {
+		return totals[i];
+	}
+
+	public int getCount(int userTagIndex, int i) {
+		return counts[userTagIndex][i];
+	}
+
+	public double getPercentage(int userTagIndex, int i) {
+		if (totals[i] == 0)
+			return 0.0;
+		return (double) counts[userTagIndex][i] / (double) totals[i] * 100.0;
+	}
+
+	public boolean hasData() {
+		for (int t: totals) {
+			if (t > 0)
+				return true;
+		}
+		return false;
+	}
+
+	public TagCoverageColumns add(TagCoverageColumns other) {
+		for (int i = 0; i < totals.length; i++)
+			totals[i] += other.totals[i];
+		for (int j = 0; j < counts.length; j++) {
+			int[] to = counts[j];
+			int[] from = other.counts[j];
+			for (int i = 0; i < to.length; i++)
+				to[i] += from[i];
+		}
+		return this;
+	}
+}
@@ -84,6 +84,14 @@ public class TimeSeriesData {
         return size;
     }
 
+    /**
+     * Approximate number of bytes held on the heap by the series
+     */
+    public long estimateBytes() {
+        // Object header and fields plus three array headers
+        return 40 + 3 * 16 + len.length * (2L + 8 + 8);
+    }
+
     public void get(Type type, int start, int count, double[] dest) {
         if (start >= size) {
             for (int i = 0; i < count; i++)
@@ -24,64 +24,149 @@ import org.slf4j.LoggerFactory;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
 
+/**
+ * Run length encoded tag coverage time series.
+ *
+ * The chunk values are held column-wise: a totals column and a counts column
+ * laid out as [chunk * numUserTags + user tag]. Counts never exceed their total,
+ * so when every total fits in a short both columns are stored as shorts.
+ */
 public class TimeSeriesTagCoverageMetrics {
     protected Logger logger = LoggerFactory.getLogger(getClass());
 
     private int size;
+    private int numUserTags;
     private short[] len;
-    private TagCoverageMetrics[] metrics;
+    private short[] shortTotals;
+    private short[] shortCounts;
+    private int[] intTotals;
+    private int[] intCounts;
 
-    private TimeSeriesTagCoverageMetrics(int size, short[] len, TagCoverageMetrics[] metrics) {
+    private TimeSeriesTagCoverageMetrics(int size, int numUserTags, short[] len, int[] totals, int[] counts) {
         this.size = size;
+        this.numUserTags = numUserTags;
         this.len = len;
-        this.metrics = metrics;
+        setColumns(totals, counts);
     }
 
     public TimeSeriesTagCoverageMetrics(TagCoverageMetrics[] data) {
-        size = data.length;
-        short[] tmpLen = new short[size];
+    	this(data, getNumUserTags(data));
+    }
+
+    /**
+     * Build the series from one metrics value per interval. Null values are treated as no coverage data.
+     */
+    public TimeSeriesTagCoverageMetrics(TagCoverageMetrics[] data, int numUserTags) {
+        this.size = data.length;
+        this.numUserTags = numUserTags;
 
         // Scan the values to build the lengths array
-        int chunkIndex = 0;
-        TagCoverageMetrics lastMetric = data[0];
-        tmpLen[chunkIndex] = 1;
-        for (int i = 1; i < size; i++) {
+        short[] tmpLen = new short[size];
+        int chunkIndex = -1;
+        for (int i = 0; i < size; i++) {
             // TODO: consider fuzzy equality check
-            if (data[i].equals(lastMetric)) {
+            if (i > 0 && same(data[i], data[i - 1], numUserTags)) {
                 tmpLen[chunkIndex]++;
             } else {
                 chunkIndex++;
                 tmpLen[chunkIndex] = 1;
-                lastMetric = data[i];
             }
         }
 
         // Load the RLE data
         int chunks = chunkIndex + 1;
-        this.len = new short[chunks];
-        this.metrics = new TagCoverageMetrics[chunks];
+        this.len = Arrays.copyOf(tmpLen, chunks);
+        int[] totals = new int[chunks];
+        int[] counts = new int[chunks * numUserTags];
         int offset = 0;
-
         for (int i = 0; i < chunks; i++) {
-            this.len[i] = tmpLen[i];
-            this.metrics[i] = data[offset];
-            offset += this.len[i];
+        	TagCoverageMetrics m = data[offset];
+        	if (m != null) {
+        		totals[i] = m.getTotal();
+        		for (int j = 0; j < numUserTags; j++)
+        			counts[i * numUserTags + j] = m.getCount(j);
+        	}
+            offset += len[i];
+        }
+        setColumns(totals, counts);
+    }
+
+    private void setColumns(int[] totals, int[] counts) {
+        int max = 0;
+        for (int t: totals)
+        	max = Math.max(max, t);
+        if (max <= Short.MAX_VALUE) {
+        	shortTotals = toShorts(totals);
+        	shortCounts = toShorts(counts);
         }
+        else {
+        	intTotals = totals;
+        	intCounts = counts;
+        }
+    }
+
+    private static int getNumUserTags(TagCoverageMetrics[] data) {
+    	for (TagCoverageMetrics m: data) {
+    		if (m != null)
+    			return m.size();
+    	}
+    	return 0;
+    }
+
+    private static boolean same(TagCoverageMetrics a, TagCoverageMetrics b, int numUserTags) {
+    	int totalA = a == null ? 0 : a.getTotal();
+    	int totalB = b == null ? 0 : b.getTotal();
+    	if (totalA != totalB)
+    		return false;
+    	for (int j = 0; j < numUserTags; j++) {
+    		if ((a == null ? 0 : a.getCount(j)) != (b == null ? 0 : b.getCount(j)))
+    			return false;
+    	}
+    	return true;
+    }
+
+    private static short[] toShorts(int[] values) {
+    	short[] result = new short[values.length];
+    	for (int i = 0; i < values.length; i++)
+    		result[i] = (short) values[i];
+    	return result;
+    }
+
+    private int total(int chunk) {
+    	return shortTotals != null ? shortTotals[chunk] : intTotals[chunk];
+    }
+
+    private int count(int chunk, int userTagIndex) {
+    	int i = chunk * numUserTags + userTagIndex;
+    	return shortCounts != null ? shortCounts[i] : intCounts[i];
     }
 
     public int size() {
         return size;
     }
 
-    public void get(int start, int count, TagCoverageMetrics[] dest) {
-        if (start >= size) {
-            for (int i = 0; i < count; i++)
-                dest[i] = null;
-            return;
-        }
+    /**
+     * Approximate number of bytes held on the heap by the series
+     */
+    public long estimateBytes() {
+        long bytes = 48 + 16 + len.length * 2L;
+        if (shortTotals != null)
+        	bytes += 2 * 16 + (shortTotals.length + shortCounts.length) * 2L;
+        else
+        	bytes += 2 * 16 + (intTotals.length + intCounts.length) * 4L;
+        return bytes;
+    }
+
+    /**
+     * Find the chunk holding the interval at start. Returns {chunk, offset of start within the chunk}
+     * or null if start is past the end of the series.
+     */
+    private int[] findChunk(int start) {
+        if (start >= size)
+        	return null;
 
-        // Find start of requested data
         // TODO: Improve scheme for finding the start
         int index = 0;
         int indexStart = 0;
@@ -89,27 +174,71 @@ public class TimeSeriesTagCoverageMetrics {
             indexStart += len[index];
             index++;
         }
+        return new int[]{ index, start - indexStart };
+    }
 
-        // Copy range
-        int offset = 0;
-        int chunkIndex = start - indexStart;
-        for (int i = 0; i < count; i++) {
-            dest[i] = metrics[index];
+    /**
+     * Copy the values into dest. Each interval gets its own TagCoverageMetrics instance that
+     * the caller is free to modify. Intervals past the end of the series are set to null.
+     */
+    public void get(int start, int count, TagCoverageMetrics[] dest) {
+    	Arrays.fill(dest, 0, count, null);
+    	int[] pos = findChunk(start);
+    	if (pos == null)
+    		return;
+
+    	int index = pos[0];
+    	int chunkIndex = pos[1];
+        for (int i = 0; i < count && index < len.length; i++) {
+        	int[] counts = new int[numUserTags];
+        	for (int j = 0; j < numUserTags; j++)
+        		counts[j] = count(index, j);
+            dest[i] = new TagCoverageMetrics(total(index), counts);
             chunkIndex++;
             if (chunkIndex >= len[index]) {
                 chunkIndex = 0;
-                indexStart += len[index];
                 index++;
-
-                if (index >= len.length) {
-                    // ran off the end, fill with zeros
-                    for (i++; i < count; i++) {
-                        dest[i] = null;
-                    }
-                }
             }
         }
     }
+
+    /**
+     * Add the values for count intervals beginning at start into the columns beginning at column index to.
+     * Whole runs are added at once, so the cost is proportional to the number of chunks covered.
+     */
+    public void aggregate(int start, int count, TagCoverageColumns dest, int to) {
+    	int[] pos = findChunk(start);
+    	if (pos == null)
+    		return;
+
+    	int index = pos[0];
+    	int remainingInChunk = len[index] - pos[1];
+    	int i = 0;
+    	while (i < count && index < len.length) {
+    		int n = Math.min(remainingInChunk, count - i);
+    		int total = total(index);
+    		if (total != 0) {
+	    		int from = to + i;
+	    		int end = from + n;
+	    		int[] totals = dest.totals;
+	    		for (int k = from; k < end; k++)
+	    			totals[k] += total;
+	    		for (int j = 0; j < Math.min(numUserTags, dest.counts.length); j++) {
+	    			int c = count(index, j);
+	    			if (c == 0)
+	    				continue;
+	    			int[] counts = dest.counts[j];
+	    			for (int k = from; k < end; k++)
+	    				counts[k] += c;
+	    		}
+    		}
+    		i += n;
+    		index++;
+    		if (index < len.length)
+    			remainingInChunk = len[index];
+    	}
+    }
+
     /**
      * Serialize data using standard Java serialization DataOutput methods in the following order:<br/>
      *
@@ -124,7 +253,9 @@ public class TimeSeriesTagCoverageMetrics {
         out.writeInt(len.length);
         for (int i = 0; i < len.length; i++) {
             out.writeShort(len[i]);
-            metrics[i].serialize(out);
+            out.writeInt(total(i));
+            for (int j = 0; j < numUserTags; j++)
+            	out.writeInt(count(i, j));
         }
     }
 
@@ -132,11 +263,18 @@ public class TimeSeriesTagCoverageMetrics {
         int size = in.readInt();
         int numChunks = in.readInt();
         short[] len = new short[numChunks];
-        TagCoverageMetrics[] metrics = new TagCoverageMetrics[numChunks];
+        int[] totals = new int[numChunks];
+        int[] counts = new int[numChunks * numUserTags];
         for (int i = 0; i < numChunks; i++) {
             len[i] = in.readShort();
-            metrics[i] = TagCoverageMetrics.deserialize(in, numUserTags);
+            totals[i] = in.readInt();
+            for (int j = 0; j < numUserTags; j++) {
+            	int c = in.readInt();
+            	if (c > totals[i])
+            		throw new IOException("Count of " + c + " is larger than total " + totals[i] + ", index " + j);
+            	counts[i * numUserTags + j] = c;
+            }
         }
-        return new TimeSeriesTagCoverageMetrics(size, len, metrics);
+        return new TimeSeriesTagCoverageMetrics(size, numUserTags, len, totals, counts);
     }
 }
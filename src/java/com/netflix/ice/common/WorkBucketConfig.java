@@ -17,16 +17,41 @@
  */
 package com.netflix.ice.common;
 
+import java.util.Collections;
+import java.util.Set;
+
 public class WorkBucketConfig {
     public final String workS3BucketName;
     public final String workS3BucketRegion;
     public final String workS3BucketPrefix;
     public final String localDir;
+    public final Set<ArchiveType> streamingUploads;
+
+    /**
+     * Archivers that can stream directly to the work bucket instead of writing a local file and then uploading it.
+     */
+    public enum ArchiveType {
+    	data, // hourly, daily, weekly and monthly cost and usage data files
+    	tagdb, // tag group database files
+    	json, // JSON data files
+    	parquet, // Parquet data files
+    	reservations, // reservation capacity poller CSV file
+    	reports; // post processor report files
+    }
 
     public WorkBucketConfig(String workS3BucketName, String workS3BucketRegion, String workS3BucketPrefix, String localDir) {
+    	this(workS3BucketName, workS3BucketRegion, workS3BucketPrefix, localDir, Collections.<ArchiveType>emptySet());
+    }
+
+    public WorkBucketConfig(String workS3BucketName, String workS3BucketRegion, String workS3BucketPrefix, String localDir, Set<ArchiveType> streamingUploads) {
         this.workS3BucketName = workS3BucketName;
         this.workS3BucketRegion = workS3BucketRegion;
         this.workS3BucketPrefix = workS3BucketPrefix;
         this.localDir = localDir;
+        this.streamingUploads = streamingUploads;
+    }
+
+    public boolean isStreaming(ArchiveType type) {
+    	return workS3BucketName != null && streamingUploads.contains(type);
     }
 }
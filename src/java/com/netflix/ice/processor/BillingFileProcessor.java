@@ -275,6 +275,9 @@ public class BillingFileProcessor extends Poller {
     	
         saveProcessorStatus(monthStr, new ProcessorStatus(monthStr, statusReports, processTime.toString(), sw.toString(), costAndUsageData.getArchiveFailures()));
         
+        // Tell the readers which files to reload
+        publishChanges(month, costAndUsageData.getProductNames());
+        
         return true;
     }
     
@@ -291,13 +294,14 @@ public class BillingFileProcessor extends Poller {
     	for (TagGroup tg: ds.getTagGroups()) {
     		if (tg.operation == ReservationOperation.spotInstances) {
     			TagGroup savingsTag = TagGroup.getTagGroup(CostType.savings, tg.account, tg.region, tg.zone, tg.product, ReservationOperation.spotInstanceSavings, tg.usageType, tg.resourceGroup);
+    			// The rate is the same for every hour, so look up the product once
+    			double onDemandRate = ec2Prices.getOnDemandRate(ec2Prices.getProductId(tg.region, tg.usageType));
+				// Don't include the EDP discount on top of the spot savings
+				double edpRate = onDemandRate * (1 - edpDiscount);
     			for (int i = 0; i < ds.getNum(); i++) {
     				// For each hour of usage...
     				DataSerializer.CostAndUsage cau = ds.get(i, tg);
     				if (cau != null) {
-    					double onDemandRate = ec2Prices.getOnDemandRate(tg.region, tg.usageType);
-    					// Don't include the EDP discount on top of the spot savings
-    					double edpRate = onDemandRate * (1 - edpDiscount);
     					ds.put(i, savingsTag, new DataSerializer.CostAndUsage(edpRate * cau.usage - cau.cost, 0));
     				}
     			}
@@ -314,7 +318,7 @@ public class BillingFileProcessor extends Poller {
     }
 
     private void archiveInstances() throws Exception {
-        instances.archive(startMilli); 	
+        instances.archive(startMilli, config.numthreads);
     }
 
     private ProcessorStatus getProcessorStatus(String timeStr) {
@@ -345,6 +349,29 @@ public class BillingFileProcessor extends Poller {
         }
     }
 
+    private void publishChanges(DateTime month, Collection<String> products) {
+    	List<ChangeManifest.FileType> fileTypes = Lists.newArrayList(
+    			ChangeManifest.FileType.tagdb, ChangeManifest.FileType.hourly, ChangeManifest.FileType.daily,
+    			ChangeManifest.FileType.weekly, ChangeManifest.FileType.monthly);
+    	if (config.getTagCoverage() != Config.TagCoverage.none)
+    		fileTypes.add(ChangeManifest.FileType.coverage);
+    	
+    	File file = new File(workBucketConfig.localDir, ChangeManifest.filename);
+    	try {
+    		// Pick up the manifest from the bucket in case we're running on a new instance
+        	AwsUtils.downloadFileIfNotExist(workBucketConfig.workS3BucketName, workBucketConfig.workS3BucketPrefix + ChangeManifest.filename, file);
+        	ChangeManifest manifest = file.exists() ? ChangeManifest.load(file) : new ChangeManifest();
+        	ChangeManifest.Change change = manifest.add(month, products, fileTypes, DateTime.now(DateTimeZone.UTC));
+        	manifest.save(file);
+        	AwsUtils.upload(workBucketConfig.workS3BucketName, workBucketConfig.workS3BucketPrefix + ChangeManifest.filename, file);
+        	logger.info("published change " + change);
+    	}
+    	catch (Exception e) {
+    		// Readers reload everything when the processor status changes without a published change
+    		logger.error("Error publishing change manifest", e);
+    	}
+    }
+
     private void saveProcessorStatus(String timeStr, ProcessorStatus status) {
     	String filename = ProcessorStatus.prefix + timeStr + ProcessorStatus.suffix;
     	
@@ -0,0 +1,145 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.processor;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Per-column value dictionaries for CUR rows.
+ *
+ * Most columns (account IDs, product codes, usage types, operations, regions, resource tag values, etc.)
+ * repeat a small set of values across millions of rows. Each cell is replaced with the canonical String
+ * for its value and assigned a small int id that's stable for the life of the dictionary. The canonical
+ * Strings keep their cached hash codes and compare by identity, so downstream intern map lookups are cheap,
+ * and callers can attach derived values to an id to skip repeated work for the same cell text.
+ *
+ * Columns with too many distinct values (costs, line item IDs, resource IDs) stop being interned once
+ * they pass the limit and report an id of -1 from then on.
+ *
+ * Not thread safe. Each LineItem holds its own dictionary.
+ */
+public class ColumnDictionary {
+	public static final int defaultMaxValuesPerColumn = 16 * 1024;
+
+	private final int maxValuesPerColumn;
+	private final Column[] columns; // indexed by CSV column, null for columns that aren't interned
+
+	private static class Column {
+		Map<String, Integer> ids = Maps.newHashMap();
+		List<String> values = Lists.newArrayList();
+		Object[] derived = new Object[16];
+		boolean overflow = false;
+
+		int intern(String[] row, int index, int maxValues) {
+			if (overflow)
+				return -1;
+			String value = row[index];
+			if (value == null)
+				return -1;
+			Integer id = ids.get(value);
+			if (id == null) {
+				if (values.size() >= maxValues) {
+					// Too many distinct values to be worth interning. Release the dictionary.
+					overflow = true;
+					ids = null;
+					values = null;
+					derived = null;
+					return -1;
+				}
+				id = values.size();
+				values.add(value);
+				ids.put(value, id);
+				return id;
+			}
+			row[index] = values.get(id);
+			return id;
+		}
+	}
+
+	public ColumnDictionary(Collection<Integer> columnIndeces) {
+		this(columnIndeces, defaultMaxValuesPerColumn);
+	}
+
+	public ColumnDictionary(Collection<Integer> columnIndeces, int maxValuesPerColumn) {
+		this.maxValuesPerColumn = maxValuesPerColumn;
+		int width = 0;
+		for (Integer i: columnIndeces)
+			width = Math.max(width, i + 1);
+		columns = new Column[width];
+		for (Integer i: columnIndeces) {
+			if (i >= 0)
+				columns[i] = new Column();
+		}
+	}
+
+	/**
+	 * Number of columns covered by the ids array.
+	 */
+	public int width() {
+		return columns.length;
+	}
+
+	/**
+	 * Replace each interned cell in the row with its canonical String and fill in the value ids.
+	 * The ids array must be at least width() long. Cells that aren't interned get an id of -1.
+	 */
+	public void intern(String[] row, int[] ids) {
+		int n = Math.min(row.length, columns.length);
+		for (int i = 0; i < n; i++)
+			ids[i] = columns[i] == null ? -1 : columns[i].intern(row, i, maxValuesPerColumn);
+		for (int i = n; i < columns.length; i++)
+			ids[i] = -1;
+	}
+
+	/**
+	 * Number of distinct values held for the column, or -1 if the column isn't interned.
+	 */
+	public int size(int column) {
+		Column c = column < columns.length ? columns[column] : null;
+		return c == null || c.overflow ? -1 : c.values.size();
+	}
+
+	public String getValue(int column, int id) {
+		return columns[column].values.get(id);
+	}
+
+	/**
+	 * Get a value previously derived from the cell text with the supplied id.
+	 */
+	public Object getDerived(int column, int id) {
+		Column c = columns[column];
+		if (c == null || c.overflow || id < 0 || id >= c.derived.length)
+			return null;
+		return c.derived[id];
+	}
+
+	public void putDerived(int column, int id, Object value) {
+		Column c = columns[column];
+		if (c == null || c.overflow || id < 0)
+			return;
+		if (id >= c.derived.length)
+			c.derived = Arrays.copyOf(c.derived, Math.max(c.derived.length * 2, id + 1));
+		c.derived[id] = value;
+	}
+}
@@ -197,6 +197,15 @@ public class CostAndUsageData {
         return ds == null ? 0 : ds.getNum();
     }
 
+    /**
+     * Extend the non-resource data to at least the supplied number of hours. Used for data sets that
+     * process delayed line items separately from the merged data, but need to know its length.
+     */
+    public void extendNum(int num) {
+    	if (num > 0)
+    		dataByProduct.get(null).getCreateData(num - 1);
+    }
+
     public Collection<TagGroup> getTagGroups(Product product) {
         return dataByProduct.get(product).getTagGroups();
     }
@@ -325,6 +334,16 @@ public class CostAndUsageData {
     	return savingsPlanProducts;
     }
     
+    /**
+     * Names of the products as used in the archived file names
+     */
+    public Collection<String> getProductNames() {
+    	List<String> names = Lists.newArrayList();
+    	for (Product product: dataByProduct.keySet())
+    		names.add(getProdName(product));
+    	return names;
+    }
+    
     public Map<SavingsPlanArn, SavingsPlan> getSavingsPlans() {
     	return savingsPlans;
     }
@@ -125,7 +125,7 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
         }        
         
         // Ignore tax items with zero cost
-        if (lit == LineItemType.Tax && Double.parseDouble(lineItem.getCost()) == 0)
+        if (lit == LineItemType.Tax && LineItemFieldParser.parseDouble(lineItem.getCost()) == 0)
             return true;
         
         if (StringUtils.isEmpty(lineItem.getAccountId()) ||
@@ -230,7 +230,7 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
     protected void addResourceInstance(LineItem lineItem, Instances instances, TagGroup tg) {
         // Add all resources to the instance catalog
         if (instances != null && lineItem.hasResources() && !tg.product.isDataTransfer() && !tg.product.isCloudWatch())
-            instances.add(lineItem.getResource(), lineItem.getStartMillis(), tg.usageType.toString(), lineItem.getResourceTags(), tg.account, tg.region, tg.zone, tg.product);
+            instances.add(lineItem, lineItem.getStartMillis(), tg.usageType.toString(), tg.account, tg.region, tg.zone, tg.product);
     }
     
     protected TagGroup getTagGroup(LineItem lineItem, CostType costType, Account account, Region region, Zone zone, Product product, Operation operation, UsageType usageType, ResourceGroup rg) {
@@ -240,7 +240,7 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
                 return TagGroupSP.get(costType, account, region, zone, product, operation, usageType, rg, SavingsPlanArn.get(spArn));
         }
         else if (operation.isReservation()) {
-            ReservationArn reservationArn = ReservationArn.get(lineItem.getReservationArn());
+            ReservationArn reservationArn = getReservationArn(lineItem);
             LineItemType lit = lineItem.getLineItemType();
             if (!reservationArn.name.isEmpty() && (lit == LineItemType.DiscountedUsage || lit == LineItemType.RIFee)) {
                 return TagGroupRI.get(costType, account, region, zone, product, operation, usageType, rg, reservationArn);
@@ -249,6 +249,16 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
         return TagGroup.getTagGroup(costType, account, region, zone, product, operation, usageType, rg);
     }
 
+    private ReservationArn getReservationArn(LineItem lineItem) {
+        // ARNs repeat across many line items, so keep the tag with the line item's value dictionary
+        ReservationArn arn = (ReservationArn) lineItem.getDerived(lineItem.getReservationArnIndex());
+        if (arn == null) {
+            arn = ReservationArn.get(lineItem.getReservationArn());
+            lineItem.putDerived(lineItem.getReservationArnIndex(), arn);
+        }
+        return arn;
+    }
+
     private Interval getUsageInterval(String fileName, DateTime reportStart, LineItem lineItem) {
         long millisStart = lineItem.getStartMillis();
         long millisEnd = lineItem.getEndMillis();
@@ -259,13 +269,13 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
         long nextMonthStartMillis = reportStart.plusMonths(1).getMillis();
         if (millisStart > nextMonthStartMillis) {
             millisStart = reportStart.getMillis();
-            millisEnd = new DateTime(millisStart, DateTimeZone.UTC).plusHours(1).getMillis();
+            millisEnd = millisStart + AwsUtils.hourMillis;
         }
         else {
             Product origProduct = productService.getProduct(lineItem.getProduct(), lineItem.getProductServiceCode());
             if (origProduct.isRegistrar() || origProduct.isSupport()) {
                 // Put the whole fee in the first hour
-                millisEnd = new DateTime(millisStart, DateTimeZone.UTC).plusHours(1).getMillis();
+                millisEnd = millisStart + AwsUtils.hourMillis;
             }
         }
 
@@ -277,11 +287,11 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
             case Credit:
                 // Most credits have end times that are one second into the next hour
                 // Truncate partial seconds end time.
-                millisEnd = new DateTime(millisEnd, DateTimeZone.UTC).withSecondOfMinute(0).getMillis();
+                millisEnd -= (millisEnd / 1000 % 60) * 1000;
                 break;
             case Tax:
                 // Put the whole fee in the first hour
-                millisEnd = new DateTime(millisStart, DateTimeZone.UTC).plusHours(1).getMillis();
+                millisEnd = millisStart + AwsUtils.hourMillis;
                 //logger.info(fileName + " Tax: " + lineItem);
                 break;
             case RIFee:
@@ -293,7 +303,7 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
         case Purchase:
         case Refund:
             // Put the whole fee in the first hour
-            millisEnd = new DateTime(millisStart, DateTimeZone.UTC).plusHours(1).getMillis();
+            millisEnd = millisStart + AwsUtils.hourMillis;
             //logger.info(fileName + " Refund/Purchase: " + lineItem);
             break;
         }
@@ -331,7 +341,7 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
        
         PurchaseOption defaultReservationPurchaseOption = reservationService.getDefaultPurchaseOption(usageInterval.getStartMillis());
         String purchaseOption = lineItem.getPurchaseOption();
-        ReservationArn reservationArn = ReservationArn.get(lineItem.getReservationArn());
+        ReservationArn reservationArn = getReservationArn(lineItem);
         if (StringUtils.isEmpty(purchaseOption) && !reservationArn.name.isEmpty()) {
             ReservationInfo resInfo = reservationService.getReservation(reservationArn);
             if (resInfo != null)
@@ -353,7 +363,7 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
         // Add all resources to the instance catalog
         addResourceInstance(lineItem, instances, tagGroup);
 
-        double costValue = Double.parseDouble(lineItem.getCost());
+        double costValue = LineItemFieldParser.parseDouble(lineItem.getCost());
         final Result result = getResult(lineItem, reportStart, reportModTime, tagGroup, processDelayed, lineItem.isReserved(), costValue);
 
         ResourceGroup resourceGroup = null;
@@ -385,7 +395,7 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
                 break;
                 
             case SavingsPlanCoveredUsage:
-                costValue = Double.parseDouble(lineItem.getSavingsPlanEffectiveCost());
+                costValue = LineItemFieldParser.parseDouble(lineItem.getSavingsPlanEffectiveCost());
                 break;
             
             case Tax:
@@ -407,7 +417,7 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
 
         final String description = lineItem.getDescription();
         boolean monthlyCost = StringUtils.isEmpty(description) ? false : description.toLowerCase().contains("-month");
-        double usageValue = Double.parseDouble(lineItem.getUsageQuantity());
+        double usageValue = LineItemFieldParser.parseDouble(lineItem.getUsageQuantity());
 
         if (result == Result.daily) {
             long millisStart = usageInterval.getStart().withTimeAtStartOfDay().getMillis();
@@ -482,9 +492,9 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
         DateTime end = new DateTime(lineItem.getReservationEndTime(), DateTimeZone.UTC).withMinuteOfHour(0).withSecondOfMinute(0).plusHours(1);
         PurchaseOption purchaseOption = ((ReservationOperation) tg.operation).getPurchaseOption();        
         
-        Double usageQuantity = Double.parseDouble(lineItem.getUsageQuantity());
-        double hourlyFixedPrice = Double.parseDouble(lineItem.getAmortizedUpfrontFeeForBillingPeriod()) / usageQuantity;
-        double usagePrice = Double.parseDouble(lineItem.getCost()) / usageQuantity;
+        Double usageQuantity = LineItemFieldParser.parseDouble(lineItem.getUsageQuantity());
+        double hourlyFixedPrice = LineItemFieldParser.parseDouble(lineItem.getAmortizedUpfrontFeeForBillingPeriod()) / usageQuantity;
+        double usagePrice = LineItemFieldParser.parseDouble(lineItem.getCost()) / usageQuantity;
         
         double hourlyUnusedFixedPrice = lineItem.getUnusedAmortizedUpfrontRate();
         double unusedUsagePrice = lineItem.getUnusedRecurringRate();
@@ -570,7 +580,7 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
         PurchaseOption paymentOption = PurchaseOption.get(lineItem.getSavingsPlanPaymentOption());
         SavingsPlanOperation savingsOp = Operation.getSavingsPlanSavings(paymentOption);
         TagGroup tg = TagGroup.getTagGroup(CostType.savings, tagGroup.account,  tagGroup.region, tagGroup.zone, tagGroup.product, savingsOp, tagGroup.usageType, tagGroup.resourceGroup);
-        double publicCost = Double.parseDouble(publicOnDemandCost);
+        double publicCost = LineItemFieldParser.parseDouble(publicOnDemandCost);
         double edpCost = publicCost * (1 - edpDiscount);
         double savings = edpCost - costValue;
         data.add(product, hour, tg, savings, 0);
@@ -581,8 +591,8 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
         if (normalizedUsage >= 1.0)
             return;
         
-        double amortization = Double.parseDouble(lineItem.getSavingsPlanAmortizedUpfrontCommitmentForBillingPeriod());
-        double recurring = Double.parseDouble(lineItem.getSavingsPlanRecurringCommitmentForBillingPeriod());
+        double amortization = LineItemFieldParser.parseDouble(lineItem.getSavingsPlanAmortizedUpfrontCommitmentForBillingPeriod());
+        double recurring = LineItemFieldParser.parseDouble(lineItem.getSavingsPlanRecurringCommitmentForBillingPeriod());
         double unusedAmort = amortization * (1.0 - normalizedUsage);
         double unusedRecurring = recurring * (1.0 - normalizedUsage);
         
@@ -626,7 +636,7 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
         }
         
         boolean reservationUsage = lineItem.isReserved() && lineItemType != LineItemType.Fee && lineItemType != LineItemType.Refund;
-        ReservationArn reservationArn = ReservationArn.get(lineItem.getReservationArn());
+        ReservationArn reservationArn = getReservationArn(lineItem);
         String amort = lineItem.getAmortizedUpfrontCostForUsage();
         String publicOnDemandCost = lineItem.getPublicOnDemandCost();
 
@@ -656,7 +666,7 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
                 logger.warn(fileName + " " + lineItemType + " No amortization in line item for tg=" + tagGroup);
             return;
         }
-        amortCost = Double.parseDouble(amort);
+        amortCost = LineItemFieldParser.parseDouble(amort);
         if (amortCost > 0.0) {
             ReservationOperation amortOp = ReservationOperation.getAmortized(((ReservationOperation) tagGroup.operation).getPurchaseOption());
             TagGroupRI tg = TagGroupRI.get(CostType.amortization, tagGroup.account, tagGroup.region, tagGroup.zone, tagGroup.product, amortOp, tagGroup.usageType, tagGroup.resourceGroup, reservationArn);
@@ -675,7 +685,7 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
         }
         ReservationOperation savingsOp = ReservationOperation.getSavings(((ReservationOperation) tagGroup.operation).getPurchaseOption());
         TagGroupRI tg = TagGroupRI.get(CostType.savings, tagGroup.account,  tagGroup.region, tagGroup.zone, tagGroup.product, savingsOp, tagGroup.usageType, tagGroup.resourceGroup, reservationArn);
-        double publicCost = Double.parseDouble(publicOnDemandCost);
+        double publicCost = LineItemFieldParser.parseDouble(publicOnDemandCost);
         double edpCost = publicCost * (1 - edpDiscount);
         double savings = edpCost - costValue - amortCost;
         data.add(product, hour, tg, savings, 0);
@@ -684,6 +694,12 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
         }
     }        
     
+    public boolean delayUntilMerged(LineItem lineItem, long startMilli) {
+        // As of Jan 1, 2018 RIFee line items are only used to extract the reservation info and
+        // don't need to know the number of hours in the month.
+        return !(lineItem.getLineItemType() == LineItemType.RIFee && startMilli >= jan1_2018);
+    }
+
     protected Result getResult(LineItem lineItem, DateTime reportStart, DateTime reportModTime, TagGroup tg, boolean processDelayed, boolean reservationUsage, double costValue) {
         BillType bt = lineItem.getBillType();
         if (bt == BillType.Purchase || bt == BillType.Refund) {
@@ -799,7 +815,7 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
             return Operation.getBonusReservedInstances(PurchaseOption.get(purchaseOption));
         }
         
-        double cost = Double.parseDouble(lineItem.getCost());
+        double cost = LineItemFieldParser.parseDouble(lineItem.getCost());
 
         if (lineItem.getLineItemType() == LineItemType.RIFee) {
             if (product.isElastiCache()) {
@@ -821,15 +837,15 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
             if (lineItem.hasAmortizedUpfrontFeeForBillingPeriod()) {
                 // RIFee line items have amortization and recurring fee info as of 2018-01-01
                 // determine purchase option from amort and recurring
-                Double amortization = Double.parseDouble(lineItem.getAmortizedUpfrontFeeForBillingPeriod());
+                Double amortization = LineItemFieldParser.parseDouble(lineItem.getAmortizedUpfrontFeeForBillingPeriod());
                 return amortization > 0.0 ? (cost > 0.0 ? Operation.bonusReservedInstancesPartialUpfront : Operation.bonusReservedInstancesAllUpfront) : Operation.bonusReservedInstancesNoUpfront;
             }
         }
         else if (lineItem.getLineItemType() == LineItemType.DiscountedUsage) {
             if (lineItem.hasAmortizedUpfrontCostForUsage()) {
                 // DiscountedUsage line items have amortization and recurring fee info as of 2018-01-01
-                Double amortization = Double.parseDouble(lineItem.getAmortizedUpfrontCostForUsage());
-                Double recurringCost = Double.parseDouble(lineItem.getRecurringFeeForUsage());
+                Double amortization = LineItemFieldParser.parseDouble(lineItem.getAmortizedUpfrontCostForUsage());
+                Double recurringCost = LineItemFieldParser.parseDouble(lineItem.getRecurringFeeForUsage());
                 return amortization > 0.0 ? (recurringCost > 0.0 ? Operation.bonusReservedInstancesPartialUpfront : Operation.bonusReservedInstancesAllUpfront) : Operation.bonusReservedInstancesNoUpfront;
             }
         }
@@ -956,7 +972,7 @@ public class CostAndUsageReportLineItemProcessor implements LineItemProcessor {
                     String normFactorStr = lineItem.getLineItemNormalizationFactor();
                     if (!normFactorStr.isEmpty()) {
                         // Determine if we have a multi-AZ reservation by looking at the normalization factor, numberOfReservations, and instance family size
-                        Double normalizationFactor = Double.parseDouble(lineItem.getLineItemNormalizationFactor());
+                        Double normalizationFactor = LineItemFieldParser.parseDouble(lineItem.getLineItemNormalizationFactor());
                         double usageTypeTypicalNormalizationFactor = LineItem.computeProductNormalizedSizeFactor(usageTypeStr);
                         // rough math -- actually would be a factor of two
                         if (normalizationFactor / usageTypeTypicalNormalizationFactor > 1.5) {
@@ -53,6 +53,7 @@ public class CostAndUsageReportProcessor implements MonthlyReportProcessor {
     private ReservationProcessor reservationProcessor = null;
     private LineItemProcessor lineItemProcessor;
     private static int MAX_DOWNLOAD_RETRIES = 4;
+    private static int MIN_DELAYED_PARTITION_SIZE = 1000;
 
     private Instances instances;
     private long startMilli;
@@ -167,13 +168,13 @@ public class CostAndUsageReportProcessor implements MonthlyReportProcessor {
 	
 	class FileData {
 		public CostAndUsageData costAndUsageData;
-		public List<String[]> delayedItems;
+		public DelayedLineItems delayedItems;
 		long endMilli;
 		public Exception exception; // If not null, the file processor failed with this exception.
 		
-		FileData() {
-			costAndUsageData = new CostAndUsageData(config.startDate, startMilli, config.workBucketConfig, config.resourceService == null ? null : config.resourceService.getUserTagKeys(), config.getTagCoverage(), config.accountService, config.productService);
-			delayedItems = Lists.newArrayList();
+		FileData(CostAndUsageReport report) {
+			costAndUsageData = newCostAndUsageData();
+			delayedItems = new DelayedLineItems(report.getUsedColumnIndeces());
 			endMilli = startMilli;
 		}
 		
@@ -227,16 +228,15 @@ public class CostAndUsageReportProcessor implements MonthlyReportProcessor {
 			        if (error != null)
 			        	return new FileData(error);
 			        
-			        FileData data = new FileData();
-			        
 			        // process the file
 			        logger.info("processing " + file.getName() + "...");
 			        
 					LineItem lineItem = new LineItem(config.useBlended, config.costAndUsageNetUnblendedStartDate, report);
+			        FileData data = new FileData(report);
 			        
 					data.endMilli = processReportGzip(file, report, lineItem, data.delayedItems, data.costAndUsageData, edpDiscount);
 					
-		            logger.info("done processing " + file.getName() + ", end is " + new DateTime(data.endMilli, DateTimeZone.UTC).toString() + ", " + data.costAndUsageData.getNum(null) + " hours");
+		            logger.info("done processing " + file.getName() + ", end is " + new DateTime(data.endMilli, DateTimeZone.UTC).toString() + ", " + data.costAndUsageData.getNum(null) + " hours, " + data.delayedItems.size() + " delayed items");
 			        file.delete();
 			        return data;
 		        }
@@ -304,6 +304,7 @@ public class CostAndUsageReportProcessor implements MonthlyReportProcessor {
 		}
 
 		// Wait for completion and merge the results together
+		List<DelayedLineItems> delayedItems = Lists.newArrayList();
 		for (Future<FileData> ffd: fileData) {
 			FileData fd = ffd.get();
 			if (fd == null)
@@ -318,17 +319,68 @@ public class CostAndUsageReportProcessor implements MonthlyReportProcessor {
 				throw new Exception("Unrecoverable error processing CUR file, abort");
 			}
 			costAndUsageData.putAll(fd.costAndUsageData);
-            endMilli = Math.max(endMilli, fd.endMilli);			
+            endMilli = Math.max(endMilli, fd.endMilli);
+            if (fd.delayedItems.size() > 0)
+            	delayedItems.add(fd.delayedItems);
 		}
+		fileData = null; // release the per-file data
 		
-		// Process the delayed items		
-		for (Future<FileData> ffd: fileData) {
+		return processDelayedItems(delayedItems, cau, costAndUsageData, endMilli, edpDiscount);
+	}
+	
+	private CostAndUsageData newCostAndUsageData() {
+		return new CostAndUsageData(config.startDate, startMilli, config.workBucketConfig, config.resourceService == null ? null : config.resourceService.getUserTagKeys(), config.getTagCoverage(), config.accountService, config.productService);
+	}
+	
+	/**
+	 * Process the delayed items in parallel partitions. The delayed items only depend on the number of hours in the
+	 * merged data, so each partition is processed into its own data set extended to that length and merged back in.
+	 */
+	private long processDelayedItems(List<DelayedLineItems> delayedItems, final CostAndUsageReport report, CostAndUsageData costAndUsageData, long endMilli, final double edpDiscount) throws Exception {
+		int total = 0;
+		for (DelayedLineItems d: delayedItems)
+			total += d.size();
+		if (total == 0)
+			return endMilli;
+		
+		final int numHours = costAndUsageData.getNum(null);
+		int partitionSize = Math.max(MIN_DELAYED_PARTITION_SIZE, (total + config.numthreads - 1) / config.numthreads);
+		logger.info("processing " + total + " delayed items in partitions of " + partitionSize);
+		
+		List<Future<FileData>> partitions = Lists.newArrayList();
+		for (final DelayedLineItems items: delayedItems) {
+			for (int start = 0; start < items.size(); start += partitionSize) {
+				final int from = start;
+				final int to = Math.min(start + partitionSize, items.size());
+				partitions.add(pool.submit(new Callable<FileData>() {
+					@Override
+					public FileData call() throws Exception {
+						FileData data = new FileData(report);
+						data.costAndUsageData.extendNum(numHours);
+						LineItem lineItem = new LineItem(config.useBlended, config.costAndUsageNetUnblendedStartDate, report);
+						data.endMilli = processDelayedItems(items, from, to, report, lineItem, data.costAndUsageData, data.endMilli, edpDiscount);
+						return data;
+					}
+				}));
+			}
+		}
+		
+		// Merge in submission order so the results don't depend on thread scheduling
+		for (Future<FileData> ffd: partitions) {
 			FileData fd = ffd.get();
-	        for (String[] items: fd.delayedItems) {
-	        	lineItem.setItems(items);
-	            endMilli = processOneLine("<delayed items>", null, report.getRootName(), lineItem, costAndUsageData, endMilli, edpDiscount);
-	        }
+			costAndUsageData.putAll(fd.costAndUsageData);
+            endMilli = Math.max(endMilli, fd.endMilli);
 		}
+		return endMilli;
+	}
+	
+	private long processDelayedItems(DelayedLineItems items, int from, int to, CostAndUsageReport report, LineItem lineItem, CostAndUsageData costAndUsageData, long endMilli, double edpDiscount) {
+		String[] row = null;
+        for (int i = from; i < to; i++) {
+        	row = items.get(i, row);
+        	lineItem.setItems(row);
+            endMilli = processOneLine("<delayed items>", null, report.getRootName(), lineItem, costAndUsageData, endMilli, edpDiscount);
+        }
         return endMilli;
 	}
 
@@ -352,7 +404,7 @@ public class CostAndUsageReportProcessor implements MonthlyReportProcessor {
 		LineItem lineItem = new LineItem(config.useBlended, config.costAndUsageNetUnblendedStartDate, cau);
         if (config.resourceService != null)
         	config.resourceService.initHeader(lineItem.getResourceTagsHeader(), payerAccountId);
-        List<String[]> delayedItems = Lists.newArrayList();
+        DelayedLineItems delayedItems = new DelayedLineItems(cau.getUsedColumnIndeces());
         
 		for (File file: files) {
             logger.info("processing " + file.getName() + "...");
@@ -360,14 +412,10 @@ public class CostAndUsageReportProcessor implements MonthlyReportProcessor {
             logger.info("done processing " + file.getName() + ", end is " + new DateTime(endMilli, DateTimeZone.UTC).toString() + ", " + costAndUsageData.getNum(null) + " hours");
 		}
 
-        for (String[] items: delayedItems) {
-        	lineItem.setItems(items);
-            endMilli = processOneLine("<delayed items>", null, report.getRootName(), lineItem, costAndUsageData, endMilli, edpDiscount);
-        }
-        return endMilli;
+        return processDelayedItems(delayedItems, 0, delayedItems.size(), cau, lineItem, costAndUsageData, endMilli, edpDiscount);
 	}
 	
-	private long processReportGzip(File file, CostAndUsageReport report, LineItem lineItem, List<String[]> delayedItems, CostAndUsageData costAndUsageData, double edpDiscount) {
+	private long processReportGzip(File file, CostAndUsageReport report, LineItem lineItem, DelayedLineItems delayedItems, CostAndUsageData costAndUsageData, double edpDiscount) {
         GZIPInputStream gzipInput = null;
         long endMilli = startMilli;
         
@@ -394,7 +442,7 @@ public class CostAndUsageReportProcessor implements MonthlyReportProcessor {
         return endMilli;
 	}
 
-	private long processReportFile(String fileName, InputStream in, CostAndUsageReport report, LineItem lineItem, List<String[]> delayedItems, CostAndUsageData costAndUsageData, double edpDiscount) {
+	private long processReportFile(String fileName, InputStream in, CostAndUsageReport report, LineItem lineItem, DelayedLineItems delayedItems, CostAndUsageData costAndUsageData, double edpDiscount) {
 		CsvParserSettings settings = new CsvParserSettings();
 		settings.setHeaderExtractionEnabled(true);
 		settings.setNullValue("");
@@ -421,11 +469,14 @@ public class CostAndUsageReportProcessor implements MonthlyReportProcessor {
         return endMilli;
 	}
 	
-    private long processOneLine(String fileName, List<String[]> delayedItems, String root, LineItem lineItem, CostAndUsageData costAndUsageData, long endMilli, double edpDiscount) {
+    private long processOneLine(String fileName, DelayedLineItems delayedItems, String root, LineItem lineItem, CostAndUsageData costAndUsageData, long endMilli, double edpDiscount) {
         LineItemProcessor.Result result = lineItemProcessor.process(fileName, reportMilli, delayedItems == null, root, lineItem, costAndUsageData, instances, edpDiscount);
 
         if (result == LineItemProcessor.Result.delay) {
-            delayedItems.add(lineItem.getItems());
+        	if (lineItemProcessor.delayUntilMerged(lineItem, startMilli))
+        		delayedItems.add(lineItem.getItems());
+        	else
+        		result = lineItemProcessor.process(fileName, reportMilli, true, root, lineItem, costAndUsageData, instances, edpDiscount);
         }
         else if (result == LineItemProcessor.Result.hourly) {
             endMilli = Math.max(endMilli, lineItem.getEndMillis());
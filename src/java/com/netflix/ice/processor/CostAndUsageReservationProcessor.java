@@ -80,9 +80,12 @@ public class CostAndUsageReservationProcessor extends ReservationProcessor {
         
         Map<Product, Integer> numHoursByProduct = product == null ? getNumHoursByProduct(reservationService, data) : null;
         
+        // Price list product ids of the reservations, resolved the first time each reservation is seen
+        Map<ReservationArn, Integer> productIds = startMilli < jan1_2018 ? Maps.<ReservationArn, Integer>newHashMap() : null;
+        
         for (int i = 0; i < ds.getNum(); i++) {
             // For each hour of usage...
-            processHour(i, reservationService, ds, startMilli, numHoursByProduct);
+            processHour(i, reservationService, ds, startMilli, numHoursByProduct, productIds);
         }
                 
 //        logger.info("process time in seconds: " + Seconds.secondsBetween(start, DateTime.now()).getSeconds());
@@ -118,7 +121,8 @@ public class CostAndUsageReservationProcessor extends ReservationProcessor {
             ReservationService reservationService,
             DataSerializer ds,
             long startMilli,
-            Map<Product, Integer> numHoursByProduct) {
+            Map<Product, Integer> numHoursByProduct,
+            Map<ReservationArn, Integer> productIds) {
         // Process reservations for the hour using the ReservationsService loaded from the ReservationCapacityPoller (Before Jan 1, 2018)
 
         Set<ReservationArn> reservationArns = reservationService.getReservations(startMilli + hour * AwsUtils.hourMillis, product);
@@ -152,7 +156,12 @@ public class CostAndUsageReservationProcessor extends ReservationProcessor {
             double savingsRate = 0.0;
             if (startMilli < jan1_2018) {
                 InstancePrices instancePrices = prices.get(rtg.product);
-                double onDemandRate = instancePrices.getOnDemandRate(rtg.region, rtg.usageType);                
+                Integer productId = productIds.get(reservationArn);
+                if (productId == null) {
+                    productId = instancePrices.getProductId(rtg.region, rtg.usageType);
+                    productIds.put(reservationArn, productId);
+                }
+                double onDemandRate = instancePrices.getOnDemandRate(productId);
                 savingsRate = onDemandRate - reservation.reservationHourlyCost - reservation.upfrontAmortized;
             }
             
@@ -28,6 +28,7 @@ import org.slf4j.LoggerFactory;
 
 import com.netflix.ice.common.AwsUtils;
 import com.netflix.ice.common.WorkBucketConfig;
+import com.netflix.ice.common.WorkBucketConfig.ArchiveType;
 import com.netflix.ice.processor.ReadWriteDataSerializer.TagGroupFilter;
 
 public abstract class DataFile {
@@ -38,13 +39,15 @@ public abstract class DataFile {
     protected final WorkBucketConfig config;
     protected final String dbName;
     protected final File file;
+    protected final boolean streaming;
     
     protected OutputStream os;
 
-    protected DataFile(String name, WorkBucketConfig config) throws Exception {
+    protected DataFile(String name, WorkBucketConfig config, ArchiveType archiveType) throws Exception {
     	this.config = config;
         dbName = name;
         os = null;
+        streaming = config != null && config.isStreaming(archiveType);
         
         String filename = dbName + compressExtension;
         file = config == null ? new File(filename) : new File(config.localDir, filename);
@@ -55,16 +58,30 @@ public abstract class DataFile {
     	config = null;
     	dbName = null;
     	file = null;
+    	streaming = false;
     }
     
     public void open() throws IOException {
-    	os = new FileOutputStream(file);
+    	if (streaming) {
+    		// Drop any local copy so a later load pulls the new version from S3
+    		file.delete();
+            logger.info(this.dbName + " streaming to s3...");
+    		os = AwsUtils.getUploadStream(config.workS3BucketName, config.workS3BucketPrefix + file.getName());
+    	}
+    	else {
+    		os = new FileOutputStream(file);
+    	}
     	os = new GZIPOutputStream(os);
     }
     
     public void close() throws IOException {
     	os.close();
     	
+    	if (streaming) {
+            logger.info(this.dbName + " streaming done.");
+    		return;
+    	}
+    	
         logger.info(this.dbName + " uploading to s3...");
         AwsUtils.upload(config.workS3BucketName, config.workS3BucketPrefix + file.getName(), file);
         logger.info(this.dbName + " uploading done.");    	
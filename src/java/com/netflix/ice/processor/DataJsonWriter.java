@@ -72,7 +72,7 @@ public class DataJsonWriter extends DataFile {
 			Map<Product, DataSerializer> dataByProduct,
 			InstanceMetrics instanceMetrics, PriceListService priceListService, WorkBucketConfig workBucketConfig)
 			throws Exception {
-		super(name, workBucketConfig);
+		super(name, workBucketConfig, WorkBucketConfig.ArchiveType.json);
 		this.monthDateTime = monthDateTime;
 		this.tagKeys = tagKeys;
 		this.fileType = fileType;
@@ -15,9 +15,12 @@ import org.apache.parquet.example.data.GroupFactory;
 import org.apache.parquet.example.data.simple.SimpleGroupFactory;
 import org.apache.parquet.hadoop.ParquetFileWriter;
 import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.example.ExampleParquetWriter;
 import org.apache.parquet.hadoop.api.WriteSupport;
 import org.apache.parquet.hadoop.example.GroupWriteSupport;
 import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.io.PositionOutputStream;
 import org.apache.parquet.schema.MessageType;
 import org.apache.parquet.schema.MessageTypeParser;
 import org.joda.time.DateTime;
@@ -27,6 +30,7 @@ import org.slf4j.LoggerFactory;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -126,6 +130,14 @@ public class DataParquetWriter {
              */
         }
 
+        public ParquetWriterWrapper(final OutputFile file) throws IOException {
+            parquetWriter = ExampleParquetWriter.builder(file)
+                    .withType(schema)
+                    .withConf(new Configuration())
+                    .withWriteMode(ParquetFileWriter.Mode.OVERWRITE)
+                    .build();
+        }
+
         public void write(Group group) throws IOException {
             parquetWriter.write(group);
         }
@@ -136,18 +148,81 @@ public class DataParquetWriter {
         }
     }
 
+    /**
+     * Parquet output file that streams directly to the work bucket.
+     */
+    class UploadOutputFile implements OutputFile {
+        private final String key;
+
+        UploadOutputFile(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public PositionOutputStream create(long blockSizeHint) throws IOException {
+            final OutputStream out = AwsUtils.getUploadStream(config.workS3BucketName, config.workS3BucketPrefix + key);
+            return new PositionOutputStream() {
+                private long pos = 0;
+
+                @Override
+                public long getPos() throws IOException {
+                    return pos;
+                }
+
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    pos++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    pos += len;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    out.close();
+                }
+            };
+        }
+
+        @Override
+        public PositionOutputStream createOrOverwrite(long blockSizeHint) throws IOException {
+            return create(blockSizeHint);
+        }
+
+        @Override
+        public boolean supportsBlockSize() {
+            return false;
+        }
+
+        @Override
+        public long defaultBlockSize() {
+            return 0;
+        }
+    }
+
     public void archive() throws IOException {
         String yearAndMonth = AwsUtils.monthDateFormat.print(monthDateTime);
         String suffix =  yearAndMonth + ".parquet";
+        String[] ym = yearAndMonth.split("-");
+        String dailyKey = "daily_parquet/" + ym[0] + "/" + ym[1] + "/daily_" + suffix;
+        String monthlyKey = "monthly_parquet/" + ym[0] + "/" + ym[1] + "/monthly_" + suffix;
+
+        if (config.isStreaming(WorkBucketConfig.ArchiveType.parquet)) {
+            logger.info(suffix + " streaming to s3...");
+            write(new ParquetWriterWrapper(new UploadOutputFile(dailyKey)), new ParquetWriterWrapper(new UploadOutputFile(monthlyKey)));
+            logger.info(suffix + " streaming done.");
+            return;
+        }
+
         File dailyFile = new File(config.localDir, "daily_" + suffix);
         File monthlyFile = new File(config.localDir, "monthly_" + suffix);
         write(dailyFile, monthlyFile);
 
         if (config.workS3BucketName != null) {
-            String[] ym = yearAndMonth.split("-");
-            String dailyKey = "daily_parquet/" + ym[0] + "/" + ym[1] + "/" + dailyFile.getName();
-            String monthlyKey = "monthly_parquet/" + ym[0] + "/" + ym[1] + "/" + monthlyFile.getName();
-
             upload(dailyKey, dailyFile);
             upload(monthlyKey, monthlyFile);
         }
@@ -160,9 +235,10 @@ public class DataParquetWriter {
     }
 
     protected void write(File dailyFile, File monthlyFile) throws IOException {
-        ParquetWriterWrapper dailyWriter = new ParquetWriterWrapper(new Path(dailyFile.getPath()));
-        ParquetWriterWrapper monthlyWriter = new ParquetWriterWrapper(new Path(monthlyFile.getPath()));
+        write(new ParquetWriterWrapper(new Path(dailyFile.getPath())), new ParquetWriterWrapper(new Path(monthlyFile.getPath())));
+    }
 
+    private void write(ParquetWriterWrapper dailyWriter, ParquetWriterWrapper monthlyWriter) throws IOException {
         for (Product product: dataByProduct.keySet()) {
             // Skip the "null" product map that doesn't have resource tags
             if (product == null)
@@ -114,6 +114,7 @@ public class DataSerializer extends ReadWriteGenericData<DataSerializer.CostAndU
     public void add(int i, TagGroup tagGroup, CostAndUsage value) {
     	Map<TagGroup, CostAndUsage> map = getCreateData(i);
         map.put(tagGroup, value.add(map.get(tagGroup)));
+    	modificationCount++;
     	if (tagGroups != null)
     		tagGroups.add(tagGroup);
     }
@@ -122,6 +123,7 @@ public class DataSerializer extends ReadWriteGenericData<DataSerializer.CostAndU
     	Map<TagGroup, CostAndUsage> map = getCreateData(i);
     	CostAndUsage existing = map.get(tagGroup);
         map.put(tagGroup, existing != null ? existing.add(cost, usage) : new CostAndUsage(cost, usage));
+    	modificationCount++;
     	if (tagGroups != null)
     		tagGroups.add(tagGroup);
     }
@@ -255,5 +257,6 @@ public class DataSerializer extends ReadWriteGenericData<DataSerializer.CostAndU
         }
 
         this.data = data;
+        modificationCount++;
     }
 }
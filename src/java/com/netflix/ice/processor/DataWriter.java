@@ -31,7 +31,7 @@ public class DataWriter extends DataFile {
 
     DataWriter(String name, ReadWriteDataSerializer data, boolean load, WorkBucketConfig workBucketConfig,
     		AccountService accountService, ProductService productService) throws Exception {
-    	super(name, workBucketConfig);
+    	super(name, workBucketConfig, WorkBucketConfig.ArchiveType.data);
         this.data = data;
 
         if (!load)
@@ -0,0 +1,122 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.processor;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Compact store for line items that have to be reprocessed once all the report files have been read.
+ *
+ * Only the columns used by the line item processor are kept and each value is stored as an int code
+ * into a dictionary so that the many repeated strings (account IDs, usage types, ARNs, dates, etc.)
+ * are held only once. Rows are rebuilt into a full-width String[] on request.
+ *
+ * Not thread safe. Each report file builds its own instance.
+ */
+public class DelayedLineItems {
+	private static final int NULL_CODE = -1;
+
+	private final int[] columns;
+	private final int stride;
+	private final Map<String, Integer> codes;
+	private final List<String> values;
+	private int[] data;
+	private int size;
+
+	/**
+	 * @param usedColumnIndeces columns to keep. Negative indeces, for columns missing from the report, are ignored.
+	 */
+	public DelayedLineItems(Collection<Integer> usedColumnIndeces) {
+		int[] indeces = new int[usedColumnIndeces.size()];
+		int i = 0;
+		for (Integer index: usedColumnIndeces) {
+			if (index >= 0)
+				indeces[i++] = index;
+		}
+		columns = Arrays.copyOf(indeces, i);
+		Arrays.sort(columns);
+		stride = columns.length + 1; // first slot holds the length of the original row
+		codes = Maps.newHashMap();
+		values = Lists.newArrayList();
+		data = new int[stride * 16];
+		size = 0;
+	}
+
+	public void add(String[] items) {
+		int offset = size * stride;
+		if (offset + stride > data.length)
+			data = Arrays.copyOf(data, Math.max(data.length * 2, offset + stride));
+
+		data[offset] = items.length;
+		for (int i = 0; i < columns.length; i++) {
+			int col = columns[i];
+			data[offset + 1 + i] = col < items.length ? encode(items[col]) : NULL_CODE;
+		}
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Number of distinct values held in the dictionary.
+	 */
+	public int getNumValues() {
+		return values.size();
+	}
+
+	/**
+	 * Rebuild the row at the supplied index. The reuse array is returned if it has the right length,
+	 * otherwise a new array is allocated. Columns that weren't stored are left null.
+	 */
+	public String[] get(int row, String[] reuse) {
+		if (row < 0 || row >= size)
+			throw new IndexOutOfBoundsException("row " + row + ", size " + size);
+
+		int offset = row * stride;
+		int length = data[offset];
+		String[] items = reuse != null && reuse.length == length ? reuse : new String[length];
+		for (int i = 0; i < columns.length; i++) {
+			int col = columns[i];
+			if (col < length) {
+				int code = data[offset + 1 + i];
+				items[col] = code == NULL_CODE ? null : values.get(code);
+			}
+		}
+		return items;
+	}
+
+	private int encode(String value) {
+		if (value == null)
+			return NULL_CODE;
+		Integer code = codes.get(value);
+		if (code == null) {
+			code = values.size();
+			values.add(value);
+			codes.put(value, code);
+		}
+		return code;
+	}
+}
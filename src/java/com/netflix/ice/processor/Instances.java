@@ -17,7 +17,13 @@
  */
 package com.netflix.ice.processor;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -28,9 +34,16 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -43,6 +56,7 @@ import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.netflix.ice.common.AccountService;
 import com.netflix.ice.common.AwsUtils;
@@ -59,6 +73,10 @@ import com.univocity.parsers.csv.CsvParserSettings;
 public class Instances {
     private final static Logger logger = LoggerFactory.getLogger(Instances.class);
     
+    // Number of instances encoded together with their own dictionary
+    public static final int shardSize = 50000;
+    public static final int defaultNumThreads = 4;
+
 	private final String localDir;
 	private final String workS3BucketName;
 	private final String workS3BucketPrefix;
@@ -77,10 +95,31 @@ public class Instances {
 		}
 		// Save the most recent version of the resource data.
 		Instance i = data.get(id);
-		if (i == null || i.startMillis < startMillis)
+		if (i == null || i.getStartMillis() < startMillis)
 			data.put(id, new Instance(id, type, account, region, zone, product, tags, startMillis));
 	}
 	
+	/**
+	 * Update path used by the line item processor. Resources usually repeat every hour with the same attributes,
+	 * so only the start time is advanced unless something has changed. The tags map is only built for new or changed resources.
+	 */
+	public void add(LineItem lineItem, long startMillis, String type, Account account, Region region, Zone zone, Product product) {
+		String id = lineItem.getResource();
+		if (id.isEmpty()) {
+			return;
+		}
+		Instance i = data.get(id);
+		if (i != null) {
+			if (i.getStartMillis() >= startMillis)
+				return;
+			if (i.type.equals(type) && i.account == account && i.region == region && i.zone == zone && i.product == product && lineItem.resourceTagsEqual(i.tags)) {
+				i.updateStartMillis(startMillis);
+				return;
+			}
+		}
+		add(id, startMillis, type, lineItem.getResourceTags(), account, region, zone, product);
+	}
+	
 	public Instance get(String id) {
 		return data.get(id);
 	}
@@ -97,17 +136,23 @@ public class Instances {
         DateTime monthDateTime = new DateTime(timeMillis, DateTimeZone.UTC);
 		return "instances_" + AwsUtils.monthDateFormat.print(monthDateTime) + ".csv.gz";
 	}
+	
+	private String getBinaryFilename(long timeMillis) {
+        DateTime monthDateTime = new DateTime(timeMillis, DateTimeZone.UTC);
+		return "instances_" + AwsUtils.monthDateFormat.print(monthDateTime) + ".bin";
+	}
 
-    public void archive(long timeMillis) throws IOException {
-        
-        File file = new File(localDir, getFilename(timeMillis));
+    public void archive(long timeMillis) throws Exception {
+    	archive(timeMillis, defaultNumThreads);
+    }
+    
+    public void archive(long timeMillis, int numThreads) throws Exception {
         
-    	OutputStream os = new FileOutputStream(file);
-		os = new GZIPOutputStream(os);        
-		Writer out = new OutputStreamWriter(os);
+        File file = new File(localDir, getBinaryFilename(timeMillis));
         
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
         try {
-        	writeCsv(out);
+        	Serializer.serialize(out, data.values(), numThreads);
         }
         finally {
             out.close();
@@ -129,6 +174,14 @@ public class Instances {
     }
     
     public void retrieve(long timeMillis, AccountService accountService, ProductService productService) {
+    	retrieve(timeMillis, accountService, productService, defaultNumThreads);
+    }
+    
+    public void retrieve(long timeMillis, AccountService accountService, ProductService productService, int numThreads) {
+    	if (retrieveBinary(timeMillis, accountService, productService, numThreads))
+    		return;
+    	
+    	// Fall back to the CSV archive written by earlier releases
         File file = new File(localDir, getFilename(timeMillis));
     	
         // read from s3 if not exists
@@ -167,6 +220,45 @@ public class Instances {
         }        
     }
     
+    /**
+     * Load the binary archive if there is one.
+     * 
+     * @return false if the binary archive doesn't exist and the CSV archive should be tried.
+     */
+    private boolean retrieveBinary(long timeMillis, AccountService accountService, ProductService productService, int numThreads) {
+        File file = new File(localDir, getBinaryFilename(timeMillis));
+        boolean downloaded = false;
+        
+        try {
+            downloaded = AwsUtils.downloadFileIfChanged(workS3BucketName, workS3BucketPrefix + file.getName(), file);
+        }
+		catch(AmazonS3Exception e) {
+			if (e.getStatusCode() != 404)
+				logger.error("Error downloading " + file, e);
+			return file.exists();
+		}
+        catch (Exception e) {
+            logger.error("error downloading " + file, e);
+            return file.exists();
+        }
+        if (downloaded || (data.size() == 0 && file.exists())) {
+        	DataInputStream in = null;
+            try {
+            	in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            	data = Serializer.deserialize(in, accountService, productService, numThreads);
+            	logger.info("loaded " + data.size() + " instances from " + file);
+            }
+            catch (Exception e) {
+            	logger.error("error in reading " + file, e);
+            }
+            finally {
+                if (in != null)
+                    try {in.close();} catch (Exception e) {}
+            }
+        }
+        return true;
+    }
+    
     protected void readCsv(Reader reader, AccountService accountService, ProductService productService) throws IOException, BadZone {   	
 		CsvParserSettings settings = new CsvParserSettings();
 		settings.setHeaderExtractionEnabled(true);
@@ -185,4 +277,184 @@ public class Instances {
         parser.stopParsing();
 	    data = dataMap;
     }
+    
+    /**
+     * Versioned binary archive of the instances. Instances are split into shards of shardSize which are encoded
+     * and compressed in parallel, each with its own dictionary of the instance type, account, region, zone,
+     * product and tag strings. Shards are written and read one at a time so neither side holds the whole file.
+     * 
+     * Layout:<br/>
+     * 1. magic (int), format version (int)<br/>
+     * 2. shards - length (int) followed by the gzipped shard, repeated. A length of zero ends the file.<br/>
+     * 
+     * Shard layout before compression:<br/>
+     * 1. dictionary - number of strings (int) followed by the strings (UTF)<br/>
+     * 2. instances - count (int) then for each instance: id (UTF), dictionary indices of type, account id, region,
+     *    zone (-1 for none) and product service code (ints), number of tags (int) and the key and value index of each tag (ints)<br/>
+     */
+    public static class Serializer {
+    	public static final int magic = 0x49434549;
+    	public static final int formatVersion = 1;
+    	
+    	public static void serialize(DataOutputStream out, Collection<Instance> instances, int numThreads) throws Exception {
+    		out.writeInt(magic);
+    		out.writeInt(formatVersion);
+    		
+    		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    		try {
+    			Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+    			List<Instance> shard = Lists.newArrayListWithCapacity(Math.min(shardSize, instances.size()));
+    			for (Instance i: instances) {
+    				shard.add(i);
+    				if (shard.size() == shardSize) {
+    					pending.add(submitEncode(shard, pool));
+    					shard = Lists.newArrayListWithCapacity(shardSize);
+    					if (pending.size() > numThreads * 2)
+    						writeShard(out, pending.poll().get());
+    				}
+    			}
+    			if (!shard.isEmpty())
+    				pending.add(submitEncode(shard, pool));
+    			while (!pending.isEmpty())
+    				writeShard(out, pending.poll().get());
+    		}
+    		finally {
+    			pool.shutdownNow();
+    		}
+    		out.writeInt(0);
+    	}
+    	
+    	private static void writeShard(DataOutputStream out, byte[] shard) throws IOException {
+    		out.writeInt(shard.length);
+    		out.write(shard);
+    	}
+    	
+    	private static Future<byte[]> submitEncode(final List<Instance> shard, ExecutorService pool) {
+    		return pool.submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws Exception {
+					return encode(shard);
+				}
+    		});
+    	}
+    	
+    	private static int index(String s, Map<String, Integer> indices, List<String> strings) {
+    		Integer i = indices.get(s);
+    		if (i == null) {
+    			i = strings.size();
+    			indices.put(s, i);
+    			strings.add(s);
+    		}
+    		return i;
+    	}
+    	
+    	static byte[] encode(List<Instance> shard) throws IOException {
+    		Map<String, Integer> indices = Maps.newHashMap();
+    		List<String> strings = Lists.newArrayList();
+    		
+    		ByteArrayOutputStream records = new ByteArrayOutputStream();
+    		DataOutputStream recordsOut = new DataOutputStream(records);
+    		recordsOut.writeInt(shard.size());
+    		for (Instance i: shard) {
+    			recordsOut.writeUTF(i.id);
+    			recordsOut.writeInt(index(i.type, indices, strings));
+    			recordsOut.writeInt(index(i.account.getId(), indices, strings));
+    			recordsOut.writeInt(index(i.region.name, indices, strings));
+    			recordsOut.writeInt(i.zone == null ? -1 : index(i.zone.name, indices, strings));
+    			recordsOut.writeInt(index(i.product.getServiceCode(), indices, strings));
+    			recordsOut.writeInt(i.tags.size());
+    			for (Map.Entry<String, String> tag: i.tags.entrySet()) {
+    				recordsOut.writeInt(index(tag.getKey(), indices, strings));
+    				recordsOut.writeInt(index(tag.getValue(), indices, strings));
+    			}
+    		}
+    		recordsOut.flush();
+    		
+    		ByteArrayOutputStream bytes = new ByteArrayOutputStream(records.size() / 4);
+    		DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes));
+    		out.writeInt(strings.size());
+    		for (String s: strings)
+    			out.writeUTF(s);
+    		records.writeTo(out);
+    		out.close();
+    		return bytes.toByteArray();
+    	}
+    	
+    	public static ConcurrentMap<String, Instance> deserialize(DataInputStream in, final AccountService accountService, final ProductService productService, int numThreads) throws Exception {
+    		if (in.readInt() != magic)
+    			throw new IOException("Not an instances archive");
+    		int version = in.readInt();
+    		if (version != formatVersion)
+    			throw new IOException("Unsupported instances archive version " + version);
+    		
+    		final ConcurrentMap<String, Instance> data = Maps.newConcurrentMap();
+    		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    		try {
+    			Deque<Future<Void>> pending = new ArrayDeque<Future<Void>>();
+    			int length;
+    			while ((length = in.readInt()) > 0) {
+    				final byte[] shard = new byte[length];
+    				in.readFully(shard);
+    				pending.add(pool.submit(new Callable<Void>() {
+						@Override
+						public Void call() throws Exception {
+							decode(shard, data, accountService, productService);
+							return null;
+						}
+    				}));
+    				if (pending.size() > numThreads * 2)
+    					pending.poll().get();
+    			}
+    			while (!pending.isEmpty())
+    				pending.poll().get();
+    		}
+    		finally {
+    			pool.shutdownNow();
+    		}
+    		return data;
+    	}
+    	
+    	static void decode(byte[] shard, Map<String, Instance> data, AccountService accountService, ProductService productService) throws IOException, BadZone {
+    		DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new ByteArrayInputStream(shard))));
+    		String[] strings = new String[in.readInt()];
+    		for (int i = 0; i < strings.length; i++)
+    			strings[i] = in.readUTF();
+    		
+    		// Resolve each dictionary entry to its tag once per shard
+    		Account[] accounts = new Account[strings.length];
+    		Region[] regions = new Region[strings.length];
+    		Zone[] zones = new Zone[strings.length];
+    		Product[] products = new Product[strings.length];
+    		
+    		int count = in.readInt();
+    		for (int n = 0; n < count; n++) {
+    			String id = in.readUTF();
+    			String type = strings[in.readInt()];
+    			
+    			int accountIndex = in.readInt();
+    			if (accounts[accountIndex] == null)
+    				accounts[accountIndex] = accountService.getAccountById(strings[accountIndex]);
+    			
+    			int regionIndex = in.readInt();
+    			if (regions[regionIndex] == null)
+    				regions[regionIndex] = Region.getRegionByName(strings[regionIndex]);
+    			Region region = regions[regionIndex];
+    			
+    			int zoneIndex = in.readInt();
+    			if (zoneIndex >= 0 && zones[zoneIndex] == null)
+    				zones[zoneIndex] = region.getZone(strings[zoneIndex]);
+    			
+    			int productIndex = in.readInt();
+    			if (products[productIndex] == null)
+    				products[productIndex] = productService.getProductByServiceCode(strings[productIndex]);
+    			
+    			int numTags = in.readInt();
+    			Map<String, String> tags = Maps.newHashMapWithExpectedSize(numTags);
+    			for (int t = 0; t < numTags; t++)
+    				tags.put(strings[in.readInt()], strings[in.readInt()]);
+    			
+    			data.put(id, new Instance(id, type, accounts[accountIndex], region, zoneIndex < 0 ? null : zones[zoneIndex], products[productIndex], tags, 0));
+    		}
+    	}
+    }
 }
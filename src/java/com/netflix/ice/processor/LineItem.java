@@ -29,6 +29,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Maps;
+import com.netflix.ice.common.Instance;
 import com.netflix.ice.processor.CostAndUsageReport.Column;
 import com.netflix.ice.tag.Region;
 
@@ -58,10 +59,19 @@ public class LineItem {
     
     protected String[] items;
     
+    // Canonical values and ids for the cells of the current row
+    private final ColumnDictionary dictionary;
+    private final int[] valueIds;
+    
+    // Consecutive rows usually share the same start and end times
+    private final LineItemFieldParser.TimestampCache startTimeCache = new LineItemFieldParser.TimestampCache();
+    private final LineItemFieldParser.TimestampCache endTimeCache = new LineItemFieldParser.TimestampCache();
+    
     private int lineItemIdIndex;
     private int billTypeIndex;
     private final int resourceTagStartIndex;
     private final String[] resourceTagsHeader;
+    private final String[] resourceTagNames;
     private int purchaseOptionIndex;
     private int lineItemTypeIndex;
     private int lineItemNormalizationFactorIndex;
@@ -116,6 +126,9 @@ public class LineItem {
     protected LineItem(String[] items) {
         resourceTagStartIndex = -1;
         resourceTagsHeader = null;
+        resourceTagNames = null;
+        dictionary = null;
+        valueIds = null;
         this.items = items;
     }
             
@@ -160,6 +173,11 @@ public class LineItem {
         
         resourceTagStartIndex = report.getCategoryStartIndex("resourceTags");
         resourceTagsHeader = report.getCategoryHeader("resourceTags");
+        resourceTagNames = new String[resourceTagsHeader.length];
+        for (int i = 0; i < resourceTagsHeader.length; i++) {
+            String tag = resourceTagsHeader[i].substring("resourceTags/".length());
+            resourceTagNames[i] = tag.startsWith("user:") ? tag.substring("user:".length()) : tag;
+        }
         // Call getColumnIndex for each resource column so it's marked as used for the CSV parser
         List<Column> resourceColumns = report.getCategoryColumns("resourceTags");
         for (Column c: resourceColumns)
@@ -202,6 +220,9 @@ public class LineItem {
                 savingsPlanEffectiveCostIndex = report.getColumnIndex("savingsPlan", "SavingsPlanEffectiveCost");
             }
         }
+        
+        dictionary = new ColumnDictionary(report.getUsedColumnIndeces());
+        valueIds = new int[dictionary.width()];
     }
     
     public String toString() {
@@ -239,15 +260,51 @@ public class LineItem {
     public void setItems(String[] items) {
         this.items = items;
         lineNumber++;
-        lineItemType = null;
+        if (dictionary != null)
+            dictionary.intern(items, valueIds);
+        
+        lineItemType = (LineItemType) getDerived(lineItemTypeIndex);
+        if (lineItemType != null)
+            return;
         try {
             lineItemType = LineItemType.valueOf(items[lineItemTypeIndex]);
+            putDerived(lineItemTypeIndex, lineItemType);
         } catch (Exception e) {
             logger.error("Unknown lineItemType: " + items[lineItemTypeIndex] + ", " + toString());
             lineItemType = null;
         }
     }
     
+    /**
+     * Get the dictionary id for the value of a column in the current row, or -1 if the column isn't interned.
+     */
+    public int getValueId(int index) {
+        if (valueIds == null || index < 0 || index >= valueIds.length || valueIds[index] < 0)
+            return -1;
+        // Make sure the cell hasn't been changed since the row was set
+        int id = valueIds[index];
+        return items[index] == dictionary.getValue(index, id) ? id : -1;
+    }
+    
+    /**
+     * Get a value previously derived from the text of a column in the current row.
+     * Returns null if the column isn't interned or nothing has been saved for its value.
+     */
+    public Object getDerived(int index) {
+        int id = getValueId(index);
+        return id < 0 ? null : dictionary.getDerived(index, id);
+    }
+    
+    /**
+     * Save a value derived from the text of a column in the current row so that later rows
+     * with the same text can skip the work. Values must depend only on the column text.
+     */
+    public void putDerived(int index, Object value) {
+        int id = getValueId(index);
+        if (id >= 0)
+            dictionary.putDerived(index, id, value);
+    }
+    
     public int size() {
         return resourceTagStartIndex + resourceTagsHeader.length;
     }
@@ -378,7 +435,12 @@ public class LineItem {
     }
 
     public BillType getBillType() {
-        return BillType.valueOf(items[billTypeIndex]);
+        BillType bt = (BillType) getDerived(billTypeIndex);
+        if (bt == null) {
+            bt = BillType.valueOf(items[billTypeIndex]);
+            putDerived(billTypeIndex, bt);
+        }
+        return bt;
     }
     
     public String getCost() {
@@ -391,11 +453,11 @@ public class LineItem {
     }
 
     public long getStartMillis() {
-        return amazonBillingDateFormatISO.parseMillis(items[startTimeIndex]);
+        return startTimeCache.parseMillis(items[startTimeIndex]);
     }
 
     public long getEndMillis() {
-        return amazonBillingDateFormatISO.parseMillis(items[endTimeIndex]);
+        return endTimeCache.parseMillis(items[endTimeIndex]);
     }
     
     public String getUsageType() {
@@ -423,6 +485,10 @@ public class LineItem {
         return items.length - resourceTagStartIndex;
     }
 
+    public int getResourceTagIndex(int index) {
+        return resourceTagStartIndex + index;
+    }
+
     public String getResourceTag(int index) {
         if (items.length <= resourceTagStartIndex + index)
             return "";
@@ -435,14 +501,30 @@ public class LineItem {
             if (items[i+resourceTagStartIndex].isEmpty()) {
                 continue;
             }
-            String tag = resourceTagsHeader[i].substring("resourceTags/".length());
-            if (tag.startsWith("user:"))
-                tag = tag.substring("user:".length());
-            tags.put(tag, items[i+resourceTagStartIndex]);
+            tags.put(resourceTagNames[i], items[i+resourceTagStartIndex]);
         }
         return tags;
     }
     
+    /**
+     * Compare the resource tags of the line item with a set of tags previously saved by Instance
+     * without building a map of the line item's tags.
+     */
+    public boolean resourceTagsEqual(Map<String, String> tags) {
+        int count = 0;
+        for (int i = 0; i < resourceTagsHeader.length && i+resourceTagStartIndex < items.length; i++) {
+            String value = items[i+resourceTagStartIndex];
+            if (value.isEmpty())
+                continue;
+            if (value.contains(Instance.tagSeparator))
+                value = value.replace(Instance.tagSeparator, Instance.tagSeparatorReplacement);
+            if (!value.equals(tags.get(resourceTagNames[i])))
+                return false;
+            count++;
+        }
+        return count == tags.size();
+    }
+    
     public boolean isReserved() {
         if (reservedIndex > items.length) {
             logger.error("Line item record too short. Reserved index = " + reservedIndex + ", record length = " + items.length);
@@ -499,11 +581,11 @@ public class LineItem {
         }
 
         if (lineItemType == LineItemType.DiscountedUsage) {
-            double usageAmount = Double.parseDouble(items[usageQuantityIndex]);
+            double usageAmount = LineItemFieldParser.parseDouble(items[usageQuantityIndex]);
             String linf = items[lineItemNormalizationFactorIndex];
-            double normFactor = (linf.isEmpty() || linf.equals("NA")) ? computeProductNormalizedSizeFactor(items[usageTypeIndex]) : Double.parseDouble(linf);
+            double normFactor = (linf.isEmpty() || linf.equals("NA")) ? computeProductNormalizedSizeFactor(items[usageTypeIndex]) : LineItemFieldParser.parseDouble(linf);
             String pnsf = items[productNormalizationSizeFactorIndex];
-            double productFactor = (pnsf.isEmpty() || pnsf.equals("NA")) ? computeProductNormalizedSizeFactor(items[productUsageTypeIndex]) : Double.parseDouble(pnsf);
+            double productFactor = (pnsf.isEmpty() || pnsf.equals("NA")) ? computeProductNormalizedSizeFactor(items[productUsageTypeIndex]) : LineItemFieldParser.parseDouble(pnsf);
             Double actualUsage = usageAmount * normFactor / productFactor;            
             return actualUsage.toString();
         }
@@ -637,8 +719,8 @@ public class LineItem {
         // Return the amortization rate for an unused RI
         if (reservationUnusedAmortizedUpfrontFeeForBillingPeriodIndex >= 0 &&
                 reservationUnusedQuantityIndex >= 0) {
-            Double amort = Double.parseDouble(items[reservationUnusedAmortizedUpfrontFeeForBillingPeriodIndex]);
-            Double quantity = Double.parseDouble(items[reservationUnusedQuantityIndex]);
+            Double amort = LineItemFieldParser.parseDouble(items[reservationUnusedAmortizedUpfrontFeeForBillingPeriodIndex]);
+            Double quantity = LineItemFieldParser.parseDouble(items[reservationUnusedQuantityIndex]);
             if (amort != null && quantity != null)
                 return quantity == 0.0 ? 0.0 : amort / quantity;
         }
@@ -649,8 +731,8 @@ public class LineItem {
         // Return the recurring rate for an unused RI
         if (reservationUnusedRecurringFeeIndex >= 0 &&
                 reservationUnusedQuantityIndex >= 0) {
-            Double fee = Double.parseDouble(items[reservationUnusedRecurringFeeIndex]);
-            Double quantity = Double.parseDouble(items[reservationUnusedQuantityIndex]);
+            Double fee = LineItemFieldParser.parseDouble(items[reservationUnusedRecurringFeeIndex]);
+            Double quantity = LineItemFieldParser.parseDouble(items[reservationUnusedQuantityIndex]);
             if (fee != null && quantity != null)
                 return quantity == 0.0 ? 0.0 : fee / quantity;
         }
@@ -771,7 +853,7 @@ public class LineItem {
         if (savingsPlanTotalCommitmentToDateIndex >= 0 && savingsPlanUsedCommitmentIndex >= 0 &&
                 !items[savingsPlanUsedCommitmentIndex].isEmpty() && !items[savingsPlanTotalCommitmentToDateIndex].isEmpty() &&
                 !items[savingsPlanTotalCommitmentToDateIndex].equals("0")) {
-            return Double.parseDouble(items[savingsPlanUsedCommitmentIndex]) / Double.parseDouble(items[savingsPlanTotalCommitmentToDateIndex]);
+            return LineItemFieldParser.parseDouble(items[savingsPlanUsedCommitmentIndex]) / LineItemFieldParser.parseDouble(items[savingsPlanTotalCommitmentToDateIndex]);
         }
         return null;
     }
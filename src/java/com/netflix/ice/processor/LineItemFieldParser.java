@@ -0,0 +1,189 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.processor;
+
+/**
+ * Parsers for the timestamp and numeric fields of Cost and Usage Report line items.
+ *
+ * The common cases are parsed directly from the characters of the field without creating
+ * any intermediate objects. Anything unusual falls back to the Joda formatter or Double.parseDouble()
+ * so the results (including exceptions for malformed values) are the same as the general-purpose parsers.
+ */
+public class LineItemFieldParser {
+	private static final long dayMillis = 24L * 3600L * 1000L;
+	private static final long maxExactMantissa = 1L << 53;
+	private static final double[] powersOfTen = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22,
+	};
+
+	/**
+	 * Parse an ISO-8601 timestamp of the form yyyy-MM-ddTHH:mm:ssZ as used by the CUR.
+	 */
+	public static long parseIsoMillis(String s) {
+		if (s.length() != 20 || s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T' ||
+				s.charAt(13) != ':' || s.charAt(16) != ':' || s.charAt(19) != 'Z')
+			return LineItem.amazonBillingDateFormatISO.parseMillis(s);
+
+		int year = digits(s, 0, 4);
+		int month = digits(s, 5, 2);
+		int day = digits(s, 8, 2);
+		int hour = digits(s, 11, 2);
+		int minute = digits(s, 14, 2);
+		int second = digits(s, 17, 2);
+		if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) ||
+				hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59)
+			return LineItem.amazonBillingDateFormatISO.parseMillis(s);
+
+		return daysFromEpoch(year, month, day) * dayMillis + ((hour * 60L + minute) * 60L + second) * 1000L;
+	}
+
+	/**
+	 * Parse a decimal value. Returns the same result as Double.parseDouble().
+	 */
+	public static double parseDouble(String s) {
+		int len = s.length();
+		int i = 0;
+		boolean negative = false;
+		if (len > 0 && s.charAt(0) == '-') {
+			negative = true;
+			i++;
+		}
+
+		long mantissa = 0;
+		int exponent = 0;
+		int pendingZeros = 0; // fraction zeros not yet folded into the mantissa
+		int numDigits = 0;
+		boolean fraction = false;
+		for (; i < len; i++) {
+			char c = s.charAt(i);
+			if (c >= '0' && c <= '9') {
+				numDigits++;
+				if (c == '0' && fraction) {
+					pendingZeros++;
+					continue;
+				}
+				for (; pendingZeros > 0; pendingZeros--) {
+					mantissa *= 10;
+					exponent--;
+					if (mantissa > maxExactMantissa)
+						return Double.parseDouble(s);
+				}
+				mantissa = mantissa * 10 + (c - '0');
+				if (fraction)
+					exponent--;
+				if (mantissa > maxExactMantissa)
+					return Double.parseDouble(s);
+			}
+			else if (c == '.' && !fraction) {
+				fraction = true;
+			}
+			else if ((c == 'E' || c == 'e') && numDigits > 0) {
+				int exp = 0;
+				boolean negativeExp = false;
+				i++;
+				if (i < len && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+					negativeExp = s.charAt(i) == '-';
+					i++;
+				}
+				if (i == len || len - i > 3)
+					return Double.parseDouble(s);
+				for (; i < len; i++) {
+					c = s.charAt(i);
+					if (c < '0' || c > '9')
+						return Double.parseDouble(s);
+					exp = exp * 10 + (c - '0');
+				}
+				exponent += negativeExp ? -exp : exp;
+				break;
+			}
+			else {
+				return Double.parseDouble(s);
+			}
+		}
+		if (numDigits == 0)
+			return Double.parseDouble(s);
+
+		double value;
+		if (mantissa == 0)
+			value = 0.0;
+		else if (exponent == 0)
+			value = mantissa;
+		else if (exponent < 0 && exponent >= -22)
+			value = mantissa / powersOfTen[-exponent];
+		else if (exponent > 0 && exponent <= 22)
+			value = mantissa * powersOfTen[exponent];
+		else
+			return Double.parseDouble(s);
+
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Cache of the last timestamp parsed. Line items are sorted by time within each report file,
+	 * so consecutive rows almost always carry the same start and end times.
+	 * Not thread safe. Each LineItem holds its own instances.
+	 */
+	public static class TimestampCache {
+		private String last = null;
+		private long lastMillis = 0;
+
+		public long parseMillis(String s) {
+			if (last != null && (s == last || s.equals(last)))
+				return lastMillis;
+			lastMillis = parseIsoMillis(s);
+			last = s;
+			return lastMillis;
+		}
+	}
+
+	private static int digits(String s, int start, int count) {
+		int value = 0;
+		for (int i = start; i < start + count; i++) {
+			char c = s.charAt(i);
+			if (c < '0' || c > '9')
+				return -1;
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static int daysInMonth(int year, int month) {
+		switch (month) {
+		case 2:
+			return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+		case 4:
+		case 6:
+		case 9:
+		case 11:
+			return 30;
+		default:
+			return 31;
+		}
+	}
+
+	// Days since 1970-01-01 in the proleptic Gregorian calendar
+	private static long daysFromEpoch(int year, int month, int day) {
+		long y = month <= 2 ? year - 1 : year;
+		long era = y / 400;
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+}
@@ -32,6 +32,12 @@ public interface LineItemProcessor {
     		Instances instances,
     		double edpDiscount);
 
+    /**
+     * Returns true if a line item that was delayed can't be processed until the data from all the report
+     * files has been merged. Delayed items that don't depend on the merged data are processed immediately.
+     */
+    boolean delayUntilMerged(LineItem lineItem, long startMilli);
+
     public static enum Result {
         delay,
         ignore,
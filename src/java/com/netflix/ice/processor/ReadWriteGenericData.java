@@ -54,6 +54,10 @@ public abstract class ReadWriteGenericData<T extends ReadWriteDataSerializer.Sum
     // will be initialized when read in.
     protected int numUserTags;
 
+    // Bumped by every change to the data so that results computed from it can be checked for staleness.
+    // Writers on other threads are joined before the count is read, so it doesn't need to be atomic.
+    protected int modificationCount;
+
 	public ReadWriteGenericData(int numUserTags) {
         this.numUserTags = numUserTags;
         this.tagGroups = ConcurrentHashMap.newKeySet();
@@ -99,8 +103,14 @@ public abstract class ReadWriteGenericData<T extends ReadWriteDataSerializer.Sum
     }
 
     void cutData(int num) {
-        if (data.size() > num)
+        if (data.size() > num) {
             data = data.subList(0, num);
+            modificationCount++;
+        }
+    }
+
+    public int getModificationCount() {
+    	return modificationCount;
     }
 
     public Map<TagGroup, T> getData(int i) {
@@ -113,6 +123,7 @@ public abstract class ReadWriteGenericData<T extends ReadWriteDataSerializer.Sum
 
     public void put(int i, TagGroup tagGroup, T value) {
     	getCreateData(i).put(tagGroup, value);
+    	modificationCount++;
     	if (tagGroups != null)
     		tagGroups.add(tagGroup);
     }
@@ -121,6 +132,7 @@ public abstract class ReadWriteGenericData<T extends ReadWriteDataSerializer.Sum
     	Map<TagGroup, T> map = getCreateData(i);
     	T existing = map.get(tagGroup);
     	map.put(tagGroup,  existing == null ? value : value.add(existing));
+    	modificationCount++;
     	if (tagGroups != null)
     		tagGroups.add(tagGroup);
     }
@@ -129,7 +141,9 @@ public abstract class ReadWriteGenericData<T extends ReadWriteDataSerializer.Sum
     	if (i >= data.size())
     		return null;
     	T existing = data.get(i).remove(tagGroup);
-    	if (existing != null) {
+    	if (existing != null)
+    		modificationCount++;
+    	if (existing != null && tagGroups != null) {
     		// See if we can purge the value from the cache
     		boolean found = false;
     		// Most remove calls are done by RI and SP processors which
@@ -144,7 +158,7 @@ public abstract class ReadWriteGenericData<T extends ReadWriteDataSerializer.Sum
     				break;
     			}
     		}
-    		if (!found && tagGroups != null)
+    		if (!found)
     			tagGroups.remove(tagGroup);
     	}
 
@@ -155,6 +169,7 @@ public abstract class ReadWriteGenericData<T extends ReadWriteDataSerializer.Sum
      * Set the supplied data in the map. Called by the cost and usage data archiver to merge summary data.
      */
     public void setData(List<Map<TagGroup, T>> newData, int startIndex) {
+    	modificationCount++;
         for (int i = 0; i < newData.size(); i++) {
             int index = startIndex + i;
 
@@ -191,6 +206,7 @@ public abstract class ReadWriteGenericData<T extends ReadWriteDataSerializer.Sum
      * Merge all the data from the source into the existing destination.
      */
     void putAll(ReadWriteGenericData<T> srcData) {
+    	modificationCount++;
     	List<Map<TagGroup, T>> newData = srcData.data;
         for (int i = 0; i < newData.size(); i++) {
             if (i > data.size()) {
@@ -302,6 +318,7 @@ public abstract class ReadWriteGenericData<T extends ReadWriteDataSerializer.Sum
         }
 
         this.data = deserializeTimeSeriesData(keys, in);
+        modificationCount++;
     }
 
     abstract protected List<Map<TagGroup, T>> deserializeTimeSeriesData(Collection<TagGroup> keys, DataInput in) throws IOException;
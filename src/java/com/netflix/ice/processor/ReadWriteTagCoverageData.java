@@ -53,7 +53,7 @@ public class ReadWriteTagCoverageData extends ReadWriteGenericData<TagCoverageMe
 				Map<TagGroup, TagCoverageMetrics> map = getData(i);
 				metrics[i] = map.get(tagGroup);
 			}
-			TimeSeriesTagCoverageMetrics tsd = new TimeSeriesTagCoverageMetrics(metrics);
+			TimeSeriesTagCoverageMetrics tsd = new TimeSeriesTagCoverageMetrics(metrics, numUserTags);
 			tsd.serialize(out);
 		}
 
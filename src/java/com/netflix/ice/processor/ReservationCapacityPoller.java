@@ -22,6 +22,7 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.OutputStreamWriter;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
@@ -29,12 +30,19 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.retry.RetryUtils;
 import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
 import com.amazonaws.services.ec2.model.AmazonEC2Exception;
@@ -68,9 +76,12 @@ import com.amazonaws.services.redshift.model.DescribeReservedNodesResult;
 import com.amazonaws.services.redshift.model.ReservedNode;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.RateLimiter;
 import com.netflix.ice.basic.BasicReservationService.Reservation;
 import com.netflix.ice.common.AccountService;
 import com.netflix.ice.common.AwsUtils;
+import com.netflix.ice.common.MultipartUploadOutputStream;
 import com.netflix.ice.common.WorkBucketConfig;
 import com.netflix.ice.common.Poller;
 import com.netflix.ice.common.ProductService;
@@ -109,6 +120,16 @@ public class ReservationCapacityPoller extends Poller {
     private static final String ec			= "ec";
     private static final String es			= "es";
     
+    // Reservation requests are spread across a bounded pool and rate limited per service
+    protected int numThreads = 10;
+    protected double requestsPerSecond = 5.0;
+    protected int maxAttempts = 5;
+    protected long initialBackoffMillis = 1000;
+    private final Map<String, RateLimiter> rateLimiters = Maps.newHashMap();
+    
+    private long lastPullMillis = 0;
+    private long appliedArchiveLastModified = -1;
+    
 	static Map<String, Double> instanceSizeMap = Maps.newHashMap();
 	static String[] sizes = new String[]{
 		"nano",
@@ -136,11 +157,26 @@ public class ReservationCapacityPoller extends Poller {
     @Override
     protected void poll() throws Exception {
         Map<ReservationKey, CanonicalReservedInstances> reservations = readArchive(config);
+        boolean changed = archiveLastModified != appliedArchiveLastModified;
+        
+        if (Math.max(archiveLastModified, lastPullMillis) < DateTime.now().minusHours(6).getMillis()) {
+        	lastPullMillis = DateTime.now().getMillis();
+        	Set<Account> changedAccounts = pullReservations(reservations, config.accountService, config.priceListService);
+        	if (changedAccounts.isEmpty()) {
+        		logger.info("no reservation changes");
+        	}
+        	else {
+        		logger.info("reservations changed for " + changedAccounts.size() + " accounts");
+        		archive(config, reservations);
+        		changed = true;
+        	}
+        }
         
-        if (archiveLastModified < DateTime.now().minusHours(6).getMillis()) {
-        	pullReservations(reservations);
+        // Only rebuild the reservation service when the reservations are different from those last applied
+        if (changed) {
+        	updateReservations(reservations, config.accountService, config.startDate.getMillis(), config.productService, config.resourceService, config.reservationService);
+        	appliedArchiveLastModified = getArchiveLastModified(config);
         }
-        updateReservations(reservations, config.accountService, config.startDate.getMillis(), config.productService, config.resourceService, config.reservationService);
     }
     
     private long getEffectiveReservationTime(Date d) {
@@ -151,195 +187,379 @@ public class ReservationCapacityPoller extends Poller {
     	c.set(Calendar.MILLISECOND, 0);
     	return c.getTime().getTime();
     }
+    
+    protected AWSCredentialsProvider getCredentialsProvider(Account account, AccountService accountService) {
+        String assumeRole = accountService.getReservationAccessRoles().get(account);
+        String externalId = accountService.getReservationAccessExternalIds().get(account);
+        if (assumeRole != null && assumeRole.isEmpty())
+        	assumeRole = null;
 
-    private void pullReservations(Map<ReservationKey, CanonicalReservedInstances> reservations) {
-        
-        AmazonEC2ClientBuilder ec2Builder = AmazonEC2ClientBuilder.standard().withClientConfiguration(AwsUtils.clientConfig);
-        AmazonRDSClientBuilder rdsBuilder = AmazonRDSClientBuilder.standard().withClientConfiguration(AwsUtils.clientConfig);
-        AmazonRedshiftClientBuilder redshiftBuilder = AmazonRedshiftClientBuilder.standard().withClientConfiguration(AwsUtils.clientConfig);
-        AWSElasticsearchClientBuilder esBuilder = AWSElasticsearchClientBuilder.standard().withClientConfiguration(AwsUtils.clientConfig);
-        AmazonElastiCacheClientBuilder ecBuilder = AmazonElastiCacheClientBuilder.standard().withClientConfiguration(AwsUtils.clientConfig);
-        
-        for (Entry<Account, Set<String>> entry: config.accountService.getReservationAccounts().entrySet()) {
-            Account account = entry.getKey();
-            Set<String> products = entry.getValue();
-            
-        	try {
-                String assumeRole = config.accountService.getReservationAccessRoles().get(account);
-                String externalId = config.accountService.getReservationAccessExternalIds().get(account);
-                if (assumeRole != null && assumeRole.isEmpty())
-                	assumeRole = null;
-
-                logger.info("Get reservations for account: " + account.getIceName() + ", role: " + assumeRole + ", externalId: " + externalId);
-
-                AWSCredentialsProvider credentialsProvider = AwsUtils.awsCredentialsProvider;
-                if (assumeRole != null) {
-                    credentialsProvider = AwsUtils.getAssumedCredentialsProvider(account.getId(), assumeRole, externalId);
-                }
-                
-
-          	    AmazonEC2 ec2Client = ec2Builder.withRegion(Region.US_EAST_1.name).withCredentials(credentialsProvider).build();
-          	    DescribeRegionsResult regionResult = ec2Client.describeRegions();
-          	    ec2Client.shutdown();
-            	   
-                if (products.contains(ec2)) {
-                   for (com.amazonaws.services.ec2.model.Region r: regionResult.getRegions()) {
-                	   Region region = Region.getRegionByName(r.getRegionName());
-                	   ec2Client = ec2Builder.withRegion(region.name).withCredentials(credentialsProvider).build();
-                	   Map<ReservationKey, CanonicalReservedInstances> ec2Reservations = Maps.newTreeMap();
-                	   
-                	   // Start by getting any reservation modifications so that we can later use them to track down
-                	   // the fixed price of modified Partial Upfront or All Upfront reservations. AWS doesn't carry
-                	   // the fixed price to the modified reservation, but we need that to compute amortization.
-                	   List<ReservedInstancesModification> modifications = Lists.newArrayList();
-                	   try {
-                		   DescribeReservedInstancesModificationsResult modResult = ec2Client.describeReservedInstancesModifications();
-                		   
-                		   modifications.addAll(modResult.getReservedInstancesModifications());
-                		   while (modResult.getNextToken() != null) {
-                			   modResult = ec2Client.describeReservedInstancesModifications(new DescribeReservedInstancesModificationsRequest().withNextToken(modResult.getNextToken()));
-                    		   modifications.addAll(modResult.getReservedInstancesModifications());
-                		   }
-                	   }
-                       catch(AmazonEC2Exception e) {
-                    	   logger.info("could not get EC2 reservation modifications for " + region + " " + account.getIceName() + ", " + e.getErrorMessage());
-                       }
-                       catch (Exception e) {
-                           logger.error("error in describeReservedInstancesModifications for " + region.name + " " + account.getIceName(), e);
-                       }
-                	   Ec2Mods mods = new Ec2Mods(modifications);
-                       try {
-                    	   
-                           DescribeReservedInstancesResult result = ec2Client.describeReservedInstances();
-                           for (ReservedInstances reservation: result.getReservedInstances()) {
-                        	   //logger.info("*** Reservation: " + reservation.getReservedInstancesId());
-                               ReservationKey key = new ReservationKey(account.getId(), region.name, reservation.getReservedInstancesId());
-                               
-                               CanonicalReservedInstances cri = new CanonicalReservedInstances(
-                            		   account.getId(), region.name, reservation, 
-                            		   mods.getModResId(reservation.getReservedInstancesId()));
-                               ec2Reservations.put(key, cri);
-                           }
-                       }
-                       catch(AmazonEC2Exception e) {
-                    	   logger.info("could not get EC2 reservations for " + region + " " + account.getIceName() + ", " + e.getErrorMessage());
-                       }
-                       catch (Exception e) {
-                           logger.error("error in describeReservedInstances for " + region.name + " " + account.getIceName(), e);
-                       }
-                       ec2Client.shutdown();
-                       handleEC2Modifications(ec2Reservations, mods, region, config.priceListService);
-                       reservations.putAll(ec2Reservations);
-                   }
-               }
-               	
-   
-               if (products.contains(rds)) {
-                   for (com.amazonaws.services.ec2.model.Region r: regionResult.getRegions()) {
-                	   Region region = Region.getRegionByName(r.getRegionName());
-                       AmazonRDS rdsClient = rdsBuilder.withRegion(region.name).withCredentials(credentialsProvider).build();
-                       try {
-                           DescribeReservedDBInstancesResult result = rdsClient.describeReservedDBInstances();
-                           for (ReservedDBInstance reservation: result.getReservedDBInstances()) {
-                        	   ReservationKey key = new ReservationKey(account.getId(), region.name, reservation.getReservedDBInstanceId());
-                               CanonicalReservedInstances cri = new CanonicalReservedInstances(account.getId(), region.name, reservation);
-                               reservations.put(key, cri);
-                           }
-                       }
-                       catch(AmazonRDSException e) {
-                    	   logger.info("could not get RDS reservations for " + region + " " + account.getIceName() + ", " + e.getErrorMessage());
-                       }
-                       catch (Exception e) {
-                           logger.error("error in describeReservedDBInstances for " + region.name + " " + account.getIceName(), e);
-                       }
-                       rdsClient.shutdown();
-                   }
-               }
-            	   
-               if (products.contains(redshift)) {
-                   for (com.amazonaws.services.ec2.model.Region r: regionResult.getRegions()) {
-                	   Region region = Region.getRegionByName(r.getRegionName());
-                       AmazonRedshift redshiftClient = redshiftBuilder.withRegion(region.name).withCredentials(credentialsProvider).build();
-                       	
-	                   try {
-	                        DescribeReservedNodesResult result = redshiftClient.describeReservedNodes();
-	                        for (ReservedNode reservation: result.getReservedNodes()) {
-	                            ReservationKey key = new ReservationKey(account.getId(), region.name, reservation.getReservedNodeId());
-	                            CanonicalReservedInstances cri = new CanonicalReservedInstances(account.getId(), region.name, reservation);
-	                            reservations.put(key, cri);
-	                        }
-	                   }
-                       catch(AmazonRedshiftException e) {
-                    	   logger.info("could not get Redshift reservations for " + region + " " + account.getIceName() + ", " + e.getErrorMessage());
-                       }
-	                   catch (Exception e) {
-	                        logger.error("error in describeReservedNodes for " + region.name + " " + account.getIceName(), e);
-	                   }
-	                   redshiftClient.shutdown();
-                   }
-	           }
+        logger.info("Get reservations for account: " + account.getIceName() + ", role: " + assumeRole + ", externalId: " + externalId);
+        return assumeRole == null ? AwsUtils.awsCredentialsProvider : AwsUtils.getAssumedCredentialsProvider(account.getId(), assumeRole, externalId);
+    }
+    
+    // Client builders aren't thread safe, so each client gets a new one
+    protected AmazonEC2 getEc2Client(String region, AWSCredentialsProvider credentialsProvider) {
+    	return AmazonEC2ClientBuilder.standard().withClientConfiguration(AwsUtils.clientConfig).withRegion(region).withCredentials(credentialsProvider).build();
+    }
+    
+    protected AmazonRDS getRdsClient(String region, AWSCredentialsProvider credentialsProvider) {
+    	return AmazonRDSClientBuilder.standard().withClientConfiguration(AwsUtils.clientConfig).withRegion(region).withCredentials(credentialsProvider).build();
+    }
+    
+    protected AmazonRedshift getRedshiftClient(String region, AWSCredentialsProvider credentialsProvider) {
+    	return AmazonRedshiftClientBuilder.standard().withClientConfiguration(AwsUtils.clientConfig).withRegion(region).withCredentials(credentialsProvider).build();
+    }
+    
+    protected AWSElasticsearch getElasticsearchClient(String region, AWSCredentialsProvider credentialsProvider) {
+    	return AWSElasticsearchClientBuilder.standard().withClientConfiguration(AwsUtils.clientConfig).withRegion(region).withCredentials(credentialsProvider).build();
+    }
+    
+    protected AmazonElastiCache getElastiCacheClient(String region, AWSCredentialsProvider credentialsProvider) {
+    	return AmazonElastiCacheClientBuilder.standard().withClientConfiguration(AwsUtils.clientConfig).withRegion(region).withCredentials(credentialsProvider).build();
+    }
+    
+    private RateLimiter getRateLimiter(String service) {
+    	synchronized (rateLimiters) {
+	    	RateLimiter limiter = rateLimiters.get(service);
+	    	if (limiter == null) {
+	    		limiter = RateLimiter.create(requestsPerSecond);
+	    		rateLimiters.put(service, limiter);
+	    	}
+	    	return limiter;
+    	}
+    }
+    
+    /**
+     * Make a rate limited request to the service, backing off and retrying when the service throttles us.
+     */
+    protected <T> T request(String service, Callable<T> request) throws Exception {
+    	RateLimiter limiter = getRateLimiter(service);
+    	long delay = initialBackoffMillis;
+    	for (int attempt = 1; ; attempt++) {
+    		limiter.acquire();
+    		try {
+    			return request.call();
+    		}
+    		catch (AmazonServiceException e) {
+    			if (attempt >= maxAttempts || !RetryUtils.isThrottlingException(e))
+    				throw e;
+    			logger.warn(service + " request throttled, attempt " + attempt + ", retrying in " + delay + "ms");
+    			Thread.sleep(delay);
+    			delay *= 2;
+    		}
+    	}
+    }
+    
+    private class AccountRegions {
+    	final Account account;
+    	final AWSCredentialsProvider credentialsProvider;
+    	final List<Region> regions;
+    	
+    	AccountRegions(Account account, AWSCredentialsProvider credentialsProvider, List<Region> regions) {
+    		this.account = account;
+    		this.credentialsProvider = credentialsProvider;
+    		this.regions = regions;
+    	}
+    }
+    
+    private Future<AccountRegions> submitGetRegions(final Account account, final AccountService accountService, ExecutorService pool) {
+    	return pool.submit(new Callable<AccountRegions>() {
+    		@Override
+    		public AccountRegions call() throws Exception {
+    			AWSCredentialsProvider credentialsProvider = getCredentialsProvider(account, accountService);
+    			final AmazonEC2 ec2Client = getEc2Client(Region.US_EAST_1.name, credentialsProvider);
+    			try {
+	    			DescribeRegionsResult regionResult = request(ec2, new Callable<DescribeRegionsResult>() {
+	    				@Override
+	    				public DescribeRegionsResult call() {
+	    					return ec2Client.describeRegions();
+	    				}
+	    			});
+	    			List<Region> regions = Lists.newArrayList();
+	    			for (com.amazonaws.services.ec2.model.Region r: regionResult.getRegions()) {
+	    				Region region = Region.getRegionByName(r.getRegionName());
+	    				if (region == null) {
+	    					logger.error("Unknown region " + r.getRegionName() + " for account " + account.getIceName());
+	    					continue;
+	    				}
+	    				regions.add(region);
+	    			}
+	    			return new AccountRegions(account, credentialsProvider, regions);
+    			}
+    			finally {
+    				ec2Client.shutdown();
+    			}
+    		}
+    	});
+    }
+    
+    private Future<Map<ReservationKey, CanonicalReservedInstances>> submitGetReservations(final String service, final AccountRegions ar, final Region region, final PriceListService pls, ExecutorService pool) {
+    	return pool.submit(new Callable<Map<ReservationKey, CanonicalReservedInstances>>() {
+    		@Override
+    		public Map<ReservationKey, CanonicalReservedInstances> call() throws Exception {
+    			if (service.equals(ec2))
+    				return getEc2Reservations(ar.account, region, ar.credentialsProvider, pls);
+    			else if (service.equals(rds))
+    				return getRdsReservations(ar.account, region, ar.credentialsProvider);
+    			else if (service.equals(redshift))
+    				return getRedshiftReservations(ar.account, region, ar.credentialsProvider);
+    			else if (service.equals(es))
+    				return getElasticsearchReservations(ar.account, region, ar.credentialsProvider);
+    			return getElastiCacheReservations(ar.account, region, ar.credentialsProvider);
+    		}
+    	});
+    }
 
-               if (products.contains(es)) {
-                   for (com.amazonaws.services.ec2.model.Region r: regionResult.getRegions()) {
-                	   Region region = Region.getRegionByName(r.getRegionName());
-                	   AWSElasticsearch elasticsearch = esBuilder.withRegion(region.name).withCredentials(credentialsProvider).build();
-                	   
-                	   try {
-                		   DescribeReservedElasticsearchInstancesRequest request = new DescribeReservedElasticsearchInstancesRequest();
-                		   DescribeReservedElasticsearchInstancesResult page = null;                		   
-                		   
-                           do {
-                               if (page != null)
-                                   request.setNextToken(page.getNextToken());
-                               
-                               page = elasticsearch.describeReservedElasticsearchInstances(request);
-                               for (ReservedElasticsearchInstance reservation: page.getReservedElasticsearchInstances()) {
-                            	   ReservationKey key = new ReservationKey(account.getId(), region.name, reservation.getReservedElasticsearchInstanceId());
-                            	   CanonicalReservedInstances cri = new CanonicalReservedInstances(account.getId(), region.name, reservation);
-                            	   reservations.put(key, cri);
-                               }
-                           } while (page.getNextToken() != null);
-                	   }
-                       catch(AWSElasticsearchException e) {
-                    	   logger.info("could not get Elasticsearch reservations for " + region + " " + account.getIceName() + ", " + e.getErrorMessage());
-                       }
-                       catch (Exception e) {
-                            logger.error("error in describeReservedElasticsearchInstances for " + region.name + " " + account.getIceName(), e);
-                       }
-                       elasticsearch.shutdown();
-                   }
-               }
-               
-               if (products.contains(ec)) {
-                   for (com.amazonaws.services.ec2.model.Region r: regionResult.getRegions()) {
-                	   Region region = Region.getRegionByName(r.getRegionName());
-                	   AmazonElastiCache elastiCache = ecBuilder.withRegion(region.name).withCredentials(credentialsProvider).build();
-                	   
-                	   try {
-                		   DescribeReservedCacheNodesResult result = elastiCache.describeReservedCacheNodes();                		   
-                           for (ReservedCacheNode reservation: result.getReservedCacheNodes()) {
-                        	   ReservationKey key = new ReservationKey(account.getId(), region.name, reservation.getReservedCacheNodeId());
-                        	   CanonicalReservedInstances cri = new CanonicalReservedInstances(account.getId(), region.name, reservation);
-                        	   reservations.put(key, cri);
-                           }
-                	   }
-                       catch(AmazonElastiCacheException e) {
-                    	   logger.info("could not get ElastiCache reservations for " + region + " " + account.getIceName() + ", " + e.getErrorMessage());
-                       }
-                       catch (Exception e) {
-                            logger.error("error in describeReservedCacheNodes for " + region.name + " " + account.getIceName(), e);
-                       }
-                	   elastiCache.shutdown();
-                   }
+    /**
+     * Pull the reservations for all the reservation accounts and merge them into the reservations map.
+     * Requests are spread across a bounded pool and rate limited per service.
+     * 
+     * @return the accounts with new or changed reservations
+     */
+    protected Set<Account> pullReservations(Map<ReservationKey, CanonicalReservedInstances> reservations, AccountService accountService, PriceListService pls) {
+    	Set<Account> changedAccounts = Sets.newHashSet();
+    	ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    	try {
+	    	Map<Account, Set<String>> reservationAccounts = accountService.getReservationAccounts();
+	    	List<Future<AccountRegions>> regionFutures = Lists.newArrayList();
+	        for (Account account: reservationAccounts.keySet())
+	        	regionFutures.add(submitGetRegions(account, accountService, pool));
+	        
+	        List<Account> accounts = Lists.newArrayList();
+	        List<Future<Map<ReservationKey, CanonicalReservedInstances>>> futures = Lists.newArrayList();
+	        for (Future<AccountRegions> f: regionFutures) {
+	        	AccountRegions ar;
+	        	try {
+	        		ar = f.get();
+	        	}
+	        	catch (ExecutionException e) {
+	                logger.error("Error in describeRegions", e.getCause());
+	                continue;
+	        	}
+	        	Set<String> products = reservationAccounts.get(ar.account);
+	        	for (String service: new String[]{ ec2, rds, redshift, es, ec }) {
+	        		if (!products.contains(service))
+	        			continue;
+	        		for (Region region: ar.regions) {
+	        			accounts.add(ar.account);
+	        			futures.add(submitGetReservations(service, ar, region, pls, pool));
+	        		}
+	        	}
+	        }
+	        
+	        // Merge in submission order so the result doesn't depend on completion order
+	        for (int i = 0; i < futures.size(); i++) {
+	        	Map<ReservationKey, CanonicalReservedInstances> fetched;
+	        	try {
+	        		fetched = futures.get(i).get();
+	        	}
+	        	catch (ExecutionException e) {
+	                logger.error("Error in describe reservations for " + accounts.get(i).getIceName(), e.getCause());
+	                continue;
+	        	}
+	        	if (fetched != null && merge(reservations, fetched))
+	        		changedAccounts.add(accounts.get(i));
+	        }
+    	}
+    	catch (InterruptedException e) {
+    		logger.error("Interrupted pulling reservations", e);
+    		Thread.currentThread().interrupt();
+    	}
+    	finally {
+    		pool.shutdownNow();
+    	}
+    	return changedAccounts;
+    }
+    
+    /**
+     * Put the fetched reservations into the map. Returns true if any are new or differ from the existing ones.
+     */
+    static boolean merge(Map<ReservationKey, CanonicalReservedInstances> reservations, Map<ReservationKey, CanonicalReservedInstances> fetched) {
+    	boolean changed = false;
+    	for (Entry<ReservationKey, CanonicalReservedInstances> entry: fetched.entrySet()) {
+    		CanonicalReservedInstances previous = reservations.put(entry.getKey(), entry.getValue());
+    		if (previous == null || !previous.toString().equals(entry.getValue().toString()))
+    			changed = true;
+    	}
+    	return changed;
+    }
+    
+    private Map<ReservationKey, CanonicalReservedInstances> getEc2Reservations(Account account, Region region, AWSCredentialsProvider credentialsProvider, PriceListService pls) throws Exception {
+    	final AmazonEC2 ec2Client = getEc2Client(region.name, credentialsProvider);
+    	Map<ReservationKey, CanonicalReservedInstances> ec2Reservations = Maps.newTreeMap();
+    	try {
+     	   // Start by getting any reservation modifications so that we can later use them to track down
+     	   // the fixed price of modified Partial Upfront or All Upfront reservations. AWS doesn't carry
+     	   // the fixed price to the modified reservation, but we need that to compute amortization.
+     	   List<ReservedInstancesModification> modifications = Lists.newArrayList();
+     	   try {
+     		   DescribeReservedInstancesModificationsResult modResult = request(ec2, new Callable<DescribeReservedInstancesModificationsResult>() {
+     			   @Override
+     			   public DescribeReservedInstancesModificationsResult call() {
+     				   return ec2Client.describeReservedInstancesModifications();
+     			   }
+     		   });
+     		   
+     		   modifications.addAll(modResult.getReservedInstancesModifications());
+     		   while (modResult.getNextToken() != null) {
+     			   final String nextToken = modResult.getNextToken();
+     			   modResult = request(ec2, new Callable<DescribeReservedInstancesModificationsResult>() {
+     				   @Override
+     				   public DescribeReservedInstancesModificationsResult call() {
+     					   return ec2Client.describeReservedInstancesModifications(new DescribeReservedInstancesModificationsRequest().withNextToken(nextToken));
+     				   }
+     			   });
+         		   modifications.addAll(modResult.getReservedInstancesModifications());
+     		   }
+     	   }
+           catch(AmazonEC2Exception e) {
+        	   logger.info("could not get EC2 reservation modifications for " + region + " " + account.getIceName() + ", " + e.getErrorMessage());
+           }
+           catch (Exception e) {
+               logger.error("error in describeReservedInstancesModifications for " + region.name + " " + account.getIceName(), e);
+           }
+     	   Ec2Mods mods = new Ec2Mods(modifications);
+           try {
+               DescribeReservedInstancesResult result = request(ec2, new Callable<DescribeReservedInstancesResult>() {
+            	   @Override
+            	   public DescribeReservedInstancesResult call() {
+            		   return ec2Client.describeReservedInstances();
+            	   }
+               });
+               for (ReservedInstances reservation: result.getReservedInstances()) {
+                   ReservationKey key = new ReservationKey(account.getId(), region.name, reservation.getReservedInstancesId());
+                   
+                   CanonicalReservedInstances cri = new CanonicalReservedInstances(
+                		   account.getId(), region.name, reservation, 
+                		   mods.getModResId(reservation.getReservedInstancesId()));
+                   ec2Reservations.put(key, cri);
                }
-               
+           }
+           catch(AmazonEC2Exception e) {
+        	   logger.info("could not get EC2 reservations for " + region + " " + account.getIceName() + ", " + e.getErrorMessage());
+        	   return null;
+           }
+           handleEC2Modifications(ec2Reservations, mods, region, pls);
+    	}
+    	finally {
+    		ec2Client.shutdown();
+    	}
+        return ec2Reservations;
+    }
+    
+    private Map<ReservationKey, CanonicalReservedInstances> getRdsReservations(Account account, Region region, AWSCredentialsProvider credentialsProvider) throws Exception {
+        final AmazonRDS rdsClient = getRdsClient(region.name, credentialsProvider);
+        Map<ReservationKey, CanonicalReservedInstances> reservations = Maps.newTreeMap();
+        try {
+            DescribeReservedDBInstancesResult result = request(rds, new Callable<DescribeReservedDBInstancesResult>() {
+            	@Override
+            	public DescribeReservedDBInstancesResult call() {
+            		return rdsClient.describeReservedDBInstances();
+            	}
+            });
+            for (ReservedDBInstance reservation: result.getReservedDBInstances()) {
+         	   ReservationKey key = new ReservationKey(account.getId(), region.name, reservation.getReservedDBInstanceId());
+                CanonicalReservedInstances cri = new CanonicalReservedInstances(account.getId(), region.name, reservation);
+                reservations.put(key, cri);
             }
-            catch (Exception e) {
-                logger.error("Error in describeReservedInstances for " + account.getIceName(), e);
+        }
+        catch(AmazonRDSException e) {
+        	logger.info("could not get RDS reservations for " + region + " " + account.getIceName() + ", " + e.getErrorMessage());
+        	return null;
+        }
+        finally {
+        	rdsClient.shutdown();
+        }
+        return reservations;
+    }
+    
+    private Map<ReservationKey, CanonicalReservedInstances> getRedshiftReservations(Account account, Region region, AWSCredentialsProvider credentialsProvider) throws Exception {
+        final AmazonRedshift redshiftClient = getRedshiftClient(region.name, credentialsProvider);
+        Map<ReservationKey, CanonicalReservedInstances> reservations = Maps.newTreeMap();
+        try {
+            DescribeReservedNodesResult result = request(redshift, new Callable<DescribeReservedNodesResult>() {
+            	@Override
+            	public DescribeReservedNodesResult call() {
+            		return redshiftClient.describeReservedNodes();
+            	}
+            });
+            for (ReservedNode reservation: result.getReservedNodes()) {
+                ReservationKey key = new ReservationKey(account.getId(), region.name, reservation.getReservedNodeId());
+                CanonicalReservedInstances cri = new CanonicalReservedInstances(account.getId(), region.name, reservation);
+                reservations.put(key, cri);
             }
         }
-        archive(config, reservations);
+        catch(AmazonRedshiftException e) {
+        	logger.info("could not get Redshift reservations for " + region + " " + account.getIceName() + ", " + e.getErrorMessage());
+        	return null;
+        }
+        finally {
+        	redshiftClient.shutdown();
+        }
+        return reservations;
     }
+    
+    private Map<ReservationKey, CanonicalReservedInstances> getElasticsearchReservations(Account account, Region region, AWSCredentialsProvider credentialsProvider) throws Exception {
+    	final AWSElasticsearch elasticsearch = getElasticsearchClient(region.name, credentialsProvider);
+        Map<ReservationKey, CanonicalReservedInstances> reservations = Maps.newTreeMap();
+    	try {
+    		final DescribeReservedElasticsearchInstancesRequest request = new DescribeReservedElasticsearchInstancesRequest();
+    		DescribeReservedElasticsearchInstancesResult page = null;                		   
+    		
+            do {
+                if (page != null)
+                    request.setNextToken(page.getNextToken());
+                
+                page = request(es, new Callable<DescribeReservedElasticsearchInstancesResult>() {
+                	@Override
+                	public DescribeReservedElasticsearchInstancesResult call() {
+                		return elasticsearch.describeReservedElasticsearchInstances(request);
+                	}
+                });
+                for (ReservedElasticsearchInstance reservation: page.getReservedElasticsearchInstances()) {
+             	   ReservationKey key = new ReservationKey(account.getId(), region.name, reservation.getReservedElasticsearchInstanceId());
+             	   CanonicalReservedInstances cri = new CanonicalReservedInstances(account.getId(), region.name, reservation);
+             	   reservations.put(key, cri);
+                }
+            } while (page.getNextToken() != null);
+    	}
+        catch(AWSElasticsearchException e) {
+        	logger.info("could not get Elasticsearch reservations for " + region + " " + account.getIceName() + ", " + e.getErrorMessage());
+        	return null;
+        }
+    	finally {
+    		elasticsearch.shutdown();
+    	}
+        return reservations;
+    }
+    
+    private Map<ReservationKey, CanonicalReservedInstances> getElastiCacheReservations(Account account, Region region, AWSCredentialsProvider credentialsProvider) throws Exception {
+    	final AmazonElastiCache elastiCache = getElastiCacheClient(region.name, credentialsProvider);
+        Map<ReservationKey, CanonicalReservedInstances> reservations = Maps.newTreeMap();
+    	try {
+    		DescribeReservedCacheNodesResult result = request(ec, new Callable<DescribeReservedCacheNodesResult>() {
+    			@Override
+    			public DescribeReservedCacheNodesResult call() {
+    				return elastiCache.describeReservedCacheNodes();
+    			}
+    		});
+            for (ReservedCacheNode reservation: result.getReservedCacheNodes()) {
+         	   ReservationKey key = new ReservationKey(account.getId(), region.name, reservation.getReservedCacheNodeId());
+         	   CanonicalReservedInstances cri = new CanonicalReservedInstances(account.getId(), region.name, reservation);
+         	   reservations.put(key, cri);
+            }
+    	}
+        catch(AmazonElastiCacheException e) {
+        	logger.info("could not get ElastiCache reservations for " + region + " " + account.getIceName() + ", " + e.getErrorMessage());
+        	return null;
+        }
+    	finally {
+    		elastiCache.shutdown();
+    	}
+        return reservations;
+    }
+    
     protected void handleEC2Modifications(Map<ReservationKey, CanonicalReservedInstances> ec2Reservations, Ec2Mods mods, Region region, PriceListService pls) {
     	for (ReservationKey key: ec2Reservations.keySet()) {
     		CanonicalReservedInstances reservedInstances = ec2Reservations.get(key);
@@ -468,14 +688,37 @@ public class ReservationCapacityPoller extends Poller {
         return reservations;
     }
     
+    /**
+     * Modified time of the archive as the next readArchive() will see it. A streamed archive is only in S3,
+     * and is downloaded with the modified time of the S3 object.
+     */
+    private long getArchiveLastModified(ProcessorConfig config) {
+    	WorkBucketConfig workBucketConfig = config.workBucketConfig;
+        File file = new File(workBucketConfig.localDir, archiveFilename);
+        if (file.exists())
+        	return file.lastModified();
+        return AwsUtils.getLastModified(workBucketConfig.workS3BucketName, workBucketConfig.workS3BucketPrefix + archiveFilename);
+    }
+    
     private void archive(ProcessorConfig config, Map<ReservationKey, CanonicalReservedInstances> reservations) {
     	WorkBucketConfig workBucketConfig = config.workBucketConfig;
         File file = new File(workBucketConfig.localDir, archiveFilename);
+        boolean streaming = workBucketConfig.isStreaming(WorkBucketConfig.ArchiveType.reservations);
 
-        // archive to disk
+        // archive to disk or directly to s3
         BufferedWriter writer = null;
+        MultipartUploadOutputStream upload = null;
+        boolean written = false;
         try {
-            writer = new BufferedWriter(new FileWriter(file));
+        	if (streaming) {
+        		// Drop the local copy so the next poll reads the new version from S3
+        		file.delete();
+        		upload = AwsUtils.getUploadStream(workBucketConfig.workS3BucketName, workBucketConfig.workS3BucketPrefix + file.getName());
+        		writer = new BufferedWriter(new OutputStreamWriter(upload));
+        	}
+        	else {
+        		writer = new BufferedWriter(new FileWriter(file));
+        	}
             writer.write(CanonicalReservedInstances.header());
             writer.newLine();
             for (ReservationKey key: reservations.keySet()) {
@@ -483,15 +726,25 @@ public class ReservationCapacityPoller extends Poller {
                 writer.write(reservation.toString());
                 writer.newLine();
             }
+            // Completes the upload when streaming
+            writer.close();
+            written = true;
         }
         catch (Exception e) {
             logger.error("",  e);
         }
         finally {
+        	// Keep the last good archive in S3 rather than replace it with a partial one
+        	if (!written && upload != null)
+        		upload.abort();
             if (writer != null)
                 try {writer.close();} catch (Exception e) {}
         }
+        if (!written)
+        	return;
         logger.info("archived " + reservations.size() + " reservations.");
+        if (streaming)
+        	return;
 
         // archive to s3
         logger.info("uploading " + file + "...");
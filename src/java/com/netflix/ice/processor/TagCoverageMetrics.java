@@ -33,7 +33,7 @@ public class TagCoverageMetrics implements ReadWriteDataSerializer.Summable<TagC
 		counts = new int[size];
 	}
 	
-	TagCoverageMetrics(int total, int[] counts) {
+	public TagCoverageMetrics(int total, int[] counts) {
 		this.total = total;
 		this.counts = counts;
 	}
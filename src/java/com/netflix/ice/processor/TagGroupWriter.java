@@ -20,6 +20,7 @@ package com.netflix.ice.processor;
 import com.google.common.collect.Maps;
 import com.netflix.ice.common.AccountService;
 import com.netflix.ice.common.AwsUtils;
+import com.netflix.ice.common.MultipartUploadOutputStream;
 import com.netflix.ice.common.WorkBucketConfig;
 import com.netflix.ice.common.ProductService;
 import com.netflix.ice.common.TagGroup;
@@ -75,16 +76,44 @@ public class TagGroupWriter {
     void archive(Long monthMilli,Collection<TagGroup> tagGroups) throws IOException {
         this.tagGroups.put(monthMilli, tagGroups);
 
-        OutputStream os = new FileOutputStream(file);
+        boolean streaming = workBucketConfig.isStreaming(WorkBucketConfig.ArchiveType.tagdb);
+        MultipartUploadOutputStream upload = null;
+        OutputStream os;
+        if (streaming) {
+        	// Drop any local copy so the next archive pulls the new version from S3
+        	file.delete();
+            logger.info(dbName + " streaming to s3...");
+        	os = upload = AwsUtils.getUploadStream(workBucketConfig.workS3BucketName, workBucketConfig.workS3BucketPrefix + file.getName());
+        }
+        else {
+        	os = new FileOutputStream(file);
+        }
     	if (compress)
     		os = new GZIPOutputStream(os);
     	DataOutputStream out = new DataOutputStream(os);
+    	boolean written = false;
         try {
             TagGroup.Serializer.serializeTagGroups(out, this.tagGroups);
-            out.flush();
+            // Completes the upload when streaming
+            out.close();
+            written = true;
         }
         finally {
-            out.close();
+        	if (!written) {
+        		// Keep the last good archive in S3 rather than replace it with a partial one
+        		if (upload != null)
+        			upload.abort();
+        		try {
+        			out.close();
+        		}
+        		catch (IOException e) {
+        		}
+        	}
+        }
+        
+        if (streaming) {
+            logger.info(dbName + " streaming done.");
+            return;
         }
         
         logger.info(dbName + " uploading to s3...");
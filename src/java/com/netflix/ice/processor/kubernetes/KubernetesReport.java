@@ -17,10 +17,14 @@
  */
 package com.netflix.ice.processor.kubernetes;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -37,6 +41,7 @@ import org.slf4j.LoggerFactory;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.netflix.ice.common.AwsUtils;
 import com.netflix.ice.common.ResourceService;
 import com.netflix.ice.processor.LineItem;
@@ -104,10 +109,37 @@ public class KubernetesReport extends Report {
     	None;
     }
     
+    // Metrics used to compute allocation factors
+    private static final KubernetesColumn[] metricColumns = new KubernetesColumn[]{
+    	KubernetesColumn.RequestsCPUCores,
+    	KubernetesColumn.UsedCPUCores,
+    	KubernetesColumn.ClusterCPUCores,
+    	KubernetesColumn.RequestsMemoryGiB,
+    	KubernetesColumn.UsedMemoryGiB,
+    	KubernetesColumn.ClusterMemoryGiB,
+    	KubernetesColumn.NetworkInGiB,
+    	KubernetesColumn.ClusterNetworkInGiB,
+    	KubernetesColumn.NetworkOutGiB,
+    	KubernetesColumn.ClusterNetworkOutGiB,
+    	KubernetesColumn.PersistentVolumeClaimGiB,
+    	KubernetesColumn.ClusterPersistentVolumeClaimGiB,
+    };
+    
     private Map<KubernetesColumn, Integer> reportIndeces = null;
     private Map<String, Integer> userTagIndeces = null;
-    // Map of clusters with hourly data for the month - index will range from 0 to 743
-    private Map<String, List<List<String[]>>> data = null;
+    
+    // The report is held column-wise with only the columns needed for allocation loaded.
+    // Rows are ordered by cluster, then hour, then position in the report. String values are
+    // dictionary encoded, so each string column holds value codes.
+    private List<String> values;
+    private Map<String, Integer> valueCodes;
+    private double[][] doubleColumns; // [column ordinal][row], null for columns not loaded
+    private int[][] stringColumns; // [column ordinal][row], null for columns not loaded
+    private Map<String, int[]> userTagColumns; // user tag key -> [row]
+    // Map of clusters with the first row for each hour of the month - index will range from 0 to 743.
+    // Rows for an hour run up to the first row of the next hour.
+    private Map<String, int[]> clusterHours = null;
+    
     // Map of output tag keys to Kubernetes deployment parameters
     private Map<String, KubernetesColumn> deployParams;
     private Type typeToProcess;
@@ -248,31 +280,30 @@ public class KubernetesReport extends Report {
 	}
 
 	protected long readFile(String fileName, InputStream in) {
-		CsvParserSettings settings = new CsvParserSettings();
-		settings.setHeaderExtractionEnabled(false);
-		settings.setNullValue("");
-		settings.setEmptyValue("");
-		CsvParser parser = new CsvParser(settings);
-		
-
-        data = Maps.newHashMap();
-        
         long endMilli = month.getMillis();
         long lineNumber = 0;
+        Builder builder = null;
         try {
-    		parser.beginParsing(in);
-    		String[] row;
-    		            
-            // load the header
-			String[] header = parser.parseNext();
-			if (header != null) {
-				initIndecies(header);
-				lineNumber++;
-
+        	// Read the header on its own so that only the columns we use are parsed from the rows
+        	BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        	String headerLine = reader.readLine();
+        	if (headerLine != null) {
+        		CsvParser headerParser = new CsvParser(getSettings());
+        		initIndecies(headerParser.parseLine(headerLine));
+        		lineNumber++;
+        		
+        		builder = new Builder();
+        		CsvParserSettings settings = getSettings();
+        		settings.selectIndexes(builder.getParsedIndeces());
+        		settings.setColumnReorderingEnabled(false);
+        		CsvParser parser = new CsvParser(settings);
+        		parser.beginParsing(reader);
+        		String[] row;
+        		
 				while ((row = parser.parseNext()) != null) {
 					lineNumber++;
 					try {
-						long end = processOneLine(row);
+						long end = builder.add(row);
 						if (end > endMilli)
 							endMilli = end;
 					} catch (Exception e) {
@@ -283,16 +314,27 @@ public class KubernetesReport extends Report {
 						logger.info("processed " + lineNumber + " lines...");
 					}
 				}
-			}
-			parser.stopParsing();
+				parser.stopParsing();
+        	}
         }
         catch (Exception e ) {
             logger.error("Error processing " + fileName + " at line " + lineNumber, e);
         }
-        logger.info("processed " + lineNumber + " lines from file: " + fileName);
+        if (builder == null)
+        	builder = new Builder();
+        builder.build();
+        logger.info("processed " + lineNumber + " lines from file: " + fileName + ", loaded " + builder.size + " rows");
         return endMilli;
 	}
 	
+	private CsvParserSettings getSettings() {
+		CsvParserSettings settings = new CsvParserSettings();
+		settings.setHeaderExtractionEnabled(false);
+		settings.setNullValue("");
+		settings.setEmptyValue("");
+		return settings;
+	}
+	
 	private void initIndecies(String[] header) {
 		reportIndeces = Maps.newHashMap();
 		userTagIndeces = Maps.newHashMap();
@@ -343,64 +385,252 @@ public class KubernetesReport extends Report {
 			logger.error("Kubernetes report does not have columns for mandatory fields: " + mandatory);
 	}
 	
-	private long processOneLine(String[] item) {
-		// Check to see if we're processing this type of line item
-		Type type = getType(item);		
-		// If we have a Type column, the typeToProcess field determines
-		// the scope to use for breaking out the cost.
-		// Each scope duplicates the data set, so we only want to process one.
-		if (type != Type.None && type != typeToProcess)
-			return startMillis;
+	/**
+	 * Loads the report rows into growable columns, then orders them by cluster and hour.
+	 */
+	private class Builder {
+		final List<KubernetesColumn> doubleCols;
+		final List<KubernetesColumn> stringCols;
+		final List<String> userTagKeys;
+		final Map<String, Integer> clusterCodes;
+		final List<String> clusterNames;
+		double[][] doubles;
+		int[][] strings;
+		int[][] userTags;
+		int[] clusters;
+		int[] hours;
+		int size;
+		
+		// Most rows share their dates with the previous row
+		String lastStartDate;
+		long lastStartMillis;
+		String lastEndDate;
+		long lastEndMillis;
+		
+		Builder() {
+			doubleCols = Lists.newArrayList();
+			for (KubernetesColumn col: metricColumns) {
+				if (reportIndeces != null && reportIndeces.containsKey(col))
+					doubleCols.add(col);
+			}
+			stringCols = Lists.newArrayList();
+			Set<KubernetesColumn> stringColSet = Sets.newTreeSet(deployParams.values());
+			stringColSet.add(KubernetesColumn.UsageType);
+			for (KubernetesColumn col: stringColSet) {
+				if (reportIndeces != null && reportIndeces.containsKey(col))
+					stringCols.add(col);
+			}
+			userTagKeys = userTagIndeces == null ? Lists.<String>newArrayList() : Lists.newArrayList(userTagIndeces.keySet());
+			clusterCodes = Maps.newHashMap();
+			clusterNames = Lists.newArrayList();
+			values = Lists.newArrayList();
+			valueCodes = Maps.newHashMap();
+			
+			int capacity = 1024;
+			doubles = new double[doubleCols.size()][capacity];
+			strings = new int[stringCols.size()][capacity];
+			userTags = new int[userTagKeys.size()][capacity];
+			clusters = new int[capacity];
+			hours = new int[capacity];
+		}
+		
+		Integer[] getParsedIndeces() {
+			Set<Integer> indeces = Sets.newTreeSet();
+			for (KubernetesColumn col: new KubernetesColumn[]{ KubernetesColumn.Cluster, KubernetesColumn.Type, KubernetesColumn.StartDate, KubernetesColumn.EndDate }) {
+				if (reportIndeces.containsKey(col))
+					indeces.add(reportIndeces.get(col));
+			}
+			for (KubernetesColumn col: doubleCols)
+				indeces.add(reportIndeces.get(col));
+			for (KubernetesColumn col: stringCols)
+				indeces.add(reportIndeces.get(col));
+			indeces.addAll(userTagIndeces.values());
+			return indeces.toArray(new Integer[indeces.size()]);
+		}
+		
+		private int getCode(String value) {
+			Integer code = valueCodes.get(value);
+			if (code == null) {
+				code = values.size();
+				values.add(value);
+				valueCodes.put(value, code);
+			}
+			return code;
+		}
+		
+		private long getMillis(String date, boolean start) {
+			if (start) {
+				if (!date.equals(lastStartDate)) {
+					lastStartMillis = new DateTime(date, DateTimeZone.UTC).getMillis();
+					lastStartDate = date;
+				}
+				return lastStartMillis;
+			}
+			if (!date.equals(lastEndDate)) {
+				lastEndMillis = new DateTime(date, DateTimeZone.UTC).getMillis();
+				lastEndDate = date;
+			}
+			return lastEndMillis;
+		}
+		
+		long add(String[] item) {
+			// Check to see if we're processing this type of line item
+			Type type = getType(item);		
+			// If we have a Type column, the typeToProcess field determines
+			// the scope to use for breaking out the cost.
+			// Each scope duplicates the data set, so we only want to process one.
+			if (type != Type.None && type != typeToProcess)
+				return startMillis;
 
-		String startDateStr = item[reportIndeces.get(KubernetesColumn.StartDate)];
-		String endDateStr = item[reportIndeces.get(KubernetesColumn.EndDate)];
+			String startDateStr = getRawString(item, KubernetesColumn.StartDate);
+			String endDateStr = getRawString(item, KubernetesColumn.EndDate);
 
-		if (startDateStr.isEmpty() || endDateStr.isEmpty()) {
-			logger.error("Empty start or end date string in kubernetes report record: " + item);
-			return startMillis;
+			if (startDateStr.isEmpty() || endDateStr.isEmpty()) {
+				logger.error("Empty start or end date string in kubernetes report record: " + StringUtils.join(item, ","));
+				return startMillis;
+			}
+			
+			long millisStart = getMillis(startDateStr, true);
+			long millisEnd = getMillis(endDateStr, false);
+	        int startIndex = (int)((millisStart - startMillis)/ AwsUtils.hourMillis);
+	        int endIndex = (int)((millisEnd + 1000 - startMillis)/ AwsUtils.hourMillis);
+	        
+	        if (startIndex < 0 || startIndex > 31 * 24) {
+	        	DateTime startDate = new DateTime(millisStart, DateTimeZone.UTC);
+	        	logger.error("StartDate outside of range for month. Month start=" + month.getYear() + "-" + month.getDayOfMonth() + ", StartDate=" + startDate.getYear() + "-" + startDate.getDayOfMonth());
+	        	return startMillis;
+	        }
+	        if (endIndex > startIndex + 1) {
+	        	DateTime startDate = new DateTime(millisStart, DateTimeZone.UTC);
+	        	DateTime endDate = new DateTime(millisEnd, DateTimeZone.UTC);
+	        	logger.error("EndDate more than one hour after StartDate. StartDate=" + startDate.getYear() + "-" + startDate.getDayOfMonth() + ", EndDate=" + endDate.getYear() + "-" + endDate.getDayOfMonth());
+	        	return startMillis;
+	        }
+	        
+	        // Parse the numbers before adding anything so a bad value doesn't leave a partial row
+	        double[] rowDoubles = new double[doubleCols.size()];
+	        for (int i = 0; i < rowDoubles.length; i++)
+	        	rowDoubles[i] = parseDouble(getRawString(item, doubleCols.get(i)));
+	        
+	        if (size == clusters.length)
+	        	grow();
+	        
+	        String cluster = getRawString(item, KubernetesColumn.Cluster);
+	        Integer clusterCode = clusterCodes.get(cluster);
+	        if (clusterCode == null) {
+	        	clusterCode = clusterNames.size();
+	        	clusterNames.add(cluster);
+	        	clusterCodes.put(cluster, clusterCode);
+	        }
+	        clusters[size] = clusterCode;
+	        hours[size] = startIndex;
+	        for (int i = 0; i < rowDoubles.length; i++)
+	        	doubles[i][size] = rowDoubles[i];
+	        for (int i = 0; i < strings.length; i++)
+	        	strings[i][size] = getCode(getRawString(item, stringCols.get(i)));
+	        for (int i = 0; i < userTags.length; i++)
+	        	userTags[i][size] = getCode(nullToEmpty(item[userTagIndeces.get(userTagKeys.get(i))]));
+	        size++;
+	        
+			return millisEnd;
 		}
 		
-		DateTime startDate = new DateTime(startDateStr, DateTimeZone.UTC);
-		long millisStart = startDate.getMillis();
-		DateTime endDate = new DateTime(endDateStr, DateTimeZone.UTC);
-		long millisEnd = endDate.getMillis();
-        int startIndex = (int)((millisStart - startMillis)/ AwsUtils.hourMillis);
-        int endIndex = (int)((millisEnd + 1000 - startMillis)/ AwsUtils.hourMillis);
-        
-        if (startIndex < 0 || startIndex > 31 * 24) {
-        	logger.error("StartDate outside of range for month. Month start=" + month.getYear() + "-" + month.getDayOfMonth() + ", StartDate=" + startDate.getYear() + "-" + startDate.getDayOfMonth());
-        	return startMillis;
-        }
-        if (endIndex > startIndex + 1) {
-        	logger.error("EndDate more than one hour after StartDate. StartDate=" + startDate.getYear() + "-" + startDate.getDayOfMonth() + ", EndDate=" + endDate.getYear() + "-" + endDate.getDayOfMonth());
-        	return startMillis;
-        }
-        
-        String cluster = item[reportIndeces.get(KubernetesColumn.Cluster)];
-        List<List<String[]>> clusterData = data.get(cluster);
-        if (clusterData == null) {
-        	clusterData = Lists.newArrayList();
-        	data.put(cluster, clusterData);
-        }
-        // Expand the data lists if not long enough
-        for (int i = clusterData.size(); i < startIndex + 1; i++) {
-        	List<String[]> hourData = Lists.newArrayList();
-        	clusterData.add(hourData);
-        }
-        
-        List<String[]> hourData = clusterData.get(startIndex);
-        hourData.add(item);
-        
-		return millisEnd;
+		private void grow() {
+			int capacity = clusters.length * 2;
+			clusters = Arrays.copyOf(clusters, capacity);
+			hours = Arrays.copyOf(hours, capacity);
+			for (int i = 0; i < doubles.length; i++)
+				doubles[i] = Arrays.copyOf(doubles[i], capacity);
+			for (int i = 0; i < strings.length; i++)
+				strings[i] = Arrays.copyOf(strings[i], capacity);
+			for (int i = 0; i < userTags.length; i++)
+				userTags[i] = Arrays.copyOf(userTags[i], capacity);
+		}
+		
+		/**
+		 * Order the rows by cluster and hour and build the cluster index
+		 */
+		void build() {
+			// Count the rows in each cluster hour
+			int numClusters = clusterNames.size();
+			int[] numHours = new int[numClusters];
+			for (int row = 0; row < size; row++)
+				numHours[clusters[row]] = Math.max(numHours[clusters[row]], hours[row] + 1);
+			int[][] offsets = new int[numClusters][];
+			for (int c = 0; c < numClusters; c++)
+				offsets[c] = new int[numHours[c] + 1];
+			for (int row = 0; row < size; row++)
+				offsets[clusters[row]][hours[row] + 1]++;
+			int next = 0;
+			for (int c = 0; c < numClusters; c++) {
+				offsets[c][0] = next;
+				for (int h = 1; h < offsets[c].length; h++) {
+					next += offsets[c][h];
+					offsets[c][h] = next;
+				}
+			}
+			
+			// Stable counting sort of the rows into place
+			int[] position = new int[size];
+			int[][] fill = new int[numClusters][];
+			for (int c = 0; c < numClusters; c++)
+				fill[c] = Arrays.copyOf(offsets[c], offsets[c].length - 1);
+			for (int row = 0; row < size; row++)
+				position[row] = fill[clusters[row]][hours[row]]++;
+			
+			int numColumns = KubernetesColumn.values().length;
+			doubleColumns = new double[numColumns][];
+			for (int i = 0; i < doubleCols.size(); i++) {
+				double[] column = new double[size];
+				for (int row = 0; row < size; row++)
+					column[position[row]] = doubles[i][row];
+				doubleColumns[doubleCols.get(i).ordinal()] = column;
+			}
+			stringColumns = new int[numColumns][];
+			for (int i = 0; i < stringCols.size(); i++)
+				stringColumns[stringCols.get(i).ordinal()] = reorder(strings[i], position);
+			userTagColumns = Maps.newHashMap();
+			for (int i = 0; i < userTagKeys.size(); i++)
+				userTagColumns.put(userTagKeys.get(i), reorder(userTags[i], position));
+			
+			clusterHours = Maps.newHashMap();
+			for (int c = 0; c < numClusters; c++)
+				clusterHours.put(clusterNames.get(c), offsets[c]);
+		}
+		
+		private int[] reorder(int[] column, int[] position) {
+			int[] result = new int[size];
+			for (int row = 0; row < size; row++)
+				result[position[row]] = column[row];
+			return result;
+		}
+	}
+	
+	private static String nullToEmpty(String s) {
+		return s == null ? "" : s;
+	}
+	
+	private static double parseDouble(String s) {
+		return s.isEmpty() || s.equalsIgnoreCase("nan") || s.equalsIgnoreCase("inf") ? 0 : Double.parseDouble(s);
+	}
+	
+	private String getRawString(String[] item, KubernetesColumn col) {
+		Integer i = reportIndeces.get(col);
+		return i == null ? "" : nullToEmpty(item[i]);
+	}
+	
+	private Type getType(String[] item) {
+		String t = getRawString(item, KubernetesColumn.Type);
+		return t.isEmpty() ? Type.None : Type.valueOf(t);
 	}
 	
 	public Set<String> getClusters() {
-		return data.keySet();
+		return clusterHours.keySet();
 	}
 
 	public boolean hasData(Collection<String> possibleClusterNames) {
 		for (String cluster: possibleClusterNames) {
-			if (data.containsKey(cluster))
+			if (clusterHours.containsKey(cluster))
 				return true;
 		}
 		return false;
@@ -409,60 +639,74 @@ public class KubernetesReport extends Report {
 	public String getClusterName(UserTag[] userTags) {
 		// return the first matching cluster name
 		for (String name: clusterNameBuilder.getClusterNames(userTags)) {
-			if (data.containsKey(name))
+			if (clusterHours.containsKey(name))
 				return name;
 		}
 		
 		return null;
 	}
 	
-	public List<List<String[]>> getData(String cluster) {
-		return data.get(cluster);
-	}
-	
-	public List<String[]> getData(String cluster, int hour, String usageType) {
-		List<List<String[]>> clusterData = data.get(cluster);
-		if (clusterData == null || clusterData.size() <= hour)
+	/**
+	 * Get the rows for the cluster and hour. If usageType is set, only the rows with that usage type are returned.
+	 * Returns null if the cluster has no data at or beyond the hour.
+	 */
+	public int[] getData(String cluster, int hour, String usageType) {
+		int[] offsets = clusterHours.get(cluster);
+		if (offsets == null || offsets.length - 1 <= hour)
 			return null;
 		
-		List<String[]> hourData = clusterData.get(hour);
-		if (usageType != null && !usageType.isEmpty()) {
-			// Pull items with matching usage type
-			List<String[]> all = hourData;
-			hourData = Lists.newArrayListWithCapacity(all.size());
-			for (String[] item: all) {
-				if (usageType.equals(getString(item, KubernetesColumn.UsageType)))
-					hourData.add(item);
-			}
-			
+		int start = offsets[hour];
+		int end = offsets[hour + 1];
+		if (usageType == null || usageType.isEmpty()) {
+			int[] rows = new int[end - start];
+			for (int i = 0; i < rows.length; i++)
+				rows[i] = start + i;
+			return rows;
 		}
-		return hourData;
-	}
-	
-	public Type getType(String[] item) {
-		String t = getString(item, KubernetesColumn.Type);
-		return t.isEmpty() ? Type.None : Type.valueOf(t);
+		
+		// Pull rows with matching usage type
+		int[] usageTypes = stringColumns[KubernetesColumn.UsageType.ordinal()];
+		Integer code = valueCodes.get(usageType);
+		if (usageTypes == null || code == null)
+			return new int[0];
+		int[] rows = new int[end - start];
+		int n = 0;
+		for (int row = start; row < end; row++) {
+			if (usageTypes[row] == code)
+				rows[n++] = row;
+		}
+		return Arrays.copyOf(rows, n);
 	}
 	
-	public String getString(String[] item, KubernetesColumn col) {
-		Integer i = reportIndeces.get(col);
-		return i == null ? "" : item[i];
+	/**
+	 * Get the string value of a column for a row. Returns an empty string if the column isn't in the report or
+	 * isn't used for allocation.
+	 */
+	public String getString(int row, KubernetesColumn col) {
+		int[] codes = stringColumns[col.ordinal()];
+		if (codes != null)
+			return values.get(codes[row]);
+		double[] numbers = doubleColumns[col.ordinal()];
+		return numbers == null ? "" : Double.toString(numbers[row]);
 	}
 	
-	public double getDouble(String[] item, KubernetesColumn col) {
-		String s = getString(item, col);
-		
-		return s.isEmpty() || s.equalsIgnoreCase("nan") || s.equalsIgnoreCase("inf") ? 0 : Double.parseDouble(s);
+	public double getDouble(int row, KubernetesColumn col) {
+		double[] numbers = doubleColumns[col.ordinal()];
+		if (numbers != null)
+			return numbers[row];
+		int[] codes = stringColumns[col.ordinal()];
+		return codes == null ? 0 : parseDouble(values.get(codes[row]));
 	}
 	
-	public String getUserTag(String[] item, String col) {
-		return userTagIndeces.get(col) == null ? "" : item[userTagIndeces.get(col)];
+	public String getUserTag(int row, String col) {
+		int[] codes = userTagColumns.get(col);
+		return codes == null ? "" : values.get(codes[row]);
 	}
 
-	public List<String> getTagValues(String[] item, List<String> tagKeys) {
+	public List<String> getTagValues(int row, List<String> tagKeys) {
 		List<String> values = Lists.newArrayList();
 		for (String key: tagKeys) {
-			values.add(deployParams.containsKey(key) ? getString(item, deployParams.get(key)) : getUserTag(item, key));
+			values.add(deployParams.containsKey(key) ? getString(row, deployParams.get(key)) : getUserTag(row, key));
 		}
 		return values;
 	}
@@ -484,23 +728,23 @@ public class KubernetesReport extends Report {
 		return allocationConfig;
 	}
 	
-	public double getAllocationFactor(Product product, String[] item) {
+	public double getAllocationFactor(Product product, int row) {
 		if (product.isEc2Instance() || product.isCloudWatch()) {
-			double cpuCores = Math.max(getDouble(item, KubernetesColumn.RequestsCPUCores), getDouble(item, KubernetesColumn.UsedCPUCores));
-			double clusterCores = getDouble(item, KubernetesColumn.ClusterCPUCores);
-			double memoryGiB = Math.max(getDouble(item, KubernetesColumn.RequestsMemoryGiB), getDouble(item, KubernetesColumn.UsedMemoryGiB));
-			double clusterMemoryGiB = getDouble(item, KubernetesColumn.ClusterMemoryGiB);
+			double cpuCores = Math.max(getDouble(row, KubernetesColumn.RequestsCPUCores), getDouble(row, KubernetesColumn.UsedCPUCores));
+			double clusterCores = getDouble(row, KubernetesColumn.ClusterCPUCores);
+			double memoryGiB = Math.max(getDouble(row, KubernetesColumn.RequestsMemoryGiB), getDouble(row, KubernetesColumn.UsedMemoryGiB));
+			double clusterMemoryGiB = getDouble(row, KubernetesColumn.ClusterMemoryGiB);
 			double unitsPerCluster = clusterCores * vCpuToMemoryCostRatio + clusterMemoryGiB;
 			return unitsPerCluster <= 0 ? 0 : ((cpuCores * vCpuToMemoryCostRatio + memoryGiB) / unitsPerCluster);
 		}
 		else if (product.isEbs()) {
-			double pvcGiB = getDouble(item, KubernetesColumn.PersistentVolumeClaimGiB);
-			double clusterPvcGiB = getDouble(item, KubernetesColumn.ClusterPersistentVolumeClaimGiB);
+			double pvcGiB = getDouble(row, KubernetesColumn.PersistentVolumeClaimGiB);
+			double clusterPvcGiB = getDouble(row, KubernetesColumn.ClusterPersistentVolumeClaimGiB);
 			return clusterPvcGiB <= 0 ? 0 : (pvcGiB / clusterPvcGiB);
 		}
 		else if (product.isDataTransfer()) {
-			double networkGiB = getDouble(item, KubernetesColumn.NetworkInGiB) + getDouble(item, KubernetesColumn.NetworkOutGiB);
-			double clusterNetworkGiB = getDouble(item, KubernetesColumn.ClusterNetworkInGiB) + getDouble(item, KubernetesColumn.ClusterNetworkOutGiB);
+			double networkGiB = getDouble(row, KubernetesColumn.NetworkInGiB) + getDouble(row, KubernetesColumn.NetworkOutGiB);
+			double clusterNetworkGiB = getDouble(row, KubernetesColumn.ClusterNetworkInGiB) + getDouble(row, KubernetesColumn.ClusterNetworkOutGiB);
 			return clusterNetworkGiB <= 0 ? 0 : (networkGiB / clusterNetworkGiB);
 		}
 		return 0;
@@ -177,6 +177,7 @@ public class AllocationReport extends Report {
 	public static class HourData {
 		private Map<Key, Map<Key, Double>> dataMap;
 		private Map<Key, KeyMatcher> wildcards;
+		private volatile KeyIndex index;
 		
 		protected HourData() {
 			dataMap = Maps.newHashMap();
@@ -207,6 +208,7 @@ public class AllocationReport extends Report {
 		}
 		
 		Map<Key, Double> put(Key key, Map<Key, Double> value, boolean withWildcards) {
+			index = null;
 			if (withWildcards && KeyMatcher.hasWildcard(key)) {
 				KeyMatcher existing = wildcards.put(key, new KeyMatcher(key, value));
 				return existing == null ? null : existing.value;
@@ -238,6 +240,256 @@ public class AllocationReport extends Report {
 			}
 			return candidates;
 		}
+		
+		/**
+		 * Get the allocations for the most specific key that matches the set of input tags.
+		 * An exact match (literal or wildcard) is used if there is one. Otherwise the more general
+		 * key with the most non-empty tags is used. Allocation report entries with empty strings
+		 * for input tags will match a non-empty input value if no other entry with that value exists.
+		 */
+		Map<Key, Double> getMostSpecific(List<String> inTags) {
+			KeyIndex i = index;
+			if (i == null) {
+				synchronized (this) {
+					if (index == null)
+						index = new KeyIndex(dataMap, wildcards);
+					i = index;
+				}
+			}
+			return i.getMostSpecific(inTags);
+		}
+	}
+	
+	/**
+	 * Prefix tree over the keys of an HourData used to find the most specific key for a set of input tags.
+	 * Literal tag values are hash lookups and wildcard tags are pattern edges shared by all keys with the
+	 * same prefix, so a lookup only visits branches that can match rather than testing every key in the hour.
+	 * Keys are ranked by their position in the HourData maps so that ties resolve exactly as a scan of the maps would.
+	 */
+	static class KeyIndex {
+		private static final PatternEdge[] noPatterns = new PatternEdge[0];
+		
+		private static class Entry {
+			final Key key;
+			final int rank;
+			final Map<Key, Double> value;
+			Map<Key, Double> resolved; // value HourData.get() returns for the key
+			
+			Entry(Key key, int rank, Map<Key, Double> value) {
+				this.key = key;
+				this.rank = rank;
+				this.value = value;
+			}
+		}
+		
+		private static class PatternEdge {
+			final Pattern pattern;
+			final Node node;
+			
+			PatternEdge(Pattern pattern) {
+				this.pattern = pattern;
+				this.node = new Node();
+			}
+		}
+		
+		private static class Node {
+			Map<String, Node> literals;
+			Map<String, PatternEdge> patternMap; // only used while building
+			PatternEdge[] patterns = noPatterns;
+			Entry entry;
+		}
+		
+		private final Node literalRoot;
+		private final Node wildcardRoot;
+		
+		KeyIndex(Map<Key, Map<Key, Double>> dataMap, Map<Key, KeyMatcher> wildcards) {
+			literalRoot = new Node();
+			wildcardRoot = new Node();
+			
+			int rank = 0;
+			for (Map.Entry<Key, Map<Key, Double>> e: dataMap.entrySet()) {
+				Entry entry = new Entry(e.getKey(), rank++, e.getValue());
+				entry.resolved = entry.value;
+				insert(literalRoot, entry, null);
+			}
+			List<Entry> wildcardEntries = Lists.newArrayListWithCapacity(wildcards.size());
+			for (KeyMatcher km: wildcards.values()) {
+				Entry entry = new Entry(km.key, rank++, km.value);
+				insert(wildcardRoot, entry, km.patterns);
+				wildcardEntries.add(entry);
+			}
+			freeze(wildcardRoot);
+			
+			// A wildcard key is resolved the same way as any other key, so it may return the value of another matcher
+			for (Entry entry: wildcardEntries) {
+				if (dataMap.containsKey(entry.key)) {
+					entry.resolved = dataMap.get(entry.key);
+				}
+				else {
+					Entry e = contains(wildcardRoot, entry.key.tags, 0);
+					entry.resolved = e == null ? null : e.value;
+				}
+			}
+		}
+		
+		private static void insert(Node root, Entry entry, List<Pattern> patterns) {
+			Node node = root;
+			List<String> tags = entry.key.tags;
+			for (int i = 0; i < tags.size(); i++) {
+				String tag = tags.get(i);
+				Pattern p = patterns == null ? null : patterns.get(i);
+				if (p == null) {
+					if (node.literals == null)
+						node.literals = Maps.newHashMap();
+					Node next = node.literals.get(tag);
+					if (next == null) {
+						next = new Node();
+						node.literals.put(tag, next);
+					}
+					node = next;
+				}
+				else {
+					// The pattern is derived from the tag, so keys with the same wildcard tag share an edge
+					if (node.patternMap == null)
+						node.patternMap = Maps.newLinkedHashMap();
+					PatternEdge edge = node.patternMap.get(tag);
+					if (edge == null) {
+						edge = new PatternEdge(p);
+						node.patternMap.put(tag, edge);
+					}
+					node = edge.node;
+				}
+			}
+			node.entry = entry;
+		}
+		
+		private static void freeze(Node node) {
+			if (node.patternMap != null) {
+				node.patterns = node.patternMap.values().toArray(new PatternEdge[node.patternMap.size()]);
+				node.patternMap = null;
+				for (PatternEdge edge: node.patterns)
+					freeze(edge.node);
+			}
+			if (node.literals != null) {
+				for (Node n: node.literals.values())
+					freeze(n);
+			}
+		}
+		
+		Map<Key, Double> getMostSpecific(List<String> tags) {
+			// Check for an exact match first
+			Entry entry = exact(literalRoot, tags);
+			if (entry != null)
+				return entry.value;
+			entry = contains(wildcardRoot, tags, 0);
+			if (entry != null)
+				return entry.value;
+			
+			// No exact match, walk through the more general options
+			entry = better(includesLiteral(literalRoot, tags, 0), includesWildcard(wildcardRoot, tags, 0));
+			return entry == null ? null : entry.resolved;
+		}
+		
+		/**
+		 * Prefer the key with the most values, then the key that comes first in the HourData maps.
+		 */
+		private static Entry better(Entry a, Entry b) {
+			if (a == null)
+				return b;
+			if (b == null)
+				return a;
+			if (a.key.numValues() != b.key.numValues())
+				return a.key.numValues() > b.key.numValues() ? a : b;
+			return a.rank < b.rank ? a : b;
+		}
+		
+		private static Entry first(Entry a, Entry b) {
+			if (a == null)
+				return b;
+			if (b == null)
+				return a;
+			return a.rank < b.rank ? a : b;
+		}
+		
+		private static Entry exact(Node node, List<String> tags) {
+			for (int i = 0; i < tags.size() && node != null; i++)
+				node = node.literals == null ? null : node.literals.get(tags.get(i));
+			return node == null ? null : node.entry;
+		}
+		
+		/**
+		 * Find the first wildcard key that matches the tags. Same as KeyMatcher.contains()
+		 */
+		private static Entry contains(Node node, List<String> tags, int i) {
+			if (i == tags.size())
+				return node.entry;
+			String tag = tags.get(i);
+			Entry result = null;
+			if (node.literals != null) {
+				Node next = node.literals.get(tag);
+				if (next != null)
+					result = contains(next, tags, i + 1);
+			}
+			for (PatternEdge edge: node.patterns) {
+				if (edge.pattern.matcher(tag).matches())
+					result = first(result, contains(edge.node, tags, i + 1));
+			}
+			return result;
+		}
+		
+		/**
+		 * Find the best literal key that includes the tags. Same as Key.includes()
+		 */
+		private static Entry includesLiteral(Node node, List<String> tags, int i) {
+			if (i == tags.size())
+				return node.entry;
+			if (node.literals == null)
+				return null;
+			String tag = tags.get(i);
+			Entry result = null;
+			Node next = node.literals.get(tag);
+			if (next != null)
+				result = includesLiteral(next, tags, i + 1);
+			if (!tag.isEmpty()) {
+				next = node.literals.get("");
+				if (next != null)
+					result = better(result, includesLiteral(next, tags, i + 1));
+			}
+			return result;
+		}
+		
+		/**
+		 * Find the best wildcard key that includes the tags. Same as KeyMatcher.includes()
+		 */
+		private static Entry includesWildcard(Node node, List<String> tags, int i) {
+			if (i == tags.size())
+				return node.entry;
+			String tag = tags.get(i);
+			Entry result = null;
+			if (tag.isEmpty()) {
+				// An empty tag matches everything
+				if (node.literals != null) {
+					for (Node next: node.literals.values())
+						result = better(result, includesWildcard(next, tags, i + 1));
+				}
+				for (PatternEdge edge: node.patterns)
+					result = better(result, includesWildcard(edge.node, tags, i + 1));
+				return result;
+			}
+			if (node.literals != null) {
+				Node next = node.literals.get(tag);
+				if (next != null)
+					result = includesWildcard(next, tags, i + 1);
+				next = node.literals.get("");
+				if (next != null)
+					result = better(result, includesWildcard(next, tags, i + 1));
+			}
+			for (PatternEdge edge: node.patterns) {
+				if (edge.pattern.matcher(tag).matches())
+					result = better(result, includesWildcard(edge.node, tags, i + 1));
+			}
+			return result;
+		}
 	}
 
 	public AllocationReport(String payerAccountId, AllocationConfig config, long startMillis, boolean isReport, List<String> userTagKeys, ResourceService resourceService) throws Exception {
@@ -360,8 +612,8 @@ public class AllocationReport extends Report {
 		return outTagKeys;
 	}		
 	
-	private Key getKey(int hour, TagGroup tg) throws Exception {
-		List<String> inTags = Lists.newArrayListWithCapacity(32);
+	private List<String> getInTags(TagGroup tg) throws Exception {
+		List<String> inTags = Lists.newArrayListWithCapacity(inTagKeys.size());
 		for (int index = 0; index < inTagKeys.size(); index++) {
 			String t = inTagKeys.get(index);
 			String inTag = null;
@@ -379,15 +631,10 @@ public class AllocationReport extends Report {
 			else if (t.equals("_usageType"))
 				inTag = tg.usageType.name;
 			else if (tg.resourceGroup != null) {
-				UserTag[] userTags = tg.resourceGroup.getUserTags();
-				for (int i = 0; i < inTagKeys.size(); i++) {
-					if (t.equals(inTagKeys.get(i))) {
-						if (inTagIndeces.get(i) < 0)
-							throw new Exception("Unknown tag key name: " + t);
-						inTag = userTags[inTagIndeces.get(i)].name;
-						break;
-					}
-				}
+				int userTagIndex = inTagIndeces.get(index);
+				if (userTagIndex < 0)
+					throw new Exception("Unknown tag key name: " + t);
+				inTag = tg.resourceGroup.getUserTags()[userTagIndex].name;
 			}
 			
 			// If not null, look up the tag value to see if we have it in the report
@@ -397,43 +644,14 @@ public class AllocationReport extends Report {
 			inTags.add(inTag);
 		}
 		
-		return findMostSpecificKey(hour, inTags);
-	}
-	
-	/**
-	 * Find the most specific key in the map that matches the set of input tags.
-	 * Allocation report entries with empty strings for input tags will match
-	 * a non-empty input value if no other entry with that value exists.
-	 */
-	private Key findMostSpecificKey(int hour, List<String> inTags) {		
-		HourData hourData = data.get(hour);
-		
-		// Check for an exact match first
-		Key key = new Key(inTags);
-		if (hourData.containsKey(key))
-			return key;
-		
-		// No exact match, walk through the more general options
-		List<Key> candidates = hourData.getCandidates(key);
-		key = null;
-		int maxValues = -1;
-		for (Key k: candidates) {
-			// TODO: May want to do this by precedence rather than number of values
-			if (k.numValues() > maxValues) {
-				maxValues = k.numValues();
-				key = k;
-			}
-		}
-		return key;
+		return inTags;
 	}
 	
 	public Map<Key, Double> getData(int hour, TagGroup tg) throws Exception {
 		if (data.size() <= hour)
 			return null;
 		
-		Key key = getKey(hour, tg);
-
-		return key == null ? null : data.get(hour).get(key);
+		return data.get(hour).getMostSpecific(getInTags(tg));
 	}
 	
 	public int getNumHours() {
@@ -44,6 +44,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.netflix.ice.common.WorkBucketConfig;
 import com.netflix.ice.processor.CostAndUsageData;
 import com.netflix.ice.processor.DataSerializer;
@@ -89,14 +90,44 @@ public class PostProcessor {
 	
 	public void process(CostAndUsageData data) {
 		logger.info("Post-process " + rules.size() + " rules");
+		
+		// Build the active rules up front so the planner can share passes over the data among their queries
+		QueryPlanner planner = new QueryPlanner(data, accountService, productService);
+		Map<RuleConfig, Rule> plannedRules = Maps.newHashMap();
 		for (String payerAccountId: rules.keySet()) {
 			for (RuleConfig rc : rules.get(payerAccountId)) {
+				if (!isActive(rc, data.getStartMilli()))
+					continue;
 				try {
-					processRule(payerAccountId, rc, data);
+					Rule rule = new Rule(rc, accountService, productService, resourceService.getCustomTags());
+					if (isSupported(rule)) {
+						planner.add(rule);
+						plannedRules.put(rc, rule);
+					}
+				} catch (Exception e) {
+					// Reported when the rule is processed
+				}
+			}
+		}
+		
+		for (String payerAccountId: rules.keySet()) {
+			for (RuleConfig rc : rules.get(payerAccountId)) {
+				Rule rule = plannedRules.get(rc);
+				try {
+					if (rule == null)
+						processRule(payerAccountId, rc, data);
+					else {
+						logger.info("-------- Process rule: \"" + rc.getName() + "\" --------");
+						processRule(payerAccountId, rule, data, planner);
+					}
 				} catch (Exception e) {
 					logger.error("Error post-processing cost and usage data for rule " + rc.getName() + ": " + e);
 					e.printStackTrace();
 				}
+				finally {
+					if (rule != null)
+						planner.done(rule);
+				}
 			}
 		}
 		if (pool != null)
@@ -136,7 +167,23 @@ public class PostProcessor {
 			return;
 		}
 		
-		Rule rule = new Rule(rc, accountService, productService, resourceService.getCustomTags());
+		processRule(payerAccountId, new Rule(rc, accountService, productService, resourceService.getCustomTags()), data, null);
+	}
+	
+	/**
+	 * Returns false for rules that processRule() rejects without touching the data.
+	 */
+	private boolean isSupported(Rule rule) {
+		RuleConfig rc = rule.config;
+		if (rc.getAllocation() != null && !rc.isReport() && rule.getIn().hasAggregation())
+			return false;
+		if (rc.getResults() != null)
+			return !rc.isReport();
+		return rc.getAllocation() != null || rc.isReport();
+	}
+	
+	protected void processRule(String payerAccountId, Rule rule, CostAndUsageData data, QueryPlanner planner) throws Exception {
+		RuleConfig rc = rule.config;
 		if (rc.getAllocation() != null && !rc.isReport() && rule.getIn().hasAggregation()) {
 			// We don't currently support allocating aggregated costs because we don't track the source tagGroups that were aggregated
 			// by the getInData() method. So if the input data set is the same as the out data set, we fail.
@@ -154,6 +201,7 @@ public class PostProcessor {
 				return;
 			}
 			RuleProcessor rp = new FixedRuleProcessor(rule, accountService, productService);
+			rp.setQueryPlanner(planner);
 			rp.process(data);
 		}
 		else {
@@ -174,7 +222,8 @@ public class PostProcessor {
 					reportWorkBucketConfig = new WorkBucketConfig(workBucketConfig.workS3BucketName,
 							workBucketConfig.workS3BucketRegion,
 							workBucketConfig.workS3BucketPrefix + rc.getName() + "/",
-							file.getPath());
+							file.getPath(),
+							workBucketConfig.streamingUploads);
 				}
 				outData = new CostAndUsageData(data, reportWorkBucketConfig, UserTagKey.getUserTagKeys(outUserTagKeys));
 			}
@@ -183,6 +232,7 @@ public class PostProcessor {
 	    		pool = Executors.newFixedThreadPool(numThreads);
 
 			VariableRuleProcessor rp = new VariableRuleProcessor(payerAccountId, rule, outData, accountService, productService, resourceService, workBucketConfig, pool);
+			rp.setQueryPlanner(planner);
 			boolean processed = rp.process(data);
 			if (processed && rc.isReport()) {
 				outData.enableTagGroupCache(true);
@@ -219,6 +269,7 @@ public class PostProcessor {
 			String filename = reportName(cauData.getStart(), rule.config.getName(), RuleConfig.Aggregation.hourly);
 			ReportWriter writer = new ReportWriter(reportSubPrefix, filename, rule.config.getReport(), workBucketConfig.localDir, cauData.getStart(), 
 										in.getGroupBy(), cauData.getUserTagKeysAsStrings(), data, RuleConfig.Aggregation.hourly);		
+			writer.setStreaming(workBucketConfig.isStreaming(WorkBucketConfig.ArchiveType.reports));
 			writer.archive();
 		}
 		if (aggregate.contains(RuleConfig.Aggregation.monthly) || aggregate.contains(RuleConfig.Aggregation.daily)) {
@@ -286,6 +337,7 @@ public class PostProcessor {
         rwData.setData(data, 0);
 		ReportWriter writer = new ReportWriter(reportSubPrefix, filename, rule.config.getReport(), workBucketConfig.localDir, 
 									month, in.getGroupBy(), userTagKeys, rwData, aggregation);		
+		writer.setStreaming(workBucketConfig.isStreaming(WorkBucketConfig.ArchiveType.reports));
 		writer.archive();		
 	}
 	
@@ -21,6 +21,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -28,6 +29,7 @@ import org.apache.commons.lang.StringUtils;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.netflix.ice.common.AccountService;
 import com.netflix.ice.common.Aggregation;
 import com.netflix.ice.common.AggregationTagGroup;
@@ -46,6 +48,9 @@ import com.netflix.ice.tag.Zone;
 
 
 public class Query {
+	// Limit on the number of memoized results held by each filter and by the aggregation memo
+	private static final int maxMemoSize = 500000;
+	
 	private final Map<Rule.TagKey, TagFilters> tagFilters;
 	private final Map<String, TagFilters> userTagFilters;
 	private final Map<String, Integer> userTagFilterIndeces;
@@ -61,6 +66,14 @@ public class Query {
 
 	private final String[] emptyUserTags;
 	
+	// Filters flattened into arrays for aggregateTagGroup()
+	private final Rule.TagKey[] filterKeys;
+	private final TagFilters[] filters;
+	private final int[] userTagFilterIndexArray;
+	private final TagFilters[] userTagFilterArray;
+	// Result of aggregateTagGroup() for each matching TagGroup seen
+	private final ConcurrentMap<TagGroup, AggregationTagGroup> aggregations;
+	
 	private String string = null;
 
 	public Query(QueryConfig queryConfig, List<String> userTagKeys) throws Exception {		
@@ -149,6 +162,19 @@ public class Query {
 		this.aggregation = new Aggregation(groupBy, groupByTagsIndeces);
 		this.aggregates = aggregates;
 		this.emptyUserTags = new String[numUserTags];
+		
+		filterKeys = tagFilters.keySet().toArray(new Rule.TagKey[tagFilters.size()]);
+		filters = new TagFilters[filterKeys.length];
+		for (int i = 0; i < filterKeys.length; i++)
+			filters[i] = tagFilters.get(filterKeys[i]);
+		userTagFilterIndexArray = new int[userTagFilters.size()];
+		userTagFilterArray = new TagFilters[userTagFilters.size()];
+		int i = 0;
+		for (String key: userTagFilters.keySet()) {
+			userTagFilterIndexArray[i] = userTagFilterIndeces.get(key);
+			userTagFilterArray[i++] = userTagFilters.get(key);
+		}
+		aggregations = Maps.newConcurrentMap();
 	}
 	
 	@Override
@@ -282,12 +308,25 @@ public class Query {
 
 
 	/**
-	 * Used by RuleProcessor.runQuery() when aggregating the query data
+	 * Used by RuleProcessor.runQuery() when aggregating the query data.
+	 * Aggregations are memoized per TagGroup since the same TagGroups are visited for every rule pass over the data.
+	 * TagGroups that are filtered out aren't held since the precompiled filters reject them about as fast as a lookup.
 	 */
-	public AggregationTagGroup aggregateTagGroup(TagGroup tg, AccountService accountService, ProductService productService) throws Exception {		
+	public AggregationTagGroup aggregateTagGroup(TagGroup tg, AccountService accountService, ProductService productService) throws Exception {
+		AggregationTagGroup result = aggregations.get(tg);
+		if (result == null) {
+			result = filterAndAggregate(tg);
+			if (result != null && aggregations.size() < maxMemoSize)
+				aggregations.put(tg, result);
+		}
+		return result;
+	}
+	
+	private AggregationTagGroup filterAndAggregate(TagGroup tg) throws Exception {
 		// Apply tag filters
-		for (Rule.TagKey tk: tagFilters.keySet()) {
-			TagFilters tf = tagFilters.get(tk);
+		for (int i = 0; i < filterKeys.length; i++) {
+			Rule.TagKey tk = filterKeys[i];
+			TagFilters tf = filters[i];
 			String value = null;
 			switch (tk) {
 			case costType:  value = tg.costType.name;				break;
@@ -306,29 +345,44 @@ public class Query {
 		// Apply user tag filters
 		UserTag[] userTags = tg.resourceGroup == null ? null : tg.resourceGroup.getUserTags();
 		if (userTags != null) {
-			for (String key: userTagFilters.keySet()) {
-				TagFilters tf = userTagFilters.get(key);
-				Integer userTagIndex = userTagFilterIndeces.get(key);
-				if (userTagIndex < 0 || !tf.matches(userTags[userTagIndex].name))
+			for (int i = 0; i < userTagFilterArray.length; i++) {
+				int userTagIndex = userTagFilterIndexArray[i];
+				if (userTagIndex < 0 || !userTagFilterArray[i].matches(userTags[userTagIndex].name))
 					return null;
-				
 			}
 		}
         
 		return aggregation.getAggregationTagGroup(tg);
 	}
 	
+	/**
+	 * Filters that are plain values or alternations of plain values are matched with a hash set lookup.
+	 * Any remaining regular expressions are tried after that, and those results are memoized by tag value.
+	 * Tag names are interned along with their tags, so memo lookups mostly succeed on the
+	 * String identity check without comparing characters.
+	 */
 	public class TagFilters {
 		private boolean exclude;
 		private List<TagFilter> filters;
+		private final Set<String> literals;
+		private final List<TagFilter> patterns;
+		private final ConcurrentMap<String, Boolean> memo;
 		
 		public TagFilters(boolean exclude, List<String> regularExpressions) {
 			this.exclude = exclude;
 			filters = Lists.newArrayList();
+			literals = Sets.newHashSet();
+			patterns = Lists.newArrayList();
 			for (String regex: regularExpressions) {
-				filters.add(new TagFilter(regex));				
+				TagFilter tf = new TagFilter(regex);
+				filters.add(tf);
+				List<String> values = getLiterals(regex);
+				if (values == null)
+					patterns.add(tf);
+				else
+					literals.addAll(values);
 			}
-			
+			memo = patterns.isEmpty() ? null : Maps.<String, Boolean>newConcurrentMap();
 		}
 		
 		public String toString() {
@@ -340,19 +394,28 @@ public class Query {
 		}
 		
 		public boolean matches(String name) {
-			if (exclude) {
-				for (TagFilter tf: filters) {
-					if (tf.matches(name))
-						return false;
-				}
-			}
-			else {
-				for (TagFilter tf: filters) {
-					if (tf.matches(name))
-						return true;
+			return exclude != matchesAny(name);
+		}
+		
+		private boolean matchesAny(String name) {
+			if (literals.contains(name))
+				return true;
+			if (memo == null)
+				return false;
+			
+			Boolean matched = memo.get(name);
+			if (matched == null) {
+				matched = false;
+				for (TagFilter tf: patterns) {
+					if (tf.matches(name)) {
+						matched = true;
+						break;
+					}
 				}
+				if (memo.size() < maxMemoSize)
+					memo.put(name, matched);
 			}
-			return exclude;
+			return matched;
 		}
 		
 		public String getFirst() {
@@ -360,12 +423,25 @@ public class Query {
 		}
 	}
 	
+	/**
+	 * Get the values matched by a regex that is a plain value or an alternation of plain values.
+	 * Returns null if the regex uses any other regular expression syntax.
+	 */
+	static List<String> getLiterals(String regex) {
+		for (int i = 0; i < regex.length(); i++) {
+			if ("\\.[]{}()*+?^$".indexOf(regex.charAt(i)) >= 0)
+				return null;
+		}
+		return Lists.newArrayList(regex.split("\\|", -1));
+	}
+	
 	public class TagFilter {
 		private String regex;
-		private Pattern pattern = null; // lazy initialize
+		private Pattern pattern;
 		
 		public TagFilter(String regex) {
 			this.regex = regex;
+			this.pattern = Pattern.compile(regex);
 		}
 		
 		public String toString() {
@@ -373,8 +449,6 @@ public class Query {
 		}
 		
 		public boolean matches(String name) {
-			if (pattern == null)
-				pattern = Pattern.compile(regex);
 			Matcher matcher = pattern.matcher(name);
 			return matcher.matches();
 		}
@@ -0,0 +1,386 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.processor.postproc;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.time.StopWatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.AggregationTagGroup;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.processor.CostAndUsageData;
+import com.netflix.ice.processor.DataSerializer;
+import com.netflix.ice.processor.DataSerializer.CostAndUsage;
+import com.netflix.ice.tag.Product;
+
+/**
+ * Runs the queries for a sequence of post processor rules with shared passes over the cost and usage data.
+ *
+ * Rather than each rule operand walking every TagGroup of every product, the planner collects the queries of the
+ * upcoming rules and makes one pass over each product's data, routing each TagGroup to every query it matches
+ * and pulling its hourly values only once. Rules then pick up their query results from the planner.
+ *
+ * Rules can change the data read by later rules, so a pass only includes the queries of later rules that don't read
+ * products written by the rules ahead of them. Each result also records the modification counts of the data it
+ * was computed from and is recomputed if any of that data has changed by the time it's requested.
+ */
+public class QueryPlanner {
+    protected Logger logger = LoggerFactory.getLogger(getClass());
+
+	private final CostAndUsageData data;
+	private final AccountService accountService;
+	private final ProductService productService;
+	private final List<PlannedRule> rules;
+	private final Map<QueryKey, PlannedQuery> queries;
+
+	/**
+	 * Queries are identified by their string form, which doesn't include the monthly flag.
+	 */
+	private static class QueryKey {
+		final Query query;
+		final boolean isNonResource;
+
+		QueryKey(Query query, boolean isNonResource) {
+			this.query = query;
+			this.isNonResource = isNonResource;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o)
+				return true;
+			if (!(o instanceof QueryKey))
+				return false;
+			QueryKey other = (QueryKey) o;
+			return isNonResource == other.isNonResource && query.isMonthly() == other.query.isMonthly() && query.equals(other.query);
+		}
+
+		@Override
+		public int hashCode() {
+			return query.hashCode() * 4 + (isNonResource ? 2 : 0) + (query.isMonthly() ? 1 : 0);
+		}
+	}
+
+	private static class PlannedRule {
+		final Rule rule;
+		final List<QueryKey> keys;
+
+		PlannedRule(Rule rule, List<QueryKey> keys) {
+			this.rule = rule;
+			this.keys = keys;
+		}
+	}
+
+	private static class PlannedQuery {
+		final QueryKey key;
+		boolean withValues; // false if only the matching tag groups are needed
+		int refs;
+		Results results;
+
+		PlannedQuery(QueryKey key) {
+			this.key = key;
+		}
+	}
+
+	/**
+	 * The tag groups in one product's data that match a query along with their aggregations.
+	 */
+	public static class Matches {
+		public final DataSerializer data;
+		public final List<TagGroup> tagGroups;
+		public final List<AggregationTagGroup> aggregations;
+
+		Matches(DataSerializer data) {
+			this.data = data;
+			this.tagGroups = Lists.newArrayList();
+			this.aggregations = Lists.newArrayList();
+		}
+	}
+
+	private static class Results {
+		final int maxHours;
+		final int numProducts;
+		final Map<Product, DataSerializer> sources;
+		final Map<Product, Integer> modificationCounts;
+		final List<Matches> matches;
+		final Map<AggregationTagGroup, CostAndUsage[]> values;
+
+		Results(int maxHours, int numProducts, boolean withValues) {
+			this.maxHours = maxHours;
+			this.numProducts = numProducts;
+			this.sources = Maps.newHashMap();
+			this.modificationCounts = Maps.newHashMap();
+			this.matches = Lists.newArrayList();
+			this.values = withValues ? Maps.<AggregationTagGroup, CostAndUsage[]>newHashMap() : null;
+		}
+	}
+
+	public QueryPlanner(CostAndUsageData data, AccountService accountService, ProductService productService) {
+		this.data = data;
+		this.accountService = accountService;
+		this.productService = productService;
+		this.rules = Lists.newArrayList();
+		this.queries = Maps.newHashMap();
+	}
+
+	/**
+	 * Add a rule to the end of the sequence of rules to be processed.
+	 */
+	public void add(Rule rule) {
+		RuleConfig rc = rule.config;
+		List<QueryKey> keys = Lists.newArrayList();
+		if (rc.getResults() != null) {
+			// Fixed rules run their queries on both the non-resource and resource data
+			for (boolean isNonResource: new boolean[]{ true, false }) {
+				for (Query op: rule.getOperands().values())
+					addQuery(keys, op, isNonResource, true);
+				addQuery(keys, rule.getIn(), isNonResource, true);
+			}
+		}
+		else {
+			// Variable rules only need values for monthly queries. Hourly queries are processed an hour at a time.
+			addQuery(keys, rule.getIn(), false, rule.getIn().isMonthly());
+		}
+		rules.add(new PlannedRule(rule, keys));
+	}
+
+	private void addQuery(List<QueryKey> keys, Query query, boolean isNonResource, boolean withValues) {
+		// Single tag group queries are a direct lookup and don't need a scan
+		if (query.isSingleTagGroup())
+			return;
+
+		QueryKey key = new QueryKey(query, isNonResource);
+		PlannedQuery pq = queries.get(key);
+		if (pq == null) {
+			pq = new PlannedQuery(key);
+			queries.put(key, pq);
+		}
+		pq.withValues |= withValues;
+		pq.refs++;
+		keys.add(key);
+	}
+
+	/**
+	 * Called once a rule has been processed. Drops the results that are no longer needed by the remaining rules.
+	 */
+	public void done(Rule rule) {
+		for (int i = 0; i < rules.size(); i++) {
+			PlannedRule pr = rules.get(i);
+			if (pr.rule != rule)
+				continue;
+
+			rules.remove(i);
+			for (QueryKey key: pr.keys) {
+				PlannedQuery pq = queries.get(key);
+				if (--pq.refs == 0)
+					queries.remove(key);
+			}
+			return;
+		}
+	}
+
+	/**
+	 * Get the results of the query in the same form as RuleProcessor.runQuery().
+	 * Returns null if the query isn't one of the planned queries. The returned map and arrays are shared and must not be modified.
+	 */
+	public Map<AggregationTagGroup, CostAndUsage[]> getResults(Query query, boolean isNonResource, int maxHours) throws Exception {
+		Results results = getPlannedResults(query, isNonResource);
+		if (results == null || results.values == null || results.maxHours != maxHours)
+			return null;
+		return results.values;
+	}
+
+	/**
+	 * Get the tag groups that match the query for each product in the order RuleProcessor.runQuery() visits them.
+	 * Returns null if the query isn't one of the planned queries.
+	 */
+	public List<Matches> getMatches(Query query, boolean isNonResource) throws Exception {
+		Results results = getPlannedResults(query, isNonResource);
+		return results == null ? null : results.matches;
+	}
+
+	private Results getPlannedResults(Query query, boolean isNonResource) throws Exception {
+		PlannedQuery pq = queries.get(new QueryKey(query, isNonResource));
+		if (pq == null)
+			return null;
+		if (!isCurrent(pq))
+			scan(pq);
+		return pq.results;
+	}
+
+	private boolean isCurrent(PlannedQuery pq) {
+		Results results = pq.results;
+		if (results == null)
+			return false;
+		if (results.numProducts != productService.getProducts().size()) {
+			// A new product may match the query
+			return false;
+		}
+		for (Product product: results.sources.keySet()) {
+			DataSerializer ds = data.get(product);
+			if (ds != results.sources.get(product))
+				return false;
+			if (ds != null && ds.getModificationCount() != results.modificationCounts.get(product))
+				return false;
+		}
+		return true;
+	}
+
+	private Set<Product> getProducts(QueryKey key) {
+		if (key.isNonResource) {
+			Set<Product> products = Sets.newHashSet();
+			products.add(null);
+			return products;
+		}
+		return Sets.newHashSet(key.query.getProducts(productService));
+	}
+
+	/**
+	 * Get the products a rule may write to.
+	 */
+	private Set<Product> getWrittenProducts(Rule rule) {
+		RuleConfig rc = rule.config;
+		Set<Product> products = Sets.newHashSet();
+		if (rc.getResults() != null) {
+			// Non-resource results are written to the null product
+			products.add(null);
+			for (Rule.Result result: rule.getResults()) {
+				String serviceCode = result.getProduct();
+				if (serviceCode == null)
+					continue;
+				for (Product p: productService.getProducts()) {
+					if (p.getServiceCode().equals(serviceCode))
+						products.add(p);
+				}
+			}
+		}
+		else if (rc.getAllocation() != null && !rc.isReport()) {
+			// In-place allocation
+			products.addAll(rule.getIn().getProducts(productService));
+		}
+		return products;
+	}
+
+	/**
+	 * Make one pass over the data for the requested query and any queries of later rules
+	 * that can be answered from the current data.
+	 */
+	private void scan(PlannedQuery requested) throws Exception {
+		StopWatch sw = new StopWatch();
+		sw.start();
+
+		// Pick the queries to run. Stop including a product once a rule that writes to it has been passed.
+		List<PlannedQuery> pending = Lists.newArrayList();
+		Map<PlannedQuery, Set<Product>> readProducts = Maps.newHashMap();
+		pending.add(requested);
+		readProducts.put(requested, getProducts(requested.key));
+		Set<Product> written = Sets.newHashSet();
+		for (PlannedRule pr: rules) {
+			for (QueryKey key: pr.keys) {
+				PlannedQuery pq = queries.get(key);
+				if (readProducts.containsKey(pq) || isCurrent(pq))
+					continue;
+				Set<Product> products = getProducts(key);
+				if (Sets.intersection(products, written).isEmpty()) {
+					pending.add(pq);
+					readProducts.put(pq, products);
+				}
+			}
+			written.addAll(getWrittenProducts(pr.rule));
+		}
+
+		int maxHours = data.getMaxNum();
+		int numProducts = productService.getProducts().size();
+		for (PlannedQuery pq: pending)
+			pq.results = new Results(maxHours, numProducts, pq.withValues);
+
+		// Visit products in the same order as runQuery()
+		List<Product> products = Lists.newArrayList();
+		products.add(null);
+		products.addAll(productService.getProducts());
+
+		int numTagGroups = 0;
+		for (Product product: products) {
+			DataSerializer inData = data.get(product);
+			List<PlannedQuery> readers = Lists.newArrayList();
+			for (PlannedQuery pq: pending) {
+				if (!readProducts.get(pq).contains(product))
+					continue;
+				pq.results.sources.put(product, inData);
+				if (inData != null) {
+					pq.results.modificationCounts.put(product, inData.getModificationCount());
+					readers.add(pq);
+				}
+			}
+			if (readers.isEmpty())
+				continue;
+
+			int num = inData.getNum();
+			List<Map<TagGroup, CostAndUsage>> hourData = Lists.newArrayListWithCapacity(num);
+			for (int hour = 0; hour < num; hour++)
+				hourData.add(inData.getData(hour));
+			CostAndUsage[] hourValues = new CostAndUsage[num];
+			Matches[] matches = new Matches[readers.size()];
+
+			for (TagGroup tg: inData.getTagGroups()) {
+				numTagGroups++;
+				boolean haveValues = false;
+				for (int i = 0; i < readers.size(); i++) {
+					PlannedQuery pq = readers.get(i);
+					AggregationTagGroup aggregatedTagGroup = pq.key.query.aggregateTagGroup(tg, accountService, productService);
+					if (aggregatedTagGroup == null)
+						continue;
+
+					if (matches[i] == null) {
+						matches[i] = new Matches(inData);
+						pq.results.matches.add(matches[i]);
+					}
+					matches[i].tagGroups.add(tg);
+					matches[i].aggregations.add(aggregatedTagGroup);
+
+					if (!pq.withValues)
+						continue;
+
+					if (!haveValues) {
+						for (int hour = 0; hour < num; hour++)
+							hourValues[hour] = hourData.get(hour).get(tg);
+						haveValues = true;
+					}
+					CostAndUsage[] values = pq.results.values.get(aggregatedTagGroup);
+					if (values == null) {
+						values = new CostAndUsage[pq.key.query.isMonthly() ? 1 : maxHours];
+						for (int j = 0; j < values.length; j++)
+							values[j] = new CostAndUsage();
+						pq.results.values.put(aggregatedTagGroup, values);
+					}
+					RuleProcessor.addValues(hourValues, num, values, pq.key.query.isMonthly(), aggregatedTagGroup.getUsageType() != null);
+				}
+			}
+		}
+		logger.info("  -- shared query scan elapsed time: " + sw + ", queries: " + pending.size() + ", tag groups: " + numTagGroups);
+	}
+}
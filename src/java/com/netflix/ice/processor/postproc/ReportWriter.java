@@ -58,6 +58,7 @@ public class ReportWriter {
 	private RuleConfig.Aggregation aggregation;
 	private boolean hasCost;
 	private boolean hasUsage;
+	private boolean streaming;
 	
 	public ReportWriter(String reportSubPrefix, String filename, ReportConfig config, String localDir,
 			DateTime month,
@@ -96,9 +97,25 @@ public class ReportWriter {
 		header.addAll(userTagKeys);
 	}
 
+    /**
+     * Write the report directly to the report bucket rather than staging it in the local directory.
+     */
+    public void setStreaming(boolean streaming) {
+    	this.streaming = streaming;
+    }
+    
     public void archive() throws IOException {
+    	S3BucketConfig s3 = config.getS3Bucket();
+    	String prefix = (s3.getPrefix() == null ? "" : s3.getPrefix()) + reportSubPrefix;
     	File file = new File(localDir, filename);
-    	OutputStream os = new FileOutputStream(file);
+    	OutputStream os;
+    	if (streaming) {
+            logger.info(prefix + filename + " streaming to s3...");
+    		os = AwsUtils.getUploadStream(s3.getName(), s3.getRegion(), prefix + filename, s3.getAccountId(), s3.getAccessRole(), s3.getExternalId());
+    	}
+    	else {
+    		os = new FileOutputStream(file);
+    	}
     	os = new GZIPOutputStream(os);
     	
 		Writer out = new OutputStreamWriter(os);
@@ -111,8 +128,11 @@ public class ReportWriter {
         
     	os.close();
     	
-    	S3BucketConfig s3 = config.getS3Bucket();
-    	String prefix = (s3.getPrefix() == null ? "" : s3.getPrefix()) + reportSubPrefix;
+    	if (streaming) {
+            logger.info(prefix + filename + " streaming done.");
+    		return;
+    	}
+    	
         logger.info(prefix + filename + " uploading to s3...");
         AwsUtils.upload(s3.getName(), s3.getRegion(), prefix + filename, file, s3.getAccountId(), s3.getAccessRole(), s3.getExternalId());
         logger.info(prefix + filename + " uploading done.");    	
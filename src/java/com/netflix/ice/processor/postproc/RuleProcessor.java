@@ -41,6 +41,7 @@ public abstract class RuleProcessor {
 	protected Rule rule;
 	protected AccountService accountService;
 	protected ProductService productService;
+	protected QueryPlanner planner;
     
 	public RuleProcessor(Rule rule, AccountService accountService, ProductService productService) {
 		this.rule = rule;
@@ -56,6 +57,13 @@ public abstract class RuleProcessor {
 		return rule.config;
 	}
 	
+	/**
+	 * Use the planner to pick up query results computed in passes shared with other rules.
+	 */
+	public void setQueryPlanner(QueryPlanner planner) {
+		this.planner = planner;
+	}
+	
 	/**
 	 * Aggregate the data using the regex groups contained in the input filters
 	 * If not grouping by usageType, zero out all usage data as it doesn't make sense to mix usage units
@@ -67,6 +75,17 @@ public abstract class RuleProcessor {
 		StopWatch sw = new StopWatch();
 		sw.start();
 		
+		if (planner != null) {
+			Map<AggregationTagGroup, CostAndUsage[]> planned = planner.getResults(query, isNonResource, maxHours);
+			if (planned != null) {
+				if (planned.isEmpty())
+					logger.warn("No query results for rule " + ruleName + ". Query: " + query.toString());			
+				else
+					logger.info("  -- runQuery used planned results, elapsed time: " + sw + ", size: " + planned.size());
+				return planned;
+			}
+		}
+		
 		Map<AggregationTagGroup, CostAndUsage[]> valuesMap = Maps.newHashMap();
 		Collection<Product> products = isNonResource ? Lists.newArrayList(new Product[]{null}) : query.getProducts(productService);
 		
@@ -112,9 +131,19 @@ public abstract class RuleProcessor {
 	}
 
 	private void getData(DataSerializer data, TagGroup tg, CostAndUsage[] values, boolean isMonthly, boolean hasUsageType) {
-		for (int hour = 0; hour < data.getNum(); hour++) {
+		CostAndUsage[] hourValues = new CostAndUsage[data.getNum()];
+		for (int hour = 0; hour < hourValues.length; hour++)
+			hourValues[hour] = data.get(hour, tg);
+		addValues(hourValues, hourValues.length, values, isMonthly, hasUsageType);
+	}
+	
+	/**
+	 * Add the first num hourly values of a tag group to the aggregated values.
+	 */
+	static void addValues(CostAndUsage[] hourValues, int num, CostAndUsage[] values, boolean isMonthly, boolean hasUsageType) {
+		for (int hour = 0; hour < num; hour++) {
 			int index = isMonthly ? 0 : hour;
-			CostAndUsage cau = data.get(hour, tg);
+			CostAndUsage cau = hourValues[hour];
 			if (cau == null)
 				continue;
 
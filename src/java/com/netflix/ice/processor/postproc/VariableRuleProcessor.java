@@ -110,20 +110,30 @@ public class VariableRuleProcessor extends RuleProcessor {
 		StopWatch sw = new StopWatch();
 		sw.start();
 		
-		Map<AggregationTagGroup, CostAndUsage[]> inDataGroups = runQuery(rule.getIn(), inCauData, false, maxNum, rule.config.getName());
-		
 		int numSourceUserTags = resourceService.getCustomTags().size();		
 
-		if (copy)
-			inDataGroups = copyAndReduce(inDataGroups, maxNum, numSourceUserTags);
-		
 		// Keep some statistics
 		Set<TagGroup> allocatedTagGroups = ConcurrentHashMap.newKeySet();
+		int inDataSize;
 		
-		if (allocationReport != null) {
+		if (rule.getIn().isMonthly()) {
+			// Monthly queries need the full month of data before any hour can be allocated
+			Map<AggregationTagGroup, CostAndUsage[]> inDataGroups = runQuery(rule.getIn(), inCauData, false, maxNum, rule.config.getName());
 			
-			CostAndUsageData cauData = copy ? outCauData : inCauData;
-			performAllocation(cauData, inDataGroups, maxNum, allocationReport, allocatedTagGroups);
+			if (copy)
+				inDataGroups = copyAndReduce(inDataGroups, maxNum, numSourceUserTags);
+			
+			if (allocationReport != null) {
+				
+				CostAndUsageData cauData = copy ? outCauData : inCauData;
+				performAllocation(cauData, inDataGroups, maxNum, allocationReport, allocatedTagGroups);
+			}
+			inDataSize = inDataGroups.size();
+		}
+		else {
+			HourlyPlan plan = getHourlyPlan(rule.getIn(), inCauData, numSourceUserTags);
+			processHours(plan, maxNum, allocationReport, allocatedTagGroups);
+			inDataSize = plan.allocationTagGroups.length;
 		}
 		
 		String info = "";
@@ -139,8 +149,8 @@ public class VariableRuleProcessor extends RuleProcessor {
 		sw.stop();
 		info = "Elapsed time: " + sw.toString() + (!info.isEmpty() ? ", " + info : "");
 		
-		logger.info("  -- data for rule " + rule.config.getName() + " -- in data size = " + inDataGroups.size() + ", --- allocated size = " + allocatedTagGroups.size());
-		inCauData.addPostProcessorStats(new PostProcessorStats(rule.config.getName(), RuleType.Variable, false, inDataGroups.size(), allocatedTagGroups.size(), info));
+		logger.info("  -- data for rule " + rule.config.getName() + " -- in data size = " + inDataSize + ", --- allocated size = " + allocatedTagGroups.size());
+		inCauData.addPostProcessorStats(new PostProcessorStats(rule.config.getName(), RuleType.Variable, false, inDataSize, allocatedTagGroups.size(), info));
 		
 		return true;
 	}
@@ -211,6 +221,261 @@ public class VariableRuleProcessor extends RuleProcessor {
 		}			
 	}
 	
+	/**
+	 * Source tag groups for the in query mapped to the query aggregations and, when copying to a report,
+	 * to the reduced report aggregations. Built once for the month so that each hour can be queried, copied,
+	 * and allocated on its own without holding the query results for the full month in memory.
+	 * Groups are visited in the same order as the maps built by runQuery() and copyAndReduce() so
+	 * values are summed in the same order.
+	 */
+	static class HourlyPlan {
+		final List<DataSerializer> sources = Lists.newArrayList();
+		final List<TagGroup[]> sourceTagGroups = Lists.newArrayList();
+		final List<int[]> sourceGroups = Lists.newArrayList(); // query group for each source tag group
+		int[] queryOrder;
+		boolean[] hasUsageType; // for each query group
+		TagGroup[] copyTagGroups; // report tag group for each query group if copying
+		DataSerializer copyData;
+		int[] allocationGroups; // allocation group for each query group
+		TagGroup[] allocationTagGroups;
+		DataSerializer[] allocationData;
+	}
+	
+	private HourlyPlan getHourlyPlan(Query query, CostAndUsageData inCauData, int numSourceUserTags) throws Exception {
+		HourlyPlan plan = new HourlyPlan();
+		Map<AggregationTagGroup, Integer> queryGroups = Maps.newHashMap();
+		
+		if (query.isSingleTagGroup()) {
+			// Handle a single tagGroup lookup - Doing this explicitly avoids a scan of the tag group map.
+			TagGroup tg = query.getSingleTagGroup(accountService, productService, false);
+			addSources(plan, queryGroups, query, inCauData.get(tg.product), Lists.newArrayList(tg));
+		}
+		else {
+			List<QueryPlanner.Matches> matches = planner == null ? null : planner.getMatches(query, false);
+			if (matches != null) {
+				// Matching tag groups were found in a pass shared with other rules
+				for (QueryPlanner.Matches m: matches)
+					addSources(plan, queryGroups, m.data, m.tagGroups, m.aggregations);
+			}
+			else {
+				for (Product product: query.getProducts(productService)) {
+					DataSerializer inData = inCauData.get(product);
+					if (inData != null)
+						addSources(plan, queryGroups, query, inData, inData.getTagGroups());
+				}
+			}
+		}
+		if (queryGroups.isEmpty())
+			logger.warn("No query results for rule " + rule.config.getName() + ". Query: " + query.toString());
+		
+		plan.queryOrder = new int[queryGroups.size()];
+		plan.hasUsageType = new boolean[queryGroups.size()];
+		plan.allocationGroups = new int[queryGroups.size()];
+		List<TagGroup> allocationTagGroups = Lists.newArrayList();
+		List<DataSerializer> allocationData = Lists.newArrayList();
+		int i = 0;
+		
+		if (outCauData == null) {
+			// Allocate in place, one allocation group for each query group
+			int numUserTags = inCauData.getNumUserTags();
+			for (Map.Entry<AggregationTagGroup, Integer> e: queryGroups.entrySet()) {
+				int group = e.getValue();
+				TagGroup tagGroup = e.getKey().getTagGroup(numUserTags);
+				plan.queryOrder[i] = group;
+				plan.hasUsageType[group] = e.getKey().getUsageType() != null;
+				plan.allocationGroups[group] = i++;
+				allocationTagGroups.add(tagGroup);
+				allocationData.add(inCauData.get(tagGroup.product));
+			}
+		}
+		else {
+			// Map the query groups to the report tag groups and reduce according to the specified groupBy parameters
+			int[] indeces = getIndeces(outCauData.getUserTagKeysAsStrings());
+		    List<Integer> groupByUserTagIndeces = Lists.newArrayList();
+		    for (int j = 0; j < outCauData.getNumUserTags(); j++)
+		    	groupByUserTagIndeces.add(j);
+			Aggregation outAggregation = new Aggregation(rule.getGroupBy(), groupByUserTagIndeces);
+			
+			// Generating a report so put all of the data on the "null" product key.
+			plan.copyData = outCauData.get(null);
+			plan.copyTagGroups = new TagGroup[queryGroups.size()];
+			Map<AggregationTagGroup, Integer> reducedGroups = Maps.newHashMap();
+			for (Map.Entry<AggregationTagGroup, Integer> e: queryGroups.entrySet()) {
+				int group = e.getValue();
+				TagGroup tagGroup = e.getKey().getTagGroup(numSourceUserTags);
+				
+				// Map the input user tags to the output user tags
+				UserTag[] inUserTags = tagGroup.resourceGroup.getUserTags();
+				UserTag[] outUserTags = new UserTag[indeces.length];
+				for (int j = 0; j < indeces.length; j++) {
+					outUserTags[j] = indeces[j] < 0 ? UserTag.empty : inUserTags[indeces[j]];
+				}
+				tagGroup = tagGroup.withResourceGroup(ResourceGroup.getResourceGroup(outUserTags));
+				
+				AggregationTagGroup newAtg = outAggregation.getAggregationTagGroup(tagGroup);
+				Integer reduced = reducedGroups.get(newAtg);
+				if (reduced == null) {
+					reduced = reducedGroups.size();
+					reducedGroups.put(newAtg, reduced);
+				}
+				plan.queryOrder[i++] = group;
+				plan.hasUsageType[group] = e.getKey().getUsageType() != null;
+				plan.copyTagGroups[group] = tagGroup;
+				plan.allocationGroups[group] = reduced;
+			}
+			
+			// Allocate the reduced groups in the order copyAndReduce() would return them
+			int numUserTags = outCauData.getNumUserTags();
+			int[] allocationOrder = new int[reducedGroups.size()];
+			i = 0;
+			for (Map.Entry<AggregationTagGroup, Integer> e: reducedGroups.entrySet()) {
+				allocationOrder[e.getValue()] = i++;
+				allocationTagGroups.add(e.getKey().getTagGroup(numUserTags));
+				allocationData.add(plan.copyData);
+			}
+			for (int j = 0; j < plan.allocationGroups.length; j++)
+				plan.allocationGroups[j] = allocationOrder[plan.allocationGroups[j]];
+			
+			// Size the report data so hours can be written in parallel
+			if (!queryGroups.isEmpty() && plan.copyData.getNum() < inCauData.getMaxNum())
+				plan.copyData.getData(inCauData.getMaxNum() - 1);
+		}
+		plan.allocationTagGroups = allocationTagGroups.toArray(new TagGroup[allocationTagGroups.size()]);
+		plan.allocationData = allocationData.toArray(new DataSerializer[allocationData.size()]);
+		return plan;
+	}
+	
+	private void addSources(HourlyPlan plan, Map<AggregationTagGroup, Integer> queryGroups, Query query, DataSerializer inData, Collection<TagGroup> tagGroups) throws Exception {
+		if (inData == null)
+			return;
+		
+		List<TagGroup> sourceTagGroups = Lists.newArrayListWithCapacity(tagGroups.size());
+		int[] groups = new int[tagGroups.size()];
+		for (TagGroup tg: tagGroups) {
+			AggregationTagGroup aggregatedTagGroup = query.aggregateTagGroup(tg, accountService, productService);
+			if (aggregatedTagGroup == null)
+				continue;
+			
+			Integer group = queryGroups.get(aggregatedTagGroup);
+			if (group == null) {
+				group = queryGroups.size();
+				queryGroups.put(aggregatedTagGroup, group);
+			}
+			groups[sourceTagGroups.size()] = group;
+			sourceTagGroups.add(tg);
+		}
+		plan.sources.add(inData);
+		plan.sourceTagGroups.add(sourceTagGroups.toArray(new TagGroup[sourceTagGroups.size()]));
+		plan.sourceGroups.add(groups);
+	}
+	
+	private void addSources(HourlyPlan plan, Map<AggregationTagGroup, Integer> queryGroups, DataSerializer inData, List<TagGroup> tagGroups, List<AggregationTagGroup> aggregations) {
+		int[] groups = new int[tagGroups.size()];
+		for (int i = 0; i < groups.length; i++) {
+			AggregationTagGroup aggregatedTagGroup = aggregations.get(i);
+			Integer group = queryGroups.get(aggregatedTagGroup);
+			if (group == null) {
+				group = queryGroups.size();
+				queryGroups.put(aggregatedTagGroup, group);
+			}
+			groups[i] = group;
+		}
+		plan.sources.add(inData);
+		plan.sourceTagGroups.add(tagGroups.toArray(new TagGroup[tagGroups.size()]));
+		plan.sourceGroups.add(groups);
+	}
+	
+	/**
+	 * Query, copy, and allocate the data one hour at a time.
+	 */
+	private void processHours(final HourlyPlan plan, int maxNum, final AllocationReport allocationReport, final Set<TagGroup> allocatedTagGroups) throws Exception {
+		StopWatch sw = new StopWatch();
+		sw.start();
+		
+		// Report tag groups only exist in the hours copied so far, so keeping the report's tag group cache
+		// current would scan every hour on each remove. Rebuild the cache once at the end instead.
+		boolean cacheTagGroups = plan.copyData != null && plan.copyData.getTagGroups() != null;
+		if (cacheTagGroups)
+			plan.copyData.enableTagGroupCache(false);
+		try {
+			if (pool != null) {
+		    	List<Future<Void>> futures = Lists.newArrayListWithCapacity(maxNum);
+				for (int hour = 0; hour < maxNum; hour++) {
+					final int h = hour;
+					futures.add(pool.submit(new Callable<Void>() {
+			    		@Override
+			    		public Void call() {
+			    			try {
+			    				processHour(plan, h, allocationReport, allocatedTagGroups);
+			    			}
+			    			catch (Exception e) {
+			    				logger.error("allocation for hour " + h + " failed", e);
+			    			}
+			                return null;
+			    		}
+			    	}));
+				}
+				// Wait for completion
+				for (Future<Void> f: futures) {
+					f.get();
+				}
+			}
+			else {
+				for (int hour = 0; hour < maxNum; hour++)
+					processHour(plan, hour, allocationReport, allocatedTagGroups);
+			}
+		}
+		finally {
+			if (cacheTagGroups)
+				plan.copyData.enableTagGroupCache(true);
+		}
+		logger.info("  -- processHours elapsed time: " + sw + ", query groups: " + plan.queryOrder.length + ", allocation groups: " + plan.allocationTagGroups.length);
+	}
+	
+	private void processHour(HourlyPlan plan, int hour, AllocationReport allocationReport, Set<TagGroup> allocatedTagGroups) throws Exception {
+		// Run the query for the hour
+		double[] cost = new double[plan.queryOrder.length];
+		double[] usage = new double[plan.queryOrder.length];
+		for (int i = 0; i < plan.sources.size(); i++) {
+			DataSerializer inData = plan.sources.get(i);
+			if (hour >= inData.getNum())
+				continue;
+			Map<TagGroup, CostAndUsage> hourData = inData.getData(hour);
+			TagGroup[] tagGroups = plan.sourceTagGroups.get(i);
+			int[] groups = plan.sourceGroups.get(i);
+			for (int j = 0; j < tagGroups.length; j++) {
+				CostAndUsage cau = hourData.get(tagGroups[j]);
+				if (cau == null)
+					continue;
+				int group = groups[j];
+				cost[group] += cau.cost;
+				// Only aggregate usage if we're grouping by usage type
+				if (plan.hasUsageType[group])
+					usage[group] += cau.usage;
+			}
+		}
+		
+		// Copy to the report and reduce
+		double[] allocationCost = new double[plan.allocationTagGroups.length];
+		double[] allocationUsage = new double[plan.allocationTagGroups.length];
+		for (int group: plan.queryOrder) {
+			if (plan.copyTagGroups != null)
+				plan.copyData.add(hour, plan.copyTagGroups[group], new CostAndUsage(cost[group], usage[group]));
+			int allocationGroup = plan.allocationGroups[group];
+			allocationCost[allocationGroup] += cost[group];
+			allocationUsage[allocationGroup] += usage[group];
+		}
+		
+		if (allocationReport == null)
+			return;
+		
+		for (int i = 0; i < plan.allocationTagGroups.length; i++) {
+			if (allocationCost[i] == 0.0)
+				continue;
+			processHourData(allocationReport, plan.allocationData[i], hour, plan.allocationTagGroups[i], new CostAndUsage(allocationCost[i], allocationUsage[i]), allocatedTagGroups);
+		}
+	}
+	
 	/**
 	 * Copy the query data to the report data set and aggregate according to the specified groupBy parameters.
 	 */
@@ -494,8 +759,8 @@ public class VariableRuleProcessor extends RuleProcessor {
 			String ec2UsageType = atg.getProduct().isEc2Instance() ? atg.getUsageType() != null ? atg.getUsageType().name : null : null;
 			
 			for (int hour = 0; hour < maxHours; hour++) {						
-				List<String[]> hourClusterData = report.getData(clusterName, hour, ec2UsageType);
-				if (hourClusterData != null && !hourClusterData.isEmpty()) {
+				int[] hourClusterData = report.getData(clusterName, hour, ec2UsageType);
+				if (hourClusterData != null && hourClusterData.length > 0) {
 					addHourClusterRecords(allocationReport, hour, atg.getProduct(), inTags, clusterName, report, hourClusterData);
 				}
 			}
@@ -521,15 +786,15 @@ public class VariableRuleProcessor extends RuleProcessor {
 		return tags;
 	}
 	
-	protected void addHourClusterRecords(AllocationReport allocationReport, int hour, Product product, List<String> inTags, String clusterName, KubernetesReport report, List<String[]> hourClusterData) {
+	protected void addHourClusterRecords(AllocationReport allocationReport, int hour, Product product, List<String> inTags, String clusterName, KubernetesReport report, int[] hourClusterData) {
 		double remainingAllocation = 1.0;
 		
-		for (String[] item: hourClusterData) {
-			double allocation = report.getAllocationFactor(product, item);
+		for (int row: hourClusterData) {
+			double allocation = report.getAllocationFactor(product, row);
 			if (allocation == 0.0)
 				continue;
 			
-			List<String> outTags = report.getTagValues(item, allocationReport.getOutTagKeys());
+			List<String> outTags = report.getTagValues(row, allocationReport.getOutTagKeys());
 			remainingAllocation -= allocation;			
 			allocationReport.add(hour, allocation, inTags, outTags);			
 		}
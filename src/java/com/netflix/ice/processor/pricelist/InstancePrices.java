@@ -17,12 +17,19 @@
  */
 package com.netflix.ice.processor.pricelist;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
+import java.io.DataInputStream;
 import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.lang.StringUtils;
 import org.joda.time.DateTime;
@@ -30,6 +37,7 @@ import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.netflix.ice.common.PurchaseOption;
 import com.netflix.ice.processor.pricelist.PriceList.Product.Attributes;
@@ -47,7 +55,21 @@ public class InstancePrices implements Comparable<InstancePrices> {
 	private final DateTime effectiveBeginDate;
 	private final DateTime effectiveEndDate;
 	private boolean hasErrors;
-	private Map<Key, Product> prices = Maps.newHashMap();
+	private Map<Key, Product> prices = Maps.newConcurrentMap();
+	
+	// Products read from a price list index are held encoded by region until first requested
+	private ConcurrentMap<Region, byte[]> encodedRegions = null;
+	private String[] indexStrings = null;
+	
+	// Dense ids for products looked up by rate. Rates are copied into primitive columns indexed by
+	// product id and by [product id * numRateKeys + rate key id] when a product is first requested.
+	// Missing reservation rates are held as NaN.
+	public static final int numRateKeys = LeaseContractLength.values().length * PurchaseOption.values().length * OfferingClass.values().length;
+	private final ConcurrentMap<Key, Integer> productIds = Maps.newConcurrentMap();
+	private int numProductIds = 0;
+	private volatile double[] onDemandRates = new double[0];
+	private volatile double[] fixedRates = new double[0];
+	private volatile double[] hourlyRates = new double[0];
 
 	public enum ServiceCode {
 		AmazonEC2,
@@ -75,8 +97,8 @@ public class InstancePrices implements Comparable<InstancePrices> {
 		sb.append("\teffectiveBeginDate: " + effectiveBeginDate + "\n");
 		sb.append("\teffectiveEndDate: " + effectiveEndDate + "\n");
 		sb.append("\tprices: {\n");
-		sb.append("\t\tsize: " + prices.size() + "\n");
-		for (Entry<Key, Product> entry: prices.entrySet()) {
+		sb.append("\t\tsize: " + getPrices().size() + "\n");
+		for (Entry<Key, Product> entry: getPrices().entrySet()) {
 			sb.append("\t\t" + entry.getKey() + ": " + entry.getValue() + "\n");
 		}
 		sb.append("\t}\n");
@@ -93,6 +115,10 @@ public class InstancePrices implements Comparable<InstancePrices> {
 	}
 	
     public Map<Key, Product> getPrices() {
+    	if (encodedRegions != null) {
+    		for (Region region: Lists.newArrayList(encodedRegions.keySet()))
+    			decodeRegion(region);
+    	}
 		return prices;
 	}
     
@@ -113,11 +139,38 @@ public class InstancePrices implements Comparable<InstancePrices> {
 	}
 	
 	public Product getProduct(Key productKey) {
+		decodeRegion(productKey.region);
 		return prices.get(productKey);
 	}
 	
 	public void setProduct(Key key, Product product) {
+		decodeRegion(key.region);
 		prices.put(key, product);
+		productIds.remove(key);
+	}
+	
+	boolean isDecoded(Region region) {
+		return encodedRegions == null || !encodedRegions.containsKey(region);
+	}
+	
+	private void decodeRegion(Region region) {
+		if (isDecoded(region))
+			return;
+		
+		synchronized (this) {
+			byte[] block = encodedRegions.get(region);
+			if (block == null)
+				return;
+			try {
+				IndexSerializer.decodeRegion(this, region, block);
+			}
+			catch (IOException e) {
+				logger.error("Error decoding " + serviceCode + " prices for region " + region + ", version " + versionId, e);
+				hasErrors = true;
+			}
+			// Remove only after all products are in place so unsynchronized readers never see a partial region
+			encodedRegions.remove(region);
+		}
 	}
 	
 	public Product getProduct(Region region, UsageType usageType) {
@@ -130,15 +183,92 @@ public class InstancePrices implements Comparable<InstancePrices> {
 		return product;
 	}
 	
+	/**
+	 * One-off lookup that reads the product directly. Callers looking up the same product repeatedly
+	 * should get its id once with {@link #getProductId(Region, UsageType)} and use {@link #getOnDemandRate(int)}.
+	 */
 	public double getOnDemandRate(Region region, UsageType usageType) {
 		Product product = getProduct(region, usageType);
 		return product == null ? 0.0 : product.getOnDemandRate();
 	}
 	
+	/**
+	 * One-off lookup that reads the product directly. Callers looking up the same product repeatedly
+	 * should get its id once with {@link #getProductId(Region, UsageType)} and use {@link #getReservationRate(int, int)}.
+	 */
 	public Rate getReservationRate(Region region, UsageType usageType, LeaseContractLength lcl, PurchaseOption po, OfferingClass oc) {
 		return getReservationRate(new Key(region, usageType), new RateKey(lcl, po, oc));
 	}
 	
+	public static int getRateKeyId(LeaseContractLength lcl, PurchaseOption po, OfferingClass oc) {
+		return (lcl.ordinal() * PurchaseOption.values().length + po.ordinal()) * OfferingClass.values().length + oc.ordinal();
+	}
+	
+	/**
+	 * Get the dense id used to look up the rates for a product, assigning one on first request.
+	 * Returns -1 if the price list has no such product. Resolve the id once per product outside of
+	 * any per-hour loop. Rates are captured when the id is assigned, so products must not be modified
+	 * after their id is requested.
+	 */
+	public int getProductId(Region region, UsageType usageType) {
+		Key key = new Key(region, usageType);
+		Integer id = productIds.get(key);
+		return id != null ? id : assignProductId(key);
+	}
+	
+	private synchronized int assignProductId(Key key) {
+		Integer id = productIds.get(key);
+		if (id != null)
+			return id;
+		
+		Product product = getProduct(key);
+		if (product == null) {
+			logger.error("No product for key: " + key);
+			productIds.put(key, -1);
+			return -1;
+		}
+		
+		int i = numProductIds++;
+		if (i >= onDemandRates.length) {
+			int size = Math.max(64, onDemandRates.length * 2);
+			double[] od = Arrays.copyOf(onDemandRates, size);
+			double[] fixed = Arrays.copyOf(fixedRates, size * numRateKeys);
+			double[] hourly = Arrays.copyOf(hourlyRates, size * numRateKeys);
+			Arrays.fill(fixed, fixedRates.length, fixed.length, Double.NaN);
+			Arrays.fill(hourly, hourlyRates.length, hourly.length, Double.NaN);
+			onDemandRates = od;
+			fixedRates = fixed;
+			hourlyRates = hourly;
+		}
+		onDemandRates[i] = product.getOnDemandRate();
+		for (Entry<RateKey, Rate> entry: product.reservationRates.entrySet()) {
+			RateKey rk = entry.getKey();
+			if (rk.purchaseOption == null)
+				continue;
+			int index = i * numRateKeys + getRateKeyId(rk.leaseContractLength, rk.purchaseOption, rk.offeringClass);
+			fixedRates[index] = entry.getValue().fixed;
+			hourlyRates[index] = entry.getValue().hourly;
+		}
+		// Publish the id only after its rates are in place
+		productIds.put(key, i);
+		return i;
+	}
+	
+	public double getOnDemandRate(int productId) {
+		return productId < 0 ? 0.0 : onDemandRates[productId];
+	}
+	
+	/**
+	 * Returns null if the product has no reservation rate for the rate key.
+	 */
+	public Rate getReservationRate(int productId, int rateKeyId) {
+		if (productId < 0)
+			return null;
+		int index = productId * numRateKeys + rateKeyId;
+		double fixed = fixedRates[index];
+		return Double.isNaN(fixed) ? null : new Rate(fixed, hourlyRates[index]);
+	}
+	
 	public Rate getReservationRate(Key productKey, RateKey rateKey) {
 		Product product = getProduct(productKey);
 		if (product == null) {
@@ -320,8 +450,9 @@ public class InstancePrices implements Comparable<InstancePrices> {
         		out.writeLong(ip.effectiveEndDate.getMillis());
         	
         	// Write product map
-        	out.writeInt(ip.prices.size());
-        	for (Entry<Key, Product> entry: ip.prices.entrySet()) {
+        	Map<Key, Product> prices = ip.getPrices();
+        	out.writeInt(prices.size());
+        	for (Entry<Key, Product> entry: prices.entrySet()) {
         		Key.Serializer.serialize(out, entry.getKey());
         		Product.Serializer.serialize(out, entry.getValue());
         	}
@@ -347,6 +478,158 @@ public class InstancePrices implements Comparable<InstancePrices> {
         }
     }	
 	
+    /**
+     * Compact price list index. Holds only the product attributes and rates ICE uses with all
+     * strings written once to a shared table. Products are grouped by region and each region is
+     * kept as an encoded block that isn't decoded until one of its products is requested.
+     * 
+     * Layout:<br/>
+     * 1. format version (int), service code, version ID, begin and end millis<br/>
+     * 2. string table - count (int) followed by the strings<br/>
+     * 3. regions - count (int) followed by region name, block length (int) and block bytes<br/>
+     * 
+     * Each region block holds the product count (int) and for each product the string indices
+     * of the usage type name and unit, memory, ecu, normalization size factor, vcpu, the string
+     * indices of the instance type, operating system and operation, the on-demand rate and the
+     * reservation rates as string indices of the RateKey names followed by fixed and hourly amounts.
+     */
+    public static class IndexSerializer {
+    	public static final int formatVersion = 1;
+    	
+    	public static void serialize(DataOutput out, InstancePrices ip) throws IOException {
+    		Map<String, Integer> stringIndices = Maps.newHashMap();
+    		List<String> strings = Lists.newArrayList();
+    		
+    		// Group the products by region and encode each region
+    		Map<Region, ByteArrayOutputStream> blocks = Maps.newTreeMap();
+    		Map<Region, List<Entry<Key, Product>>> byRegion = Maps.newTreeMap();
+    		for (Entry<Key, Product> entry: ip.getPrices().entrySet()) {
+    			List<Entry<Key, Product>> entries = byRegion.get(entry.getKey().region);
+    			if (entries == null) {
+    				entries = Lists.newArrayList();
+    				byRegion.put(entry.getKey().region, entries);
+    			}
+    			entries.add(entry);
+    		}
+    		for (Region region: byRegion.keySet()) {
+    			ByteArrayOutputStream block = new ByteArrayOutputStream();
+    			DataOutputStream blockOut = new DataOutputStream(block);
+    			List<Entry<Key, Product>> entries = byRegion.get(region);
+    			blockOut.writeInt(entries.size());
+    			for (Entry<Key, Product> entry: entries) {
+    				Product p = entry.getValue();
+    				blockOut.writeInt(index(entry.getKey().usageType.name, stringIndices, strings));
+    				blockOut.writeInt(index(entry.getKey().usageType.unit, stringIndices, strings));
+    				blockOut.writeDouble(p.memory);
+    				blockOut.writeDouble(p.ecu);
+    				blockOut.writeDouble(p.normalizationSizeFactor);
+    				blockOut.writeInt(p.vcpu);
+    				blockOut.writeInt(index(p.instanceType, stringIndices, strings));
+    				blockOut.writeInt(index(p.operatingSystem, stringIndices, strings));
+    				blockOut.writeInt(index(p.operation, stringIndices, strings));
+    				blockOut.writeDouble(p.onDemandRate);
+    				blockOut.writeInt(p.reservationRates.size());
+    				for (Entry<RateKey, Rate> rate: p.reservationRates.entrySet()) {
+    					RateKey rk = rate.getKey();
+    					blockOut.writeInt(index(rk.leaseContractLength.name, stringIndices, strings));
+    					blockOut.writeInt(index(rk.purchaseOption.name, stringIndices, strings));
+    					blockOut.writeInt(index(rk.offeringClass.toString(), stringIndices, strings));
+    					blockOut.writeDouble(rate.getValue().fixed);
+    					blockOut.writeDouble(rate.getValue().hourly);
+    				}
+    			}
+    			blockOut.flush();
+    			blocks.put(region, block);
+    		}
+    		
+    		out.writeInt(formatVersion);
+        	out.writeUTF(ip.serviceCode.name());
+        	out.writeUTF(ip.versionId);
+        	out.writeLong(ip.effectiveBeginDate.getMillis());
+       		out.writeLong(ip.effectiveEndDate == null ? 0 : ip.effectiveEndDate.getMillis());
+       		
+       		out.writeInt(strings.size());
+       		for (String s: strings)
+       			out.writeUTF(s);
+       		
+       		out.writeInt(blocks.size());
+       		for (Entry<Region, ByteArrayOutputStream> entry: blocks.entrySet()) {
+       			out.writeUTF(entry.getKey().toString());
+       			out.writeInt(entry.getValue().size());
+       			out.write(entry.getValue().toByteArray());
+       		}
+    	}
+    	
+    	private static int index(String s, Map<String, Integer> stringIndices, List<String> strings) {
+    		Integer i = stringIndices.get(s);
+    		if (i == null) {
+    			i = strings.size();
+    			strings.add(s);
+    			stringIndices.put(s, i);
+    		}
+    		return i;
+    	}
+    	
+    	/**
+    	 * Read the index header and the encoded region blocks. Products are decoded when first requested.
+    	 */
+    	public static InstancePrices deserialize(DataInput in) throws IOException {
+    		int version = in.readInt();
+    		if (version != formatVersion)
+    			throw new IOException("Unsupported price list index format version: " + version);
+    		
+        	ServiceCode sc = ServiceCode.valueOf(in.readUTF());
+        	String versionId = in.readUTF();
+        	DateTime begin = new DateTime(in.readLong(), DateTimeZone.UTC);
+        	long endMillis = in.readLong();
+        	DateTime end = endMillis == 0 ? null : new DateTime(endMillis, DateTimeZone.UTC);
+        	InstancePrices ip = new InstancePrices(sc, versionId, begin, end);
+        	
+        	ip.indexStrings = new String[in.readInt()];
+        	for (int i = 0; i < ip.indexStrings.length; i++)
+        		ip.indexStrings[i] = in.readUTF();
+        	
+        	ip.encodedRegions = Maps.newConcurrentMap();
+        	int numRegions = in.readInt();
+        	for (int i = 0; i < numRegions; i++) {
+        		String name = in.readUTF();
+        		byte[] block = new byte[in.readInt()];
+        		in.readFully(block);
+        		Region region = Region.getRegionByName(name);
+        		if (region == null) {
+        			logger.error("Price list index for " + sc + " version " + versionId + " has unknown region " + name);
+        			continue;
+        		}
+        		ip.encodedRegions.put(region, block);
+        	}
+        	return ip;
+    	}
+    	
+    	private static void decodeRegion(InstancePrices ip, Region region, byte[] block) throws IOException {
+    		String[] strings = ip.indexStrings;
+    		DataInputStream in = new DataInputStream(new ByteArrayInputStream(block));
+    		int size = in.readInt();
+    		for (int i = 0; i < size; i++) {
+    			UsageType usageType = UsageType.getUsageType(strings[in.readInt()], strings[in.readInt()]);
+        		double memory = in.readDouble();
+        		double ecu = in.readDouble();
+        		double normalizationSizeFactor = in.readDouble();
+        		int vcpu = in.readInt();
+        		String instanceType = strings[in.readInt()];
+        		String operatingSystem = strings[in.readInt()];
+        		String operation = strings[in.readInt()];
+        		double onDemandRate = in.readDouble();
+        		
+        		int numRates = in.readInt();
+        		Map<RateKey, Rate> reservationRates = Maps.newHashMapWithExpectedSize(numRates);
+        		for (int j = 0; j < numRates; j++) {
+        			RateKey k = new RateKey(strings[in.readInt()], strings[in.readInt()], strings[in.readInt()]);
+        			reservationRates.put(k, new Rate(in.readDouble(), in.readDouble()));
+        		}
+        		ip.prices.put(new Key(region, usageType), new Product(memory, ecu, normalizationSizeFactor, vcpu, instanceType, operatingSystem, operation, onDemandRate, reservationRates));
+    		}
+    	}
+    }
 	
     public static class Rate {
     	public double fixed;
@@ -17,6 +17,7 @@
  */
 package com.netflix.ice.processor.pricelist;
 
+import java.io.BufferedReader;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
@@ -24,10 +25,18 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.InputStreamReader;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -58,6 +67,8 @@ public class PriceListService {
     protected Logger logger = LoggerFactory.getLogger(getClass());
 	private static final String domain = "https://pricing.us-east-1.amazonaws.com";
 	private static final String priceListIndexUrl = "/offers/v1.0/aws/index.json";
+	private static final String indexSuffix = ".idx.gz";
+	private static final int parseBatchSize = 10000;
 
 	// Add other Tenancy values when needed - must also add to Key if more than one or have the tenancy reflected in the usage type
 	public static Set<Tenancy> tenancies = Sets.newHashSet(new Tenancy[]{Tenancy.Shared, Tenancy.Dedicated});
@@ -85,6 +96,8 @@ public class PriceListService {
 			return lastReadAt.isAfter(DateTime.now().minusHours(1));
 		}
 	}
+	// The caches are plain maps and loading writes local files, so init() and getPrices() are synchronized.
+	// Reservation polling calls getPrices() from several threads at once.
 	private CachedItem<Index> index = null;
 	
 	private Map<String, CachedItem<VersionIndex>> versionIndecies; // Key is URL to version Index
@@ -107,7 +120,7 @@ public class PriceListService {
 		instanceMetrics = null;
 	}
 	
-	public void init() throws Exception {
+	public synchronized void init() throws Exception {
 		// Build the instance metrics from the latest price lists for EC2 and Redshift.
 		// (RDS doesn't contribute anything that EC2 doesn't have)
 		// Load our cached copy if we have one and then see what price list versions
@@ -183,7 +196,7 @@ public class PriceListService {
         return versionIndex;
 	}
 	
-    public InstancePrices getPrices(DateTime start, ServiceCode serviceCode) throws Exception {
+    public synchronized InstancePrices getPrices(DateTime start, ServiceCode serviceCode) throws Exception {
         VersionIndex versionIndex = getVersionIndex(getIndex(), serviceCode);
 	       
         String id = versionIndex.getVersionId(start);
@@ -208,7 +221,7 @@ public class PriceListService {
         
     	if (localDir != null) {    	
 	    	String name = getFilename(serviceCode, versionId);
-	        File file = new File(localDir, name + ".gz");
+	        File file = new File(localDir, name + indexSuffix);
 	        
 	        if (workS3BucketName != null) {
 		        logger.info("downloading " + file + "...");
@@ -217,19 +230,24 @@ public class PriceListService {
 	        }
 	
 	        if (file.exists()) {
-	        	InputStream is = new FileInputStream(file);
-	        	is = new GZIPInputStream(is);
-	            DataInputStream in = new DataInputStream(is);
+	        	DataInputStream in = new DataInputStream(new GZIPInputStream(new FileInputStream(file)));
 	            try {
-	                ip = InstancePrices.Serializer.deserialize(in);
+	                ip = InstancePrices.IndexSerializer.deserialize(in);
 	            }
 	            finally {
-	                if (in != null)
-	                    in.close();
+	                in.close();
 	            }
 	           	versionedPriceLists.get(serviceCode).put(versionId, ip);
 	            return ip;
 	        }
+	        
+	        // Convert the full serialized copy written by earlier releases rather than fetch the offer file again
+	        ip = loadLegacy(name);
+	        if (ip != null) {
+	        	archive(ip, name);
+	           	versionedPriceLists.get(serviceCode).put(versionId, ip);
+	            return ip;
+	        }
     	}
 
         ip = fetchCSV(serviceCode, versionId, version);
@@ -237,6 +255,23 @@ public class PriceListService {
         return ip;
     }
     
+    private InstancePrices loadLegacy(String name) throws IOException {
+        File file = new File(localDir, name + ".gz");
+        if (workS3BucketName != null)
+	        AwsUtils.downloadFileIfNotExist(workS3BucketName, workS3BucketPrefix + file.getName(), file);
+        if (!file.exists())
+        	return null;
+        
+        logger.info("converting " + file + " to price list index");
+        DataInputStream in = new DataInputStream(new GZIPInputStream(new FileInputStream(file)));
+        try {
+            return InstancePrices.Serializer.deserialize(in);
+        }
+        finally {
+            in.close();
+        }
+    }
+    
     protected InstancePrices fetchCSV(ServiceCode serviceCode, String versionId, Version version) throws Exception {
     	final String domain = "https://pricing.us-east-1.amazonaws.com";
     	String offerVersionUrl = version.offerVersionUrl.replace(".json", ".csv");
@@ -268,12 +303,10 @@ public class PriceListService {
     		return;
     	
         logger.info("archiving price list " + name + "...");
-        File file = new File(localDir, name + ".gz");
-    	OutputStream os = new FileOutputStream(file);
-		os = new GZIPOutputStream(os);
-        DataOutputStream out = new DataOutputStream(os);
+        File file = new File(localDir, name + indexSuffix);
+        DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new FileOutputStream(file)));
         try {
-            InstancePrices.Serializer.serialize(out, prices);
+            InstancePrices.IndexSerializer.serialize(out, prices);
         }
         finally {
             out.close();
@@ -614,50 +647,142 @@ public class PriceListService {
     }
 
 	/**
-	 * return true if successful
+	 * Read one CSV record from the stream, joining lines when a quoted value spans line breaks.
 	 */
-	private boolean importPriceList(InputStream stream, InstancePrices prices) {
+	static String readRecord(BufferedReader reader) throws IOException {
+		String line = reader.readLine();
+		if (line == null || !hasOddQuotes(line))
+			return line;
+		
+		StringBuilder sb = new StringBuilder(line);
+		while ((line = reader.readLine()) != null) {
+			sb.append('\n').append(line);
+			if (hasOddQuotes(line))
+				break;
+		}
+		return sb.toString();
+	}
+	
+	private static boolean hasOddQuotes(String line) {
+		int count = 0;
+		for (int i = 0; i < line.length(); i++) {
+			if (line.charAt(i) == '"')
+				count++;
+		}
+		return (count & 1) == 1;
+	}
+	
+	private static CsvParser newParser() {
 		CsvParserSettings settings = new CsvParserSettings();
 		settings.setHeaderExtractionEnabled(false);
 		settings.setNullValue("");
 		settings.setEmptyValue("");
-		CsvParser parser = new CsvParser(settings);
+		return new CsvParser(settings);
+	}
+	
+	private static class Record {
+		final long lineNumber;
+		final String[] items;
+		
+		Record(long lineNumber, String[] items) {
+			this.lineNumber = lineNumber;
+			this.items = items;
+		}
+	}
+	
+	/**
+	 * Parse a batch of records, keeping only the USD instance prices that getProduct() would accept.
+	 */
+	private Future<List<Record>> submitParse(final List<String> records, final long firstLineNumber, final Getter getter, ExecutorService pool) {
+		return pool.submit(new Callable<List<Record>>() {
+			@Override
+			public List<Record> call() {
+				CsvParser parser = newParser();
+				List<Record> result = Lists.newArrayList();
+				long lineNumber = firstLineNumber;
+				for (String record: records) {
+					String[] row = parser.parseLine(record);
+					lineNumber++;
+					if (row == null || !"USD".equals(getter.value(row, Column.Currency)))
+						continue;
+					String productFamily = getter.value(row, Column.ProductFamily);
+					if (productFamily == null || !productFamily.contains("Instance"))
+						continue;
+					result.add(new Record(lineNumber, row));
+				}
+				return result;
+			}
+		});
+	}
+	
+	private void addRecords(InstancePrices prices, Getter getter, List<Record> records) {
+		for (Record record: records) {
+            try {
+            	Product product = getProduct(prices, getter, record.items);
+            	if (product == null)
+            		continue;
+            	
+            	addTerm(product, getter, record.items);
+            }
+            catch (Exception e) {
+                logger.error("Error on line " + record.lineNumber + ": " + StringUtils.join(record.items, ","), e);
+            }
+		}
+	}
+
+	/**
+	 * Records are parsed in batches across the available processors and applied
+	 * to the prices in file order so that duplicate SKU handling is unchanged.
+	 * 
+	 * return true if successful
+	 */
+	protected boolean importPriceList(InputStream stream, InstancePrices prices) {
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
 		
 		try {
-			parser.beginParsing(stream);
-			String[] row;
+			BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+			CsvParser parser = newParser();
+			
 	        // process multi-line header
 	        for (int i = 0; i < 5; i++) {
-	            row = parser.parseNext();
-	        	checkHeader(i, row);
+	        	String record = readRecord(reader);
+	        	if (i == 0 && record != null && record.startsWith("\uFEFF"))
+	        		record = record.substring(1);
+	        	checkHeader(i, record == null ? new String[]{} : parser.parseLine(record));
 	        }
 	        
-	        Getter getter = new Getter(parser.parseNext());
+	        Getter getter = new Getter(parser.parseLine(readRecord(reader)));
 	        long lineNumber = 6;
-			
-			while ((row = parser.parseNext()) != null) {
-				lineNumber++;
-	            try {
-	            	// Only process USD prices
-	            	if (!getter.value(row, Column.Currency).equals("USD"))
-	            		continue;
-	            	
-	            	Product product = getProduct(prices, getter, row);
-	            	if (product == null)
-	            		continue;
-	            	
-	            	addTerm(product, getter, row);
-	            }
-	            catch (Exception e) {
-	                logger.error("Error on line " + lineNumber + ": " + StringUtils.join(row, ","), e);
-	            }
+	        
+	        Deque<Future<List<Record>>> pending = new ArrayDeque<Future<List<Record>>>();
+	        List<String> batch = Lists.newArrayListWithCapacity(parseBatchSize);
+	        String record;
+			while ((record = readRecord(reader)) != null) {
+				batch.add(record);
+				if (batch.size() < parseBatchSize)
+					continue;
+				
+				pending.add(submitParse(batch, lineNumber, getter, pool));
+				lineNumber += batch.size();
+				batch = Lists.newArrayListWithCapacity(parseBatchSize);
+				
+				// Bound the number of parsed batches held in memory
+				if (pending.size() > numThreads * 2)
+					addRecords(prices, getter, pending.remove().get());
 			}
-			parser.stopParsing();
+			if (!batch.isEmpty())
+				pending.add(submitParse(batch, lineNumber, getter, pool));
+			while (!pending.isEmpty())
+				addRecords(prices, getter, pending.remove().get());
 		}
 	    catch (Exception e ) {
 	        logger.error("Error processing price list data: ", e);
 	        return false;
-	    }			
+	    }
+		finally {
+			pool.shutdownNow();
+		}
         
         return true;
     }
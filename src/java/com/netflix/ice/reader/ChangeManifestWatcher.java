@@ -0,0 +1,151 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.reader;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.netflix.ice.common.AwsUtils;
+import com.netflix.ice.common.ChangeManifest;
+import com.netflix.ice.common.WorkBucketConfig;
+
+/**
+ * Watches the change manifest published by the processor and reports the changes made since the last check.
+ *
+ * Checks run on a shared scheduler with a random delay added to each interval so that readers started
+ * together don't all hit the work bucket at the same time. Each check is a single metadata request unless
+ * the manifest changed. If there is no work bucket the local copy of the manifest is watched instead.
+ */
+public class ChangeManifestWatcher {
+    protected Logger logger = LoggerFactory.getLogger(getClass());
+
+    public interface Listener {
+    	/**
+    	 * Called with the changes published since the last call in the order they were made, or with null
+    	 * if some changes were missed and all data must be reloaded.
+    	 */
+    	void changed(List<ChangeManifest.Change> changes);
+    }
+
+    private final WorkBucketConfig workBucketConfig;
+    private final File file;
+    private final ScheduledExecutorService scheduler;
+    private final Listener listener;
+    private final Random random = new Random();
+    private int delaySec;
+    private int jitterSec;
+
+    // version of the last manifest read, -1 until the manifest is found
+    private volatile long version = -1;
+
+    public ChangeManifestWatcher(WorkBucketConfig workBucketConfig, ScheduledExecutorService scheduler, Listener listener) {
+    	this.workBucketConfig = workBucketConfig;
+    	this.file = new File(workBucketConfig.localDir, ChangeManifest.filename);
+    	this.scheduler = scheduler;
+    	this.listener = listener;
+    }
+
+    /**
+     * Check the manifest every delaySec plus up to jitterSec seconds.
+     */
+    public void start(int delaySec, int jitterSec) {
+    	this.delaySec = delaySec;
+    	this.jitterSec = jitterSec;
+    	schedule();
+    }
+
+    private void schedule() {
+    	long delayMillis = delaySec * 1000L + (jitterSec > 0 ? random.nextInt(jitterSec * 1000) : 0);
+    	scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					check();
+				}
+				catch (Exception e) {
+					logger.error("Error checking change manifest", e);
+				}
+				if (!scheduler.isShutdown())
+					schedule();
+			}
+    	}, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Check the manifest once and notify the listener of any changes. The first manifest found sets the
+     * starting version without notifying the listener, so check once before loading any data.
+     *
+     * @return true if the manifest exists
+     */
+    public synchronized boolean check() throws Exception {
+    	// Local copy is small, so read it every time when there's no work bucket
+    	boolean changed = version < 0 || StringUtils.isEmpty(workBucketConfig.workS3BucketName);
+    	if (!StringUtils.isEmpty(workBucketConfig.workS3BucketName)) {
+    		try {
+    			changed |= AwsUtils.downloadFileIfChanged(workBucketConfig.workS3BucketName, workBucketConfig.workS3BucketPrefix + ChangeManifest.filename, file);
+    		}
+    		catch (AmazonS3Exception e) {
+    			if (e.getStatusCode() != 404)
+    				throw e;
+    			// Processor hasn't published a manifest yet
+    			return false;
+    		}
+    	}
+    	if (!file.exists())
+    		return false;
+    	if (!changed)
+    		return true;
+
+    	ChangeManifest manifest = ChangeManifest.load(file);
+    	if (version < 0) {
+    		logger.info("watching change manifest from version " + manifest.version);
+    		version = manifest.version;
+    		return true;
+    	}
+    	if (manifest.version == version)
+    		return true;
+
+    	List<ChangeManifest.Change> changes = manifest.getChangesSince(version);
+    	if (changes == null)
+    		logger.warn("missed changes after version " + version + ", reloading all data");
+    	else
+    		logger.info("change manifest updated to version " + manifest.version + ": " + changes);
+    	version = manifest.version;
+    	listener.changed(changes);
+    	return true;
+    }
+
+    /**
+     * True once the processor has published a manifest, after which the listener is told of all changes.
+     */
+    public boolean isActive() {
+    	return version >= 0;
+    }
+
+    public long getVersion() {
+    	return version;
+    }
+}
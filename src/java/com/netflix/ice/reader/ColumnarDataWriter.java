@@ -0,0 +1,176 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.reader;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import com.google.common.collect.Lists;
+import com.netflix.ice.tag.Tag;
+
+/**
+ * Writes getData results in a compact columnar binary form instead of JSON.
+ *
+ * All numbers are big-endian as written by DataOutputStream:
+ * <pre>
+ * int     magic "ICEC"
+ * byte    format version
+ * bytes   header: int length followed by UTF-8 JSON of the other result fields (status, stats, groupBy, ...)
+ * long    start millis
+ * long    interval millis, 0 if the time axis is listed
+ * int     number of points in each series
+ * int     number of times in the time axis followed by that many long millis, 0 if interval is set.
+ *         Monthly results always list their times since months are not evenly spaced.
+ * byte    decimal digits kept by scaled values, -1 if values are float64
+ * int     number of series
+ * series  for each: int length and UTF-8 bytes of the tag name, then the values
+ * byte    1 if a throughput series follows, else 0
+ * </pre>
+ * Tag names are written once as a dictionary in front of their values and all series share the time axis.
+ * Float64 values are 8 bytes each. Scaled values are round(value * 10^digits) written as zig-zag variable
+ * length longs, which takes 1 to 4 bytes for most cost and usage numbers.
+ */
+public class ColumnarDataWriter {
+	public static final String contentType = "application/x-ice-columnar";
+	public static final int magic = 0x49434543; // "ICEC"
+	public static final byte version = 1;
+	public static final int maxDigits = 9;
+
+	private final int digits;
+	private final double scale;
+
+	/**
+	 * @param digits number of decimal digits to keep using scaled integers, or -1 to write float64 values
+	 */
+	public ColumnarDataWriter(int digits) {
+		if (digits > maxDigits)
+			throw new IllegalArgumentException("digits must not be more than " + maxDigits);
+		this.digits = digits < 0 ? -1 : digits;
+		this.scale = Math.pow(10, this.digits);
+	}
+
+	/**
+	 * Write a result to the stream. The stream is flushed but not closed.
+	 *
+	 * @param header JSON object holding the result fields other than the series and time axis
+	 * @param times time axis when the periods are not evenly spaced (monthly data), or null
+	 * @param sps throughput series or null
+	 */
+	public void write(OutputStream os, String header, long start, long interval, List<Long> times, Map<Tag, double[]> data, double[] sps) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 64 * 1024));
+
+		out.writeInt(magic);
+		out.writeByte(version);
+		writeString(out, header == null ? "{}" : header);
+		out.writeLong(start);
+		out.writeLong(times == null ? interval : 0);
+
+		int numPoints = getNumPoints(data);
+		out.writeInt(numPoints);
+
+		if (times == null) {
+			out.writeInt(0);
+		}
+		else {
+			out.writeInt(times.size());
+			for (Long time: times)
+				out.writeLong(time);
+		}
+
+		// Large enough for the longest variable length encoding of every value
+		ByteBuffer buf = ByteBuffer.allocate(numPoints * 10);
+		out.writeByte(digits);
+		out.writeInt(data.size());
+		for (Map.Entry<Tag, double[]> entry: data.entrySet()) {
+			writeString(out, entry.getKey() == null ? "" : entry.getKey().name);
+			writeValues(out, entry.getValue(), numPoints, buf);
+		}
+
+		out.writeByte(sps == null ? 0 : 1);
+		if (sps != null)
+			writeValues(out, sps, numPoints, buf);
+		out.flush();
+	}
+
+	/**
+	 * Start of each month in a monthly result that has no explicit time axis.
+	 */
+	public static List<Long> monthlyTimes(long start, int numPoints) {
+		List<Long> times = Lists.newArrayListWithCapacity(numPoints);
+		DateTime month = new DateTime(start, DateTimeZone.UTC);
+		for (int i = 0; i < numPoints; i++)
+			times.add(month.plusMonths(i).getMillis());
+		return times;
+	}
+
+	/**
+	 * Number of points in each series, taken from the first one present.
+	 */
+	public static int getNumPoints(Map<Tag, double[]> data) {
+		for (double[] values: data.values()) {
+			if (values != null)
+				return values.length;
+		}
+		return 0;
+	}
+
+	private void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private void writeValues(DataOutputStream out, double[] values, int numPoints, ByteBuffer buf) throws IOException {
+		// Encode the whole series into the buffer then write it at once rather than a few bytes at a time.
+		// Every series has the same length so readers can compute offsets, pad short ones with zeros.
+		buf.clear();
+		for (int i = 0; i < numPoints; i++) {
+			double v = values != null && i < values.length ? values[i] : 0.0;
+			if (digits < 0)
+				buf.putDouble(v);
+			else
+				putVarLong(buf, scaled(v));
+		}
+		out.write(buf.array(), 0, buf.position());
+	}
+
+	private long scaled(double v) {
+		if (Double.isNaN(v) || Double.isInfinite(v))
+			return 0;
+		return Math.round(v * scale);
+	}
+
+	private static void putVarLong(ByteBuffer buf, long v) {
+		// zig-zag so small negative values such as credits stay short
+		long zz = (v << 1) ^ (v >> 63);
+		while ((zz & ~0x7FL) != 0) {
+			buf.put((byte) ((zz & 0x7F) | 0x80));
+			zz >>>= 7;
+		}
+		buf.put((byte) zz);
+	}
+}
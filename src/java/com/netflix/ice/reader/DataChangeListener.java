@@ -0,0 +1,33 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.reader;
+
+import org.joda.time.Interval;
+
+import com.netflix.ice.common.ConsolidateType;
+
+/**
+ * Notified when a data cache loads a new version of the data for a time range.
+ */
+public interface DataChangeListener {
+	/**
+	 * @param consolidateType consolidation of the data that changed, or null if it affects all consolidations (e.g. tag groups)
+	 * @param interval time range covered by the data that changed
+	 */
+	public void dataChanged(ConsolidateType consolidateType, Interval interval);
+}
@@ -0,0 +1,113 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.reader;
+
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+import com.netflix.ice.common.ConsolidateType;
+
+/**
+ * Reduces long time series to at most a maximum number of points for charting.
+ *
+ * Consecutive periods are grouped into fixed size buckets and each bucket holds the average of its periods,
+ * so values keep their per-period units (e.g. cost per hour) and every series shares the same time axis.
+ * The last bucket may hold fewer periods and is averaged over the periods it has, so the sum of each bucket
+ * value times the number of periods in it is exactly the total of the original series.
+ */
+public class Downsampler {
+	// Hourly bucket sizes that divide evenly into a day
+	private static final int[] hourlySizes = new int[]{ 1, 2, 3, 4, 6, 8, 12, 24 };
+
+	/**
+	 * Get the number of periods to group into each bucket.
+	 *
+	 * @param length number of periods in the series
+	 * @param maxPoints maximum number of points wanted, 0 or less for no limit
+	 * @return bucket size, 1 if the series doesn't need to be reduced
+	 */
+	public static int getBucketSize(int length, int maxPoints) {
+		if (maxPoints <= 0 || length <= maxPoints)
+			return 1;
+		return (length + maxPoints - 1) / maxPoints;
+	}
+
+	/**
+	 * Get the number of periods to group into each bucket, rounded up so that buckets line up with days for hourly
+	 * data and with weeks for daily data.
+	 */
+	public static int getBucketSize(ConsolidateType consolidateType, int length, int maxPoints) {
+		int size = getBucketSize(length, maxPoints);
+		if (size == 1)
+			return size;
+
+		switch (consolidateType) {
+		case hourly:
+			for (int s: hourlySizes) {
+				if (s >= size)
+					return s;
+			}
+			return roundUp(size, 24);
+		case daily:
+			return size <= 7 ? size : roundUp(size, 7);
+		default:
+			return size;
+		}
+	}
+
+	private static int roundUp(int size, int multiple) {
+		return (size + multiple - 1) / multiple * multiple;
+	}
+
+	/**
+	 * Get the number of periods in the last bucket of a reduced series.
+	 */
+	public static int getLastBucketSize(int length, int bucketSize) {
+		int remainder = length % bucketSize;
+		return remainder == 0 ? bucketSize : remainder;
+	}
+
+	public static double[] downsample(double[] values, int bucketSize) {
+		if (values == null || bucketSize <= 1)
+			return values;
+
+		double[] result = new double[(values.length + bucketSize - 1) / bucketSize];
+		for (int i = 0; i < result.length; i++) {
+			int from = i * bucketSize;
+			int to = Math.min(from + bucketSize, values.length);
+			double sum = 0;
+			for (int j = from; j < to; j++)
+				sum += values[j];
+			result[i] = sum / (to - from);
+		}
+		return result;
+	}
+
+	/**
+	 * Reduce each of the series using the same bucket size. The map iteration order is preserved.
+	 */
+	public static <K> Map<K, double[]> downsample(Map<K, double[]> data, int bucketSize) {
+		if (bucketSize <= 1)
+			return data;
+
+		Map<K, double[]> result = Maps.newLinkedHashMap();
+		for (Map.Entry<K, double[]> entry: data.entrySet())
+			result.put(entry.getKey(), downsample(entry.getValue(), bucketSize));
+		return result;
+	}
+}
@@ -117,6 +117,16 @@ public interface Managers {
     
     String getStatistics(boolean csv) throws ExecutionException;
     
+    /**
+     * Start preloading the most popular data files in the background.
+     */
+    void startWarmUp();
+    
+    /**
+     * @return true once the most popular data files have been loaded after startup
+     */
+    boolean isReady();
+    
     public class UserTagStats {
     	public String key;
     	public int values;
@@ -0,0 +1,173 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.reader;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Deadline and cancellation state of a dashboard request.
+ *
+ * The controller starts a context on the request thread and the managers carry it to the pool threads that
+ * work on the request. Long running loops call {@link #check()} so the work stops soon after the request
+ * is cancelled or runs past its deadline, freeing the pool for other users' requests.
+ */
+public class QueryContext {
+	private static final ThreadLocal<QueryContext> current = new ThreadLocal<QueryContext>();
+	private static final long checkIntervalMillis = 100;
+
+	public static class CancelledException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public CancelledException(String message) {
+			super(message);
+		}
+	}
+
+	private final String user;
+	private final long deadlineMillis;
+	private volatile String cancelReason = null;
+
+	/**
+	 * @param user identifies the user for fair scheduling, may be null
+	 * @param timeoutMillis time allowed for the request, 0 or less for no deadline
+	 */
+	public QueryContext(String user, long timeoutMillis) {
+		this.user = user == null ? "" : user;
+		this.deadlineMillis = timeoutMillis > 0 ? System.currentTimeMillis() + timeoutMillis : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Make this the context of the calling thread. Always pair with {@link #end()} in a finally block.
+	 */
+	public QueryContext begin() {
+		current.set(this);
+		return this;
+	}
+
+	public static void end() {
+		current.remove();
+	}
+
+	/**
+	 * @return context of the calling thread or null if there isn't one
+	 */
+	public static QueryContext current() {
+		return current.get();
+	}
+
+	/**
+	 * Throw CancelledException if the calling thread's request was cancelled or is past its deadline.
+	 */
+	public static void checkCurrent() {
+		QueryContext context = current.get();
+		if (context != null)
+			context.check();
+	}
+
+	public void check() {
+		if (cancelReason != null)
+			throw new CancelledException("query cancelled: " + cancelReason);
+		if (System.currentTimeMillis() > deadlineMillis)
+			throw new CancelledException("query deadline exceeded for user " + user);
+	}
+
+	public void cancel(String reason) {
+		cancelReason = reason;
+	}
+
+	public boolean isCancelled() {
+		return cancelReason != null || System.currentTimeMillis() > deadlineMillis;
+	}
+
+	/**
+	 * @return milliseconds left before the deadline, Long.MAX_VALUE if there is no deadline
+	 */
+	public long remainingMillis() {
+		if (deadlineMillis == Long.MAX_VALUE)
+			return Long.MAX_VALUE;
+		return Math.max(0, deadlineMillis - System.currentTimeMillis());
+	}
+
+	public String getUser() {
+		return user;
+	}
+
+	/**
+	 * Wait for a future, giving up early if the calling thread's request is cancelled or reaches its deadline.
+	 * Cancelling the future is left to the caller.
+	 *
+	 * @param timeoutMillis longest time to wait regardless of the request deadline, 0 or less for no limit
+	 * @throws CancelledException if the request was cancelled or is past its deadline
+	 * @throws TimeoutException if the timeout was reached first
+	 */
+	public static <T> T await(Future<T> future, long timeoutMillis) throws InterruptedException, ExecutionException, TimeoutException {
+		QueryContext context = current.get();
+		if (context == null)
+			return timeoutMillis > 0 ? future.get(timeoutMillis, TimeUnit.MILLISECONDS) : future.get();
+
+		long end = timeoutMillis > 0 ? System.currentTimeMillis() + timeoutMillis : Long.MAX_VALUE;
+		while (true) {
+			context.check();
+			long now = System.currentTimeMillis();
+			if (now >= end)
+				throw new TimeoutException();
+			// Wake up now and then to notice an explicit cancel
+			long wait = Math.min(Math.min(end - now, context.remainingMillis()), checkIntervalMillis);
+			try {
+				return future.get(Math.max(wait, 1), TimeUnit.MILLISECONDS);
+			}
+			catch (TimeoutException e) {
+			}
+		}
+	}
+
+	/**
+	 * Wrap a task so that it runs with this context and doesn't start if the request was already cancelled.
+	 */
+	public <T> Callable<T> wrap(final Callable<T> task) {
+		return new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				QueryContext previous = current.get();
+				current.set(QueryContext.this);
+				try {
+					check();
+					return task.call();
+				}
+				finally {
+					if (previous == null)
+						current.remove();
+					else
+						current.set(previous);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Wrap a task with the calling thread's context if it has one.
+	 */
+	public static <T> Callable<T> wrapCurrent(Callable<T> task) {
+		QueryContext context = current.get();
+		return context == null ? task : context.wrap(task);
+	}
+}
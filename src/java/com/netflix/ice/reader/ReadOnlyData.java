@@ -50,6 +50,12 @@ public class ReadOnlyData extends ReadOnlyGenericData<TimeSeriesData> {
         this.forReservations = forReservations;
         super.deserialize(accountService, productService, in);
     }
+
+	@Override
+	protected long estimateBytes(TimeSeriesData d) {
+		return d.estimateBytes();
+	}
+
 	@Override
 	protected void deserializeTimeSeriesData(List<TagGroup> keys, DataInput in) throws IOException {
         // Read the data into cost and usage arrays indexed by time interval and TagGroup
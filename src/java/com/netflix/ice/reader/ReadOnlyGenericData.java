@@ -41,8 +41,12 @@ public abstract class ReadOnlyGenericData<D> implements DataVersion {
 	protected int numUserTags;
 	private Map<TagType, Map<Tag, List<TagGroup>>> tagGroupsByTagAndTagType;
 	private List<Map<Tag, List<TagGroup>>> tagGroupsByUserTag;
+	private volatile long estimatedBytes = -1;
 
     final static TagType[] tagTypes = new TagType[]{ TagType.CostType, TagType.Account, TagType.Region, TagType.Zone, TagType.Product, TagType.Operation, TagType.UsageType };
+    
+    // HashMap node and table slot for each tag group. Tag groups themselves are shared with the tag group managers.
+    final static int entryOverhead = 48;
 
 	public ReadOnlyGenericData(Map<TagGroup, D> data, int numUserTags, int numIntervals) {
 		this.data = data;
@@ -63,6 +67,24 @@ public abstract class ReadOnlyGenericData<D> implements DataVersion {
 		return data.get(tg);
 	}
 
+	/**
+	 * Approximate number of bytes held on the heap by the data and its indecies
+	 */
+	public long getEstimatedBytes() {
+		long bytes = estimatedBytes;
+		if (bytes < 0) {
+			// One reference in an index list per tag type and user tag
+			long perEntry = entryOverhead + (tagTypes.length + numUserTags) * 8L;
+			bytes = 64;
+			for (D d: data.values())
+				bytes += perEntry + (d == null ? 0 : estimateBytes(d));
+			estimatedBytes = bytes;
+		}
+		return bytes;
+	}
+
+	abstract protected long estimateBytes(D d);
+
 	public Collection<TagGroup> getTagGroups(TagType groupBy, Tag tag, int userTagIndex) {
 		if (groupBy == null)
 			return data.keySet();
@@ -100,6 +122,8 @@ public abstract class ReadOnlyGenericData<D> implements DataVersion {
 	}
 
 	protected void buildIndecies() {
+		estimatedBytes = -1;
+
 		// Build the account-based TagGroup maps
 		tagGroupsByTagAndTagType = Maps.newHashMap();
 		for (TagType t: tagTypes)
@@ -31,6 +31,11 @@ public class ReadOnlyTagCoverageData extends ReadOnlyGenericData<TimeSeriesTagCo
 		super(Maps.<TagGroup, TimeSeriesTagCoverageMetrics>newHashMap(), numUserTags, 0);
 	}
 
+	@Override
+	protected long estimateBytes(TimeSeriesTagCoverageMetrics d) {
+		return d.estimateBytes();
+	}
+
  	@Override
 	protected void deserializeTimeSeriesData(List<TagGroup> keys, DataInput in) throws IOException {
 		// Load the map with a time series for each tag group
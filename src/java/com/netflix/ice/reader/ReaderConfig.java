@@ -62,6 +62,12 @@ public class ReaderConfig extends Config {
     public final ThroughputMetricService throughputMetricService;
     public final Managers managers;
     public final int monthlyCacheSize;
+    public final int queryCacheSizeMB;
+    public final long dataCacheSizeMB;
+    public final int warmUpMaxFiles;
+    public final int warmUpThreads;
+    public final int warmUpReadyFiles;
+    public final int queryTimeoutSec;
     public List<UserTagKey> userTagKeys;
     public final String dashboardNotice;
     public final String dashboardLinks;
@@ -125,6 +131,13 @@ public class ReaderConfig extends Config {
         this.managers = managers;
         this.throughputMetricService = throughputMetricService;
         this.monthlyCacheSize = Integer.parseInt(properties.getProperty(IceOptions.MONTHLY_CACHE_SIZE, "12"));
+        this.queryCacheSizeMB = Integer.parseInt(properties.getProperty(IceOptions.QUERY_CACHE_SIZE_MB, "256"));
+        String dataCacheSize = properties.getProperty(IceOptions.DATA_CACHE_SIZE_MB);
+        this.dataCacheSizeMB = dataCacheSize == null ? Runtime.getRuntime().maxMemory() / 2 / (1024 * 1024) : Long.parseLong(dataCacheSize);
+        this.warmUpMaxFiles = Integer.parseInt(properties.getProperty(IceOptions.WARM_UP_MAX_FILES, "100"));
+        this.warmUpThreads = Integer.parseInt(properties.getProperty(IceOptions.WARM_UP_THREADS, "4"));
+        this.warmUpReadyFiles = Integer.parseInt(properties.getProperty(IceOptions.WARM_UP_READY_FILES, "20"));
+        this.queryTimeoutSec = Integer.parseInt(properties.getProperty(IceOptions.QUERY_TIMEOUT_SEC, "120"));
 
         ReaderConfig.instance = this;
         
@@ -144,9 +157,14 @@ public class ReaderConfig extends Config {
     }
 
     public void start() throws InterruptedException, ExecutionException {
+        Managers managers = ReaderConfig.getInstance().managers;
+        if (warmUpMaxFiles > 0) {
+        	// Load the most popular files in the background and serve requests right away
+        	managers.startWarmUp();
+        	return;
+        }
 
     	// Prime the data caches
-        Managers managers = ReaderConfig.getInstance().managers;
         Collection<Product> products = managers.getProducts();        
     	ExecutorService pool = Executors.newFixedThreadPool(numThreads);
     	List<Future<Void>> futures = Lists.newArrayList();
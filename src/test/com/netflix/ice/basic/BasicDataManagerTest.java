@@ -21,7 +21,13 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.netflix.ice.common.*;
 import com.netflix.ice.reader.*;
@@ -67,6 +73,92 @@ public class BasicDataManagerTest {
 	    }
 	}
 	
+	/**
+	 * Data manager whose file loads block until released
+	 */
+	class BlockingLoadDataManager extends BasicDataManager {
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger loads = new AtomicInteger();
+		
+		BlockingLoadDataManager(DateTime startDate) {
+			super(startDate, "test", ConsolidateType.monthly, null, true, 0, 1, null, new BasicAccountService(), new BasicProductService(), null);
+		}
+		
+		@Override
+		protected File getFile(DateTime monthDate) {
+			return new File("test_" + monthDate.getMillis());
+		}
+		
+		@Override
+		protected synchronized boolean downloadFile(File file) {
+			return false;
+		}
+		
+		@Override
+		protected ReadOnlyData loadDataFromFile(File file) throws Exception {
+			loads.incrementAndGet();
+			release.await();
+			return newEmptyData();
+		}
+	}
+	
+	private int countLoadThreadsInCache() {
+		int count = 0;
+		for (Map.Entry<Thread, StackTraceElement[]> entry: Thread.getAllStackTraces().entrySet()) {
+			if (!entry.getKey().getName().startsWith("data-file-load-"))
+				continue;
+			for (StackTraceElement e: entry.getValue()) {
+				if (e.getClassName().startsWith("com.google.common.cache.")) {
+					count++;
+					break;
+				}
+			}
+		}
+		return count;
+	}
+	
+	@Test
+	public void testCancelledQueriesShareOneLoad() throws Exception {
+		final DateTime month = new DateTime("2020-01-01", DateTimeZone.UTC);
+		final BlockingLoadDataManager dataManager = new BlockingLoadDataManager(month);
+		final int numQueries = 8;
+		
+		ExecutorService pool = Executors.newFixedThreadPool(numQueries);
+		try {
+			List<Future<Boolean>> futures = Lists.newArrayList();
+			for (int i = 0; i < numQueries; i++) {
+				futures.add(pool.submit(new QueryContext("user" + i, 200).wrap(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws Exception {
+						try {
+							dataManager.preload(month);
+							return false;
+						}
+						catch (QueryContext.CancelledException e) {
+							return true;
+						}
+					}
+				})));
+			}
+			for (Future<Boolean> f: futures)
+				assertTrue("query should give up at its deadline", f.get());
+			
+			assertEquals("file should be loaded once", 1, dataManager.loads.get());
+			assertEquals("cancelled queries should leave one load running", 1, countLoadThreadsInCache());
+			
+			dataManager.release.countDown();
+			// Loaded in the background, so the next query gets it from the cache
+			for (int i = 0; i < 100 && countLoadThreadsInCache() > 0; i++)
+				Thread.sleep(10);
+			dataManager.preload(month);
+			assertEquals("file should not be loaded again", 1, dataManager.loads.get());
+		}
+		finally {
+			dataManager.release.countDown();
+			pool.shutdownNow();
+		}
+	}
+	
 	@Test
 	public void loadHourlyDataFromFile() throws Exception {
 		AccountService as = new BasicAccountService();
@@ -330,6 +422,50 @@ public class BasicDataManagerTest {
 		assertEquals("Without operation specified, wrong value for aggregation", 1.0, data.get(Tag.aggregated)[0], 0.001);
 	}
 	
+	@Test
+	public void parallelAggregation() throws Exception {
+		AccountService as = new BasicAccountService();
+		ProductService ps = new BasicProductService();
+
+		// Enough tag groups per account to be split into chunks
+		int numTagGroups = BasicDataManager.MIN_PARALLEL_TAG_GROUPS * 4;
+		Map<TagGroup, TimeSeriesData> rawData = Maps.newHashMap();
+		for (int i = 0; i < numTagGroups; i++) {
+			rawData.put(
+					TagGroup.getTagGroup("Recurring", "account" + (i % 2), "us-east-1", null, "product", "operation", "usageType" + i, "usageTypeUnit", null, as, ps),
+					new TimeSeriesData(new double[]{i, 1}, new double[]{1, i}));
+		}
+
+		ReadOnlyData rod = new ReadOnlyData(rawData, 0, 2);
+		DateTime testMonth = DateTime.parse("2018-01-01T00:00:00Z");
+		TagGroupManager tagGroupManager = makeTagGroupManager(testMonth, rawData.keySet());
+		Interval interval = new Interval(testMonth, testMonth.plusMonths(2));
+		TagLists tagLists = new TagLists();
+
+		BasicDataManager serial = new TestDataFileCache(testMonth, null, ConsolidateType.monthly, tagGroupManager, true, 0, 0, null, as, ps, rod);
+		Map<Tag, double[]> expected = serial.getData(true, interval, tagLists, TagType.Account, AggregateType.data, null, UsageUnit.Instances, 0);
+
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			BasicDataManager parallel = new TestDataFileCache(testMonth, null, ConsolidateType.monthly, tagGroupManager, true, 0, 0, null, as, ps, rod);
+			parallel.setAggregationPool(pool, 4);
+			for (boolean isCost: new boolean[]{ true, false }) {
+				if (!isCost)
+					expected = serial.getData(isCost, interval, tagLists, TagType.Account, AggregateType.data, null, UsageUnit.Instances, 0);
+				Map<Tag, double[]> data = parallel.getData(isCost, interval, tagLists, TagType.Account, AggregateType.data, null, UsageUnit.Instances, 0);
+				assertEquals("Wrong number of groupBy tags", 3, data.size());
+				for (Tag t: expected.keySet())
+					assertArrayEquals("Wrong values for " + t, expected.get(t), data.get(t), 0.001);
+			}
+			// Sum of 0..n-1 split across the two accounts
+			double total = (double) numTagGroups * (numTagGroups - 1) / 2;
+			assertEquals("Wrong aggregated usage", total, expected.get(Tag.aggregated)[1], 0.001);
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
 	// Example for debugging getData()
 	@Test
 	public void testHourlyDataFromFile() throws Exception {
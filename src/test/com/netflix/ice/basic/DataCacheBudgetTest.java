@@ -0,0 +1,96 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.basic;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.netflix.ice.common.ConsolidateType;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.common.TimeSeriesData;
+import com.netflix.ice.reader.ReadOnlyData;
+
+public class DataCacheBudgetTest {
+	private static final long MB = 1024 * 1024;
+	private static final DateTime jan = DateTime.parse("2020-01-01T00:00:00Z");
+	private static final DateTime feb = DateTime.parse("2020-02-01T00:00:00Z");
+
+	private BasicDataManager newManager(String name, DataCacheBudget budget) {
+		BasicDataManager manager = new BasicDataManager(jan, name, ConsolidateType.hourly, null, false, 0, 12, null, null, null, null);
+		manager.setCacheBudget(budget);
+		return manager;
+	}
+
+	@Test
+	public void testEviction() {
+		DataCacheBudget budget = new DataCacheBudget(3 * MB);
+		BasicDataManager small = newManager("hourly_small", budget);
+		BasicDataManager large = newManager("hourly_large", budget);
+
+		small.data.put(jan, new ReadOnlyData(0));
+		for (int i = 0; i < 5; i++)
+			budget.access(small, jan, MB / 2);
+		large.data.put(jan, new ReadOnlyData(0));
+		budget.access(large, jan, 2 * MB);
+		assertEquals("nothing should be evicted under the budget", 0, budget.getEvictions());
+
+		// Going over the budget should drop the large, rarely read file rather than the small, popular one
+		small.data.put(feb, new ReadOnlyData(0));
+		budget.access(small, feb, MB);
+		assertEquals("wrong number of evictions", 1, budget.getEvictions());
+		assertNull("large file should be evicted", large.data.getIfPresent(jan));
+		assertNotNull("small file should be kept", small.data.getIfPresent(jan));
+		assertNotNull("new file should be kept", small.data.getIfPresent(feb));
+		assertEquals("wrong number of files", 2, budget.size());
+		assertEquals("wrong used size", MB / 2 + MB, budget.getUsedBytes());
+
+		// Reloading a file updates its size
+		budget.replace(small, feb, 2 * MB);
+		assertEquals("wrong used size after replace", MB / 2 + 2 * MB, budget.getUsedBytes());
+
+		// Removing a file from its cache releases its space
+		small.data.invalidate(feb);
+		assertEquals("wrong used size after remove", MB / 2, budget.getUsedBytes());
+
+		// A single file over the budget is kept
+		large.data.put(feb, new ReadOnlyData(0));
+		budget.access(large, feb, 4 * MB);
+		assertNotNull("file over the budget should be kept", large.data.getIfPresent(feb));
+		assertEquals("wrong number of files", 1, budget.size());
+		assertTrue("wrong statistics", budget.getStatistics().contains("hits=4, misses=4"));
+	}
+
+	@Test
+	public void testEstimatedBytes() throws Exception {
+		Map<TagGroup, TimeSeriesData> data = Maps.newHashMap();
+		ReadOnlyData empty = new ReadOnlyData(data, 0, 24);
+		long emptyBytes = empty.getEstimatedBytes();
+
+		double[] values = new double[24];
+		for (int i = 0; i < values.length; i++)
+			values[i] = i;
+		data.put(TagGroup.getTagGroup("Recurring", "111111111111", "us-east-1", null, "IOTestProduct", "OP1", "UT1", "", null, new BasicAccountService(), new BasicProductService()), new TimeSeriesData(values, values));
+		ReadOnlyData one = new ReadOnlyData(data, 0, 24);
+		assertTrue("estimate should include the time series", one.getEstimatedBytes() > emptyBytes + 24 * 16);
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.basic;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+
+public class FairTaskQueueTest {
+	protected Logger logger = LoggerFactory.getLogger(getClass());
+
+	private static final int numThreads = 2;
+	private static final int heavyTasks = 40;
+	private static final int lightTasks = 2;
+	private static final long taskMillis = 20;
+
+	private Callable<Long> work() {
+		return new Callable<Long>() {
+			@Override
+			public Long call() throws Exception {
+				Thread.sleep(taskMillis);
+				return System.currentTimeMillis();
+			}
+		};
+	}
+
+	/**
+	 * Synthetic load: one user floods the pool with short tasks, then a second user submits a few.
+	 *
+	 * @return milliseconds until all of the light user's tasks were done
+	 */
+	private long lightUserLatency(boolean fair) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		try {
+			FairTaskQueue queue = new FairTaskQueue(pool, numThreads);
+			List<Future<Long>> heavy = Lists.newArrayList();
+			for (int i = 0; i < heavyTasks; i++)
+				heavy.add(fair ? queue.submit("heavy", work()) : pool.submit(work()));
+
+			long start = System.currentTimeMillis();
+			List<Future<Long>> light = Lists.newArrayList();
+			for (int i = 0; i < lightTasks; i++)
+				light.add(fair ? queue.submit("light", work()) : pool.submit(work()));
+
+			long done = 0;
+			for (Future<Long> f: light)
+				done = Math.max(done, f.get());
+			for (Future<Long> f: heavy)
+				f.get();
+			if (fair)
+				assertEquals("queue should be drained", 0, queue.getQueued());
+			return done - start;
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testLightUserNotStarved() throws Exception {
+		long fifo = lightUserLatency(false);
+		long fair = lightUserLatency(true);
+		logger.info("light user latency behind " + heavyTasks + " heavy tasks: fifo=" + fifo + "ms, fair=" + fair + "ms");
+
+		// FIFO runs every heavy task first, the fair queue alternates between the two users
+		assertTrue("fifo should wait for the heavy user, took " + fifo + "ms", fifo >= heavyTasks / numThreads * taskMillis);
+		assertTrue("fair queue should serve the light user early, took " + fair + "ms vs " + fifo + "ms fifo", fair * 3 < fifo);
+	}
+
+	@Test
+	public void testCancelledTasksSkipped() throws Exception {
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		try {
+			FairTaskQueue queue = new FairTaskQueue(pool, 1);
+			final CountDownLatch release = new CountDownLatch(1);
+			Future<Boolean> blocker = queue.submit("a", new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					release.await();
+					return true;
+				}
+			});
+
+			final AtomicBoolean ran = new AtomicBoolean(false);
+			Future<Boolean> cancelled = queue.submit("a", new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					ran.set(true);
+					return true;
+				}
+			});
+			Future<Long> next = queue.submit("b", work());
+			assertEquals("wrong number queued", 2, queue.getQueued());
+
+			cancelled.cancel(false);
+			release.countDown();
+			assertTrue(blocker.get());
+			assertTrue(next.get() > 0);
+			assertFalse("cancelled task should not run", ran.get());
+			assertEquals("queue should be drained", 0, queue.getQueued());
+			// The slot is given back just after the future completes
+			for (int i = 0; i < 100 && queue.getRunning() > 0; i++)
+				Thread.sleep(10);
+			assertEquals("nothing should be running", 0, queue.getRunning());
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+}
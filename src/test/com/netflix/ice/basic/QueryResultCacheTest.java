@@ -0,0 +1,146 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.basic;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.netflix.ice.common.ConsolidateType;
+import com.netflix.ice.reader.AggregateType;
+import com.netflix.ice.reader.TagLists;
+import com.netflix.ice.reader.UsageUnit;
+import com.netflix.ice.tag.CostType;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.ResourceGroup;
+import com.netflix.ice.tag.ResourceGroup.ResourceException;
+import com.netflix.ice.tag.Tag;
+import com.netflix.ice.tag.TagType;
+import com.netflix.ice.tag.UserTag;
+
+public class QueryResultCacheTest {
+	private static final DateTime start = new DateTime("2020-01-01", DateTimeZone.UTC);
+	private static final Interval twoWeeks = new Interval(start.plusDays(10), start.plusDays(24));
+
+	private QueryResultCache.Query query(Interval interval, List<Region> regions, ConsolidateType consolidateType) {
+		List<List<UserTag>> userTagLists = Lists.newArrayList();
+		userTagLists.add(Lists.newArrayList(UserTag.get("prod"), UserTag.get("dev")));
+		return new QueryResultCache.Query(interval, Lists.newArrayList(CostType.recurring), null, regions, null, Lists.newArrayList(), null, null,
+				true, consolidateType, TagType.Account, AggregateType.data, null, UsageUnit.Instances, userTagLists, 0);
+	}
+
+	private Map<Tag, double[]> data(double value) {
+		Map<Tag, double[]> data = Maps.newTreeMap();
+		data.put(Region.US_EAST_1, new double[]{ value, value });
+		return data;
+	}
+
+	@Test
+	public void testNormalizedKey() {
+		QueryResultCache.Query a = query(twoWeeks, Lists.newArrayList(Region.US_EAST_1, Region.US_WEST_2), ConsolidateType.daily);
+		QueryResultCache.Query b = query(twoWeeks, Lists.newArrayList(Region.US_WEST_2, Region.US_EAST_1), ConsolidateType.daily);
+		assertEquals("filter order should not matter", a, b);
+		assertEquals("filter order should not matter", a.hashCode(), b.hashCode());
+
+		assertNotEquals("consolidation should matter", a, query(twoWeeks, Lists.newArrayList(Region.US_EAST_1, Region.US_WEST_2), ConsolidateType.hourly));
+		assertNotEquals("null and empty filters differ", query(twoWeeks, null, ConsolidateType.daily), query(twoWeeks, Lists.<Region>newArrayList(), ConsolidateType.daily));
+	}
+
+	@Test
+	public void testResourceGroupsInKey() throws ResourceException {
+		List<ResourceGroup> web = Lists.newArrayList(ResourceGroup.getResourceGroup(new UserTag[]{ UserTag.get("web") }));
+		List<ResourceGroup> db = Lists.newArrayList(ResourceGroup.getResourceGroup(new UserTag[]{ UserTag.get("db") }));
+		QueryResultCache.Query a = tagListsQuery(web);
+		assertEquals("same resource groups should match", a, tagListsQuery(Lists.newArrayList(web)));
+		assertNotEquals("resource groups should matter", a, tagListsQuery(db));
+		assertNotEquals("resource groups should matter", a, tagListsQuery(null));
+	}
+
+	private QueryResultCache.Query tagListsQuery(List<ResourceGroup> resourceGroups) {
+		TagLists tagLists = new TagLists(null, null, Lists.newArrayList(Region.US_EAST_1), null, null, null, null, resourceGroups);
+		return new QueryResultCache.Query(twoWeeks, tagLists, true, ConsolidateType.daily, TagType.Account, AggregateType.data, null, UsageUnit.Instances, 0);
+	}
+
+	@Test
+	public void testGetPut() {
+		QueryResultCache cache = new QueryResultCache(1024 * 1024);
+		QueryResultCache.Query q = query(twoWeeks, null, ConsolidateType.daily);
+		assertNull("should miss", cache.get(q));
+
+		cache.put(q, data(1.0), cache.getGeneration());
+		Map<Tag, double[]> result = cache.get(q);
+		assertEquals("wrong value", 1.0, result.get(Region.US_EAST_1)[0], 0.001);
+
+		// Changing the returned data must not change the cached copy
+		result.get(Region.US_EAST_1)[0] = 5.0;
+		assertEquals("cached data modified", 1.0, cache.get(q).get(Region.US_EAST_1)[0], 0.001);
+		assertTrue("hit rate missing from statistics", cache.getStatistics().contains("hits=2, misses=1"));
+	}
+
+	@Test
+	public void testInvalidation() {
+		QueryResultCache cache = new QueryResultCache(1024 * 1024);
+		QueryResultCache.Query daily = query(twoWeeks, null, ConsolidateType.daily);
+		QueryResultCache.Query hourly = query(twoWeeks, null, ConsolidateType.hourly);
+		cache.put(daily, data(1.0), cache.getGeneration());
+		cache.put(hourly, data(2.0), cache.getGeneration());
+
+		// Non-overlapping month leaves entries alone
+		cache.dataChanged(ConsolidateType.hourly, new Interval(start.plusMonths(1), start.plusMonths(2)));
+		assertEquals("wrong number of entries", 2, cache.size());
+
+		// Hourly data for January only drops the hourly query
+		cache.dataChanged(ConsolidateType.hourly, new Interval(start, start.plusMonths(1)));
+		assertNotNull("daily entry should remain", cache.get(daily));
+		assertNull("hourly entry should be dropped", cache.get(hourly));
+
+		// Tag group changes drop all consolidations
+		cache.dataChanged(null, new Interval(start, start.plusMonths(1)));
+		assertEquals("all entries should be dropped", 0, cache.size());
+	}
+
+	@Test
+	public void testStaleResultNotCached() {
+		QueryResultCache cache = new QueryResultCache(1024 * 1024);
+		QueryResultCache.Query q = query(twoWeeks, null, ConsolidateType.daily);
+		long generation = cache.getGeneration();
+		// Data reloaded while the query was being computed
+		cache.dataChanged(ConsolidateType.daily, new Interval(start, start.plusYears(1)));
+		cache.put(q, data(1.0), generation);
+		assertNull("stale result should not be cached", cache.get(q));
+	}
+
+	@Test
+	public void testWeightBound() {
+		QueryResultCache cache = new QueryResultCache(64 * 1024);
+		for (int i = 0; i < 100; i++) {
+			Map<Tag, double[]> data = Maps.newTreeMap();
+			data.put(Region.US_EAST_1, new double[1000]);
+			cache.put(query(new Interval(start, start.plusDays(i + 1)), null, ConsolidateType.daily), data, cache.getGeneration());
+		}
+		assertTrue("cache not bounded: " + cache.size(), cache.size() < 10);
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.basic;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class SingleFlightTest {
+	private static final int numRequests = 20;
+
+	/**
+	 * Start numRequests callers of the same key and release the computation once they are all waiting.
+	 */
+	private List<Future<String>> runConcurrently(final SingleFlight<String, String> singleFlight, final Callable<String> computation,
+			final CountDownLatch release, ExecutorService pool) throws InterruptedException {
+		long coalesced = singleFlight.getCoalesced();
+		List<Future<String>> futures = Lists.newArrayList();
+		for (int i = 0; i < numRequests; i++) {
+			futures.add(pool.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					return singleFlight.execute("query", new Callable<String>() {
+						@Override
+						public String call() throws Exception {
+							release.await();
+							return computation.call();
+						}
+					}, 10000);
+				}
+			}));
+		}
+		// Wait until all but the leader have joined the running computation
+		for (int i = 0; i < 1000 && singleFlight.getCoalesced() < coalesced + numRequests - 1; i++)
+			Thread.sleep(10);
+		release.countDown();
+		return futures;
+	}
+
+	@Test
+	public void testCoalesce() throws Exception {
+		SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+		final AtomicInteger count = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(numRequests);
+
+		List<Future<String>> futures = runConcurrently(singleFlight, new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return "result " + count.incrementAndGet();
+			}
+		}, new CountDownLatch(1), pool);
+		for (Future<String> f: futures)
+			assertEquals("wrong result", "result 1", f.get());
+
+		assertEquals("identical requests should cost one computation", 1, count.get());
+		assertEquals("wrong number of computations", 1, singleFlight.getComputations());
+		assertEquals("wrong number of coalesced requests", numRequests - 1, singleFlight.getCoalesced());
+		assertEquals("key should be cleared", 0, singleFlight.size());
+
+		// Results are not reused once the computation is done
+		futures = runConcurrently(singleFlight, new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return "result " + count.incrementAndGet();
+			}
+		}, new CountDownLatch(1), pool);
+		for (Future<String> f: futures)
+			assertEquals("wrong result", "result 2", f.get());
+		pool.shutdown();
+	}
+
+	@Test
+	public void testError() throws Exception {
+		SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+		final AtomicInteger count = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(numRequests);
+
+		List<Future<String>> futures = runConcurrently(singleFlight, new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				count.incrementAndGet();
+				throw new IllegalStateException("test failure");
+			}
+		}, new CountDownLatch(1), pool);
+		for (Future<String> f: futures) {
+			try {
+				f.get();
+				fail("should have failed");
+			}
+			catch (ExecutionException e) {
+				// Each caller gets ExecutionException from execute() wrapped by the pool
+				assertTrue("wrong exception", e.getCause() instanceof ExecutionException);
+				assertTrue("wrong cause", e.getCause().getCause() instanceof IllegalStateException);
+			}
+		}
+		assertEquals("failed computation should only run once", 1, count.get());
+		assertEquals("key should be cleared after a failure", 0, singleFlight.size());
+
+		// The next request tries again
+		assertEquals("wrong result after failure", "ok", singleFlight.execute("query", new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return "ok";
+			}
+		}, 0));
+		pool.shutdown();
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		final SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+
+		Future<String> leader = pool.submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return singleFlight.execute("query", new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						started.countDown();
+						release.await();
+						return "slow";
+					}
+				}, 0);
+			}
+		});
+		assertTrue("computation did not start", started.await(10, TimeUnit.SECONDS));
+
+		try {
+			singleFlight.execute("query", new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					return "not run";
+				}
+			}, 50);
+			fail("waiter should have timed out");
+		}
+		catch (TimeoutException e) {
+		}
+		assertTrue("wrong statistics", singleFlight.getStatistics("test").contains("waitTimeouts=1"));
+
+		// The timed out waiter doesn't affect the running computation
+		release.countDown();
+		assertEquals("wrong leader result", "slow", leader.get(10, TimeUnit.SECONDS));
+		assertEquals("wrong number of computations", 1, singleFlight.getComputations());
+		pool.shutdown();
+	}
+}
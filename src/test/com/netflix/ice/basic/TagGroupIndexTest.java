@@ -0,0 +1,101 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.basic;
+
+import static org.junit.Assert.*;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.reader.TagLists;
+import com.netflix.ice.tag.Account;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.Zone;
+
+public class TagGroupIndexTest {
+	private static final AccountService as = new BasicAccountService();
+	private static final ProductService ps = new BasicProductService();
+	private static final long jan = new DateTime("2020-01-01", DateTimeZone.UTC).getMillis();
+	private static final long feb = new DateTime("2020-02-01", DateTimeZone.UTC).getMillis();
+
+	private TagGroup tagGroup(String account, String region, String zone) throws Exception {
+		return TagGroup.getTagGroup("Recurring", account, region, zone, "product", "operation", "usageType", "unit", null, as, ps);
+	}
+
+	private TagGroupIndex makeIndex() throws Exception {
+		TreeMap<Long, Collection<TagGroup>> tagGroups = Maps.newTreeMap();
+		List<TagGroup> janTagGroups = Lists.newArrayList(tagGroup("account1", "us-east-1", "us-east-1a"), tagGroup("account2", "us-east-1", null));
+		List<TagGroup> febTagGroups = Lists.newArrayList(tagGroup("account2", "us-east-1", null), tagGroup("account3", "us-west-2", null));
+		tagGroups.put(jan, janTagGroups);
+		tagGroups.put(feb, febTagGroups);
+		return new TagGroupIndex(tagGroups);
+	}
+
+	@Test
+	public void testRanges() throws Exception {
+		TagGroupIndex index = makeIndex();
+		assertEquals("wrong dictionary size", 3, index.size());
+
+		TagGroupIndex.Range janRange = index.getRange(Lists.newArrayList(jan));
+		assertEquals("wrong jan size", 2, janRange.size());
+		Set<Account> accounts = index.getValues(TagGroupIndex.ACCOUNT, janRange, janRange.members);
+		assertEquals("wrong jan accounts", 2, accounts.size());
+
+		TagGroupIndex.Range both = index.getRange(Lists.newArrayList(feb, jan));
+		assertEquals("wrong union size", 3, both.size());
+		assertSame("union not cached", both, index.getRange(Lists.newArrayList(jan, feb)));
+		Set<Region> regions = index.getValues(TagGroupIndex.REGION, both, both.members);
+		assertEquals("wrong regions", 2, regions.size());
+
+		// Null zones aren't reported
+		Set<Zone> zones = index.getValues(TagGroupIndex.ZONE, both, both.members);
+		assertEquals("wrong zones", 1, zones.size());
+	}
+
+	@Test
+	public void testFilter() throws Exception {
+		TagGroupIndex index = makeIndex();
+		TagGroupIndex.Range both = index.getRange(Lists.newArrayList(jan, feb));
+
+		assertSame("unfiltered should return range members", both.members, index.filter(both, new TagLists()));
+
+		TagLists tagLists = new TagLists(null, null, Lists.newArrayList(Region.US_EAST_1));
+		BitSet members = index.filter(both, tagLists);
+		assertEquals("wrong filtered size", 2, members.cardinality());
+		Set<Account> accounts = index.getValues(TagGroupIndex.ACCOUNT, both, members);
+		assertEquals("wrong filtered accounts", 2, accounts.size());
+		for (TagGroup tg: index.getTagGroups(members))
+			assertTrue("tag group doesn't match filter", tagLists.contains(tg));
+
+		// Filter value not present in the index
+		tagLists = new TagLists(null, null, Lists.newArrayList(Region.EU_WEST_1));
+		assertEquals("should match nothing", 0, index.filter(both, tagLists).cardinality());
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.basic;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.netflix.ice.common.ConsolidateType;
+
+public class WarmUpPlannerTest {
+    private static final String tmpDir = "src/test/tmp/warmUp/";
+
+    private Map<String, ConsolidateType> managers() {
+    	Map<String, ConsolidateType> managers = Maps.newHashMap();
+    	managers.put("hourly_all", ConsolidateType.hourly);
+    	managers.put("daily_all", ConsolidateType.daily);
+    	managers.put("monthly_all", ConsolidateType.monthly);
+    	managers.put("daily_AmazonEC2", ConsolidateType.daily);
+    	managers.put("daily_AmazonS3", ConsolidateType.daily);
+    	return managers;
+    }
+
+    @Test
+    public void testPlan() {
+    	DateTime now = DateTime.now(DateTimeZone.UTC);
+    	WarmUpPlanner planner = new WarmUpPlanner(null, 5, 2, 1, 2);
+
+    	for (int i = 0; i < 3; i++)
+    		planner.record("hourly_all", ConsolidateType.hourly, now.minusMonths(1).withDayOfMonth(1).withMillisOfDay(0), now);
+    	for (int i = 0; i < 2; i++)
+    		planner.record("hourly_all", ConsolidateType.hourly, now.withDayOfMonth(1).withMillisOfDay(0), now);
+    	planner.record("hourly_all", ConsolidateType.hourly, now.minusMonths(2).withDayOfMonth(1).withMillisOfDay(0), now);
+    	planner.record("daily_AmazonEC2", ConsolidateType.daily, now.withDayOfYear(1).withMillisOfDay(0), now);
+    	planner.record("unknown", ConsolidateType.daily, now.withDayOfYear(1).withMillisOfDay(0), now);
+
+    	List<WarmUpPlanner.Item> plan = planner.plan(managers(), Lists.newArrayList("daily_all", "monthly_all", "daily_AmazonS3"));
+    	List<String> keys = Lists.newArrayList();
+    	for (WarmUpPlanner.Item item: plan)
+    		keys.add(item.key());
+
+    	// Third hourly month dropped by the per-manager limit, last default dropped by the file limit
+    	assertEquals("wrong plan", Lists.newArrayList("hourly_all|1", "hourly_all|0", "daily_AmazonEC2|0", "daily_all|0", "monthly_all|0"), keys);
+    	assertEquals("wrong time", now.minusMonths(1).withDayOfMonth(1).withMillisOfDay(0), plan.get(0).getTime(now));
+    }
+
+    @Test
+    public void testSaveAndLoad() {
+    	File file = new File(tmpDir, WarmUpPlanner.popularityFilename);
+    	file.getParentFile().mkdirs();
+    	file.delete();
+
+    	DateTime now = DateTime.now(DateTimeZone.UTC);
+    	WarmUpPlanner planner = new WarmUpPlanner(file, 10, 10, 1, 1);
+    	planner.record("daily_AmazonS3", ConsolidateType.daily, now.withDayOfYear(1).withMillisOfDay(0), now);
+    	planner.save();
+    	assertTrue("popularity file not written", file.exists());
+
+    	planner = new WarmUpPlanner(file, 10, 10, 1, 1);
+    	List<WarmUpPlanner.Item> plan = planner.plan(managers(), Lists.newArrayList("daily_all"));
+    	assertEquals("wrong plan size", 2, plan.size());
+    	assertEquals("saved popularity should come first", "daily_AmazonS3|0", plan.get(0).key());
+
+    	// Popularity halves each day
+    	planner.decay(System.currentTimeMillis() + WarmUpPlanner.decayMillis);
+    	assertEquals("popularity should decay", 0.5, planner.plan(managers(), Collections.<String>emptyList()).get(0).score, 0.001);
+    	file.delete();
+    }
+
+    @Test
+    public void testStart() throws Exception {
+    	DateTime now = DateTime.now(DateTimeZone.UTC);
+    	WarmUpPlanner planner = new WarmUpPlanner(null, 10, 10, 2, 2);
+    	planner.record("daily_AmazonEC2", ConsolidateType.daily, now.withDayOfYear(1).withMillisOfDay(0), now);
+    	assertFalse("should not be ready before start", planner.isReady());
+
+    	final List<String> loaded = Collections.synchronizedList(Lists.<String>newArrayList());
+    	ExecutorService pool = Executors.newFixedThreadPool(2);
+    	planner.start(managers(), Lists.newArrayList("daily_all", "monthly_all", "hourly_all"), pool, new WarmUpPlanner.Loader() {
+			@Override
+			public void load(String name, DateTime time) throws Exception {
+				if (name.equals("hourly_all"))
+					throw new Exception("test failure");
+				loaded.add(name);
+			}
+    	});
+    	pool.shutdown();
+    	assertTrue("warm-up did not finish", pool.awaitTermination(10, TimeUnit.SECONDS));
+
+    	assertTrue("should be ready", planner.isReady());
+    	assertTrue("should be complete", planner.isComplete());
+    	assertTrue("ready time not set", planner.getReadyMillis() >= 0);
+    	assertEquals("wrong number of files loaded", 3, loaded.size());
+    	assertTrue("wrong statistics", planner.getStatistics().contains("loaded=3, failed=1"));
+    }
+
+    @Test
+    public void testNoReadyFiles() throws Exception {
+    	final CountDownLatch release = new CountDownLatch(1);
+    	WarmUpPlanner planner = new WarmUpPlanner(null, 10, 10, 1, 0);
+    	ExecutorService pool = Executors.newFixedThreadPool(1);
+    	planner.start(managers(), Lists.newArrayList("daily_all", "monthly_all"), pool, new WarmUpPlanner.Loader() {
+			@Override
+			public void load(String name, DateTime time) throws Exception {
+				release.await();
+			}
+    	});
+    	// Ready without waiting for any file when none are required
+    	assertTrue("should be ready", planner.isReady());
+    	assertFalse("should still be loading", planner.isComplete());
+
+    	release.countDown();
+    	pool.shutdown();
+    	assertTrue("warm-up did not finish", pool.awaitTermination(10, TimeUnit.SECONDS));
+    	assertTrue("should be complete", planner.isComplete());
+    }
+
+    @Test
+    public void testConcurrentRecord() throws Exception {
+    	final DateTime now = DateTime.now(DateTimeZone.UTC);
+    	final WarmUpPlanner planner = new WarmUpPlanner(null, 10, 10, 1, 1);
+    	final int numThreads = 4;
+    	final int numRecords = 10000;
+    	ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    	for (int t = 0; t < numThreads; t++) {
+    		pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < numRecords; i++)
+						planner.record("daily_all", ConsolidateType.daily, now, now);
+				}
+    		});
+    	}
+    	pool.shutdown();
+    	assertTrue("records did not finish", pool.awaitTermination(10, TimeUnit.SECONDS));
+    	assertEquals("reads should not be lost", numThreads * numRecords, planner.plan(managers(), Collections.<String>emptyList()).get(0).score, 0.001);
+    }
+}
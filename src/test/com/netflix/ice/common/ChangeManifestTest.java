@@ -0,0 +1,64 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.common;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class ChangeManifestTest {
+	private static final DateTime jan = DateTime.parse("2020-01-01T00:00:00Z");
+
+	@Test
+	public void testChangesSince() {
+		ChangeManifest manifest = new ChangeManifest();
+		List<ChangeManifest.FileType> fileTypes = Lists.newArrayList(ChangeManifest.FileType.tagdb, ChangeManifest.FileType.daily);
+		manifest.add(jan, Lists.newArrayList("all", "AmazonEC2"), fileTypes, DateTime.now());
+		manifest.add(jan.plusMonths(1), Lists.newArrayList("all"), fileTypes, DateTime.now());
+
+		assertEquals("wrong version", 2, manifest.version);
+		assertEquals("wrong number of changes", 2, manifest.getChangesSince(0).size());
+		assertEquals("no changes expected", 0, manifest.getChangesSince(2).size());
+
+		manifest = ChangeManifest.fromJSON(manifest.toJSON());
+		List<ChangeManifest.Change> changes = manifest.getChangesSince(1);
+		assertEquals("wrong number of changes after round trip", 1, changes.size());
+		assertEquals("wrong month", jan.plusMonths(1), changes.get(0).getMonth());
+		assertTrue("should contain daily for all", changes.get(0).contains("all", ChangeManifest.FileType.daily));
+		assertFalse("should not contain EC2", changes.get(0).contains("AmazonEC2", ChangeManifest.FileType.daily));
+		assertFalse("should not contain hourly", changes.get(0).contains("all", ChangeManifest.FileType.hourly));
+
+		assertNull("version from a reset manifest should need a full reload", manifest.getChangesSince(3));
+	}
+
+	@Test
+	public void testDroppedChanges() {
+		ChangeManifest manifest = new ChangeManifest();
+		for (int i = 0; i < ChangeManifest.maxChanges + 5; i++)
+			manifest.add(jan, Lists.newArrayList("all"), Lists.newArrayList(ChangeManifest.FileType.monthly), DateTime.now());
+
+		assertEquals("old changes should be dropped", ChangeManifest.maxChanges, manifest.changes.size());
+		assertNull("missed changes should need a full reload", manifest.getChangesSince(4));
+		assertEquals("wrong number of changes", ChangeManifest.maxChanges, manifest.getChangesSince(5).size());
+	}
+}
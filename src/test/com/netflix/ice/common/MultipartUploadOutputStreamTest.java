@@ -0,0 +1,296 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.common;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import com.google.common.collect.Maps;
+
+public class MultipartUploadOutputStreamTest {
+	private static final String bucket = "work-bucket";
+	private static ExecutorService pool = Executors.newFixedThreadPool(4);
+
+	@AfterClass
+	public static void shutdown() {
+		pool.shutdownNow();
+	}
+
+	/**
+	 * In-process stand-in for the S3 API calls used by the stream.
+	 */
+	class TestS3 extends AbstractAmazonS3 {
+		Map<String, byte[]> objects = Maps.newConcurrentMap();
+		Map<String, SortedMap<Integer, byte[]>> uploads = Maps.newConcurrentMap();
+		AtomicInteger putCount = new AtomicInteger();
+		AtomicInteger partAttempts = new AtomicInteger();
+		AtomicInteger inFlight = new AtomicInteger();
+		AtomicInteger maxInFlight = new AtomicInteger();
+		AtomicInteger aborted = new AtomicInteger();
+		int failPart = 0; // part number to fail
+		int failuresRemaining = 0;
+
+		@Override
+		public PutObjectResult putObject(PutObjectRequest request) {
+			putCount.incrementAndGet();
+			objects.put(request.getKey(), read(request.getInputStream()));
+			return new PutObjectResult();
+		}
+
+		@Override
+		public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+			InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+			String uploadId = "upload-" + uploads.size();
+			uploads.put(uploadId, new TreeMap<Integer, byte[]>());
+			result.setUploadId(uploadId);
+			return result;
+		}
+
+		@Override
+		public UploadPartResult uploadPart(UploadPartRequest request) {
+			partAttempts.incrementAndGet();
+			int n = inFlight.incrementAndGet();
+			synchronized (maxInFlight) {
+				if (n > maxInFlight.get())
+					maxInFlight.set(n);
+			}
+			try {
+				Thread.sleep(10);
+				synchronized (this) {
+					if (request.getPartNumber() == failPart && failuresRemaining > 0) {
+						failuresRemaining--;
+						throw new AmazonServiceException("simulated failure");
+					}
+				}
+				byte[] data = read(request.getInputStream());
+				assertEquals("wrong part size", request.getPartSize(), data.length);
+				uploads.get(request.getUploadId()).put(request.getPartNumber(), data);
+				UploadPartResult result = new UploadPartResult();
+				result.setPartNumber(request.getPartNumber());
+				result.setETag("etag-" + request.getPartNumber());
+				return result;
+			}
+			catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			finally {
+				inFlight.decrementAndGet();
+			}
+		}
+
+		@Override
+		public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request) {
+			SortedMap<Integer, byte[]> parts = uploads.remove(request.getUploadId());
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			int expected = 1;
+			for (PartETag etag: request.getPartETags()) {
+				assertEquals("parts out of order", expected++, etag.getPartNumber());
+				byte[] data = parts.get(etag.getPartNumber());
+				out.write(data, 0, data.length);
+			}
+			objects.put(request.getKey(), out.toByteArray());
+			return new CompleteMultipartUploadResult();
+		}
+
+		@Override
+		public void abortMultipartUpload(AbortMultipartUploadRequest request) {
+			aborted.incrementAndGet();
+			uploads.remove(request.getUploadId());
+		}
+
+		private byte[] read(InputStream in) {
+			try {
+				return IOUtils.toByteArray(in);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	private byte[] randomBytes(int size) {
+		byte[] data = new byte[size];
+		new Random(size).nextBytes(data);
+		return data;
+	}
+
+	@Test
+	public void testSmallObjectUsesPut() throws IOException {
+		TestS3 s3 = new TestS3();
+		byte[] data = randomBytes(1000);
+
+		OutputStream os = new MultipartUploadOutputStream(s3, bucket, "small", 4096, 2, 0, false, pool);
+		os.write(data);
+		os.close();
+		os.close(); // second close is a no-op
+
+		assertEquals("wrong number of puts", 1, s3.putCount.get());
+		assertEquals("should not start multipart upload", 0, s3.partAttempts.get());
+		assertArrayEquals("wrong object contents", data, s3.objects.get("small"));
+	}
+
+	@Test
+	public void testMultipartUpload() throws IOException {
+		TestS3 s3 = new TestS3();
+		byte[] data = randomBytes(4096 * 10 + 17);
+
+		OutputStream os = new MultipartUploadOutputStream(s3, bucket, "large", 4096, 2, 0, false, pool);
+		// Mix single byte and block writes
+		os.write(data[0]);
+		os.write(data, 1, 5000);
+		os.write(data, 5001, data.length - 5001);
+		os.close();
+
+		assertEquals("should not use put", 0, s3.putCount.get());
+		assertEquals("wrong number of parts", 11, s3.partAttempts.get());
+		assertTrue("too many parts buffered: " + s3.maxInFlight.get(), s3.maxInFlight.get() <= 2);
+		assertArrayEquals("wrong object contents", data, s3.objects.get("large"));
+		assertEquals("upload not completed", 0, s3.uploads.size());
+	}
+
+	@Test
+	public void testGzipStream() throws IOException {
+		TestS3 s3 = new TestS3();
+		byte[] data = randomBytes(50000);
+
+		OutputStream os = new GZIPOutputStream(new MultipartUploadOutputStream(s3, bucket, "data.gz", 8192, 3, 0, false, pool));
+		os.write(data);
+		os.close();
+
+		InputStream in = new GZIPInputStream(new ByteArrayInputStream(s3.objects.get("data.gz")));
+		assertArrayEquals("wrong uncompressed contents", data, IOUtils.toByteArray(in));
+	}
+
+	@Test
+	public void testPartRetry() throws IOException {
+		TestS3 s3 = new TestS3();
+		s3.failPart = 2;
+		s3.failuresRemaining = 1;
+		byte[] data = randomBytes(4096 * 3);
+
+		OutputStream os = new MultipartUploadOutputStream(s3, bucket, "retry", 4096, 2, 2, false, pool);
+		os.write(data);
+		os.close();
+
+		assertEquals("wrong number of part attempts", 4, s3.partAttempts.get());
+		assertArrayEquals("wrong object contents", data, s3.objects.get("retry"));
+		assertEquals("should not abort", 0, s3.aborted.get());
+	}
+
+	@Test
+	public void testPartFailureAbortsUpload() throws IOException {
+		TestS3 s3 = new TestS3();
+		s3.failPart = 1;
+		s3.failuresRemaining = 10;
+		byte[] data = randomBytes(4096 * 3);
+
+		OutputStream os = new MultipartUploadOutputStream(s3, bucket, "fail", 4096, 1, 1, false, pool);
+		try {
+			os.write(data);
+			os.close();
+			fail("expected IOException");
+		}
+		catch (IOException e) {
+		}
+		os.close();
+
+		assertEquals("upload should be aborted", 1, s3.aborted.get());
+		assertNull("object should not exist", s3.objects.get("fail"));
+		assertEquals("upload not cleaned up", 0, s3.uploads.size());
+	}
+
+	@Test
+	public void testAbortKeepsExistingObject() throws IOException {
+		TestS3 s3 = new TestS3();
+		byte[] existing = randomBytes(100);
+		s3.objects.put("archive.gz", existing);
+
+		// Writer fails after several parts have been uploaded
+		MultipartUploadOutputStream upload = new MultipartUploadOutputStream(s3, bucket, "archive.gz", 4096, 2, 0, false, pool);
+		OutputStream os = new GZIPOutputStream(upload);
+		try {
+			os.write(randomBytes(4096 * 20));
+			throw new IOException("simulated serialization failure");
+		}
+		catch (IOException e) {
+			upload.abort();
+		}
+		try {
+			os.close();
+		}
+		catch (IOException e) {
+		}
+		upload.close();
+
+		assertTrue("parts should have been uploaded", s3.partAttempts.get() > 0);
+		assertEquals("upload should be aborted", 1, s3.aborted.get());
+		assertEquals("upload not cleaned up", 0, s3.uploads.size());
+		assertArrayEquals("existing object should be untouched", existing, s3.objects.get("archive.gz"));
+
+		// Failure before the first part fills never writes the object
+		upload = new MultipartUploadOutputStream(s3, bucket, "archive.gz", 4096, 2, 0, false, pool);
+		upload.write(randomBytes(10));
+		upload.abort();
+		upload.close();
+		assertEquals("should not put a partial object", 0, s3.putCount.get());
+		assertArrayEquals("existing object should be untouched", existing, s3.objects.get("archive.gz"));
+	}
+
+	@Test
+	public void testStreamingWorkBucketConfig() {
+		List<WorkBucketConfig.ArchiveType> types = Arrays.asList(WorkBucketConfig.ArchiveType.data, WorkBucketConfig.ArchiveType.tagdb);
+		WorkBucketConfig config = new WorkBucketConfig(bucket, "us-east-1", "", "/tmp", EnumSet.copyOf(types));
+		assertTrue("data should stream", config.isStreaming(WorkBucketConfig.ArchiveType.data));
+		assertFalse("json should not stream", config.isStreaming(WorkBucketConfig.ArchiveType.json));
+
+		WorkBucketConfig noBucket = new WorkBucketConfig(null, null, null, "/tmp", EnumSet.copyOf(types));
+		assertFalse("can't stream without a bucket", noBucket.isStreaming(WorkBucketConfig.ArchiveType.data));
+	}
+}
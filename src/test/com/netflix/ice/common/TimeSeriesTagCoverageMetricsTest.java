@@ -0,0 +1,118 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.common;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.netflix.ice.processor.TagCoverageMetrics;
+
+public class TimeSeriesTagCoverageMetricsTest {
+
+	private TagCoverageMetrics[] makeMetrics(int total) {
+		return new TagCoverageMetrics[]{
+				new TagCoverageMetrics(total, new int[]{ 1, 0 }),
+				new TagCoverageMetrics(total, new int[]{ 1, 0 }),
+				null,
+				new TagCoverageMetrics(total, new int[]{ total, 2 }),
+				new TagCoverageMetrics(total, new int[]{ total, 2 }),
+				new TagCoverageMetrics(total, new int[]{ total, 2 }),
+		};
+	}
+
+	private TimeSeriesTagCoverageMetrics roundTrip(TimeSeriesTagCoverageMetrics ts) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ts.serialize(new DataOutputStream(output));
+		return TimeSeriesTagCoverageMetrics.deserialize(new DataInputStream(new ByteArrayInputStream(output.toByteArray())), 2);
+	}
+
+	@Test
+	public void testGet() throws IOException {
+		for (int total: new int[]{ 5, 100000 }) {
+			TagCoverageMetrics[] metrics = makeMetrics(total);
+			TimeSeriesTagCoverageMetrics ts = roundTrip(new TimeSeriesTagCoverageMetrics(metrics, 2));
+			assertEquals("wrong size", metrics.length, ts.size());
+
+			TagCoverageMetrics[] values = new TagCoverageMetrics[4];
+			ts.get(1, 4, values);
+			assertEquals("wrong total", total, values[0].getTotal());
+			assertEquals("null interval should be empty", 0, values[1].getTotal());
+			assertEquals("wrong count", 2, values[3].getCount(1));
+			assertNotSame("values should not be shared", values[2], values[3]);
+
+			// Past the end
+			ts.get(4, 4, values);
+			assertNotNull("value missing", values[1]);
+			assertNull("value past end should be null", values[2]);
+		}
+	}
+
+	@Test
+	public void testAggregate() throws IOException {
+		for (int total: new int[]{ 5, 100000 }) {
+			TimeSeriesTagCoverageMetrics ts = roundTrip(new TimeSeriesTagCoverageMetrics(makeMetrics(total), 2));
+
+			// Add the series twice, offset by one column
+			TagCoverageColumns columns = new TagCoverageColumns(2, 7);
+			ts.aggregate(0, 6, columns, 0);
+			ts.aggregate(0, 6, columns, 1);
+
+			int[] expectedTotals = { total, total * 2, total, total, total * 2, total * 2, total };
+			int[] expectedCounts = { 1, 2, 1, total, total * 2, total * 2, total };
+			for (int i = 0; i < 7; i++) {
+				assertEquals("wrong total at " + i, expectedTotals[i], columns.getTotal(i));
+				assertEquals("wrong count at " + i, expectedCounts[i], columns.getCount(0, i));
+			}
+			assertEquals("wrong percentage", 100.0, columns.getPercentage(0, 4), 0.001);
+
+			// Starting in the middle of a run
+			columns = new TagCoverageColumns(2, 2);
+			ts.aggregate(4, 4, columns, 0);
+			assertEquals("wrong count", 2, columns.getCount(1, 0));
+			assertEquals("wrong count", 2, columns.getCount(1, 1));
+		}
+	}
+
+	@Test
+	public void testSerializedFormat() throws IOException {
+		// Format must match the per-metrics layout written by earlier releases
+		TagCoverageMetrics[] metrics = makeMetrics(5);
+		metrics[2] = new TagCoverageMetrics(0, new int[]{ 0, 0 });
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(expected);
+		out.writeInt(6);
+		out.writeInt(3);
+		out.writeShort(2);
+		metrics[0].serialize(out);
+		out.writeShort(1);
+		metrics[2].serialize(out);
+		out.writeShort(3);
+		metrics[3].serialize(out);
+
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		new TimeSeriesTagCoverageMetrics(metrics).serialize(new DataOutputStream(actual));
+		assertArrayEquals("wrong serialized data", expected.toByteArray(), actual.toByteArray());
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.processor;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class ColumnDictionaryTest {
+
+	@Test
+	public void testIntern() {
+		ColumnDictionary dict = new ColumnDictionary(Arrays.asList(0, 2, -1));
+		int[] ids = new int[dict.width()];
+
+		String[] row1 = { new String("Usage"), "unused", new String("123456789012") };
+		String[] row2 = { new String("Usage"), "unused", new String("234567890123") };
+		String[] row3 = { new String("Usage"), "unused", new String("123456789012") };
+
+		dict.intern(row1, ids);
+		assertArrayEquals("wrong ids for first row", new int[]{ 0, -1, 0 }, ids);
+		dict.intern(row2, ids);
+		assertArrayEquals("wrong ids for second row", new int[]{ 0, -1, 1 }, ids);
+		assertSame("value not canonical", row1[0], row2[0]);
+		dict.intern(row3, ids);
+		assertArrayEquals("wrong ids for third row", new int[]{ 0, -1, 0 }, ids);
+		assertSame("value not canonical", row1[2], row3[2]);
+
+		assertEquals("wrong number of values", 1, dict.size(0));
+		assertEquals("wrong number of values", 2, dict.size(2));
+		assertEquals("column shouldn't be interned", -1, dict.size(1));
+		assertEquals("wrong value", "234567890123", dict.getValue(2, 1));
+
+		// Short rows get -1 for the missing columns
+		dict.intern(new String[]{ "Usage" }, ids);
+		assertArrayEquals("wrong ids for short row", new int[]{ 0, -1, -1 }, ids);
+	}
+
+	@Test
+	public void testDerived() {
+		ColumnDictionary dict = new ColumnDictionary(Arrays.asList(0));
+		int[] ids = new int[dict.width()];
+		for (int i = 0; i < 100; i++) {
+			dict.intern(new String[]{ "value" + i }, ids);
+			assertNull("unexpected derived value", dict.getDerived(0, ids[0]));
+			dict.putDerived(0, ids[0], i);
+		}
+		dict.intern(new String[]{ "value42" }, ids);
+		assertEquals("wrong derived value", 42, dict.getDerived(0, ids[0]));
+	}
+
+	@Test
+	public void testOverflow() {
+		ColumnDictionary dict = new ColumnDictionary(Arrays.asList(0), 10);
+		int[] ids = new int[dict.width()];
+		for (int i = 0; i < 10; i++) {
+			dict.intern(new String[]{ "value" + i }, ids);
+			assertEquals("wrong id", i, ids[0]);
+		}
+		dict.intern(new String[]{ "value10" }, ids);
+		assertEquals("column should overflow", -1, ids[0]);
+		assertEquals("column should no longer be interned", -1, dict.size(0));
+
+		// Values seen before the overflow aren't interned either
+		dict.intern(new String[]{ "value0" }, ids);
+		assertEquals("column should stay overflowed", -1, ids[0]);
+		assertNull("no derived values after overflow", dict.getDerived(0, 0));
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.processor;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.Test;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+public class DelayedLineItemsTest {
+	private static final String resourcesDir = "src/test/resources";
+
+	@Test
+	public void testRoundTrip() {
+		// Columns 1 and 4 aren't used, so should come back null
+		DelayedLineItems items = new DelayedLineItems(Arrays.asList(5, 0, 2, 3));
+
+		String[] row1 = { "RIFee", "unused", "123456789012", "arn:aws:ec2:us-east-1:123456789012:reserved-instances/aaaa", "unused", "10.0" };
+		String[] row2 = { "Credit", "unused", "123456789012", null, "unused", "-5.0" };
+		String[] shortRow = { "Credit", null, "234567890123" };
+		items.add(row1);
+		items.add(row2);
+		items.add(shortRow);
+
+		assertEquals("wrong size", 3, items.size());
+		// RIFee, Credit, 123456789012, arn, 10.0, -5.0, 234567890123
+		assertEquals("repeated values should be shared", 7, items.getNumValues());
+
+		String[] expected1 = { "RIFee", null, "123456789012", "arn:aws:ec2:us-east-1:123456789012:reserved-instances/aaaa", null, "10.0" };
+		String[] expected2 = { "Credit", null, "123456789012", null, null, "-5.0" };
+		String[] expectedShort = { "Credit", null, "234567890123" };
+
+		String[] row = items.get(0, null);
+		assertArrayEquals("wrong first row", expected1, row);
+		String[] reused = items.get(1, row);
+		assertSame("row array should be reused", row, reused);
+		assertArrayEquals("wrong second row", expected2, reused);
+		assertArrayEquals("wrong short row", expectedShort, items.get(2, reused));
+	}
+
+	@Test
+	public void testGrowth() {
+		DelayedLineItems items = new DelayedLineItems(Arrays.asList(0, 1));
+		for (int i = 0; i < 1000; i++)
+			items.add(new String[]{ "Credit", Integer.toString(i) });
+
+		assertEquals("wrong size", 1000, items.size());
+		assertEquals("wrong number of values", 1001, items.getNumValues());
+		String[] row = null;
+		for (int i = 0; i < 1000; i++) {
+			row = items.get(i, row);
+			assertEquals("wrong value at row " + i, Integer.toString(i), row[1]);
+		}
+	}
+
+	@Test
+	public void testColumnMissingFromManifest() {
+		// The 2018-01 manifest has no lineItem/LegalEntity column, so the used columns include -1
+		S3ObjectSummary s3ObjectSummary = new S3ObjectSummary();
+		s3ObjectSummary.setLastModified(new Date());
+		CostAndUsageReport caur = new CostAndUsageReport(s3ObjectSummary, new File(resourcesDir, "manifest-2018-01.json"), null, "");
+		LineItem lineItem = new LineItem(false, null, caur);
+		assertTrue("manifest should be missing a used column", caur.getUsedColumnIndeces().contains(-1));
+
+		DelayedLineItems items = new DelayedLineItems(caur.getUsedColumnIndeces());
+		int width = 0;
+		for (Integer i: caur.getUsedColumnIndeces())
+			width = Math.max(width, i + 1);
+		String[] row = new String[width];
+		for (int i = 0; i < row.length; i++)
+			row[i] = "value" + i;
+		items.add(row);
+
+		String[] result = items.get(0, null);
+		assertEquals("wrong row length", row.length, result.length);
+		for (Integer i: caur.getUsedColumnIndeces()) {
+			if (i >= 0)
+				assertEquals("wrong value in column " + i, row[i], result[i]);
+		}
+		assertEquals("wrong account", row[lineItem.getAccountIdIndex()], result[lineItem.getAccountIdIndex()]);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testOutOfRange() {
+		DelayedLineItems items = new DelayedLineItems(Arrays.asList(0));
+		items.add(new String[]{ "Credit" });
+		items.get(1, null);
+	}
+}
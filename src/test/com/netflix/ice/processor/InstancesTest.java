@@ -19,10 +19,15 @@ package com.netflix.ice.processor;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 import org.junit.Test;
 
@@ -30,6 +35,7 @@ import com.google.common.collect.Maps;
 import com.netflix.ice.basic.BasicAccountService;
 import com.netflix.ice.basic.BasicProductService;
 import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.Instance;
 import com.netflix.ice.common.ProductService;
 import com.netflix.ice.tag.Account;
 import com.netflix.ice.tag.Product;
@@ -65,4 +71,41 @@ public class InstancesTest {
 		instances.readCsv(reader, as, ps);
 		assertArrayEquals("wrong instance values", originalValues, instances.get(id).values());
 	}
+	
+	@Test
+	public void testBinaryArchive() throws Exception {
+		AccountService as = new BasicAccountService();
+		ProductService ps = new BasicProductService();
+		Account a1 = as.getAccountById("123456789012", "");
+		Account a2 = as.getAccountById("234567890123", "");
+		
+		// Enough instances to fill more than one shard
+		Instances instances = new Instances(null, null, null);
+		int count = Instances.shardSize + 10;
+		for (int i = 0; i < count; i++) {
+			Map<String, String> tags = Maps.newHashMap();
+			tags.put("Name", "app-" + (i % 100));
+			if (i % 3 == 0)
+				tags.put("Environment", i % 2 == 0 ? "prod" : "test");
+			if (i % 2 == 0)
+				instances.add("i-" + i, 0, "c5.large", tags, a1, Region.US_EAST_1, Region.US_EAST_1.getZone("us-east-1a"), ps.getProduct(Product.Code.Ec2));
+			else
+				instances.add("arn:aws:s3:::bucket" + i, 0, "Requests-Tier1", tags, a2, Region.EU_WEST_1, null, ps.getProduct(Product.Code.S3));
+		}
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		Instances.Serializer.serialize(out, instances.values(), 3);
+		out.close();
+		
+		ConcurrentMap<String, Instance> data = Instances.Serializer.deserialize(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), as, ps, 3);
+		assertEquals("wrong number of instances", count, data.size());
+		for (Instance expected: instances.values()) {
+			Instance got = data.get(expected.id);
+			assertNotNull("missing instance " + expected.id, got);
+			assertArrayEquals("wrong instance values", expected.values(), got.values());
+			assertSame("account should be resolved", expected.account, got.account);
+			assertSame("zone should be resolved", expected.zone, got.zone);
+		}
+	}
 }
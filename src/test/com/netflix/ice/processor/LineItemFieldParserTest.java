@@ -0,0 +1,105 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.processor;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+public class LineItemFieldParserTest {
+
+	@Test
+	public void testParseIsoMillis() {
+		String[] times = {
+				"2017-08-01T00:00:00Z",
+				"2017-08-01T01:00:00Z",
+				"2016-02-29T23:59:59Z",
+				"2000-03-01T12:34:56Z",
+				"1999-12-31T23:00:00Z",
+				"2020-01-01T00:00:01Z",
+		};
+		for (String t: times)
+			assertEquals("wrong millis for " + t, LineItem.amazonBillingDateFormatISO.parseMillis(t), LineItemFieldParser.parseIsoMillis(t));
+
+		// Walk every hour of several years, including leap years
+		DateTime dt = new DateTime("2015-01-01", DateTimeZone.UTC);
+		DateTime end = new DateTime("2021-01-01", DateTimeZone.UTC);
+		for (; dt.isBefore(end); dt = dt.plusMinutes(61).plusSeconds(1)) {
+			String t = dt.toString(LineItem.amazonBillingDateFormatISO).replace("+0000", "Z");
+			assertEquals("wrong millis for " + t, dt.getMillis(), LineItemFieldParser.parseIsoMillis(t));
+		}
+	}
+
+	@Test
+	public void testParseIsoMillisFallback() {
+		// Offset form isn't handled by the fast path
+		assertEquals("wrong millis for offset", 1501545600000L, LineItemFieldParser.parseIsoMillis("2017-08-01T00:00:00+0000"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseIsoMillisInvalid() {
+		LineItemFieldParser.parseIsoMillis("2017-02-30T00:00:00Z");
+	}
+
+	@Test
+	public void testTimestampCache() {
+		LineItemFieldParser.TimestampCache cache = new LineItemFieldParser.TimestampCache();
+		assertEquals("wrong millis", 1501545600000L, cache.parseMillis("2017-08-01T00:00:00Z"));
+		assertEquals("wrong cached millis", 1501545600000L, cache.parseMillis(new String("2017-08-01T00:00:00Z")));
+		assertEquals("wrong millis after change", 1501549200000L, cache.parseMillis("2017-08-01T01:00:00Z"));
+	}
+
+	@Test
+	public void testParseDouble() {
+		String[] values = {
+				"0", "0.0", "-0.0", "1", "-1", "1.0000000000", "0.0280000000", "0.0000000000",
+				"123.456", "-5.0", ".5", "5.", "1E-10", "1.5e3", "2.5E+2", "0.1", "0.3",
+				"9007199254740993", "12345678901234567890", "0.12345678901234567890",
+				"1e23", "1e-23", "4.9e-324", "1.7976931348623157e308", "0.00000000000000000000000001",
+				"123456789.123456789", "24.0000000000", "0.0000347222",
+		};
+		for (String v: values)
+			assertEquals("wrong value for " + v, Double.doubleToLongBits(Double.parseDouble(v)), Double.doubleToLongBits(LineItemFieldParser.parseDouble(v)));
+
+		Random random = new Random(1);
+		for (int i = 0; i < 100000; i++) {
+			String v = new BigDecimal(random.nextDouble() * Math.pow(10, random.nextInt(12) - 4)).setScale(random.nextInt(12), BigDecimal.ROUND_HALF_UP).toPlainString();
+			if (random.nextBoolean())
+				v = "-" + v;
+			assertEquals("wrong value for " + v, Double.doubleToLongBits(Double.parseDouble(v)), Double.doubleToLongBits(LineItemFieldParser.parseDouble(v)));
+		}
+	}
+
+	@Test
+	public void testParseDoubleInvalid() {
+		String[] values = { "", "-", ".", "abc", "1.2.3", "1e", "--1", "1,000" };
+		for (String v: values) {
+			try {
+				LineItemFieldParser.parseDouble(v);
+				fail("expected NumberFormatException for \"" + v + "\"");
+			}
+			catch (NumberFormatException e) {
+			}
+		}
+	}
+}
@@ -21,10 +21,12 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.util.Date;
+import java.util.Map;
 
 import org.junit.Test;
 
 import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.google.common.collect.Maps;
 
 public class LineItemTest {
     private static final String resourcesDir = "src/test/resources";
@@ -80,5 +82,21 @@ public class LineItemTest {
 		assertEquals("Wrong resource tag value", "Prod", li.getResourceTag(0));
 		assertEquals("Wrong tags string", "Prod", li.getResourceTags().get("Environment"));
 	}
-
+	
+	@Test
+	public void testResourceTagsEqual() {
+		S3ObjectSummary s3ObjectSummary = new S3ObjectSummary();
+		s3ObjectSummary.setLastModified(new Date());
+		CostAndUsageReport caur = new CostAndUsageReport(s3ObjectSummary, new File(resourcesDir, "LineItemTest-Manifest.json"), null, "");
+		LineItem li = new LineItem(false, null, caur);		
+		li.setItems(item);
+		Map<String, String> tags = Maps.newHashMap();
+		tags.put("Environment", "Prod");
+		assertTrue("tags should be equal", li.resourceTagsEqual(tags));
+		tags.put("Environment", "Test");
+		assertFalse("tags with different value should not be equal", li.resourceTagsEqual(tags));
+		tags.put("Environment", "Prod");
+		tags.put("Name", "foo");
+		assertFalse("tags with extra key should not be equal", li.resourceTagsEqual(tags));
+	}
 }
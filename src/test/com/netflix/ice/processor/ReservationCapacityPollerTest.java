@@ -21,16 +21,32 @@ import static org.junit.Assert.*;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.joda.time.DateTime;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.ec2.AbstractAmazonEC2;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeRegionsResult;
+import com.amazonaws.services.ec2.model.DescribeReservedInstancesModificationsResult;
+import com.amazonaws.services.ec2.model.DescribeReservedInstancesResult;
 import com.amazonaws.services.ec2.model.OfferingClassType;
 import com.amazonaws.services.ec2.model.ReservedInstances;
 import com.amazonaws.services.ec2.model.ReservedInstancesId;
 import com.amazonaws.services.ec2.model.ReservedInstancesModification;
 import com.amazonaws.services.ec2.model.ReservedInstancesModificationResult;
+import com.amazonaws.services.rds.AbstractAmazonRDS;
+import com.amazonaws.services.rds.AmazonRDS;
+import com.amazonaws.services.rds.model.DescribeReservedDBInstancesResult;
+import com.amazonaws.services.rds.model.ReservedDBInstance;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.netflix.ice.basic.BasicAccountService;
@@ -45,7 +61,9 @@ import com.netflix.ice.processor.ReservationCapacityPoller;
 import com.netflix.ice.processor.ReservationCapacityPoller.Ec2Mods;
 import com.netflix.ice.processor.ReservationService.ReservationKey;
 import com.netflix.ice.processor.ReservationService.ReservationPeriod;
+import com.netflix.ice.processor.config.AccountConfig;
 import com.netflix.ice.processor.pricelist.PriceListService;
+import com.netflix.ice.tag.Account;
 import com.netflix.ice.tag.Region;
 
 public class ReservationCapacityPollerTest {
@@ -217,4 +235,152 @@ public class ReservationCapacityPollerTest {
 				new BasicResourceService(ps, new String[]{}, false), reservationService);
 		assertEquals("Wrong number of reservations", reservationsFromApi.size(), reservationService.getReservations().size());
 	}
+	
+	/*
+	 * Poller using local stub clients. Each account has one EC2 reservation in each of two regions
+	 * and one RDS reservation in each region. The account ID is passed to the clients as the access key.
+	 */
+	class StubPoller extends ReservationCapacityPoller {
+		final AtomicInteger active = new AtomicInteger();
+		final AtomicInteger maxActive = new AtomicInteger();
+		final AtomicInteger rdsThrottles = new AtomicInteger();
+		final ConcurrentMap<String, Integer> ec2Counts = Maps.newConcurrentMap();
+		
+		StubPoller() {
+			super(null);
+			numThreads = 4;
+			requestsPerSecond = 1000.0;
+			initialBackoffMillis = 10;
+		}
+		
+		private void slowRequest() {
+			int n = active.incrementAndGet();
+			synchronized (maxActive) {
+				maxActive.set(Math.max(maxActive.get(), n));
+			}
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+			}
+			active.decrementAndGet();
+		}
+		
+		@Override
+		protected AWSCredentialsProvider getCredentialsProvider(Account account, AccountService accountService) {
+			return new AWSStaticCredentialsProvider(new BasicAWSCredentials(account.getId(), "secret"));
+		}
+		
+		@Override
+		protected AmazonEC2 getEc2Client(final String region, final AWSCredentialsProvider credentialsProvider) {
+			return new AbstractAmazonEC2() {
+				@Override
+				public DescribeRegionsResult describeRegions() {
+					return new DescribeRegionsResult().withRegions(
+							new com.amazonaws.services.ec2.model.Region().withRegionName("us-east-1"),
+							new com.amazonaws.services.ec2.model.Region().withRegionName("us-west-2"));
+				}
+				@Override
+				public DescribeReservedInstancesModificationsResult describeReservedInstancesModifications() {
+					return new DescribeReservedInstancesModificationsResult();
+				}
+				@Override
+				public DescribeReservedInstancesResult describeReservedInstances() {
+					slowRequest();
+					String accountId = credentialsProvider.getCredentials().getAWSAccessKeyId();
+					Integer count = ec2Counts.get(accountId);
+					ReservedInstances ri = new ReservedInstances()
+							.withReservedInstancesId("ri-" + accountId + "-" + region)
+							.withInstanceType("m5.large")
+							.withInstanceCount(count == null ? 1 : count)
+							.withFixedPrice((float) 0.0)
+							.withUsagePrice((float) 0.0)
+							.withOfferingType("No Upfront")
+							.withOfferingClass(OfferingClassType.Standard)
+							.withScope("Region")
+							.withProductDescription("Linux/UNIX")
+							.withState("active")
+							.withCurrencyCode("USD")
+							.withStart(new DateTime("2020-01-01").toDate())
+							.withEnd(new DateTime("2021-01-01").toDate())
+							.withDuration(31536000L);
+					return new DescribeReservedInstancesResult().withReservedInstances(ri);
+				}
+				@Override
+				public void shutdown() {
+				}
+			};
+		}
+		
+		@Override
+		protected AmazonRDS getRdsClient(final String region, final AWSCredentialsProvider credentialsProvider) {
+			return new AbstractAmazonRDS() {
+				@Override
+				public DescribeReservedDBInstancesResult describeReservedDBInstances() {
+					if (rdsThrottles.getAndDecrement() > 0) {
+						AmazonServiceException e = new AmazonServiceException("Rate exceeded");
+						e.setErrorCode("Throttling");
+						e.setStatusCode(400);
+						throw e;
+					}
+					slowRequest();
+					String accountId = credentialsProvider.getCredentials().getAWSAccessKeyId();
+					ReservedDBInstance ri = new ReservedDBInstance()
+							.withReservedDBInstanceId("rds-" + accountId + "-" + region)
+							.withReservedDBInstancesOfferingId("offering")
+							.withDBInstanceClass("db.m5.large")
+							.withMultiAZ(false)
+							.withStartTime(new DateTime("2020-01-01").toDate())
+							.withDuration(31536000)
+							.withUsagePrice(0.0)
+							.withFixedPrice(100.0)
+							.withDBInstanceCount(1)
+							.withProductDescription("mysql")
+							.withState("active")
+							.withCurrencyCode("USD")
+							.withOfferingType("Partial Upfront");
+					return new DescribeReservedDBInstancesResult().withReservedDBInstances(ri);
+				}
+				@Override
+				public void shutdown() {
+				}
+			};
+		}
+	}
+	
+	private AccountService getReservationAccounts(int numAccounts) {
+		Map<String, AccountConfig> configs = Maps.newHashMap();
+		for (int i = 0; i < numAccounts; i++) {
+			String id = String.format("%012d", i + 1);
+			configs.put(id, new AccountConfig(id, "account" + i, null, null, null, Lists.newArrayList("ec2", "rds"), null, null));
+		}
+		return new BasicAccountService(configs);
+	}
+	
+	@Test
+	public void testPullReservations() throws Exception {
+		StubPoller poller = new StubPoller();
+		AccountService as = getReservationAccounts(4);
+		poller.rdsThrottles.set(2);
+		
+		Map<ReservationKey, CanonicalReservedInstances> reservations = Maps.newTreeMap();
+		Set<Account> changed = poller.pullReservations(reservations, as, null);
+		assertEquals("wrong number of reservations", 4 * 2 * 2, reservations.size());
+		assertEquals("all accounts should be changed on first pull", 4, changed.size());
+		assertTrue("requests should run concurrently", poller.maxActive.get() > 1);
+		assertTrue("no more concurrent requests than threads", poller.maxActive.get() <= 4);
+		
+		// Nothing changed
+		changed = poller.pullReservations(reservations, as, null);
+		assertTrue("no accounts should be changed", changed.isEmpty());
+		
+		// Change one account and read the others through the archive format
+		Map<ReservationKey, CanonicalReservedInstances> archived = Maps.newTreeMap();
+		for (ReservationKey key: reservations.keySet())
+			archived.put(key, new CanonicalReservedInstances(reservations.get(key).toString()));
+		poller.ec2Counts.put("000000000002", 3);
+		changed = poller.pullReservations(archived, as, null);
+		assertEquals("wrong number of changed accounts", 1, changed.size());
+		assertEquals("wrong changed account", "000000000002", changed.iterator().next().getId());
+		assertEquals("wrong instance count", 3, archived.get(new ReservationKey("000000000002", "us-west-2", "ri-000000000002-us-west-2")).getInstanceCount().intValue());
+	}
 }
@@ -20,7 +20,7 @@ package com.netflix.ice.processor.kubernetes;
 import static org.junit.Assert.*;
 
 import java.io.File;
-import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.joda.time.DateTime;
@@ -31,6 +31,7 @@ import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.google.common.collect.Maps;
 import com.netflix.ice.basic.BasicProductService;
 import com.netflix.ice.basic.BasicResourceService;
 import com.netflix.ice.common.ResourceService;
@@ -74,7 +75,11 @@ public class KubernetesReportTest {
         AllocationConfig ac = new AllocationConfig();
         S3BucketConfig bc = new S3BucketConfig().withName("test-bucket").withRegion("us-east-1").withAccountId("123456789012");
         ac.setS3Bucket(bc);
-        ac.setKubernetes(new KubernetesConfig());
+        KubernetesConfig kc = new KubernetesConfig();
+        Map<String, String> out = Maps.newHashMap();
+        out.put("Namespace", "K8sNamespace");
+        kc.setOut(out);
+        ac.setKubernetes(kc);
         ResourceService rs = new BasicResourceService(new BasicProductService(), customTags, false);
         
 		TestKubernetesReport tkr = new TestKubernetesReport(ac, new DateTime("2019-01", DateTimeZone.UTC), rs);
@@ -83,51 +88,58 @@ public class KubernetesReportTest {
 		tkr.readFile(file);
 		
 		assertEquals("Wrong number of clusters", 4, tkr.getClusters().size());
-		assertEquals("Should not have data at hour 0", 0, tkr.getData("dev-usw2a", 0, null).size());
-		assertEquals("Should have data at hour 395", 10, tkr.getData("dev-usw2a", 395, null).size());
+		assertEquals("Should not have data at hour 0", 0, tkr.getData("dev-usw2a", 0, null).length);
+		assertEquals("Should have data at hour 395", 10, tkr.getData("dev-usw2a", 395, null).length);
+		assertNull("Should not have data past the end", tkr.getData("dev-usw2a", 744, null));
+		assertNull("Should not have data for unknown cluster", tkr.getData("unknown", 395, null));
 		
-		List<String[]> data = tkr.getData("dev-usw2a", 395, null);
+		int[] data = tkr.getData("dev-usw2a", 395, null);
 		
 		// find the kube-system namespace
-		String[] kubeSystem = null;
-		for (String[] item: data) {
-			if (tkr.getString(item, KubernetesColumn.Namespace).equals("kube-system")) {
-				kubeSystem = item;
+		int kubeSystem = -1;
+		for (int row: data) {
+			if (tkr.getString(row, KubernetesColumn.Namespace).equals("kube-system")) {
+				kubeSystem = row;
 				break;
 			}
 		}
 		
-		assertNotNull("Missing item in report", kubeSystem);
+		assertTrue("Missing item in report", kubeSystem >= 0);
 		class ItemValue {
 			KubernetesColumn col;
-			String value;
+			double value;
 			
-			ItemValue(KubernetesColumn c, String v) {
+			ItemValue(KubernetesColumn c, double v) {
 				col = c;
 				value = v;
 			}
 		}
 		ItemValue[] itemValues = new ItemValue[]{
-				new ItemValue(KubernetesColumn.StartDate, "2019-01-17T11:00:00Z"),
-				new ItemValue(KubernetesColumn.EndDate, "2019-01-17T12:00:00Z"),
-				new ItemValue(KubernetesColumn.RequestsCPUCores, "1.960000000000001"),
-				new ItemValue(KubernetesColumn.UsedCPUCores, "0.09185591484457487"),
-				new ItemValue(KubernetesColumn.LimitsCPUCores, "1.7000000000000008"),
-				new ItemValue(KubernetesColumn.ClusterCPUCores, "156"),
-				new ItemValue(KubernetesColumn.RequestsMemoryGiB, "2.158203125"),
-				new ItemValue(KubernetesColumn.UsedMemoryGiB, "1.7474441528320312"),
-				new ItemValue(KubernetesColumn.LimitsMemoryGiB, "5.87890625"),
-				new ItemValue(KubernetesColumn.ClusterMemoryGiB, "576.1466674804688"),
-				new ItemValue(KubernetesColumn.NetworkInGiB, "0.0016675007839997604"),
-				new ItemValue(KubernetesColumn.ClusterNetworkInGiB, "0.004905043024983669"),
-				new ItemValue(KubernetesColumn.NetworkOutGiB, "0.00102091437826554"),
-				new ItemValue(KubernetesColumn.ClusterNetworkOutGiB, "0.003215055426130298"),
-				new ItemValue(KubernetesColumn.PersistentVolumeClaimGiB, "0"),
-				new ItemValue(KubernetesColumn.ClusterPersistentVolumeClaimGiB, "308"),
+				new ItemValue(KubernetesColumn.RequestsCPUCores, 1.960000000000001),
+				new ItemValue(KubernetesColumn.UsedCPUCores, 0.09185591484457487),
+				new ItemValue(KubernetesColumn.ClusterCPUCores, 156),
+				new ItemValue(KubernetesColumn.RequestsMemoryGiB, 2.158203125),
+				new ItemValue(KubernetesColumn.UsedMemoryGiB, 1.7474441528320312),
+				new ItemValue(KubernetesColumn.ClusterMemoryGiB, 576.1466674804688),
+				new ItemValue(KubernetesColumn.NetworkInGiB, 0.0016675007839997604),
+				new ItemValue(KubernetesColumn.ClusterNetworkInGiB, 0.004905043024983669),
+				new ItemValue(KubernetesColumn.NetworkOutGiB, 0.00102091437826554),
+				new ItemValue(KubernetesColumn.ClusterNetworkOutGiB, 0.003215055426130298),
+				new ItemValue(KubernetesColumn.PersistentVolumeClaimGiB, 0),
+				new ItemValue(KubernetesColumn.ClusterPersistentVolumeClaimGiB, 308),
 		};
 		for (ItemValue iv: itemValues) {
-			assertEquals("Wrong value for " + iv.col, iv.value, tkr.getString(kubeSystem, iv.col));	
+			assertEquals("Wrong value for " + iv.col, iv.value, tkr.getDouble(kubeSystem, iv.col), 1e-15);	
 		}
+		
+		// Columns not used for allocation aren't loaded
+		assertEquals("Limits should not be loaded", "", tkr.getString(kubeSystem, KubernetesColumn.LimitsCPUCores));
+		assertEquals("Limits should not be loaded", 0.0, tkr.getDouble(kubeSystem, KubernetesColumn.LimitsMemoryGiB), 0.0);
+		
+		// Rows for each hour are in report order
+		int[] rows = tkr.getData("dev-usw2a", 395, null);
+		assertEquals("wrong first namespace", "ant", tkr.getString(rows[0], KubernetesColumn.Namespace));
+		assertEquals("wrong second namespace", "bot-test", tkr.getString(rows[1], KubernetesColumn.Namespace));
 	}
 	
 	@Test
@@ -24,6 +24,7 @@ import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import com.netflix.ice.common.TagConfig;
 import com.netflix.ice.processor.TagMappers;
@@ -455,5 +456,58 @@ public class AllocationReportTest {
 		assertEquals("wrong number of candidates", 0, candidates.size());		
 	}
 	
+	// Matching rules used before the key index was added
+	private Map<Key, Double> getMostSpecificByScan(HourData hourData, List<String> inTags) {
+		Key key = new Key(inTags);
+		if (hourData.containsKey(key))
+			return hourData.get(key);
+		key = null;
+		int maxValues = -1;
+		for (Key k: hourData.getCandidates(new Key(inTags))) {
+			if (k.numValues() > maxValues) {
+				maxValues = k.numValues();
+				key = k;
+			}
+		}
+		return key == null ? null : hourData.get(key);
+	}
+	
+	@Test
+	public void testMostSpecificKey() {
+		String[][] values = new String[][]{
+				{ "", "Apple", "Apricot", "A*", "*", "Ap?le" },
+				{ "", "Banana", "Berry", "B*", "B?nan?" },
+				{ "", "Cantalope", "Cherry", "C*rry", "*" },
+		};
+		String[][] queries = new String[][]{
+				{ "", "Apple", "Apricot", "Avocado", "Apple2", "A*" },
+				{ "", "Banana", "Berry", "Bonanza", "Kiwi" },
+				{ "", "Cantalope", "Cherry", "Curry", "Date" },
+		};
+		Random random = new Random(12345);
+		for (boolean withWildcards: new boolean[]{ false, true }) {
+			for (int trial = 0; trial < 20; trial++) {
+				HourData hourData = new HourData();
+				int numKeys = 1 + random.nextInt(30);
+				for (int i = 0; i < numKeys; i++) {
+					Map<Key, Double> allocations = Maps.newHashMap();
+					allocations.put(new Key(Lists.newArrayList(new String[]{"out" + i})), 1.0);
+					List<String> tags = Lists.newArrayList();
+					for (String[] v: values)
+						tags.add(v[random.nextInt(v.length)]);
+					hourData.put(new Key(tags), allocations, withWildcards);
+				}
+				
+				for (String a: queries[0]) {
+					for (String b: queries[1]) {
+						for (String c: queries[2]) {
+							List<String> inTags = Lists.newArrayList(new String[]{a, b, c});
+							assertSame("wrong allocations for " + inTags + " with keys " + hourData.keySet(), getMostSpecificByScan(hourData, inTags), hourData.getMostSpecific(inTags));
+						}
+					}
+				}
+			}
+		}
+	}
 
 }
@@ -0,0 +1,233 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.processor.postproc;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.google.common.collect.Lists;
+import com.netflix.ice.basic.BasicAccountService;
+import com.netflix.ice.basic.BasicProductService;
+import com.netflix.ice.basic.BasicResourceService;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.AggregationTagGroup;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.processor.CostAndUsageData;
+import com.netflix.ice.processor.DataSerializer;
+import com.netflix.ice.processor.DataSerializer.CostAndUsage;
+import com.netflix.ice.tag.Product;
+
+public class QueryPlannerTest {
+    static private ProductService ps;
+    static private AccountService as;
+    static private BasicResourceService rs;
+    static private String a1 = "1111111111111";
+    static private String a2 = "2222222222222";
+    static final String productCode = Product.Code.CloudFront.serviceCode;
+
+    @BeforeClass
+    static public void init() {
+        ps = new BasicProductService();
+        as = new BasicAccountService();
+        rs = new BasicResourceService(ps, new String[]{"Key1","Key2"}, false);
+        ps.getProduct(Product.Code.CloudFront);
+        ps.getProduct(Product.Code.CloudWatch);
+    }
+
+    private RuleConfig getConfig(String yaml) throws JsonParseException, JsonMappingException, IOException {
+        ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, true);
+        RuleConfig rc = new RuleConfig();
+        return mapper.readValue(yaml, rc.getClass());
+    }
+
+    private CostAndUsageData loadData() throws Exception {
+        TagGroupSpec[] dataSpecs = new TagGroupSpec[]{
+                new TagGroupSpec("Recurring", a1, "us-east-1", productCode, "OP1", "US-Requests-1", 10.0, 1000.0),
+                new TagGroupSpec("Recurring", a1, "us-east-1", productCode, "OP1", "US-Requests-2", 20.0, 2000.0),
+                new TagGroupSpec("Recurring", a2, "us-east-1", productCode, "OP2", "US-Requests-1", 80.0, 8000.0),
+                new TagGroupSpec("Recurring", a1, "eu-west-1", productCode, "OP1", "EU-Requests-1", 100.0, 10000.0),
+                new TagGroupSpec("Recurring", a2, "eu-west-1", productCode, "OP1", "EU-DataTransfer-Out-Bytes", 400.0, 40000.0),
+        };
+        CostAndUsageData cauData = new CostAndUsageData(null, 0, null, null, null, as, ps);
+        cauData.enableTagGroupCache(true);
+        DataSerializer data = cauData.get(null);
+        TagGroupSpec.loadData(dataSpecs, data, 0, as, ps);
+        TagGroupSpec.loadData(dataSpecs, data, 1, as, ps);
+        return cauData;
+    }
+
+    private String computedCostYaml = "" +
+            "name: ComputedCost\n" +
+            "start: 2019-11\n" +
+            "end: 2022-11\n" +
+            "operands:\n" +
+            "  total:\n" +
+            "    filter:\n" +
+            "      product: [" + productCode + "]\n" +
+            "    groupBy: []\n" +
+            "    groupByTags: []\n" +
+            "in:\n" +
+            "  filter:\n" +
+            "    costType: [Recurring]\n" +
+            "    product: [" + productCode + "]\n" +
+            "    usageType: ['..-Requests-[12].*']\n" +
+            "patterns:\n" +
+            "  region: '(..)-.*'\n" +
+            "results:\n" +
+            "- out:\n" +
+            "    product: ComputedCost\n" +
+            "    usageType: ${region}-Requests\n" +
+            "  cost: '${in.usage} * ${total.cost} / 1000000'\n" +
+            "  usage: '${in.usage}'\n";
+
+    private String byAccountYaml = "" +
+            "name: ByAccount\n" +
+            "start: 2019-11\n" +
+            "end: 2022-11\n" +
+            "in:\n" +
+            "  monthly: true\n" +
+            "  groupBy: [account]\n" +
+            "results:\n" +
+            "- out:\n" +
+            "    product: CloudWatch\n" +
+            "    usageType: Dollar\n" +
+            "  cost: '${in.cost} * 0.1'\n";
+
+    private void assertSameResults(String message, Map<AggregationTagGroup, CostAndUsage[]> expected, Map<AggregationTagGroup, CostAndUsage[]> actual) {
+        assertEquals(message + " wrong number of aggregations", expected.size(), actual.size());
+        for (AggregationTagGroup atg: expected.keySet()) {
+            CostAndUsage[] e = expected.get(atg);
+            CostAndUsage[] a = actual.get(atg);
+            assertNotNull(message + " missing aggregation " + atg, a);
+            assertEquals(message + " wrong number of values", e.length, a.length);
+            for (int i = 0; i < e.length; i++) {
+                assertEquals(message + " wrong cost", e[i].cost, a[i].cost, 0.0001);
+                assertEquals(message + " wrong usage", e[i].usage, a[i].usage, 0.0001);
+            }
+        }
+    }
+
+    @Test
+    public void testSharedResults() throws Exception {
+        CostAndUsageData cauData = loadData();
+        Rule computed = new Rule(getConfig(computedCostYaml), as, ps, rs.getCustomTags());
+        Rule byAccount = new Rule(getConfig(byAccountYaml), as, ps, rs.getCustomTags());
+        FixedRuleProcessor frp = new FixedRuleProcessor(computed, as, ps);
+        int maxNum = cauData.getMaxNum();
+
+        QueryPlanner planner = new QueryPlanner(cauData, as, ps);
+        planner.add(computed);
+        planner.add(byAccount);
+
+        List<Query> queries = Lists.newArrayList(computed.getOperand("total"), computed.getIn(), byAccount.getIn());
+        for (Query query: queries) {
+            Map<AggregationTagGroup, CostAndUsage[]> expected = frp.runQuery(query, cauData, true, maxNum, "test");
+            assertFalse("query should have results", expected.isEmpty());
+            assertSameResults(query.toString(), expected, planner.getResults(query, true, maxNum));
+        }
+        assertNull("results should not be returned for a different number of hours", planner.getResults(computed.getIn(), true, maxNum + 1));
+
+        // Change the data and make sure the results are recomputed
+        TagGroupSpec[] moreSpecs = new TagGroupSpec[]{
+                new TagGroupSpec("Recurring", a2, "eu-west-1", productCode, "OP3", "EU-Requests-2", 1.0, 100.0),
+        };
+        TagGroupSpec.loadData(moreSpecs, cauData.get(null), 1, as, ps);
+        for (Query query: queries) {
+            Map<AggregationTagGroup, CostAndUsage[]> expected = frp.runQuery(query, cauData, true, maxNum, "test");
+            assertSameResults(query.toString() + " after change", expected, planner.getResults(query, true, maxNum));
+        }
+
+        // Results are dropped once the rules are done
+        planner.done(computed);
+        assertNull("results should be dropped", planner.getResults(computed.getIn(), true, maxNum));
+        assertNotNull("results should be kept", planner.getResults(byAccount.getIn(), true, maxNum));
+        planner.done(byAccount);
+        assertNull("results should be dropped", planner.getResults(byAccount.getIn(), true, maxNum));
+    }
+
+    private void process(CostAndUsageData cauData, List<Rule> rules, boolean usePlanner) throws Exception {
+        QueryPlanner planner = usePlanner ? new QueryPlanner(cauData, as, ps) : null;
+        if (planner != null) {
+            for (Rule rule: rules)
+                planner.add(rule);
+        }
+        for (Rule rule: rules) {
+            FixedRuleProcessor frp = new FixedRuleProcessor(rule, as, ps);
+            frp.setQueryPlanner(planner);
+            frp.process(cauData);
+            if (planner != null)
+                planner.done(rule);
+        }
+    }
+
+    @Test
+    public void testRulesReadEarlierResults() throws Exception {
+        // The second rule reads the output of the first, so must not use results from before the first rule ran
+        List<Rule> rules = Lists.newArrayList(
+                new Rule(getConfig(computedCostYaml), as, ps, rs.getCustomTags()),
+                new Rule(getConfig(byAccountYaml), as, ps, rs.getCustomTags()));
+
+        CostAndUsageData expected = loadData();
+        process(expected, rules, false);
+        CostAndUsageData actual = loadData();
+        process(actual, rules, true);
+
+        for (Product product: ps.getProducts()) {
+            DataSerializer e = expected.get(product);
+            DataSerializer a = actual.get(product);
+            assertEquals("wrong data presence for product " + product, e == null, a == null);
+            if (e == null)
+                continue;
+            assertEquals("wrong number of hours for product " + product, e.getNum(), a.getNum());
+            for (int hour = 0; hour < e.getNum(); hour++) {
+                Map<TagGroup, CostAndUsage> eData = e.getData(hour);
+                Map<TagGroup, CostAndUsage> aData = a.getData(hour);
+                assertEquals("wrong number of tag groups for product " + product, eData.size(), aData.size());
+                for (TagGroup tg: eData.keySet()) {
+                    assertNotNull("missing tag group " + tg, aData.get(tg));
+                    assertEquals("wrong cost for " + tg, eData.get(tg).cost, aData.get(tg).cost, 0.0001);
+                    assertEquals("wrong usage for " + tg, eData.get(tg).usage, aData.get(tg).usage, 0.0001);
+                }
+            }
+        }
+        DataSerializer nonResource = actual.get(null);
+        assertEquals("wrong data size", expected.get(null).getTagGroups().size(), nonResource.getTagGroups().size());
+        for (TagGroup tg: expected.get(null).getTagGroups()) {
+            for (int hour = 0; hour < nonResource.getNum(); hour++) {
+                CostAndUsage e = expected.get(null).get(hour, tg);
+                CostAndUsage a = nonResource.get(hour, tg);
+                assertEquals("wrong presence for " + tg, e == null, a == null);
+                if (e != null)
+                    assertEquals("wrong cost for " + tg, e.cost, a.cost, 0.0001);
+            }
+        }
+    }
+}
@@ -218,6 +218,48 @@ public class QueryTest {
 		assertNotNull("tag groups should match with correct user tag", q.aggregateTagGroup(tg, as, ps));
 	}
 
+	@Test
+	public void testGetLiterals() {
+		assertEquals("wrong literals", Lists.newArrayList("us-east-1"), Query.getLiterals("us-east-1"));
+		assertEquals("wrong literals", Lists.newArrayList("OP1", "OP2", ""), Query.getLiterals("OP1|OP2|"));
+		assertNull("dot is a regex", Query.getLiterals("m5.large"));
+		assertNull("group is a regex", Query.getLiterals("(OP1|OP2)"));
+		assertNull("escape is a regex", Query.getLiterals("OP\\d"));
+	}
+	
+	@Test
+	public void testTagFilterMatching() throws Exception {
+		TagGroupFilterConfig tgfc = new TagGroupFilterConfig();
+		QueryConfig oc = new QueryConfig();
+		oc.setFilter(tgfc);
+		tgfc.setOperation(Lists.newArrayList("OP1|OP2", "OP[5-6]"));
+		tgfc.setUsageType(Lists.newArrayList("UT.", "Other"));
+		tgfc.setExclude(Lists.newArrayList(Rule.TagKey.usageType));
+		Query q = new Query(oc, userTagKeys);
+		
+		String[][] cases = new String[][]{
+				// operation, usageType, expect match
+				{ "OP1", "Dollar", "true" },
+				{ "OP2", "Dollar", "true" },
+				{ "OP3", "Dollar", "false" },
+				{ "OP5", "Dollar", "true" },
+				{ "OP1|OP2", "Dollar", "false" },
+				{ "OP1", "UT1", "false" },
+				{ "OP6", "Other", "false" },
+				{ "OP6", "UT12", "true" },
+		};
+		// Run twice to check the memoized results
+		for (int i = 0; i < 2; i++) {
+			for (String[] c: cases) {
+				TagGroup tg = TagGroup.getTagGroup("Recurring", "123456789012", "us-east-1", null, "IOTestProduct", c[0], c[1], "", null, as, ps);
+				AggregationTagGroup atg = q.aggregateTagGroup(tg, as, ps);
+				assertEquals("wrong match for " + c[0] + ", " + c[1], Boolean.parseBoolean(c[2]), atg != null);
+				if (atg != null)
+					assertEquals("wrong aggregation", q.getAggregation().getAggregationTagGroup(tg), atg);
+			}
+		}
+	}
+	
 	@Test(expected = Exception.class)
 	public void testInvalidUserTagKey() throws Exception {
 		QueryConfig oc = new QueryConfig();
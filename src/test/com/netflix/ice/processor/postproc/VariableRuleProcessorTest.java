@@ -28,6 +28,8 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVRecord;
@@ -90,7 +92,11 @@ public class VariableRuleProcessorTest {
 		private AllocationReport ar;
 
 		public TestVariableRuleProcessor(Rule rule, CostAndUsageData outCauData, AllocationReport ar, ResourceService rs) {
-			super(a1, rule, outCauData, as, ps, rs, null, null);
+			this(rule, outCauData, ar, rs, null);
+		}
+
+		public TestVariableRuleProcessor(Rule rule, CostAndUsageData outCauData, AllocationReport ar, ResourceService rs, ExecutorService pool) {
+			super(a1, rule, outCauData, as, ps, rs, null, pool);
 			this.ar = ar;
 		}
 
@@ -810,6 +816,75 @@ public class VariableRuleProcessorTest {
         }
 	}
 
+	@Test
+	public void testHourlyReportWithAllocationReportInParallel() throws Exception {
+		BasicResourceService rs = new BasicResourceService(ps, new String[]{"Key1","Key2"}, false);
+		String allocationYaml = "" +
+				"name: report-test\n" +
+				"start: 2019-11\n" +
+				"end: 2022-11\n" +
+				"report:\n" +
+				"  aggregate: [hourly]\n" +
+				"in:\n" +
+				"  filter:\n" +
+				"    userTags:\n" +
+				"      Key2: [compute]\n" +
+				"  groupBy: [costType,account]\n" +
+				"allocation:\n" +
+				"  s3Bucket:\n" +
+				"    name: reports\n" +
+				"  in:\n" +
+				"    Key1: Key1\n" +
+				"  out:\n" +
+				"    Key2: Key2\n" +
+				"";
+        TagGroupSpec[] dataSpecs = new TagGroupSpec[]{
+        		new TagGroupSpec("Recurring", a1, "us-east-1", ec2Instance, "RunInstances", "m5.2xlarge", new String[]{"clusterA", "compute"}, 100.0, 0),
+        		new TagGroupSpec("Recurring", a1, "us-east-1", ebs, "CreateVolume-Gp2", "EBS:VolumeUsage.gp2", new String[]{"clusterA", "compute"}, 200.0, 0),
+        		new TagGroupSpec("Recurring", a1, "us-east-1", cloudWatch, "MetricStorage:AWS/EC2", "CW:MetricMonitorUsage", new String[]{"clusterA", "compute"}, 400.0, 0),
+        };
+        int numHours = 4;
+		CostAndUsageData data = new CostAndUsageData(null, new DateTime("2020-08-01T00:00:00Z", DateTimeZone.UTC).getMillis(), null, rs.getUserTagKeys(), null, as, ps);
+		for (int hour = 0; hour < numHours; hour++)
+			loadData(dataSpecs, data, hour, rs.getUserTagKeys().size());
+		Rule rule = new Rule(getConfig(allocationYaml), as, ps, rs.getCustomTags());
+
+		List<String> userTagKeys = Lists.newArrayList(new String[]{"Key1","Key2"});
+		AllocationReport ar = new AllocationReport(a1, rule.config.getAllocation(), 0, rule.config.isReport(), userTagKeys, rs);
+		String reportData = "" +
+				"StartDate,EndDate,Allocation,Key1,Key2\n" +
+				"2020-08-01T00:00:00Z,2020-08-01T04:00:00Z,0.25,clusterA,twenty-five\n" +
+				"2020-08-01T00:00:00Z,2020-08-01T04:00:00Z,0.70,clusterA,seventy\n" +
+				"";
+		ar.readCsv(new DateTime("2020-08-01T00:00:00Z", DateTimeZone.UTC), new StringReader(reportData));
+
+		// Each hour is queried, copied, and allocated by its own task
+		CostAndUsageData outData = new CostAndUsageData(data, null, rs.getUserTagKeys());
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			new TestVariableRuleProcessor(rule, outData, ar, rs, pool).process(data);
+		}
+		finally {
+			pool.shutdown();
+		}
+
+    	Account a = as.getAccountById(a1);
+        TagGroup[] expectedTg = new TagGroup[]{
+        		TagGroup.getTagGroup(CostType.recurring, a, null, null, null, null, null, ResourceGroup.getResourceGroup(new String[]{"clusterA", "compute"})),
+        		TagGroup.getTagGroup(CostType.recurring, a, null, null, null, null, null, ResourceGroup.getResourceGroup(new String[]{"clusterA", "twenty-five"})),
+        		TagGroup.getTagGroup(CostType.recurring, a, null, null, null, null, null, ResourceGroup.getResourceGroup(new String[]{"clusterA", "seventy"})),
+         };
+        Double[] expectedValues = new Double[]{ 5.0 + 10.0 + 20.0, 25.0 + 50.0 + 100.0, 70.0 + 140.0 + 280.0 };
+
+        assertEquals("wrong number of hours", numHours, outData.get(null).getNum());
+        for (int hour = 0; hour < numHours; hour++) {
+        	Map<TagGroup, CostAndUsage> costData = outData.get(null).getData(hour);
+	        assertEquals("wrong number of output records in hour " + hour, expectedTg.length, costData.size());
+	        for (int i = 0; i < expectedTg.length; i++)
+	        	assertEquals("wrong data for spec " + expectedTg[i] + " in hour " + hour, expectedValues[i], costData.get(expectedTg[i]).cost, 0.001);
+        }
+	}
+
 	@Test
 	public void testMonthlyReportWithAllocationReportAndEmptyInKeys() throws Exception {
 		BasicResourceService rs = new BasicResourceService(ps, new String[]{"Key1","Key2"}, false);
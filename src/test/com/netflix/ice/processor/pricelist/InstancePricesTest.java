@@ -19,10 +19,15 @@ package com.netflix.ice.processor.pricelist;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 
 import org.junit.Test;
 
@@ -77,8 +82,7 @@ public class InstancePricesTest {
 		}
 	}
 	
-	@Test
-	public void test() throws IOException {
+	private InstancePrices loadTestPrices() throws IOException {
 		File versionIndexFile = new File(resourceDir + "VersionIndex.json");
 		InputStream stream = new FileInputStream(versionIndexFile);
         VersionIndex index = new VersionIndex(stream);
@@ -94,8 +98,10 @@ public class InstancePricesTest {
 
        	InstancePrices prices = new InstancePrices(ServiceCode.AmazonEC2, id, version.getBeginDate(), version.getEndDate());
        	prices.importPriceList(priceList, PriceListService.tenancies);
-       	
-       	TestCase[] testCases = new TestCase[] {
+       	return prices;
+	}
+	
+	private TestCase[] testCases = new TestCase[] {
        			new TestCase(Region.US_EAST_1, "t2.small", LeaseContractLength.oneyear, PurchaseOption.AllUpfront, OfferingClass.standard, 0.023, 137.0, 0.0),
        			new TestCase(Region.US_EAST_1, "t2.small", LeaseContractLength.threeyear, PurchaseOption.AllUpfront, OfferingClass.standard, 0.023, 272.0, 0.0),
        			new TestCase(Region.US_EAST_1, "t2.small", LeaseContractLength.threeyear, PurchaseOption.AllUpfront, OfferingClass.convertible, 0.023, 332.0, 0.0),
@@ -104,12 +110,131 @@ public class InstancePricesTest {
        			new TestCase(Region.US_EAST_1, "c5.xlarge.dedicated", LeaseContractLength.oneyear, PurchaseOption.NoUpfront, OfferingClass.convertible, 0.180, 0.0, 0.133),
        			new TestCase(Region.US_EAST_1, "c5.xlarge.windows.dedicated", LeaseContractLength.oneyear, PurchaseOption.NoUpfront, OfferingClass.convertible, 0.364, 0.0, 0.317),
        	};
-       	
+	
+	@Test
+	public void test() throws IOException {
+		InstancePrices prices = loadTestPrices();
        	for (TestCase tc: testCases) {
        		tc.runOnDemand(prices);
        		tc.runReservation(prices);
        	}
-       	
+	}
+	
+	@Test
+	public void testIndex() throws IOException {
+		InstancePrices prices = loadTestPrices();
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		InstancePrices.IndexSerializer.serialize(new DataOutputStream(buf), prices);
+		InstancePrices ip = InstancePrices.IndexSerializer.deserialize(new DataInputStream(new ByteArrayInputStream(buf.toByteArray())));
+		
+		assertEquals("wrong version", prices.getVersionId(), ip.getVersionId());
+		assertEquals("wrong begin date", prices.getEffectiveBeginDate(), ip.getEffectiveBeginDate());
+		assertFalse("region should not be decoded until requested", ip.isDecoded(Region.US_EAST_1));
+		assertFalse("region should not be decoded until requested", ip.isDecoded(Region.AP_SOUTHEAST_1));
+		
+		new TestCase(Region.US_EAST_1, "t2.small", LeaseContractLength.oneyear, PurchaseOption.AllUpfront, OfferingClass.standard, 0.023, 137.0, 0.0).runReservation(ip);
+		assertTrue("requested region should be decoded", ip.isDecoded(Region.US_EAST_1));
+		assertFalse("other regions should not be decoded", ip.isDecoded(Region.AP_SOUTHEAST_1));
+		
+       	for (TestCase tc: testCases) {
+       		tc.runOnDemand(ip);
+       		tc.runReservation(ip);
+       	}
+       	assertEquals("wrong number of products", prices.getPrices().size(), ip.getPrices().size());
+       	for (InstancePrices.Key key: prices.getPrices().keySet()) {
+       		InstancePrices.Product expected = prices.getProduct(key);
+       		InstancePrices.Product actual = ip.getProduct(key);
+       		assertNotNull("missing product " + key, actual);
+       		assertEquals("wrong instance type for " + key, expected.instanceType, actual.instanceType);
+       		assertEquals("wrong normalization size factor for " + key, expected.normalizationSizeFactor, actual.normalizationSizeFactor, 0.001);
+       		assertEquals("wrong on-demand rate for " + key, expected.getOnDemandRate(), actual.getOnDemandRate(), 0.0001);
+       	}
+	}
+	
+	@Test
+	public void testProductIds() throws IOException {
+		InstancePrices prices = loadTestPrices();
+		UsageType t2small = UsageType.getUsageType("t2.small", "hours");
+		
+		// One-off lookups read the product without assigning ids
+		UsageType c5xlarge = UsageType.getUsageType("c5.xlarge", "hours");
+		assertEquals("wrong one-off on-demand rate", prices.getProduct(Region.US_EAST_1, c5xlarge).getOnDemandRate(), prices.getOnDemandRate(Region.US_EAST_1, c5xlarge), 0.0001);
+		prices.getReservationRate(Region.US_EAST_1, c5xlarge, LeaseContractLength.oneyear, PurchaseOption.NoUpfront, OfferingClass.standard);
+		
+		int id = prices.getProductId(Region.US_EAST_1, t2small);
+		assertEquals("first product should get the first id", 0, id);
+		assertEquals("repeated lookup should return the same id", id, prices.getProductId(Region.US_EAST_1, t2small));
+		assertEquals("next product should get the next id", 1, prices.getProductId(Region.US_EAST_1, c5xlarge));
+		
+		InstancePrices.Product product = prices.getProduct(Region.US_EAST_1, t2small);
+		assertEquals("wrong on-demand rate", product.getOnDemandRate(), prices.getOnDemandRate(id), 0.0001);
+		for (LeaseContractLength lcl: LeaseContractLength.values()) {
+			for (PurchaseOption po: PurchaseOption.values()) {
+				for (OfferingClass oc: OfferingClass.values()) {
+					Rate expected = product.getReservationRate(new InstancePrices.RateKey(lcl, po, oc));
+					Rate actual = prices.getReservationRate(id, InstancePrices.getRateKeyId(lcl, po, oc));
+					assertEquals("wrong rate presence for " + lcl + ", " + po + ", " + oc, expected == null, actual == null);
+					if (expected == null)
+						continue;
+					assertEquals("wrong fixed rate for " + lcl + ", " + po + ", " + oc, expected.fixed, actual.fixed, 0.0001);
+					assertEquals("wrong hourly rate for " + lcl + ", " + po + ", " + oc, expected.hourly, actual.hourly, 0.0001);
+				}
+			}
+		}
+		
+		// Unknown product
+		int unknown = prices.getProductId(Region.US_EAST_1, UsageType.getUsageType("x9.unknown", "hours"));
+		assertEquals("unknown product should not have an id", -1, unknown);
+		assertEquals("unknown product should have no on-demand rate", 0.0, prices.getOnDemandRate(unknown), 0.0001);
+		assertNull("unknown product should have no reservation rate", prices.getReservationRate(unknown, InstancePrices.getRateKeyId(LeaseContractLength.oneyear, PurchaseOption.NoUpfront, OfferingClass.standard)));
+		
+		// Ids should be assigned for enough products to grow the rate tables
+		int count = 0;
+		for (InstancePrices.Key key: prices.getPrices().keySet()) {
+			int i = prices.getProductId(key.region, key.usageType);
+			assertEquals("wrong on-demand rate for " + key, prices.getProduct(key).getOnDemandRate(), prices.getOnDemandRate(i), 0.0001);
+			count++;
+		}
+		assertEquals("wrong on-demand rate after growing tables", product.getOnDemandRate(), prices.getOnDemandRate(id), 0.0001);
+		assertTrue("test data should have products", count > 0);
+	}
+	
+	private static final String csvHeader = 
+			"\"FormatVersion\",\"v1.0\"\n" +
+			"\"Disclaimer\",\"Test data\"\n" +
+			"\"Publication Date\",\"2020-01-01T00:00:00Z\"\n" +
+			"\"Version\",\"20200101000000\"\n" +
+			"\"OfferCode\",\"AmazonEC2\"\n" +
+			"\"SKU\",\"OfferTermCode\",\"RateCode\",\"TermType\",\"PriceDescription\",\"Unit\",\"PricePerUnit\",\"Currency\",\"LeaseContractLength\",\"PurchaseOption\",\"OfferingClass\"," +
+			"\"Product Family\",\"Location\",\"Instance Type\",\"vCPU\",\"Memory\",\"ECU\",\"Normalization Size Factor\",\"Tenancy\",\"Operating System\",\"usageType\",\"operation\",\"CapacityStatus\",\"Pre Installed S/W\"\n";
+	
+	private String csvRow(String sku, String termType, String description, String unit, String price, String currency, String lcl, String po, String oc, String family, String location, String instanceType, String usageType) {
+		return "\"" + sku + "\",\"T\",\"R\",\"" + termType + "\",\"" + description + "\",\"" + unit + "\",\"" + price + "\",\"" + currency + "\",\"" + lcl + "\",\"" + po + "\",\"" + oc + "\"," +
+				"\"" + family + "\",\"" + location + "\",\"" + instanceType + "\",\"2\",\"4 GiB\",\"Variable\",\"1\",\"Shared\",\"Linux\",\"" + usageType + "\",\"RunInstances\",\"Used\",\"NA\"\n";
+	}
+	
+	@Test
+	public void testImportCsv() throws Exception {
+		StringBuilder csv = new StringBuilder(csvHeader);
+		csv.append(csvRow("SKU1", "OnDemand", "On demand\nprice", "Hrs", "0.023", "USD", "", "", "", "Compute Instance", "US East (N. Virginia)", "t2.small", "BoxUsage:t2.small"));
+		csv.append(csvRow("SKU1", "OnDemand", "On demand price", "Hrs", "0.15", "CNY", "", "", "", "Compute Instance", "US East (N. Virginia)", "t2.small", "BoxUsage:t2.small"));
+		// Enough other rows to span several parse batches
+		for (int i = 0; i < 25000; i++)
+			csv.append(csvRow("SKU-S" + i, "OnDemand", "Storage", "GB-Mo", "0.1", "USD", "", "", "", "Storage", "US East (N. Virginia)", "", "EBS:VolumeUsage"));
+		csv.append(csvRow("SKU1", "Reserved", "Upfront \"\"fee\"\"", "Quantity", "137", "USD", "1yr", "All Upfront", "standard", "Compute Instance", "US East (N. Virginia)", "t2.small", "BoxUsage:t2.small"));
+		csv.append(csvRow("SKU1", "Reserved", "Hourly", "Hrs", "0.0", "USD", "1yr", "All Upfront", "standard", "Compute Instance", "US East (N. Virginia)", "t2.small", "BoxUsage:t2.small"));
+		csv.append(csvRow("SKU2", "OnDemand", "On demand", "Hrs", "0.107", "USD", "", "", "", "Compute Instance", "EU (Ireland)", "m5.large", "EU-BoxUsage:m5.large"));
+		csv.append(csvRow("SKU3", "OnDemand", "Conflicting SKU", "Hrs", "0.5", "USD", "", "", "", "Compute Instance", "EU (Ireland)", "m5.large", "EU-BoxUsage:m5.large"));
+		
+		PriceListService pls = new PriceListService(null, null, null);
+		InstancePrices prices = new InstancePrices(ServiceCode.AmazonEC2, "20200101000000", null, null);
+		assertTrue("import failed", pls.importPriceList(new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8)), prices));
+		
+		assertEquals("wrong number of products", 2, prices.getPrices().size());
+		new TestCase(Region.US_EAST_1, "t2.small", LeaseContractLength.oneyear, PurchaseOption.AllUpfront, OfferingClass.standard, 0.023, 137.0, 0.0).runReservation(prices);
+		assertEquals("wrong on-demand rate", 0.023, prices.getOnDemandRate(Region.US_EAST_1, UsageType.getUsageType("t2.small", "hours")), 0.0001);
+		assertEquals("first SKU in file order should be kept", 0.107, prices.getOnDemandRate(Region.EU_WEST_1, UsageType.getUsageType("m5.large", "hours")), 0.0001);
+		assertTrue("conflicting SKU should be flagged", prices.hasErrors());
 	}
 
 }
@@ -0,0 +1,89 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.reader;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.netflix.ice.common.ChangeManifest;
+import com.netflix.ice.common.WorkBucketConfig;
+
+public class ChangeManifestWatcherTest {
+	private static final String tmpDir = "src/test/tmp/changeManifest/";
+	private static final DateTime jan = DateTime.parse("2020-01-01T00:00:00Z");
+
+	private List<List<ChangeManifest.Change>> notifications = Lists.newArrayList();
+
+	private void publish(ChangeManifest manifest, String product) throws Exception {
+		manifest.add(jan, Lists.newArrayList(product), Lists.newArrayList(ChangeManifest.FileType.daily), DateTime.now());
+		manifest.save(new File(tmpDir, ChangeManifest.filename));
+	}
+
+	@Test
+	public void testCheck() throws Exception {
+		File file = new File(tmpDir, ChangeManifest.filename);
+		file.getParentFile().mkdirs();
+		file.delete();
+
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		ChangeManifestWatcher watcher = new ChangeManifestWatcher(new WorkBucketConfig(null, null, null, tmpDir), scheduler, new ChangeManifestWatcher.Listener() {
+			@Override
+			public void changed(List<ChangeManifest.Change> changes) {
+				notifications.add(changes);
+			}
+		});
+
+		assertFalse("manifest should not exist yet", watcher.check());
+		assertFalse("should not be active without a manifest", watcher.isActive());
+
+		// First manifest read sets the starting version
+		ChangeManifest manifest = new ChangeManifest();
+		publish(manifest, "all");
+		assertTrue("manifest should exist", watcher.check());
+		assertTrue("should be active", watcher.isActive());
+		assertEquals("first read should not notify", 0, notifications.size());
+
+		publish(manifest, "AmazonEC2");
+		publish(manifest, "AmazonS3");
+		watcher.check();
+		assertEquals("wrong number of notifications", 1, notifications.size());
+		assertEquals("wrong number of changes", 2, notifications.get(0).size());
+		assertEquals("wrong product", "AmazonS3", notifications.get(0).get(1).products.get(0));
+
+		watcher.check();
+		assertEquals("unchanged manifest should not notify", 1, notifications.size());
+
+		// Reset manifest needs a full reload
+		manifest = new ChangeManifest();
+		publish(manifest, "all");
+		watcher.check();
+		assertEquals("wrong number of notifications", 2, notifications.size());
+		assertNull("reset manifest should ask for a full reload", notifications.get(1));
+		assertEquals("wrong version", 1, watcher.getVersion());
+
+		scheduler.shutdownNow();
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.reader;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.netflix.ice.tag.Tag;
+import com.netflix.ice.tag.UserTag;
+
+public class ColumnarDataWriterTest {
+	private static final long hour = 3600000L;
+
+	private Map<Tag, double[]> data() {
+		Map<Tag, double[]> data = Maps.newTreeMap();
+		data.put(Tag.aggregated, new double[]{ 3.5, 1.25, -2.0 });
+		data.put(UserTag.get("web"), new double[]{ 1.0, 0.123456, -2.0 });
+		data.put(UserTag.get("db"), new double[]{ 2.5, 1.126544, 0.0 });
+		return data;
+	}
+
+	private String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private long readVarLong(DataInputStream in) throws IOException {
+		long zz = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = in.readUnsignedByte();
+			zz |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return (zz >>> 1) ^ -(zz & 1);
+	}
+
+	private double[] readValues(DataInputStream in, int numPoints, int digits) throws IOException {
+		double[] values = new double[numPoints];
+		for (int i = 0; i < numPoints; i++)
+			values[i] = digits < 0 ? in.readDouble() : readVarLong(in) / Math.pow(10, digits);
+		return values;
+	}
+
+	@Test
+	public void testFloat64() throws IOException {
+		Map<Tag, double[]> data = data();
+		double[] sps = new double[]{ 10, 20, 30 };
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new ColumnarDataWriter(-1).write(out, "{\"status\":200,\"groupBy\":\"Tag\"}", 1000L, hour, null, data, sps);
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals("wrong magic", ColumnarDataWriter.magic, in.readInt());
+		assertEquals("wrong version", ColumnarDataWriter.version, in.readByte());
+		assertEquals("wrong header", "{\"status\":200,\"groupBy\":\"Tag\"}", readString(in));
+		assertEquals("wrong start", 1000L, in.readLong());
+		assertEquals("wrong interval", hour, in.readLong());
+		int numPoints = in.readInt();
+		assertEquals("wrong number of points", 3, numPoints);
+		assertEquals("should have no time axis", 0, in.readInt());
+		assertEquals("wrong digits", -1, in.readByte());
+		assertEquals("wrong number of series", 3, in.readInt());
+		for (Map.Entry<Tag, double[]> entry: data.entrySet()) {
+			assertEquals("wrong name", entry.getKey().name, readString(in));
+			assertArrayEquals("wrong values for " + entry.getKey(), entry.getValue(), readValues(in, numPoints, -1), 0.0);
+		}
+		assertEquals("should have sps", 1, in.readByte());
+		assertArrayEquals("wrong sps", sps, readValues(in, numPoints, -1), 0.0);
+		assertEquals("unexpected trailing bytes", -1, in.read());
+	}
+
+	@Test
+	public void testScaled() throws IOException {
+		Map<Tag, double[]> data = data();
+		List<Long> times = Lists.newArrayList(0L, 31 * 24 * hour, 59 * 24 * hour);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new ColumnarDataWriter(2).write(out, null, 0L, hour, times, data, null);
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+		in.readInt();
+		in.readByte();
+		assertEquals("wrong header", "{}", readString(in));
+		assertEquals("wrong start", 0L, in.readLong());
+		assertEquals("interval should be zero with a time axis", 0L, in.readLong());
+		int numPoints = in.readInt();
+		assertEquals("wrong number of times", 3, in.readInt());
+		for (Long time: times)
+			assertEquals("wrong time", time.longValue(), in.readLong());
+		assertEquals("wrong digits", 2, in.readByte());
+		assertEquals("wrong number of series", 3, in.readInt());
+		for (Map.Entry<Tag, double[]> entry: data.entrySet()) {
+			assertEquals("wrong name", entry.getKey().name, readString(in));
+			assertArrayEquals("wrong values for " + entry.getKey(), entry.getValue(), readValues(in, numPoints, 2), 0.005);
+		}
+		assertEquals("should not have sps", 0, in.readByte());
+		assertEquals("unexpected trailing bytes", -1, in.read());
+
+		// Scaled values should be much smaller than float64
+		ByteArrayOutputStream doubles = new ByteArrayOutputStream();
+		new ColumnarDataWriter(-1).write(doubles, null, 0L, hour, times, data, null);
+		assertTrue("scaled form should be smaller", out.size() < doubles.size() - 3 * 3 * 6);
+	}
+
+	@Test
+	public void testMonthlyTimes() {
+		long start = new DateTime(2023, 12, 1, 0, 0, DateTimeZone.UTC).getMillis();
+		List<Long> times = ColumnarDataWriter.monthlyTimes(start, ColumnarDataWriter.getNumPoints(data()));
+		assertEquals("wrong number of times", 3, times.size());
+		assertEquals("wrong first month", start, times.get(0).longValue());
+		assertEquals("wrong second month", new DateTime(2024, 1, 1, 0, 0, DateTimeZone.UTC).getMillis(), times.get(1).longValue());
+		assertEquals("wrong third month", new DateTime(2024, 2, 1, 0, 0, DateTimeZone.UTC).getMillis(), times.get(2).longValue());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooManyDigits() {
+		new ColumnarDataWriter(ColumnarDataWriter.maxDigits + 1);
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.reader;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.netflix.ice.common.ConsolidateType;
+
+public class DownsamplerTest {
+
+	@Test
+	public void testBucketSize() {
+		assertEquals("no limit", 1, Downsampler.getBucketSize(8784, 0));
+		assertEquals("under the limit", 1, Downsampler.getBucketSize(100, 100));
+		assertEquals("wrong bucket size", 9, Downsampler.getBucketSize(8784, 1000));
+
+		// A year of hourly data grouped into half days, a year of daily data grouped into weeks
+		assertEquals("wrong hourly bucket size", 12, Downsampler.getBucketSize(ConsolidateType.hourly, 8784, 1000));
+		assertEquals("wrong hourly bucket size", 48, Downsampler.getBucketSize(ConsolidateType.hourly, 8784, 200));
+		assertEquals("wrong daily bucket size", 7, Downsampler.getBucketSize(ConsolidateType.daily, 366, 60));
+		assertEquals("wrong daily bucket size", 14, Downsampler.getBucketSize(ConsolidateType.daily, 366, 30));
+		assertEquals("wrong daily bucket size", 3, Downsampler.getBucketSize(ConsolidateType.daily, 366, 150));
+		assertEquals("wrong weekly bucket size", 3, Downsampler.getBucketSize(ConsolidateType.weekly, 156, 60));
+	}
+
+	@Test
+	public void testDownsample() {
+		double[] values = new double[]{ 1, 2, 3, 4, 5, 6, 7 };
+		int bucketSize = Downsampler.getBucketSize(values.length, 3);
+		assertEquals("wrong bucket size", 3, bucketSize);
+
+		double[] result = Downsampler.downsample(values, bucketSize);
+		assertArrayEquals("wrong values", new double[]{ 2, 5, 7 }, result, 0.000001);
+
+		// Bucket values times their periods add back up to the original total
+		int last = Downsampler.getLastBucketSize(values.length, bucketSize);
+		assertEquals("wrong last bucket size", 1, last);
+		double total = 0;
+		for (int i = 0; i < result.length; i++)
+			total += result[i] * (i == result.length - 1 ? last : bucketSize);
+		assertEquals("wrong total", 28, total, 0.000001);
+
+		assertSame("bucket size of one should return the original", values, Downsampler.downsample(values, 1));
+	}
+
+	@Test
+	public void testDownsampleMap() {
+		Map<String, double[]> data = Maps.newTreeMap();
+		data.put("b", new double[]{ 1, 1, 2, 2 });
+		data.put("a", new double[]{ 4, 0, 0, 0 });
+
+		Map<String, double[]> result = Downsampler.downsample(data, 2);
+		assertEquals("order not preserved", Lists.newArrayList("a", "b"), Lists.newArrayList(result.keySet()));
+		assertArrayEquals("wrong values for a", new double[]{ 2, 0 }, result.get("a"), 0.000001);
+		assertArrayEquals("wrong values for b", new double[]{ 1, 2 }, result.get("b"), 0.000001);
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.reader;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.netflix.ice.basic.SingleFlight;
+
+public class QueryContextTest {
+
+	@After
+	public void tearDown() {
+		QueryContext.end();
+	}
+
+	@Test
+	public void testDeadline() throws InterruptedException {
+		QueryContext context = new QueryContext("user", 50).begin();
+		QueryContext.checkCurrent();
+		assertFalse(context.isCancelled());
+		Thread.sleep(100);
+		assertTrue("should be past the deadline", context.isCancelled());
+		try {
+			QueryContext.checkCurrent();
+			fail("should throw once past the deadline");
+		}
+		catch (QueryContext.CancelledException e) {
+		}
+
+		// No deadline
+		context = new QueryContext(null, 0);
+		assertEquals(Long.MAX_VALUE, context.remainingMillis());
+		assertEquals("", context.getUser());
+		context.check();
+	}
+
+	@Test
+	public void testCancel() {
+		QueryContext context = new QueryContext("user", 0);
+		context.check();
+		context.cancel("client went away");
+		assertTrue(context.isCancelled());
+		try {
+			context.check();
+			fail("should throw once cancelled");
+		}
+		catch (QueryContext.CancelledException e) {
+			assertTrue("message should hold the reason", e.getMessage().contains("client went away"));
+		}
+	}
+
+	@Test
+	public void testWrapAndAwait() throws Exception {
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		try {
+			final QueryContext context = new QueryContext("user", 0).begin();
+			Future<QueryContext> f = pool.submit(QueryContext.wrapCurrent(new Callable<QueryContext>() {
+				@Override
+				public QueryContext call() throws Exception {
+					return QueryContext.current();
+				}
+			}));
+			assertSame("task should run with the caller's context", context, QueryContext.await(f, 0));
+			assertNull("context should be cleared after the task", pool.submit(new Callable<QueryContext>() {
+				@Override
+				public QueryContext call() throws Exception {
+					return QueryContext.current();
+				}
+			}).get());
+
+			// Waiting gives up soon after the request is cancelled from another thread
+			final CountDownLatch never = new CountDownLatch(1);
+			Future<Boolean> blocked = pool.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					return never.await(10, TimeUnit.SECONDS);
+				}
+			});
+			try {
+				QueryContext.await(blocked, 100);
+				fail("should time out");
+			}
+			catch (TimeoutException e) {
+			}
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(50);
+					}
+					catch (InterruptedException e) {
+					}
+					context.cancel("test");
+				}
+			}.start();
+			long start = System.currentTimeMillis();
+			try {
+				QueryContext.await(blocked, 0);
+				fail("should be cancelled");
+			}
+			catch (QueryContext.CancelledException e) {
+			}
+			assertTrue("cancel took too long to notice", System.currentTimeMillis() - start < 2000);
+			never.countDown();
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testSingleFlightRetriesAfterCancelledLeader() throws Exception {
+		final SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+		final AtomicInteger calls = new AtomicInteger();
+		final CountDownLatch leaderStarted = new CountDownLatch(1);
+		final Callable<String> computation = new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				if (calls.incrementAndGet() > 1)
+					return "done";
+				// The first computation runs until its request is cancelled
+				leaderStarted.countDown();
+				while (true) {
+					QueryContext.checkCurrent();
+					Thread.sleep(10);
+				}
+			}
+		};
+
+		final QueryContext leaderContext = new QueryContext("leader", 0);
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			Future<String> leader = pool.submit(leaderContext.wrap(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					return singleFlight.execute("query", computation, 10000);
+				}
+			}));
+			leaderStarted.await();
+			Future<String> waiter = pool.submit(new QueryContext("waiter", 0).wrap(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					return singleFlight.execute("query", computation, 10000);
+				}
+			}));
+			while (singleFlight.getCoalesced() == 0)
+				Thread.sleep(10);
+
+			leaderContext.cancel("test");
+			try {
+				leader.get();
+				fail("leader should be cancelled");
+			}
+			catch (ExecutionException e) {
+				// SingleFlight's ExecutionException wrapped again by the pool
+				assertTrue("leader should fail with its cancellation", e.getCause().getCause() instanceof QueryContext.CancelledException);
+			}
+			assertEquals("waiter should start its own computation", "done", waiter.get());
+			assertEquals("wrong number of computations", 2, singleFlight.getComputations());
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+}
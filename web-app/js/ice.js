@@ -292,6 +292,18 @@ ice.factory('highchart', function () {
 
 ice.factory('usage_db', function ($window, $http, /*$filter*/) {
 
+  // getData requests still running, cancelled on the server if the page is left before they finish
+  var pendingQueries = {};
+  var nextQueryId = 0;
+  var pageId = "" + new Date().getTime() + Math.random();
+
+  jQuery($window).on("pagehide", function () {
+    for (var queryId in pendingQueries) {
+      if (pendingQueries.hasOwnProperty(queryId) && navigator.sendBeacon)
+        navigator.sendBeacon("cancelQuery", JSON.stringify({queryId: queryId}));
+    }
+  });
+
   var retrieveNamesIfNotAll = function (array, selected, preselected, filter, organizationalUnit) {
     if (!selected && !preselected)
       return;
@@ -914,15 +926,24 @@ ice.factory('usage_db', function ($window, $http, /*$filter*/) {
       }
 
       if (!download) {
+        // Let the server average long series down to about what the chart can show,
+        // e.g. a year of hourly data (8784 hours) is averaged into 6 hour buckets, 1464 points
+        if (params.maxPoints === undefined)
+          params.maxPoints = 1500;
+        var queryId = pageId + "-" + (nextQueryId++);
+        params.queryId = queryId;
+        pendingQueries[queryId] = true;
         $http({
           method: "POST",
           url: "getData",
           data: params
         }).success(function (result) {
+          delete pendingQueries[queryId];
           if (result.status === 200 && result.data && fn) {
             fn(result);
           }
         }).error(function (result, status) {
+          delete pendingQueries[queryId];
           if (status === 401)
             $window.location.reload();
           else if (errfn)